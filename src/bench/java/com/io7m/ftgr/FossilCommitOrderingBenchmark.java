@@ -0,0 +1,143 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ordering of synthetic commit graphs of various sizes and widths. The
+ * {@code sortBoxed} benchmark measures the previous approach of sorting
+ * every commit by time with a comparator, for comparison.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class FossilCommitOrderingBenchmark
+{
+  @Param({"10000", "100000", "1000000"}) private int commits;
+  @Param({"1", "16", "256"}) private int             width;
+
+  private long[] times;
+  private int[]  offsets;
+  private int[]  children;
+
+  /**
+   * Generate a graph with {@code width} concurrently active branches. Each
+   * commit extends a randomly chosen branch, one in twenty commits also
+   * merges another branch, and commit times are skewed by up to five
+   * seconds in either direction.
+   */
+
+  @Setup(Level.Trial) public void setup()
+  {
+    final Random random = new Random(0x46544752L);
+    final int[] heads = new int[this.width];
+    final int[] first = new int[this.commits];
+    final int[] second = new int[this.commits];
+
+    this.times = new long[this.commits];
+    this.offsets = new int[this.commits + 1];
+
+    first[0] = -1;
+    second[0] = -1;
+    for (int index = 1; index < this.commits; ++index) {
+      final int lane = random.nextInt(this.width);
+      first[index] = heads[lane];
+      second[index] = -1;
+      if (this.width > 1 && random.nextInt(20) == 0) {
+        final int other = heads[(lane + 1) % this.width];
+        if (other != first[index]) {
+          second[index] = other;
+        }
+      }
+      heads[lane] = index;
+      this.times[index] =
+        (long) index * 1000L + (long) (random.nextInt(10000) - 5000);
+    }
+
+    for (int index = 1; index < this.commits; ++index) {
+      this.offsets[first[index] + 1] = this.offsets[first[index] + 1] + 1;
+      if (second[index] >= 0) {
+        this.offsets[second[index] + 1] = this.offsets[second[index] + 1] + 1;
+      }
+    }
+    for (int index = 0; index < this.commits; ++index) {
+      this.offsets[index + 1] = this.offsets[index + 1] + this.offsets[index];
+    }
+
+    this.children = new int[this.offsets[this.commits]];
+    final int[] fill = new int[this.commits];
+    for (int index = 1; index < this.commits; ++index) {
+      final int p0 = first[index];
+      this.children[this.offsets[p0] + fill[p0]] = index;
+      fill[p0] = fill[p0] + 1;
+      final int p1 = second[index];
+      if (p1 >= 0) {
+        this.children[this.offsets[p1] + fill[p1]] = index;
+        fill[p1] = fill[p1] + 1;
+      }
+    }
+  }
+
+  @Benchmark public int[] order()
+    throws FossilGraphException
+  {
+    return FossilCommitOrdering.order(this.times, this.offsets, this.children);
+  }
+
+  @Benchmark public List<Long> sortBoxed()
+  {
+    final List<Long> dated = new ArrayList<>(128);
+    for (int index = 0; index < this.commits; ++index) {
+      dated.add(Long.valueOf(this.times[index]));
+    }
+
+    Collections.sort(
+      dated, new Comparator<Long>()
+      {
+        @Override public int compare(
+          final Long o1,
+          final Long o2)
+        {
+          return o1.compareTo(o2);
+        }
+      });
+    return dated;
+  }
+}
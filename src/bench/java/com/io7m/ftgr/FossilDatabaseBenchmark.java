@@ -0,0 +1,228 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading of the history and artifacts of synthetic repositories of various
+ * sizes, produced by {@link FossilGenerator}, and planning of their replay.
+ * The manifests are unsigned, because signing a million manifests would
+ * dominate the time taken to set up each trial; the planning benchmarks
+ * instead assign the same signing key to every commit. Planning does not
+ * execute any operations, so the executables and repositories given to the
+ * planner need not exist.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FossilDatabaseBenchmark
+{
+  @Param({"10000", "100000", "1000000"}) private int commits;
+
+  private File                        directory;
+  private File                        file;
+  private FossilDatabaseType          database;
+  private List<FossilCommitName>      names;
+  private int                         index;
+  private FossilModelType             model;
+  private ReplayPlannerType           planner;
+  private FossilCommitMapReceiverType commit_log;
+
+  @Setup(Level.Trial) public void setup()
+    throws Exception
+  {
+    this.directory = Files.createTempDirectory("ftgr-database-").toFile();
+    this.file = new File(this.directory, "repository.fossil");
+
+    final Properties p = new Properties();
+    p.setProperty("com.io7m.ftgr.generator.output", this.file.toString());
+    p.setProperty(
+      "com.io7m.ftgr.generator.commits", Integer.toString(this.commits));
+    p.setProperty("com.io7m.ftgr.generator.branches", "16");
+    p.setProperty("com.io7m.ftgr.generator.files", "64");
+    p.setProperty("com.io7m.ftgr.generator.file_size_median", "1024");
+    p.setProperty("com.io7m.ftgr.generator.signed_ratio", "0.0");
+    FossilGenerator.generate(FossilGeneratorConfiguration.fromProperties(p));
+
+    this.database = FossilDatabase.openDatabase(
+      this.file, new File("fossil"), 1024);
+    this.names = new ArrayList<>(this.commits);
+    try (final FossilDatabaseTransactionType t =
+           this.database.newTransaction()) {
+      t.readHistory(
+        FossilCommitMetadata.newStore(), new FossilDatabaseReceiverType()
+        {
+          @Override public void onCommit(final FossilCommit c)
+          {
+            FossilDatabaseBenchmark.this.names.add(c.getCommitBlob());
+          }
+
+          @Override public void onParentLink(final FossilParentLink p)
+          {
+            // Unused
+          }
+        });
+    }
+    this.index = 0;
+
+    this.model = this.model();
+    this.planner = ReplayPlanner.newPlanner(
+      GPGExecutable.newExecutable(new File("gpg")),
+      FossilExecutable.newExecutable(new File("fossil")),
+      GitExecutable.newExecutable(new File("git"), new File("faketime")),
+      GitRepositorySpecification.newBuilder(
+        new File(this.directory, "git")).build(),
+      FossilRepositorySpecification.newBuilder(this.file).build());
+    this.commit_log = new FossilCommitMapReceiverType()
+    {
+      @Override public void onMapping(
+        final GitCommitName git_commit,
+        final FossilCommitName fossil_commit)
+      {
+        // Unused
+      }
+    };
+  }
+
+  @TearDown(Level.Trial) public void tearDown()
+    throws IOException
+  {
+    Files.deleteIfExists(this.file.toPath());
+    Files.deleteIfExists(this.directory.toPath());
+  }
+
+  @Benchmark public int readHistory()
+    throws Exception
+  {
+    final int[] counts = new int[2];
+    try (final FossilDatabaseTransactionType t =
+           this.database.newTransaction()) {
+      t.readHistory(
+        FossilCommitMetadata.newStore(), new FossilDatabaseReceiverType()
+        {
+          @Override public void onCommit(final FossilCommit c)
+          {
+            counts[0] = counts[0] + 1;
+          }
+
+          @Override public void onParentLink(final FossilParentLink p)
+          {
+            counts[1] = counts[1] + 1;
+          }
+        });
+    }
+    return counts[0] + counts[1];
+  }
+
+  /**
+   * Read the history and build the model of the repository, in the manner
+   * of {@link FTGRMain}.
+   */
+
+  @Benchmark public FossilModelType model()
+    throws Exception
+  {
+    final BigInteger key = BigInteger.valueOf(0x46544752L);
+    final FossilModelBuilderType builder = FossilModel.newBuilder();
+    try (final FossilDatabaseTransactionType t =
+           this.database.newTransaction()) {
+      t.readHistory(
+        FossilCommitMetadata.newStore(), new FossilDatabaseReceiverType()
+        {
+          @Override public void onCommit(final FossilCommit c)
+            throws FossilException
+          {
+            builder.addCommit(c);
+            builder.setSigningKey(c.getId(), key);
+          }
+
+          @Override public void onParentLink(final FossilParentLink p)
+            throws FossilException
+          {
+            builder.addParentLink(p);
+          }
+        });
+    }
+    return builder.build();
+  }
+
+  /**
+   * Plan a sequential replay, and consume the whole plan.
+   */
+
+  @Benchmark public int plan()
+    throws Exception
+  {
+    final Iterator<ReplayOperationType> plan =
+      this.planner.plan(this.model, this.commit_log);
+    int count = 0;
+    while (plan.hasNext()) {
+      plan.next();
+      count = count + 1;
+    }
+    return count;
+  }
+
+  @Benchmark public List<ReplayStage> planParallel()
+    throws Exception
+  {
+    return this.planner.planParallel(
+      this.model, this.commit_log, new File(this.directory, "worktrees"));
+  }
+
+  /**
+   * Read the manifest of the next commit, following its chain of deltas.
+   */
+
+  @Benchmark @OutputTimeUnit(TimeUnit.MICROSECONDS) public ByteBuffer artifact()
+    throws Exception
+  {
+    this.index = (this.index + 1) % this.names.size();
+    try (final FossilDatabaseTransactionType t =
+           this.database.newTransaction()) {
+      return t.getArtifact(this.names.get(this.index).toString());
+    }
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A simple encoder for the Fossil delta format, used to produce the deltas
+ * of generated repositories. The result can be decoded with {@link
+ * FossilDelta#apply(byte[], byte[])}.
+ */
+
+final class FossilDeltaEncoder
+{
+  private static final String ALPHABET;
+
+  static {
+    ALPHABET =
+      "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz~";
+  }
+
+  private FossilDeltaEncoder()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Create a delta that produces {@code target} from {@code source}. Each
+   * line of the target that also occurs in the source is copied from the
+   * source, and consecutive copied lines are merged into a single copy
+   * command; everything else is inserted. The result is valid, but is not
+   * as small as the deltas that Fossil itself produces.
+   *
+   * @param source The source
+   * @param target The target
+   *
+   * @return A delta
+   */
+
+  static byte[] create(
+    final byte[] source,
+    final byte[] target)
+  {
+    NullCheck.notNull(source);
+    NullCheck.notNull(target);
+
+    /**
+     * Index the offset of the first occurrence of each line of the source.
+     */
+
+    final Map<String, Integer> lines = new HashMap<>(source.length / 32 + 1);
+    int start = 0;
+    while (start < source.length) {
+      final int end = FossilDeltaEncoder.lineEnd(source, start);
+      final String line = new String(
+        source, start, end - start, StandardCharsets.ISO_8859_1);
+      if (lines.containsKey(line) == false) {
+        lines.put(line, Integer.valueOf(start));
+      }
+      start = end;
+    }
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+    FossilDeltaEncoder.writeInteger(out, (long) target.length);
+    out.write('\n');
+
+    int copy_offset = 0;
+    int copy_length = 0;
+    int insert_start = 0;
+    int position = 0;
+    while (position < target.length) {
+      final int end = FossilDeltaEncoder.lineEnd(target, position);
+      final int length = end - position;
+
+      /**
+       * Prefer to extend the current copy, so that runs of lines that occur
+       * more than once in the source are still copied in one command.
+       */
+
+      final int next = copy_offset + copy_length;
+      if (copy_length > 0
+          && next + length <= source.length
+          && FossilDeltaEncoder.regionEquals(
+               source, next, target, position, length)) {
+        copy_length = copy_length + length;
+      } else {
+        final Integer found = lines.get(
+          new String(target, position, length, StandardCharsets.ISO_8859_1));
+        if (copy_length > 0) {
+          FossilDeltaEncoder.writeCopy(out, copy_offset, copy_length);
+          copy_length = 0;
+          insert_start = position;
+        }
+        if (found != null) {
+          FossilDeltaEncoder.writeInsert(out, target, insert_start, position);
+          copy_offset = found.intValue();
+          copy_length = length;
+        }
+      }
+
+      position = end;
+      if (copy_length == 0) {
+        continue;
+      }
+      insert_start = position;
+    }
+
+    if (copy_length > 0) {
+      FossilDeltaEncoder.writeCopy(out, copy_offset, copy_length);
+    } else {
+      FossilDeltaEncoder.writeInsert(out, target, insert_start, target.length);
+    }
+
+    FossilDeltaEncoder.writeInteger(out, FossilDeltaEncoder.checksum(target));
+    out.write(';');
+    return out.toByteArray();
+  }
+
+  private static int lineEnd(
+    final byte[] data,
+    final int start)
+  {
+    int end = start;
+    while (end < data.length && data[end] != '\n') {
+      end = end + 1;
+    }
+    return Math.min(end + 1, data.length);
+  }
+
+  private static boolean regionEquals(
+    final byte[] a,
+    final int a_offset,
+    final byte[] b,
+    final int b_offset,
+    final int length)
+  {
+    for (int index = 0; index < length; ++index) {
+      if (a[a_offset + index] != b[b_offset + index]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void writeCopy(
+    final ByteArrayOutputStream out,
+    final int offset,
+    final int length)
+  {
+    FossilDeltaEncoder.writeInteger(out, (long) length);
+    out.write('@');
+    FossilDeltaEncoder.writeInteger(out, (long) offset);
+    out.write(',');
+  }
+
+  private static void writeInsert(
+    final ByteArrayOutputStream out,
+    final byte[] target,
+    final int start,
+    final int end)
+  {
+    if (end > start) {
+      FossilDeltaEncoder.writeInteger(out, (long) (end - start));
+      out.write(':');
+      out.write(target, start, end - start);
+    }
+  }
+
+  private static void writeInteger(
+    final ByteArrayOutputStream out,
+    final long value)
+  {
+    int shift = 0;
+    while (shift < 60 && (value >>> (shift + 6)) != 0L) {
+      shift = shift + 6;
+    }
+    for (; shift >= 0; shift = shift - 6) {
+      final int digit = (int) ((value >>> shift) & 0x3fL);
+      out.write(FossilDeltaEncoder.ALPHABET.charAt(digit));
+    }
+  }
+
+  /**
+   * The checksum used by the delta format: The sum of the content as
+   * big-endian 32-bit words, with any trailing bytes zero-padded.
+   */
+
+  private static long checksum(final byte[] data)
+  {
+    int sum = 0;
+    int index = 0;
+    final int whole = data.length & ~3;
+    while (index < whole) {
+      sum = sum + (((data[index] & 0xff) << 24)
+                   | ((data[index + 1] & 0xff) << 16)
+                   | ((data[index + 2] & 0xff) << 8)
+                   | (data[index + 3] & 0xff));
+      index = index + 4;
+    }
+
+    int shift = 24;
+    while (index < data.length) {
+      sum = sum + ((data[index] & 0xff) << shift);
+      shift = shift - 8;
+      index = index + 1;
+    }
+    return (long) sum & 0xffffffffL;
+  }
+}
@@ -0,0 +1,1046 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.junreachable.UnreachableCodeException;
+import org.bouncycastle.bcpg.ArmoredOutputStream;
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.crypto.generators.RSAKeyPairGenerator;
+import org.bouncycastle.crypto.params.RSAKeyGenerationParameters;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPKeyPair;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.openpgp.PGPSecretKeyRingCollection;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.openpgp.PGPSignatureGenerator;
+import org.bouncycastle.openpgp.PGPSignatureSubpacketGenerator;
+import org.bouncycastle.openpgp.PGPUtil;
+import org.bouncycastle.openpgp.operator.bc.BcPBESecretKeyDecryptorBuilder;
+import org.bouncycastle.openpgp.operator.bc.BcPGPContentSignerBuilder;
+import org.bouncycastle.openpgp.operator.bc.BcPGPDigestCalculatorProvider;
+import org.bouncycastle.openpgp.operator.bc.BcPGPKeyPair;
+import org.bouncycastle.openpgp.operator.jcajce.JcaKeyFingerprintCalculator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sqlite.SQLiteDataSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+
+/**
+ * A generator of synthetic Fossil repositories, for testing at scale
+ * without access to real repositories.
+ *
+ * The generated database contains the Fossil repository schema. The
+ * {@code blob}, {@code delta}, {@code event}, {@code plink}, {@code tag},
+ * {@code tagxref} and {@code leaf} tables are populated in the same way as
+ * Fossil populates them; the tables that Fossil derives from manifests but
+ * that {@code ftgr} does not read (such as {@code mlink} and
+ * {@code filename}) are left empty, so {@code fossil rebuild} should be run
+ * on the result before it is used with Fossil itself. Each new version of a
+ * file or manifest is stored as a delta against the previous version, up to
+ * a limited chain length.
+ *
+ * Each branch only changes the files that it created (trunk owns the files
+ * of the first commit), and a merge takes the newest version of each file,
+ * so that merges can be replayed in Git without conflicts.
+ */
+
+public final class FossilGenerator
+{
+  private static final Logger   LOG;
+  private static final int      DELTA_CHAIN_LIMIT;
+  private static final int      BATCH_SIZE;
+  private static final long     START_TIME;
+  private static final int      TAG_BRANCH;
+  private static final String   TEXT;
+  private static final String[] SCHEMA;
+
+  static {
+    LOG = LoggerFactory.getLogger(FossilGenerator.class);
+    DELTA_CHAIN_LIMIT = 16;
+    BATCH_SIZE = 1024;
+    START_TIME = 1262304000000L;
+    TAG_BRANCH = 8;
+    TEXT = "abcdefghijklmnopqrstuvwxyz     ";
+
+    /**
+     * The repository schema of Fossil 1.32.
+     */
+
+    SCHEMA = new String[]{
+      "CREATE TABLE blob(rid INTEGER PRIMARY KEY, rcvid INTEGER, " +
+      "size INTEGER, uuid TEXT UNIQUE NOT NULL, content BLOB, " +
+      "CHECK(length(uuid)>=40 AND rid>0))",
+      "CREATE TABLE delta(rid INTEGER PRIMARY KEY, " +
+      "srcid INTEGER NOT NULL REFERENCES blob)",
+      "CREATE INDEX delta_i1 ON delta(srcid)",
+      "CREATE TABLE rcvfrom(rcvid INTEGER PRIMARY KEY, " +
+      "uid INTEGER REFERENCES user, mtime DATETIME, nonce TEXT UNIQUE, " +
+      "ipaddr TEXT)",
+      "CREATE TABLE user(uid INTEGER PRIMARY KEY, login TEXT UNIQUE, " +
+      "pw TEXT, cap TEXT, cookie TEXT, ipaddr TEXT, cexpire DATETIME, " +
+      "info TEXT, mtime DATE, photo BLOB)",
+      "CREATE TABLE config(name TEXT PRIMARY KEY NOT NULL, value CLOB, " +
+      "mtime DATE, CHECK(typeof(name)='text' AND length(name)>=1)) " +
+      "WITHOUT ROWID",
+      "CREATE TABLE shun(uuid UNIQUE, mtime DATE, scom TEXT)",
+      "CREATE TABLE private(rid INTEGER PRIMARY KEY)",
+      "CREATE TABLE reportfmt(rn INTEGER PRIMARY KEY, owner TEXT, " +
+      "title TEXT UNIQUE, mtime DATE, cols TEXT, sqlcode TEXT)",
+      "CREATE TABLE concealed(hash TEXT PRIMARY KEY, mtime DATE, " +
+      "content TEXT) WITHOUT ROWID",
+      "CREATE TABLE filename(fnid INTEGER PRIMARY KEY, name TEXT UNIQUE)",
+      "CREATE TABLE mlink(mid INTEGER REFERENCES plink(cid), " +
+      "fid INTEGER REFERENCES blob, pmid INTEGER REFERENCES plink(cid), " +
+      "pid INTEGER REFERENCES blob, fnid INTEGER REFERENCES filename, " +
+      "pfnid INTEGER REFERENCES filename, mperm INTEGER, " +
+      "isaux BOOLEAN DEFAULT 0)",
+      "CREATE INDEX mlink_i1 ON mlink(mid)",
+      "CREATE INDEX mlink_i2 ON mlink(fnid)",
+      "CREATE INDEX mlink_i3 ON mlink(fid)",
+      "CREATE INDEX mlink_i4 ON mlink(pid)",
+      "CREATE TABLE plink(pid INTEGER REFERENCES blob, " +
+      "cid INTEGER REFERENCES blob, isprim BOOLEAN, mtime DATETIME, " +
+      "baseid INTEGER REFERENCES blob, UNIQUE(pid, cid))",
+      "CREATE INDEX plink_i2 ON plink(cid, pid)",
+      "CREATE TABLE leaf(rid INTEGER PRIMARY KEY)",
+      "CREATE TABLE event(type TEXT, mtime DATETIME, " +
+      "objid INTEGER PRIMARY KEY, tagid INTEGER, " +
+      "uid INTEGER REFERENCES user, bgcolor TEXT, euser TEXT, user TEXT, " +
+      "ecomment TEXT, comment TEXT, brief TEXT, omtime DATETIME)",
+      "CREATE INDEX event_i1 ON event(mtime)",
+      "CREATE TABLE phantom(rid INTEGER PRIMARY KEY)",
+      "CREATE TABLE orphan(rid INTEGER PRIMARY KEY, baseline INTEGER)",
+      "CREATE INDEX orphan_baseline ON orphan(baseline)",
+      "CREATE TABLE unclustered(rid INTEGER PRIMARY KEY)",
+      "CREATE TABLE unsent(rid INTEGER PRIMARY KEY)",
+      "CREATE TABLE tag(tagid INTEGER PRIMARY KEY, tagname TEXT UNIQUE)",
+      "INSERT INTO tag VALUES(1, 'bgcolor')",
+      "INSERT INTO tag VALUES(2, 'comment')",
+      "INSERT INTO tag VALUES(3, 'user')",
+      "INSERT INTO tag VALUES(4, 'date')",
+      "INSERT INTO tag VALUES(5, 'hidden')",
+      "INSERT INTO tag VALUES(6, 'private')",
+      "INSERT INTO tag VALUES(7, 'cluster')",
+      "INSERT INTO tag VALUES(8, 'branch')",
+      "INSERT INTO tag VALUES(9, 'closed')",
+      "INSERT INTO tag VALUES(10, 'parent')",
+      "INSERT INTO tag VALUES(11, 'note')",
+      "CREATE TABLE tagxref(tagid INTEGER REFERENCES tag, tagtype INTEGER, " +
+      "srcid INTEGER REFERENCES blob, origid INTEGER REFERENCES blob, " +
+      "value TEXT, mtime TIMESTAMP, rid INTEGER REFERENCE blob, " +
+      "UNIQUE(rid, tagid))",
+      "CREATE INDEX tagxref_i1 ON tagxref(tagid, mtime)",
+      "CREATE TABLE backlink(target TEXT, srctype INT, srcid INT, " +
+      "mtime TIMESTAMP, UNIQUE(target, srctype, srcid))",
+      "CREATE INDEX backlink_src ON backlink(srcid, srctype)",
+      "CREATE TABLE attachment(attachid INTEGER PRIMARY KEY, " +
+      "isLatest BOOLEAN DEFAULT 0, mtime TIMESTAMP, src TEXT, " +
+      "target TEXT, filename TEXT, comment TEXT, user TEXT)",
+      "CREATE INDEX attachment_idx1 ON attachment(target, filename, mtime)",
+      "CREATE INDEX attachment_idx2 ON attachment(src)",
+    };
+  }
+
+  private final FossilGeneratorConfiguration config;
+  private final Connection                   conn;
+  private final Random                       random;
+  private final @Nullable PGPPrivateKey      key;
+  private final int                          key_algorithm;
+  private final MessageDigest                sha1;
+  private final MessageDigest                md5;
+  private final Deflater                     deflater;
+  private final SimpleDateFormat             date_format;
+  private final Map<String, Integer>         tags;
+  private final List<Branch>                 branches;
+  private final PreparedStatement            insert_blob;
+  private final PreparedStatement            insert_delta;
+  private final PreparedStatement            insert_event;
+  private final PreparedStatement            insert_plink;
+  private final PreparedStatement            insert_tag;
+  private final PreparedStatement            insert_tagxref;
+  private       int                          rid;
+  private       int                          count;
+  private       long                         time;
+
+  private FossilGenerator(
+    final FossilGeneratorConfiguration in_config,
+    final Connection in_conn,
+    final @Nullable PGPSecretKey in_key,
+    final String passphrase)
+    throws IOException, SQLException
+  {
+    this.config = NullCheck.notNull(in_config);
+    this.conn = NullCheck.notNull(in_conn);
+    this.random = new Random(in_config.getSeed());
+
+    if (in_key != null) {
+      try {
+        this.key = in_key.extractPrivateKey(
+          new BcPBESecretKeyDecryptorBuilder(
+            new BcPGPDigestCalculatorProvider())
+            .build(passphrase.toCharArray()));
+        this.key_algorithm = in_key.getPublicKey().getAlgorithm();
+      } catch (final PGPException e) {
+        throw new IOException(e);
+      }
+    } else {
+      this.key = null;
+      this.key_algorithm = 0;
+    }
+
+    try {
+      this.sha1 = MessageDigest.getInstance("SHA-1");
+      this.md5 = MessageDigest.getInstance("MD5");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new UnreachableCodeException(e);
+    }
+
+    this.deflater = new Deflater();
+    this.date_format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
+    this.date_format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    this.tags = new HashMap<>(64);
+    this.branches = new ArrayList<>(in_config.getBranches() + 1);
+
+    this.insert_blob = this.conn.prepareStatement(
+      "INSERT INTO blob(rid, rcvid, size, uuid, content) " +
+      "VALUES (?, 1, ?, ?, ?)");
+    this.insert_delta = this.conn.prepareStatement(
+      "INSERT INTO delta(rid, srcid) VALUES (?, ?)");
+    this.insert_event = this.conn.prepareStatement(
+      "INSERT INTO event(type, mtime, objid, user, comment, omtime) " +
+      "VALUES ('ci', ?, ?, ?, ?, ?)");
+    this.insert_plink = this.conn.prepareStatement(
+      "INSERT INTO plink(pid, cid, isprim, mtime) VALUES (?, ?, ?, ?)");
+    this.insert_tag = this.conn.prepareStatement(
+      "INSERT INTO tag(tagid, tagname) VALUES (?, ?)");
+    this.insert_tagxref = this.conn.prepareStatement(
+      "INSERT INTO tagxref(tagid, tagtype, srcid, origid, value, mtime, rid) " +
+      "VALUES (?, ?, ?, ?, ?, ?, ?)");
+
+    /**
+     * History starts after the signing key was created, so that signatures
+     * are not dated before their key.
+     */
+
+    this.rid = 0;
+    this.count = 0;
+    if (in_key != null) {
+      this.time = Math.max(
+        FossilGenerator.START_TIME,
+        in_key.getPublicKey().getCreationTime().getTime());
+    } else {
+      this.time = FossilGenerator.START_TIME;
+    }
+  }
+
+  /**
+   * Generate a repository. Any existing file at the output path is
+   * replaced. If manifests are to be signed and no key is configured, a
+   * new key is generated and written, unprotected and armored, to the
+   * output path with {@code .key.asc} appended.
+   *
+   * @param config The configuration
+   *
+   * @throws IOException On I/O and database errors
+   */
+
+  public static void generate(final FossilGeneratorConfiguration config)
+    throws IOException
+  {
+    NullCheck.notNull(config);
+
+    final File output = config.getOutput();
+    Files.deleteIfExists(output.toPath());
+
+    final SQLiteDataSource ds = new SQLiteDataSource();
+    ds.setUrl("jdbc:sqlite:" + output);
+    try (final Connection c = ds.getConnection()) {
+      FossilGenerator.generate(config, c);
+    } catch (final SQLException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Generate a repository into the given empty database.
+   *
+   * @param config The configuration
+   * @param c      The database connection
+   *
+   * @throws IOException  On I/O errors
+   * @throws SQLException On database errors
+   */
+
+  static void generate(
+    final FossilGeneratorConfiguration config,
+    final Connection c)
+    throws IOException, SQLException
+  {
+    NullCheck.notNull(config);
+    NullCheck.notNull(c);
+
+    final PGPSecretKey secret;
+    final String passphrase;
+    if (config.getSignedRatio() > 0.0) {
+      final OptionType<File> key_opt = config.getKey();
+      if (key_opt.isSome()) {
+        secret = FossilGenerator.loadKey(((Some<File>) key_opt).get());
+        passphrase = config.getKeyPassphrase();
+      } else {
+        final File key_file = new File(config.getOutput() + ".key.asc");
+        secret = FossilGenerator.newKey(config.getUser(), key_file);
+        passphrase = "";
+      }
+      FossilGenerator.LOG.info(
+        "signing with key 0x{}",
+        String.format("%016x", Long.valueOf(secret.getKeyID())));
+    } else {
+      secret = null;
+      passphrase = "";
+    }
+
+    try (final Statement st = c.createStatement()) {
+      st.execute("PRAGMA journal_mode = OFF");
+      st.execute("PRAGMA synchronous = OFF");
+    }
+
+    c.setAutoCommit(false);
+    final FossilGenerator g =
+      new FossilGenerator(config, c, secret, passphrase);
+    g.run();
+    c.commit();
+  }
+
+  private static PGPSecretKey loadKey(final File file)
+    throws IOException
+  {
+    try (final InputStream s = new FileInputStream(file)) {
+      final PGPSecretKeyRingCollection rings = new PGPSecretKeyRingCollection(
+        PGPUtil.getDecoderStream(s), new JcaKeyFingerprintCalculator());
+
+      final Iterator<PGPSecretKeyRing> ring_iter = rings.getKeyRings();
+      while (ring_iter.hasNext()) {
+        final Iterator<PGPSecretKey> key_iter =
+          ring_iter.next().getSecretKeys();
+        while (key_iter.hasNext()) {
+          final PGPSecretKey k = key_iter.next();
+          if (k.isSigningKey()) {
+            return k;
+          }
+        }
+      }
+    } catch (final PGPException e) {
+      throw new IOException(e);
+    }
+
+    throw new IOException(
+      String.format("%s does not contain a signing key", file));
+  }
+
+  private static PGPSecretKey newKey(
+    final String user,
+    final File file)
+    throws IOException
+  {
+    FossilGenerator.LOG.info("generating key {}", file);
+
+    try {
+      final RSAKeyPairGenerator kpg = new RSAKeyPairGenerator();
+      kpg.init(
+        new RSAKeyGenerationParameters(
+          BigInteger.valueOf(0x10001L), new SecureRandom(), 2048, 12));
+      final PGPKeyPair pair = new BcPGPKeyPair(
+        PGPPublicKey.RSA_GENERAL,
+        kpg.generateKeyPair(),
+        new Date(FossilGenerator.START_TIME));
+
+      final PGPSecretKey secret = new PGPSecretKey(
+        PGPSignature.DEFAULT_CERTIFICATION,
+        pair,
+        String.format("%s <%s@example.com>", user, user),
+        new BcPGPDigestCalculatorProvider().get(HashAlgorithmTags.SHA1),
+        null,
+        null,
+        new BcPGPContentSignerBuilder(
+          PGPPublicKey.RSA_GENERAL, HashAlgorithmTags.SHA256),
+        null);
+
+      try (final OutputStream fs = new FileOutputStream(file)) {
+        try (final ArmoredOutputStream aos = new ArmoredOutputStream(fs)) {
+          secret.encode(aos);
+        }
+      }
+      return secret;
+    } catch (final PGPException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private void run()
+    throws IOException, SQLException
+  {
+    try (final Statement st = this.conn.createStatement()) {
+      for (final String s : FossilGenerator.SCHEMA) {
+        st.execute(s);
+      }
+    }
+    this.insertMetadata();
+
+    final int commits = this.config.getCommits();
+    final int branch_limit = this.config.getBranches();
+    this.root();
+
+    for (int index = 1; index < commits; ++index) {
+      final Branch b =
+        this.branches.get(this.random.nextInt(this.branches.size()));
+
+      /**
+       * New branches are created with a probability that produces about the
+       * configured number of branches over the whole history.
+       */
+
+      final boolean fork = this.branches.size() <= branch_limit
+                           && this.random.nextDouble() * (double) commits
+                              < (double) branch_limit;
+      if (fork) {
+        this.fork(b);
+      } else {
+        final Branch m = this.random.nextDouble() < this.config.getMergeRate()
+          ? this.chooseMerge(b) : null;
+        this.change(b, m);
+      }
+
+      if ((index + 1) % FossilGenerator.BATCH_SIZE == 0) {
+        this.flush();
+      }
+      if ((index + 1) % 10000 == 0) {
+        FossilGenerator.LOG.info(
+          "generated {} of {} commits",
+          Integer.valueOf(index + 1),
+          Integer.valueOf(commits));
+      }
+    }
+
+    this.flush();
+
+    try (final PreparedStatement st = this.conn.prepareStatement(
+      "INSERT INTO leaf(rid) VALUES (?)")) {
+      for (final Branch b : this.branches) {
+        st.setInt(1, NullCheck.notNull(b.head).rid);
+        st.executeUpdate();
+      }
+    }
+
+    FossilGenerator.LOG.info(
+      "generated {} commits on {} branches ({} artifacts)",
+      Integer.valueOf(commits),
+      Integer.valueOf(this.branches.size()),
+      Integer.valueOf(this.rid));
+  }
+
+  private void insertMetadata()
+    throws SQLException
+  {
+    final long seconds = this.time / 1000L;
+    final double day = FossilTime.epochMillisecondsToJulianDay(this.time);
+
+    try (final PreparedStatement st = this.conn.prepareStatement(
+      "INSERT INTO config(name, value, mtime) VALUES (?, ?, ?)")) {
+      final String[][] values = {
+        {"project-code", this.hex(40)},
+        {"server-code", this.hex(40)},
+        {"project-name", this.config.getOutput().getName()},
+        {"aux-schema", "2015-01-24"},
+        {"content-schema", "2"},
+      };
+      for (final String[] v : values) {
+        st.setString(1, v[0]);
+        st.setString(2, v[1]);
+        st.setLong(3, seconds);
+        st.executeUpdate();
+      }
+    }
+
+    try (final PreparedStatement st = this.conn.prepareStatement(
+      "INSERT INTO user(uid, login, pw, cap, info) " +
+      "VALUES (1, ?, '', 's', '')")) {
+      st.setString(1, this.config.getUser());
+      st.executeUpdate();
+    }
+
+    try (final PreparedStatement st = this.conn.prepareStatement(
+      "INSERT INTO rcvfrom(rcvid, uid, mtime) VALUES (1, 1, ?)")) {
+      st.setDouble(1, day);
+      st.executeUpdate();
+    }
+  }
+
+  private void flush()
+    throws SQLException
+  {
+    this.insert_blob.executeBatch();
+    this.insert_delta.executeBatch();
+    this.insert_event.executeBatch();
+    this.insert_plink.executeBatch();
+    this.insert_tag.executeBatch();
+    this.insert_tagxref.executeBatch();
+  }
+
+  private void root()
+    throws IOException, SQLException
+  {
+    final Branch trunk = new Branch("trunk", null, null);
+    for (int index = 0; index < this.config.getFiles(); ++index) {
+      this.addFile(
+        trunk,
+        String.format(
+          "src/d%d/f%d.txt",
+          Integer.valueOf(index % 16),
+          Integer.valueOf(index)));
+    }
+    this.branches.add(trunk);
+
+    final List<String> t_cards = new ArrayList<>(2);
+    t_cards.add("*branch * trunk");
+    t_cards.add("*sym-trunk *");
+    this.commit(trunk, null, t_cards, null);
+  }
+
+  private void fork(final Branch b)
+    throws IOException, SQLException
+  {
+    final String name =
+      String.format("branch-%d", Integer.valueOf(this.branches.size()));
+    final Branch n = new Branch(name, b, b.head);
+    this.addFile(n, name + "/f0.txt");
+    this.branches.add(n);
+
+    final List<String> t_cards = new ArrayList<>(3);
+    t_cards.add("*branch * " + name);
+    t_cards.add("*sym-" + name + " *");
+    t_cards.add("-sym-" + b.name + " *");
+    this.commit(n, null, t_cards, b.name);
+  }
+
+  /**
+   * @return A branch that has commits that are not reachable from the given
+   * branch, if any
+   */
+
+  private @Nullable Branch chooseMerge(final Branch b)
+  {
+    final List<Branch> candidates = new ArrayList<>(this.branches.size());
+    for (final Branch c : this.branches) {
+      if (c != b && NullCheck.notNull(c.head).rid > b.reachable(c.name)) {
+        candidates.add(c);
+      }
+    }
+    if (candidates.isEmpty()) {
+      return null;
+    }
+    return candidates.get(this.random.nextInt(candidates.size()));
+  }
+
+  private void change(
+    final Branch b,
+    final @Nullable Branch merged)
+    throws IOException, SQLException
+  {
+    if (merged != null) {
+      for (final Map.Entry<String, Version> e : merged.tree.entrySet()) {
+        final Version v = e.getValue();
+        final Version current = b.tree.get(e.getKey());
+        if (current == null || current.rid < v.rid) {
+          b.tree.put(e.getKey(), v);
+        }
+      }
+      for (final Map.Entry<String, Integer> e : merged.reach.entrySet()) {
+        final int r = e.getValue().intValue();
+        if (b.reachable(e.getKey()) < r) {
+          b.reach.put(e.getKey(), Integer.valueOf(r));
+        }
+      }
+    }
+
+    /**
+     * Branches occasionally add files, up to an equal share of the number
+     * of files in the first commit, so that the size of the tree (and of
+     * each manifest) stays proportional to that number.
+     */
+
+    final int share =
+      Math.max(1, this.config.getFiles() / (this.config.getBranches() + 1));
+    if (b.owned.size() < share && this.random.nextInt(16) == 0) {
+      this.addFile(
+        b,
+        String.format(
+          "%s/f%d.txt", b.name, Integer.valueOf(b.owned.size())));
+    }
+
+    final int count = Math.min(
+      b.owned.size(), 1 + this.random.nextInt(this.config.getChanges()));
+    final int first = this.random.nextInt(b.owned.size());
+    for (int index = 0; index < count; ++index) {
+      final String name = b.owned.get((first + index) % b.owned.size());
+      final Version old = NullCheck.notNull(b.tree.get(name));
+      b.tree.put(name, this.store(this.edit(old.content), old));
+    }
+
+    this.commit(b, merged, Collections.<String>emptyList(), null);
+  }
+
+  private void addFile(
+    final Branch b,
+    final String name)
+    throws IOException, SQLException
+  {
+    final double size = (double) this.config.getFileSizeMedian()
+                        * Math.exp(
+      this.config.getFileSizeSigma() * this.random.nextGaussian());
+    final int length = (int) Math.max(1L, Math.min(1L << 26, Math.round(size)));
+
+    final byte[] content = new byte[length];
+    for (int index = 0; index < length; ++index) {
+      content[index] = this.randomText(index);
+    }
+    b.tree.put(name, this.store(content, null));
+    b.owned.add(name);
+  }
+
+  private byte randomText(final int index)
+  {
+    if (index % 64 == 63) {
+      return (byte) '\n';
+    }
+    final String text = FossilGenerator.TEXT;
+    return (byte) text.charAt(this.random.nextInt(text.length()));
+  }
+
+  /**
+   * Replace a short run of the given content with new text. On average,
+   * as much text is removed as is inserted, so files do not grow steadily.
+   */
+
+  private byte[] edit(final byte[] content)
+  {
+    final int offset = this.random.nextInt(content.length + 1);
+    final int remove =
+      Math.min(this.random.nextInt(96), content.length - offset);
+    final int insert = 16 + this.random.nextInt(64);
+
+    final byte[] result = new byte[content.length - remove + insert];
+    System.arraycopy(content, 0, result, 0, offset);
+    for (int index = 0; index < insert; ++index) {
+      result[offset + index] = this.randomText(offset + index);
+    }
+    System.arraycopy(
+      content,
+      offset + remove,
+      result,
+      offset + insert,
+      content.length - offset - remove);
+    return result;
+  }
+
+  private void commit(
+    final Branch b,
+    final @Nullable Branch merged,
+    final List<String> t_cards,
+    final @Nullable String cancelled)
+    throws IOException, SQLException
+  {
+    this.time = this.time + 1000L * (long) (1 + this.random.nextInt(3600));
+    final double day = FossilTime.epochMillisecondsToJulianDay(this.time);
+    final Version parent = b.head;
+    this.count = this.count + 1;
+    final String comment = String.format(
+      "Change %d on %s", Integer.valueOf(this.count), b.name);
+
+    final byte[] manifest =
+      this.manifest(b, merged, t_cards, comment);
+    final Version v = this.store(manifest, parent);
+
+    this.insert_event.setDouble(1, day);
+    this.insert_event.setInt(2, v.rid);
+    this.insert_event.setString(3, this.config.getUser());
+    this.insert_event.setString(4, comment);
+    this.insert_event.setDouble(5, day);
+    this.insert_event.addBatch();
+
+    if (parent != null) {
+      this.insertPlink(parent.rid, v.rid, true, day);
+    }
+    if (merged != null) {
+      this.insertPlink(NullCheck.notNull(merged.head).rid, v.rid, false, day);
+    }
+
+    /**
+     * The branch tags are propagated from the first commit of the branch,
+     * and are recorded as having their source at that commit.
+     */
+
+    final boolean is_new = t_cards.isEmpty() == false;
+    if (is_new) {
+      b.origin = v.rid;
+    }
+    final int source = is_new ? v.rid : 0;
+    this.insertTagxref(
+      FossilGenerator.TAG_BRANCH, 2, source, b.origin, b.name, day, v.rid);
+    this.insertTagxref(
+      this.tag("sym-" + b.name), 2, source, b.origin, null, day, v.rid);
+    if (cancelled != null) {
+      this.insertTagxref(
+        this.tag("sym-" + cancelled), 0, v.rid, v.rid, null, day, v.rid);
+    }
+
+    b.head = v;
+    b.reach.put(b.name, Integer.valueOf(v.rid));
+  }
+
+  private void insertPlink(
+    final int pid,
+    final int cid,
+    final boolean primary,
+    final double day)
+    throws SQLException
+  {
+    this.insert_plink.setInt(1, pid);
+    this.insert_plink.setInt(2, cid);
+    this.insert_plink.setBoolean(3, primary);
+    this.insert_plink.setDouble(4, day);
+    this.insert_plink.addBatch();
+  }
+
+  private void insertTagxref(
+    final int tag,
+    final int type,
+    final int source,
+    final int origin,
+    final @Nullable String value,
+    final double day,
+    final int commit)
+    throws SQLException
+  {
+    this.insert_tagxref.setInt(1, tag);
+    this.insert_tagxref.setInt(2, type);
+    this.insert_tagxref.setInt(3, source);
+    this.insert_tagxref.setInt(4, origin);
+    if (value != null) {
+      this.insert_tagxref.setString(5, value);
+    } else {
+      this.insert_tagxref.setNull(5, Types.VARCHAR);
+    }
+    this.insert_tagxref.setDouble(6, day);
+    this.insert_tagxref.setInt(7, commit);
+    this.insert_tagxref.addBatch();
+  }
+
+  private int tag(final String name)
+    throws SQLException
+  {
+    final Integer existing = this.tags.get(name);
+    if (existing != null) {
+      return existing.intValue();
+    }
+
+    final int id = 12 + this.tags.size();
+    this.insert_tag.setInt(1, id);
+    this.insert_tag.setString(2, name);
+    this.insert_tag.addBatch();
+    this.tags.put(name, Integer.valueOf(id));
+    return id;
+  }
+
+  /**
+   * Produce a manifest for the current tree of the given branch, with cards
+   * in the order that Fossil requires.
+   */
+
+  private byte[] manifest(
+    final Branch b,
+    final @Nullable Branch merged,
+    final List<String> t_cards,
+    final String comment)
+    throws IOException
+  {
+    final StringBuilder sb = new StringBuilder(b.tree.size() * 80 + 512);
+    sb.append("C ");
+    sb.append(comment.replace(" ", "\\s"));
+    sb.append('\n');
+    sb.append("D ");
+    sb.append(this.date_format.format(new Date(this.time)));
+    sb.append('\n');
+    for (final Map.Entry<String, Version> e : b.tree.entrySet()) {
+      sb.append("F ");
+      sb.append(e.getKey());
+      sb.append(' ');
+      sb.append(e.getValue().uuid);
+      sb.append('\n');
+    }
+    if (b.head != null) {
+      sb.append("P ");
+      sb.append(b.head.uuid);
+      if (merged != null) {
+        sb.append(' ');
+        sb.append(NullCheck.notNull(merged.head).uuid);
+      }
+      sb.append('\n');
+    }
+
+    final List<String> sorted = new ArrayList<>(t_cards);
+    Collections.sort(sorted);
+    for (final String t : sorted) {
+      sb.append("T ");
+      sb.append(t);
+      sb.append('\n');
+    }
+
+    sb.append("U ");
+    sb.append(this.config.getUser());
+    sb.append('\n');
+
+    final byte[] cards = sb.toString().getBytes(StandardCharsets.UTF_8);
+    sb.append("Z ");
+    sb.append(VerifierFileHashing.hex(this.md5.digest(cards)));
+    sb.append('\n');
+
+    final String body = sb.toString();
+    final boolean signed = this.key != null
+                           && this.random.nextDouble()
+                              < this.config.getSignedRatio();
+    if (signed) {
+      return this.sign(body).getBytes(StandardCharsets.UTF_8);
+    }
+    return body.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Clearsign the given manifest, as {@code gpg --clearsign} does. The
+   * signature is dated with the time of the commit.
+   */
+
+  private String sign(final String body)
+    throws IOException
+  {
+    try {
+      final PGPSignatureGenerator gen = new PGPSignatureGenerator(
+        new BcPGPContentSignerBuilder(
+          this.key_algorithm, HashAlgorithmTags.SHA256));
+      gen.init(
+        PGPSignature.CANONICAL_TEXT_DOCUMENT, NullCheck.notNull(this.key));
+
+      final PGPSignatureSubpacketGenerator sub =
+        new PGPSignatureSubpacketGenerator();
+      sub.setSignatureCreationTime(false, new Date(this.time));
+      gen.setHashedSubpackets(sub.generate());
+
+      /**
+       * The signature covers the body with CRLF line endings, excluding
+       * the final line ending.
+       */
+
+      final String canonical =
+        body.substring(0, body.length() - 1).replace("\n", "\r\n");
+      gen.update(canonical.getBytes(StandardCharsets.UTF_8));
+
+      final ByteArrayOutputStream bao = new ByteArrayOutputStream(1024);
+      try (final ArmoredOutputStream aos = new ArmoredOutputStream(bao)) {
+        gen.generate().encode(aos);
+      }
+
+      final StringBuilder sb = new StringBuilder(body.length() + 1024);
+      sb.append("-----BEGIN PGP SIGNED MESSAGE-----\n");
+      sb.append("Hash: SHA256\n");
+      sb.append('\n');
+      sb.append(body);
+      sb.append(new String(bao.toByteArray(), StandardCharsets.US_ASCII));
+      return sb.toString();
+    } catch (final PGPException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Store an artifact, as a delta against {@code previous} if the chain of
+   * deltas leading to {@code previous} is not too long.
+   */
+
+  private Version store(
+    final byte[] content,
+    final @Nullable Version previous)
+    throws SQLException
+  {
+    this.rid = this.rid + 1;
+    final String uuid = VerifierFileHashing.hex(this.sha1.digest(content));
+
+    final byte[] stored;
+    final int depth;
+    final int limit = FossilGenerator.DELTA_CHAIN_LIMIT;
+    if (previous != null && previous.depth < limit) {
+      stored = FossilDeltaEncoder.create(previous.content, content);
+      depth = previous.depth + 1;
+      this.insert_delta.setInt(1, this.rid);
+      this.insert_delta.setInt(2, previous.rid);
+      this.insert_delta.addBatch();
+    } else {
+      stored = content;
+      depth = 0;
+    }
+
+    this.insert_blob.setInt(1, this.rid);
+    this.insert_blob.setInt(2, content.length);
+    this.insert_blob.setString(3, uuid);
+    this.insert_blob.setBytes(4, this.compress(stored));
+    this.insert_blob.addBatch();
+    return new Version(uuid, content, this.rid, depth);
+  }
+
+  /**
+   * Compress content in the form that Fossil stores it: A four byte
+   * big-endian uncompressed size, followed by a zlib stream.
+   */
+
+  private byte[] compress(final byte[] data)
+  {
+    final ByteArrayOutputStream out =
+      new ByteArrayOutputStream(data.length / 2 + 64);
+    out.write((data.length >>> 24) & 0xff);
+    out.write((data.length >>> 16) & 0xff);
+    out.write((data.length >>> 8) & 0xff);
+    out.write(data.length & 0xff);
+
+    this.deflater.reset();
+    this.deflater.setInput(data);
+    this.deflater.finish();
+    final byte[] buffer = new byte[8192];
+    while (this.deflater.finished() == false) {
+      final int r = this.deflater.deflate(buffer);
+      out.write(buffer, 0, r);
+    }
+    return out.toByteArray();
+  }
+
+  private String hex(final int length)
+  {
+    final StringBuilder sb = new StringBuilder(length);
+    for (int index = 0; index < length; ++index) {
+      sb.append(Character.forDigit(this.random.nextInt(16), 16));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * A stored version of a file or manifest.
+   */
+
+  private static final class Version
+  {
+    private final String uuid;
+    private final byte[] content;
+    private final int    rid;
+    private final int    depth;
+
+    Version(
+      final String in_uuid,
+      final byte[] in_content,
+      final int in_rid,
+      final int in_depth)
+    {
+      this.uuid = NullCheck.notNull(in_uuid);
+      this.content = NullCheck.notNull(in_content);
+      this.rid = in_rid;
+      this.depth = in_depth;
+    }
+  }
+
+  /**
+   * The state of a branch: Its current tree, the files that it may change,
+   * and, for each branch, the newest commit of that branch that is
+   * reachable from the head of this branch.
+   */
+
+  private static final class Branch
+  {
+    private final String                   name;
+    private final TreeMap<String, Version> tree;
+    private final List<String>             owned;
+    private final Map<String, Integer>     reach;
+    private @Nullable Version              head;
+    private int                            origin;
+
+    Branch(
+      final String in_name,
+      final @Nullable Branch in_parent,
+      final @Nullable Version in_head)
+    {
+      this.name = NullCheck.notNull(in_name);
+      if (in_parent != null) {
+        this.tree = new TreeMap<>(in_parent.tree);
+        this.reach = new HashMap<>(in_parent.reach);
+      } else {
+        this.tree = new TreeMap<>();
+        this.reach = new HashMap<>(16);
+      }
+      this.owned = new ArrayList<>(16);
+      this.head = in_head;
+      this.origin = 0;
+    }
+
+    int reachable(final String branch)
+    {
+      final Integer r = this.reach.get(branch);
+      return r != null ? r.intValue() : 0;
+    }
+  }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jproperties.JProperties;
+import com.io7m.jproperties.JPropertyException;
+
+import java.io.File;
+import java.util.Properties;
+
+/**
+ * The configuration of the synthetic repository generator.
+ */
+
+public final class FossilGeneratorConfiguration
+{
+  private final File             output;
+  private final int              commits;
+  private final int              branches;
+  private final double           merge_rate;
+  private final int              files;
+  private final int              changes;
+  private final int              file_size_median;
+  private final double           file_size_sigma;
+  private final double           signed_ratio;
+  private final OptionType<File> key;
+  private final String           key_passphrase;
+  private final String           user;
+  private final long             seed;
+
+  private FossilGeneratorConfiguration(
+    final File in_output,
+    final int in_commits,
+    final int in_branches,
+    final double in_merge_rate,
+    final int in_files,
+    final int in_changes,
+    final int in_file_size_median,
+    final double in_file_size_sigma,
+    final double in_signed_ratio,
+    final OptionType<File> in_key,
+    final String in_key_passphrase,
+    final String in_user,
+    final long in_seed)
+  {
+    this.output = NullCheck.notNull(in_output);
+    this.commits = in_commits;
+    this.branches = in_branches;
+    this.merge_rate = in_merge_rate;
+    this.files = in_files;
+    this.changes = in_changes;
+    this.file_size_median = in_file_size_median;
+    this.file_size_sigma = in_file_size_sigma;
+    this.signed_ratio = in_signed_ratio;
+    this.key = NullCheck.notNull(in_key);
+    this.key_passphrase = NullCheck.notNull(in_key_passphrase);
+    this.user = NullCheck.notNull(in_user);
+    this.seed = in_seed;
+  }
+
+  public static FossilGeneratorConfiguration fromProperties(
+    final Properties p)
+    throws JPropertyException
+  {
+    NullCheck.notNull(p);
+
+    final File output = new File(
+      JProperties.getString(p, "com.io7m.ftgr.generator.output"));
+
+    final int commits = FossilGeneratorConfiguration.getIntegerOptional(
+      p, "com.io7m.ftgr.generator.commits", 10000);
+    if (commits < 1) {
+      throw new JPropertyException(
+        String.format(
+          "Invalid value for key com.io7m.ftgr.generator.commits (%d): " +
+          "Must be >= 1", Integer.valueOf(commits)));
+    }
+
+    final int branches = FossilGeneratorConfiguration.getIntegerOptional(
+      p, "com.io7m.ftgr.generator.branches", 8);
+    if (branches < 0) {
+      throw new JPropertyException(
+        String.format(
+          "Invalid value for key com.io7m.ftgr.generator.branches (%d): " +
+          "Must be >= 0", Integer.valueOf(branches)));
+    }
+
+    final double merge_rate = FossilGeneratorConfiguration.getDoubleOptional(
+      p, "com.io7m.ftgr.generator.merge_rate", 0.05);
+    if (merge_rate < 0.0 || merge_rate > 1.0) {
+      throw new JPropertyException(
+        String.format(
+          "Invalid value for key com.io7m.ftgr.generator.merge_rate (%f): " +
+          "Must be in the range [0, 1]", Double.valueOf(merge_rate)));
+    }
+
+    final int files = FossilGeneratorConfiguration.getIntegerOptional(
+      p, "com.io7m.ftgr.generator.files", 100);
+    if (files < 1) {
+      throw new JPropertyException(
+        String.format(
+          "Invalid value for key com.io7m.ftgr.generator.files (%d): " +
+          "Must be >= 1", Integer.valueOf(files)));
+    }
+
+    final int changes = FossilGeneratorConfiguration.getIntegerOptional(
+      p, "com.io7m.ftgr.generator.changes", 3);
+    if (changes < 1) {
+      throw new JPropertyException(
+        String.format(
+          "Invalid value for key com.io7m.ftgr.generator.changes (%d): " +
+          "Must be >= 1", Integer.valueOf(changes)));
+    }
+
+    final int file_size_median =
+      FossilGeneratorConfiguration.getIntegerOptional(
+        p, "com.io7m.ftgr.generator.file_size_median", 4096);
+    if (file_size_median < 1) {
+      throw new JPropertyException(
+        String.format(
+          "Invalid value for key com.io7m.ftgr.generator.file_size_median " +
+          "(%d): Must be >= 1", Integer.valueOf(file_size_median)));
+    }
+
+    final double file_size_sigma =
+      FossilGeneratorConfiguration.getDoubleOptional(
+        p, "com.io7m.ftgr.generator.file_size_sigma", 1.0);
+    if (file_size_sigma < 0.0) {
+      throw new JPropertyException(
+        String.format(
+          "Invalid value for key com.io7m.ftgr.generator.file_size_sigma " +
+          "(%f): Must be >= 0", Double.valueOf(file_size_sigma)));
+    }
+
+    final double signed_ratio =
+      FossilGeneratorConfiguration.getDoubleOptional(
+        p, "com.io7m.ftgr.generator.signed_ratio", 1.0);
+    if (signed_ratio < 0.0 || signed_ratio > 1.0) {
+      throw new JPropertyException(
+        String.format(
+          "Invalid value for key com.io7m.ftgr.generator.signed_ratio (%f): " +
+          "Must be in the range [0, 1]", Double.valueOf(signed_ratio)));
+    }
+
+    final String key_name = p.getProperty("com.io7m.ftgr.generator.key");
+    final OptionType<File> key;
+    if (key_name != null) {
+      key = Option.some(new File(key_name));
+    } else {
+      key = Option.none();
+    }
+
+    final String key_passphrase = JProperties.getStringOptional(
+      p, "com.io7m.ftgr.generator.key_passphrase", "");
+    final String user = JProperties.getStringOptional(
+      p, "com.io7m.ftgr.generator.user", "generator");
+    final int seed = FossilGeneratorConfiguration.getIntegerOptional(
+      p, "com.io7m.ftgr.generator.seed", 0);
+
+    return new FossilGeneratorConfiguration(
+      output,
+      commits,
+      branches,
+      merge_rate,
+      files,
+      changes,
+      file_size_median,
+      file_size_sigma,
+      signed_ratio,
+      key,
+      key_passphrase,
+      user,
+      (long) seed);
+  }
+
+  private static int getIntegerOptional(
+    final Properties p,
+    final String key,
+    final int other)
+    throws JPropertyException
+  {
+    final String v = p.getProperty(key);
+    if (v == null) {
+      return other;
+    }
+
+    try {
+      return Integer.parseInt(v.trim());
+    } catch (final NumberFormatException e) {
+      throw new JPropertyException(
+        String.format(
+          "Invalid value for key %s (%s): Must be an integer", key, v));
+    }
+  }
+
+  private static double getDoubleOptional(
+    final Properties p,
+    final String key,
+    final double other)
+    throws JPropertyException
+  {
+    final String v = p.getProperty(key);
+    if (v == null) {
+      return other;
+    }
+
+    try {
+      return Double.parseDouble(v.trim());
+    } catch (final NumberFormatException e) {
+      throw new JPropertyException(
+        String.format(
+          "Invalid value for key %s (%s): Must be a real number", key, v));
+    }
+  }
+
+  public File getOutput()
+  {
+    return this.output;
+  }
+
+  public int getCommits()
+  {
+    return this.commits;
+  }
+
+  public int getBranches()
+  {
+    return this.branches;
+  }
+
+  public double getMergeRate()
+  {
+    return this.merge_rate;
+  }
+
+  public int getFiles()
+  {
+    return this.files;
+  }
+
+  public int getChanges()
+  {
+    return this.changes;
+  }
+
+  public int getFileSizeMedian()
+  {
+    return this.file_size_median;
+  }
+
+  public double getFileSizeSigma()
+  {
+    return this.file_size_sigma;
+  }
+
+  public double getSignedRatio()
+  {
+    return this.signed_ratio;
+  }
+
+  public OptionType<File> getKey()
+  {
+    return this.key;
+  }
+
+  public String getKeyPassphrase()
+  {
+    return this.key_passphrase;
+  }
+
+  public String getUser()
+  {
+    return this.user;
+  }
+
+  public long getSeed()
+  {
+    return this.seed;
+  }
+}
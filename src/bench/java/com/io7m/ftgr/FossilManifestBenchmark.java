@@ -0,0 +1,246 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jfunctional.OptionType;
+import org.bouncycastle.bcpg.ArmoredOutputStream;
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.crypto.generators.RSAKeyPairGenerator;
+import org.bouncycastle.crypto.params.RSAKeyGenerationParameters;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPKeyPair;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.openpgp.PGPSignatureGenerator;
+import org.bouncycastle.openpgp.operator.bc.BcPGPContentSignerBuilder;
+import org.bouncycastle.openpgp.operator.bc.BcPGPKeyPair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extraction of signing keys (and file lists) from manifests. The corpus
+ * consists of clearsigned manifests with {@code files} F-cards, shaped like
+ * those that Fossil produces, all signed with a single RSA key that is
+ * generated once per trial.
+ * Each invocation takes the next manifest from the corpus. Results are
+ * reported as throughput; run with {@code -prof gc} to obtain the
+ * allocation rate.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class FossilManifestBenchmark
+{
+  private static final int CORPUS_SIZE = 32;
+
+  @Param({"16", "1024", "16384"}) private int files;
+
+  private FossilCommitName[] names;
+  private ByteBuffer[]       signed;
+  private ByteBuffer[]       unsigned;
+  private int                index;
+
+  private static String hex(
+    final Random random,
+    final int length)
+  {
+    final StringBuilder sb = new StringBuilder(length);
+    for (int index = 0; index < length; ++index) {
+      sb.append(Character.forDigit(random.nextInt(16), 16));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Produce the body of a manifest, with cards in the order that Fossil
+   * writes them.
+   */
+
+  private static String manifest(
+    final Random random,
+    final int files)
+  {
+    final TreeSet<String> paths = new TreeSet<>();
+    while (paths.size() < files) {
+      final StringBuilder path = new StringBuilder(64);
+      final int depth = random.nextInt(4);
+      for (int level = 0; level < depth; ++level) {
+        path.append("dir");
+        path.append(random.nextInt(8));
+        path.append('/');
+      }
+      path.append("file");
+      path.append(random.nextInt(files * 4));
+      path.append(random.nextBoolean() ? ".java" : ".txt");
+      paths.add(path.toString());
+    }
+
+    final StringBuilder sb = new StringBuilder(files * 80 + 512);
+    sb.append("C Update\\sthe\\sbuild\\sand\\sfix\\sseveral\\stypos.\n");
+    sb.append("D 2015-03-14T15:09:26.535\n");
+    for (final String path : paths) {
+      sb.append("F ");
+      sb.append(path);
+      sb.append(' ');
+      sb.append(FossilManifestBenchmark.hex(random, 40));
+      if (random.nextInt(16) == 0) {
+        sb.append(" x");
+      }
+      sb.append('\n');
+    }
+    sb.append("P ");
+    sb.append(FossilManifestBenchmark.hex(random, 40));
+    sb.append('\n');
+    sb.append("R ");
+    sb.append(FossilManifestBenchmark.hex(random, 32));
+    sb.append('\n');
+    sb.append("U someone\n");
+    sb.append("Z ");
+    sb.append(FossilManifestBenchmark.hex(random, 32));
+    sb.append('\n');
+    return sb.toString();
+  }
+
+  /**
+   * Clearsign the given manifest body, as {@code gpg --clearsign} does.
+   */
+
+  private static String sign(
+    final PGPKeyPair key,
+    final String body)
+    throws IOException, PGPException
+  {
+    final PGPSignatureGenerator gen = new PGPSignatureGenerator(
+      new BcPGPContentSignerBuilder(
+        PGPPublicKey.RSA_GENERAL, HashAlgorithmTags.SHA256));
+    gen.init(PGPSignature.CANONICAL_TEXT_DOCUMENT, key.getPrivateKey());
+
+    /**
+     * The signature covers the body with CRLF line endings, excluding the
+     * final line ending.
+     */
+
+    final String canonical =
+      body.substring(0, body.length() - 1).replace("\n", "\r\n");
+    gen.update(canonical.getBytes(StandardCharsets.UTF_8));
+
+    final ByteArrayOutputStream bao = new ByteArrayOutputStream();
+    try (final ArmoredOutputStream aos = new ArmoredOutputStream(bao)) {
+      gen.generate().encode(aos);
+    }
+
+    final StringBuilder sb = new StringBuilder(body.length() + 1024);
+    sb.append("-----BEGIN PGP SIGNED MESSAGE-----\n");
+    sb.append("Hash: SHA256\n");
+    sb.append('\n');
+    sb.append(body);
+    sb.append(new String(bao.toByteArray(), StandardCharsets.US_ASCII));
+    return sb.toString();
+  }
+
+  @Setup(Level.Trial) public void setup()
+    throws IOException, PGPException
+  {
+    final Random random = new Random(0x46544752L);
+
+    final RSAKeyPairGenerator kpg = new RSAKeyPairGenerator();
+    kpg.init(
+      new RSAKeyGenerationParameters(
+        BigInteger.valueOf(0x10001L), new SecureRandom(), 2048, 12));
+    final PGPKeyPair key = new BcPGPKeyPair(
+      PGPPublicKey.RSA_GENERAL, kpg.generateKeyPair(), new Date());
+
+    final int size = FossilManifestBenchmark.CORPUS_SIZE;
+    this.names = new FossilCommitName[size];
+    this.signed = new ByteBuffer[size];
+    this.unsigned = new ByteBuffer[size];
+    for (int index = 0; index < size; ++index) {
+      final String body = FossilManifestBenchmark.manifest(random, this.files);
+      this.names[index] =
+        new FossilCommitName(FossilManifestBenchmark.hex(random, 40));
+      this.unsigned[index] =
+        ByteBuffer.wrap(body.getBytes(StandardCharsets.UTF_8));
+      this.signed[index] = ByteBuffer.wrap(
+        FossilManifestBenchmark.sign(key, body)
+          .getBytes(StandardCharsets.UTF_8));
+    }
+    this.index = 0;
+  }
+
+  private int next()
+  {
+    this.index = (this.index + 1) % FossilManifestBenchmark.CORPUS_SIZE;
+    return this.index;
+  }
+
+  @Benchmark public OptionType<BigInteger> signatureKey()
+    throws IOException
+  {
+    final int i = this.next();
+    return FossilManifest.getSignatureKey(this.names[i], this.signed[i]);
+  }
+
+  @Benchmark public OptionType<BigInteger> signatureKeyUnsigned()
+    throws IOException
+  {
+    final int i = this.next();
+    return FossilManifest.getSignatureKey(this.names[i], this.unsigned[i]);
+  }
+
+  @Benchmark public OptionType<String> baseline()
+  {
+    final int i = this.next();
+    return FossilManifest.getBaseline(this.names[i], this.signed[i]);
+  }
+
+  @Benchmark public Map<String, FossilManifestFile> applyFiles()
+    throws IOException
+  {
+    final int i = this.next();
+    final Map<String, FossilManifestFile> result =
+      new HashMap<>(this.files * 2);
+    FossilManifest.applyFiles(this.names[i], this.signed[i], result);
+    return result;
+  }
+}
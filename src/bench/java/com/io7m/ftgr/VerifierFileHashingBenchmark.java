@@ -0,0 +1,124 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.junreachable.UnreachableCodeException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashing of files of various sizes. The {@code streamFormatted} benchmark
+ * measures the previous approach of reading each file through a fresh
+ * digest and heap buffer and formatting each byte of the digest, for
+ * comparison. Results are reported as throughput; multiply by {@code size}
+ * to obtain bytes per second.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class VerifierFileHashingBenchmark
+{
+  @Param({"512", "65536", "4194304"}) private int size;
+
+  private Path directory;
+  private Path file;
+
+  @Setup(Level.Trial) public void setup()
+    throws IOException
+  {
+    final Random random = new Random(0x46544752L);
+    final byte[] data = new byte[this.size];
+    random.nextBytes(data);
+
+    this.directory = Files.createTempDirectory("ftgr-hashing-");
+    this.file = this.directory.resolve("data");
+    Files.write(this.file, data);
+  }
+
+  @TearDown(Level.Trial) public void tearDown()
+    throws IOException
+  {
+    Files.deleteIfExists(this.file);
+    Files.deleteIfExists(this.directory);
+  }
+
+  @Benchmark public String hashing()
+    throws IOException
+  {
+    return VerifierFileHashing.sha256(this.file);
+  }
+
+  @Benchmark public byte[] hashingRaw()
+    throws IOException
+  {
+    return VerifierFileHashing.sha256Bytes(this.file);
+  }
+
+  @Benchmark public String streamFormatted()
+    throws IOException
+  {
+    try {
+      final MessageDigest md = MessageDigest.getInstance("SHA-256");
+      final byte[] buffer = new byte[8192];
+      try (final InputStream fs = Files.newInputStream(
+        this.file, StandardOpenOption.READ)) {
+
+        while (true) {
+          final int r = fs.read(buffer);
+          if (r == -1) {
+            break;
+          }
+          md.update(buffer, 0, r);
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        final byte[] dg = md.digest();
+        for (final byte b : dg) {
+          sb.append(String.format("%02x", Byte.valueOf(b)));
+        }
+        return sb.toString();
+      }
+    } catch (final NoSuchAlgorithmException e) {
+      throw new UnreachableCodeException(e);
+    }
+  }
+}
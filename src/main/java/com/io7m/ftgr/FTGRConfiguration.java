@@ -15,6 +15,8 @@
  */
 package com.io7m.ftgr;
 
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
 import com.io7m.jnull.NullCheck;
 import com.io7m.jproperties.JProperties;
 import com.io7m.jproperties.JPropertyException;
@@ -38,6 +40,26 @@ final class FTGRConfiguration
   private final DryRun                dry_run;
   private final File                  commit_mapping_file;
   private final boolean               verification;
+  private final boolean               incremental;
+  private final int                   replay_threads;
+  private final File                  worktree_directory;
+  private final int                   prefetch_depth;
+  private final File                  staging_directory;
+  private final int                   fetch_size;
+  private final int                   verify_threads;
+  private final boolean               verify_checkout_free;
+  private final File                  verify_ledger;
+  private final boolean               verify_full;
+  private final double                verify_sample_ratio;
+  private final double                verify_sample_confidence;
+  private final double                verify_sample_tolerance;
+  private final int                   verify_sample_seed;
+  private final OptionType<File>      verify_report;
+  private final boolean               verify_signatures;
+  private final boolean               verify_trees;
+  private final OptionType<File>      commit_map_binary;
+  private final int                   commit_map_sync_count;
+  private final int                   commit_map_sync_interval;
 
   private FTGRConfiguration(
     final File in_fossil_exec,
@@ -50,7 +72,27 @@ final class FTGRConfiguration
     final File in_fossil_repos,
     final DryRun in_dry_run,
     final File in_commit_mapping_file,
-    final boolean in_verification)
+    final boolean in_verification,
+    final boolean in_incremental,
+    final int in_replay_threads,
+    final File in_worktree_directory,
+    final int in_prefetch_depth,
+    final File in_staging_directory,
+    final int in_fetch_size,
+    final int in_verify_threads,
+    final boolean in_verify_checkout_free,
+    final File in_verify_ledger,
+    final boolean in_verify_full,
+    final double in_verify_sample_ratio,
+    final double in_verify_sample_confidence,
+    final double in_verify_sample_tolerance,
+    final int in_verify_sample_seed,
+    final OptionType<File> in_verify_report,
+    final boolean in_verify_signatures,
+    final boolean in_verify_trees,
+    final OptionType<File> in_commit_map_binary,
+    final int in_commit_map_sync_count,
+    final int in_commit_map_sync_interval)
   {
     this.fossil_exec = NullCheck.notNull(in_fossil_exec);
     this.git_exec = NullCheck.notNull(in_git_exec);
@@ -63,6 +105,26 @@ final class FTGRConfiguration
     this.dry_run = NullCheck.notNull(in_dry_run);
     this.commit_mapping_file = NullCheck.notNull(in_commit_mapping_file);
     this.verification = in_verification;
+    this.incremental = in_incremental;
+    this.replay_threads = in_replay_threads;
+    this.worktree_directory = NullCheck.notNull(in_worktree_directory);
+    this.prefetch_depth = in_prefetch_depth;
+    this.staging_directory = NullCheck.notNull(in_staging_directory);
+    this.fetch_size = in_fetch_size;
+    this.verify_threads = in_verify_threads;
+    this.verify_checkout_free = in_verify_checkout_free;
+    this.verify_ledger = NullCheck.notNull(in_verify_ledger);
+    this.verify_full = in_verify_full;
+    this.verify_sample_ratio = in_verify_sample_ratio;
+    this.verify_sample_confidence = in_verify_sample_confidence;
+    this.verify_sample_tolerance = in_verify_sample_tolerance;
+    this.verify_sample_seed = in_verify_sample_seed;
+    this.verify_report = NullCheck.notNull(in_verify_report);
+    this.verify_signatures = in_verify_signatures;
+    this.verify_trees = in_verify_trees;
+    this.commit_map_binary = NullCheck.notNull(in_commit_map_binary);
+    this.commit_map_sync_count = in_commit_map_sync_count;
+    this.commit_map_sync_interval = in_commit_map_sync_interval;
   }
 
   public static FTGRConfiguration fromProperties(
@@ -128,6 +190,138 @@ final class FTGRConfiguration
     }
 
     final boolean verify = JProperties.getBoolean(p, "com.io7m.ftgr.verify");
+    final boolean incremental =
+      JProperties.getBooleanOptional(p, "com.io7m.ftgr.incremental", false);
+
+    final int replay_threads = FTGRConfiguration.getIntegerOptional(
+      p, "com.io7m.ftgr.replay_threads", 1);
+    if (replay_threads < 1) {
+      throw new JPropertyException(
+        String.format(
+          "Invalid value for key com.io7m.ftgr.replay_threads (%d): Must be " +
+          ">= 1", Integer.valueOf(replay_threads)));
+    }
+
+    final String worktree_name = p.getProperty(
+      "com.io7m.ftgr.worktree_directory", repos_git + ".worktrees");
+    final File worktree_directory = new File(worktree_name);
+
+    final int prefetch_depth = FTGRConfiguration.getIntegerOptional(
+      p, "com.io7m.ftgr.prefetch_depth", 0);
+    if (prefetch_depth < 0) {
+      throw new JPropertyException(
+        String.format(
+          "Invalid value for key com.io7m.ftgr.prefetch_depth (%d): Must be " +
+          ">= 0", Integer.valueOf(prefetch_depth)));
+    }
+
+    final String staging_name = p.getProperty(
+      "com.io7m.ftgr.staging_directory", repos_git + ".staging");
+    final File staging_directory = new File(staging_name);
+
+    final int fetch_size = FTGRConfiguration.getIntegerOptional(
+      p, "com.io7m.ftgr.fetch_size", 1024);
+    if (fetch_size < 1) {
+      throw new JPropertyException(
+        String.format(
+          "Invalid value for key com.io7m.ftgr.fetch_size (%d): Must be " +
+          ">= 1", Integer.valueOf(fetch_size)));
+    }
+
+    final int verify_threads = FTGRConfiguration.getIntegerOptional(
+      p, "com.io7m.ftgr.verify_threads", 1);
+    if (verify_threads < 1) {
+      throw new JPropertyException(
+        String.format(
+          "Invalid value for key com.io7m.ftgr.verify_threads (%d): Must be " +
+          ">= 1", Integer.valueOf(verify_threads)));
+    }
+
+    final boolean verify_checkout_free = JProperties.getBooleanOptional(
+      p, "com.io7m.ftgr.verify_checkout_free", false);
+
+    final String ledger_name = p.getProperty(
+      "com.io7m.ftgr.verify_ledger", commit_map + ".verified");
+    final File verify_ledger = new File(ledger_name);
+
+    final boolean verify_full =
+      JProperties.getBooleanOptional(p, "com.io7m.ftgr.verify_full", false);
+
+    final double verify_sample_ratio = FTGRConfiguration.getDoubleOptional(
+      p, "com.io7m.ftgr.verify_sample_ratio", 1.0);
+    if (verify_sample_ratio <= 0.0 || verify_sample_ratio > 1.0) {
+      throw new JPropertyException(
+        String.format(
+          "Invalid value for key com.io7m.ftgr.verify_sample_ratio (%f): " +
+          "Must be in the range (0, 1]", Double.valueOf(verify_sample_ratio)));
+    }
+
+    final double verify_sample_confidence =
+      FTGRConfiguration.getDoubleOptional(
+        p, "com.io7m.ftgr.verify_sample_confidence", 0.0);
+    if (verify_sample_confidence < 0.0 || verify_sample_confidence >= 1.0) {
+      throw new JPropertyException(
+        String.format(
+          "Invalid value for key com.io7m.ftgr.verify_sample_confidence " +
+          "(%f): Must be in the range [0, 1)",
+          Double.valueOf(verify_sample_confidence)));
+    }
+
+    final double verify_sample_tolerance =
+      FTGRConfiguration.getDoubleOptional(
+        p, "com.io7m.ftgr.verify_sample_tolerance", 0.01);
+    if (verify_sample_tolerance <= 0.0 || verify_sample_tolerance >= 1.0) {
+      throw new JPropertyException(
+        String.format(
+          "Invalid value for key com.io7m.ftgr.verify_sample_tolerance " +
+          "(%f): Must be in the range (0, 1)",
+          Double.valueOf(verify_sample_tolerance)));
+    }
+
+    final int verify_sample_seed = FTGRConfiguration.getIntegerOptional(
+      p, "com.io7m.ftgr.verify_sample_seed", 0);
+
+    final String report_name = p.getProperty("com.io7m.ftgr.verify_report");
+    final OptionType<File> verify_report;
+    if (report_name != null) {
+      verify_report = Option.some(new File(report_name));
+    } else {
+      verify_report = Option.none();
+    }
+
+    final boolean verify_signatures = JProperties.getBooleanOptional(
+      p, "com.io7m.ftgr.verify_signatures", false);
+
+    final boolean verify_trees =
+      JProperties.getBooleanOptional(p, "com.io7m.ftgr.verify_trees", false);
+
+    final String map_binary_name =
+      p.getProperty("com.io7m.ftgr.commit_map_binary");
+    final OptionType<File> commit_map_binary;
+    if (map_binary_name != null) {
+      commit_map_binary = Option.some(new File(map_binary_name));
+    } else {
+      commit_map_binary = Option.none();
+    }
+
+    final int commit_map_sync_count = FTGRConfiguration.getIntegerOptional(
+      p, "com.io7m.ftgr.commit_map_sync_count", 64);
+    if (commit_map_sync_count < 1) {
+      throw new JPropertyException(
+        String.format(
+          "Invalid value for key com.io7m.ftgr.commit_map_sync_count (%d): " +
+          "Must be >= 1", Integer.valueOf(commit_map_sync_count)));
+    }
+
+    final int commit_map_sync_interval =
+      FTGRConfiguration.getIntegerOptional(
+        p, "com.io7m.ftgr.commit_map_sync_interval", 1000);
+    if (commit_map_sync_interval < 0) {
+      throw new JPropertyException(
+        String.format(
+          "Invalid value for key com.io7m.ftgr.commit_map_sync_interval " +
+          "(%d): Must be >= 0", Integer.valueOf(commit_map_sync_interval)));
+    }
 
     return new FTGRConfiguration(
       fossil_exec,
@@ -140,7 +334,172 @@ final class FTGRConfiguration
       repos_fossil,
       dry_run,
       commit_map,
-      verify);
+      verify,
+      incremental,
+      replay_threads,
+      worktree_directory,
+      prefetch_depth,
+      staging_directory,
+      fetch_size,
+      verify_threads,
+      verify_checkout_free,
+      verify_ledger,
+      verify_full,
+      verify_sample_ratio,
+      verify_sample_confidence,
+      verify_sample_tolerance,
+      verify_sample_seed,
+      verify_report,
+      verify_signatures,
+      verify_trees,
+      commit_map_binary,
+      commit_map_sync_count,
+      commit_map_sync_interval);
+  }
+
+  private static int getIntegerOptional(
+    final Properties p,
+    final String key,
+    final int other)
+    throws JPropertyException
+  {
+    final String v = p.getProperty(key);
+    if (v == null) {
+      return other;
+    }
+
+    try {
+      return Integer.parseInt(v.trim());
+    } catch (final NumberFormatException e) {
+      throw new JPropertyException(
+        String.format(
+          "Invalid value for key %s (%s): Must be an integer", key, v));
+    }
+  }
+
+  public int getCommitMapSyncInterval()
+  {
+    return this.commit_map_sync_interval;
+  }
+
+  public int getCommitMapSyncCount()
+  {
+    return this.commit_map_sync_count;
+  }
+
+  public OptionType<File> getCommitMappingBinaryFile()
+  {
+    return this.commit_map_binary;
+  }
+
+  public boolean wantTreeVerification()
+  {
+    return this.verify_trees;
+  }
+
+  public boolean wantSignatureVerification()
+  {
+    return this.verify_signatures;
+  }
+
+  public OptionType<File> getVerificationReportFile()
+  {
+    return this.verify_report;
+  }
+
+  /**
+   * @return {@code true} iff only a sample of commits should be verified
+   */
+
+  public boolean wantSampledVerification()
+  {
+    return this.verify_sample_ratio < 1.0
+           || this.verify_sample_confidence > 0.0;
+  }
+
+  public int getVerifySampleSeed()
+  {
+    return this.verify_sample_seed;
+  }
+
+  public double getVerifySampleTolerance()
+  {
+    return this.verify_sample_tolerance;
+  }
+
+  public double getVerifySampleConfidence()
+  {
+    return this.verify_sample_confidence;
+  }
+
+  public double getVerifySampleRatio()
+  {
+    return this.verify_sample_ratio;
+  }
+
+  private static double getDoubleOptional(
+    final Properties p,
+    final String key,
+    final double other)
+    throws JPropertyException
+  {
+    final String v = p.getProperty(key);
+    if (v == null) {
+      return other;
+    }
+
+    try {
+      return Double.parseDouble(v.trim());
+    } catch (final NumberFormatException e) {
+      throw new JPropertyException(
+        String.format(
+          "Invalid value for key %s (%s): Must be a real number", key, v));
+    }
+  }
+
+  public boolean wantFullVerification()
+  {
+    return this.verify_full;
+  }
+
+  public File getVerificationLedgerFile()
+  {
+    return this.verify_ledger;
+  }
+
+  public boolean wantCheckoutFreeVerification()
+  {
+    return this.verify_checkout_free;
+  }
+
+  public int getVerifyThreads()
+  {
+    return this.verify_threads;
+  }
+
+  public int getFetchSize()
+  {
+    return this.fetch_size;
+  }
+
+  public int getReplayThreads()
+  {
+    return this.replay_threads;
+  }
+
+  public int getPrefetchDepth()
+  {
+    return this.prefetch_depth;
+  }
+
+  public File getStagingDirectory()
+  {
+    return this.staging_directory;
+  }
+
+  public File getWorktreeDirectory()
+  {
+    return this.worktree_directory;
   }
 
   public Map<BigInteger, BigInteger> getKeyMap()
@@ -148,6 +507,11 @@ final class FTGRConfiguration
     return this.key_map;
   }
 
+  public boolean wantIncremental()
+  {
+    return this.incremental;
+  }
+
   public boolean wantVerification()
   {
     return this.verification;
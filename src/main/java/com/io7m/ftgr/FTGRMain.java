@@ -20,6 +20,7 @@ import ch.qos.logback.classic.joran.JoranConfigurator;
 import com.io7m.jfunctional.OptionType;
 import com.io7m.jfunctional.Some;
 import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
 import com.io7m.jproperties.JProperties;
 import com.io7m.jproperties.JPropertyException;
 import com.io7m.junreachable.UnreachableCodeException;
@@ -30,13 +31,10 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
-import java.nio.file.Files;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -112,23 +110,33 @@ public final class FTGRMain
     final FossilRepositorySpecificationType fossil_repos =
       fossil_repos_b.build();
     final FossilDatabaseType db = FossilDatabase.openDatabase(
-      config.getFossilRepository(), config.getFossilExecutable());
-
-    final FossilModelBuilderType model_builder = FossilModel.newBuilder();
-    final Map<Integer, FossilCommit> commits;
-    try (final FossilDatabaseTransactionType t = db.newTransaction()) {
-      commits = t.getAllCommits();
-
-      for (final Integer k : commits.keySet()) {
-        final FossilCommit c = NullCheck.notNull(commits.get(k));
-        model_builder.addCommit(c);
+      config.getFossilRepository(),
+      config.getFossilExecutable(),
+      config.getFetchSize());
+
+    /**
+     * In incremental mode, load the commit map produced by previous runs.
+     * Commits that appear in the map do not need to be inspected again.
+     */
+
+    final File map = config.getCommitMappingFile();
+    final boolean incremental = config.wantIncremental() && map.isFile();
+    final BidiMap<GitCommitName, FossilCommitName> existing;
+    if (incremental) {
+      FTGRMain.LOG.info("incremental mode: reading commit map {}", map);
+      if (config.getDryRun() == DryRun.EXECUTE) {
+        FossilCommitMapWriter.recover(map);
       }
-
-      final List<FossilParentLink> es = t.getParentLinks();
-      for (int index = 0; index < es.size(); ++index) {
-        final FossilParentLink p = NullCheck.notNull(es.get(index));
-        model_builder.addParentLink(p);
+      try (final FileInputStream s = new FileInputStream(map)) {
+        existing = FossilCommitMap.fromStream(s);
+      }
+    } else {
+      if (config.wantIncremental()) {
+        FTGRMain.LOG.info(
+          "incremental mode: commit map {} does not exist, converting all " +
+          "commits", map);
       }
+      existing = new DualHashBidiMap<>();
     }
 
     final Map<BigInteger, BigInteger> key_map = config.getKeyMap();
@@ -140,31 +148,34 @@ public final class FTGRMain
         v.toString(16));
     }
 
-    for (final Integer k : commits.keySet()) {
-      final FossilCommit c = NullCheck.notNull(commits.get(k));
-      final FossilCommitName uuid = c.getCommitBlob();
-      final ByteBuffer data = fossil.getBlobForUUID(fossil_repos, uuid);
-      final OptionType<BigInteger> key_id_opt =
-        FossilManifest.getSignatureKey(uuid, data);
-
-      if (key_id_opt.isSome()) {
-        final Some<BigInteger> some = (Some<BigInteger>) key_id_opt;
-        final BigInteger signing_key = some.get();
-        final BigInteger actual_key;
-
-        if (key_map.containsKey(signing_key)) {
-          actual_key = NullCheck.notNull(key_map.get(signing_key));
-          FTGRMain.LOG.debug(
-            "mapped pgp key {} → {}",
-            signing_key.toString(16),
-            actual_key.toString(16));
-        } else {
-          actual_key = signing_key;
-        }
+    /**
+     * Commits and links are passed to the model builder as they are read
+     * from the database. The signing key of each commit that has not already
+     * been converted is fetched as the commit arrives.
+     */
 
-        FTGRMain.LOG.debug("commit {} key {}", k, actual_key.toString(16));
-        model_builder.setSigningKey(k.intValue(), actual_key);
-      }
+    final FossilModelBuilderType model_builder = FossilModel.newBuilder();
+    final FossilCommitMetadata metadata = FossilCommitMetadata.newStore();
+    try (final FossilDatabaseTransactionType t = db.newTransaction()) {
+      t.readHistory(
+        metadata, new FossilDatabaseReceiverType()
+        {
+          @Override public void onCommit(final FossilCommit c)
+            throws FossilException
+          {
+            model_builder.addCommit(c);
+            if (existing.containsValue(c.getCommitBlob()) == false) {
+              FTGRMain.loadSigningKey(
+                fossil, fossil_repos, key_map, model_builder, c);
+            }
+          }
+
+          @Override public void onParentLink(final FossilParentLink p)
+            throws FossilException
+          {
+            model_builder.addParentLink(p);
+          }
+        });
     }
 
     final List<FossilTagName> tag_list =
@@ -182,19 +193,88 @@ public final class FTGRMain
     final FossilModelType model = model_builder.build();
     final ReplayPlannerType planner =
       ReplayPlanner.newPlanner(gpg, fossil, git, git_repos, fossil_repos);
-    final BidiMap<GitCommitName, FossilCommit> commit_log =
-      new DualHashBidiMap<>();
-    final List<ReplayOperationType> plan = planner.plan(model, commit_log);
-    final ReplayExecutorType exec = ReplayExecutor.newExecutor();
-    exec.executePlan(plan, config.getDryRun());
 
+    /**
+     * Each mapping is appended to the commit map as soon as its commit has
+     * been made, so an interrupted conversion keeps the mappings of the
+     * commits that it did make. In a dry run, mappings are discarded.
+     */
+
+    final @Nullable FossilCommitMapWriter map_writer;
+    final FossilCommitMapReceiverType commit_log;
     switch (config.getDryRun()) {
       case EXECUTE_DRY_RUN: {
+        map_writer = null;
+        commit_log = new FossilCommitMapReceiverType()
+        {
+          @Override public void onMapping(
+            final GitCommitName git_commit,
+            final FossilCommitName fossil_commit)
+          {
+            FTGRMain.LOG.debug(
+              "dry run: mapping git:{} fossil:{}", git_commit, fossil_commit);
+          }
+        };
         break;
       }
       case EXECUTE: {
-        final File map = config.getCommitMappingFile();
-        FTGRMain.writeCommitMap(commit_log, map);
+        map_writer = FossilCommitMapWriter.newWriter(
+          map,
+          incremental,
+          config.getCommitMapSyncCount(),
+          (long) config.getCommitMapSyncInterval());
+        commit_log = map_writer;
+        break;
+      }
+      default: {
+        throw new UnreachableCodeException();
+      }
+    }
+
+    try {
+      final int threads = config.getReplayThreads();
+      if (incremental) {
+        if (threads > 1) {
+          FTGRMain.LOG.warn(
+            "incremental mode: ignoring replay_threads = {}, incremental " +
+            "conversion always replays on a single thread",
+            Integer.valueOf(threads));
+        }
+        final Iterator<ReplayOperationType> plan =
+          planner.planIncremental(model, existing, commit_log);
+        final ReplayExecutorType exec =
+          FTGRMain.newExecutor(config, fossil, fossil_repos);
+        exec.executePlan(plan, config.getDryRun());
+      } else if (threads > 1) {
+        final List<ReplayStage> stages = planner.planParallel(
+          model, commit_log, config.getWorktreeDirectory());
+        final ReplayParallelExecutorType exec =
+          ReplayParallelExecutor.newExecutor(threads);
+        exec.executeStages(stages, config.getDryRun());
+      } else {
+        final Iterator<ReplayOperationType> plan =
+          planner.plan(model, commit_log);
+        final ReplayExecutorType exec =
+          FTGRMain.newExecutor(config, fossil, fossil_repos);
+        exec.executePlan(plan, config.getDryRun());
+      }
+    } finally {
+      if (map_writer != null) {
+        map_writer.close();
+      }
+    }
+
+    switch (config.getDryRun()) {
+      case EXECUTE_DRY_RUN: {
+        break;
+      }
+      case EXECUTE: {
+        final OptionType<File> binary_opt =
+          config.getCommitMappingBinaryFile();
+        if (binary_opt.isSome()) {
+          FTGRMain.writeCommitMapBinary(map, ((Some<File>) binary_opt).get());
+        }
+
         if (config.wantVerification()) {
           FTGRMain.verify(config, git, fossil, fossil_repos, map);
         }
@@ -204,27 +284,83 @@ public final class FTGRMain
     }
   }
 
-  private static void writeCommitMap(
-    final BidiMap<GitCommitName, FossilCommit> commit_log,
-    final File map)
-    throws IOException
+  private static void loadSigningKey(
+    final FossilExecutableType fossil,
+    final FossilRepositorySpecificationType fossil_repos,
+    final Map<BigInteger, BigInteger> key_map,
+    final FossilModelBuilderType model_builder,
+    final FossilCommit c)
+    throws FossilException
   {
-    FTGRMain.LOG.debug("writing commit map {}", map);
-
-    try (final FileOutputStream map_file = new FileOutputStream(map)) {
-      try (final PrintWriter fw = new PrintWriter(
-        new OutputStreamWriter(map_file))) {
+    final FossilCommitName uuid = c.getCommitBlob();
 
-        for (final GitCommitName git_commit : commit_log.keySet()) {
-          final FossilCommit fossil_commit =
-            NullCheck.notNull(commit_log.get(git_commit));
-          fw.printf(
-            "git:%s|fossil:%s\n", git_commit, fossil_commit.getCommitBlob());
-        }
+    final OptionType<BigInteger> key_id_opt;
+    try {
+      final ByteBuffer data = fossil.getBlobForUUID(fossil_repos, uuid);
+      key_id_opt = FossilManifest.getSignatureKey(uuid, data);
+    } catch (final IOException e) {
+      throw new FossilException(e);
+    }
 
-        fw.flush();
+    if (key_id_opt.isSome()) {
+      final Some<BigInteger> some = (Some<BigInteger>) key_id_opt;
+      final BigInteger signing_key = some.get();
+      final BigInteger actual_key;
+
+      if (key_map.containsKey(signing_key)) {
+        actual_key = NullCheck.notNull(key_map.get(signing_key));
+        FTGRMain.LOG.debug(
+          "mapped pgp key {} → {}",
+          signing_key.toString(16),
+          actual_key.toString(16));
+      } else {
+        actual_key = signing_key;
       }
+
+      FTGRMain.LOG.debug(
+        "commit {} key {}",
+        Integer.valueOf(c.getId()),
+        actual_key.toString(16));
+      model_builder.setSigningKey(c.getId(), actual_key);
+    }
+  }
+
+  private static ReplayExecutorType newExecutor(
+    final FTGRConfiguration config,
+    final FossilExecutableType fossil,
+    final FossilRepositorySpecificationType fossil_repos)
+  {
+    final int depth = config.getPrefetchDepth();
+    if (depth > 0) {
+      final File staging = config.getStagingDirectory();
+      FTGRMain.LOG.info(
+        "prefetching {} commits using staging directory {}",
+        Integer.valueOf(depth),
+        staging);
+      final ReplayStagingPoolType pool =
+        ReplayStagingPool.newPool(fossil, fossil_repos, staging, depth + 1);
+      return ReplayPipelinedExecutor.newExecutor(depth, pool);
     }
+    return ReplayExecutor.newExecutor();
+  }
+
+  /**
+   * Write the binary form of the complete commit map, which by now contains
+   * the commits converted by previous runs and by this run.
+   */
+
+  private static void writeCommitMapBinary(
+    final File map,
+    final File file)
+    throws IOException
+  {
+    FTGRMain.LOG.debug("writing binary commit map {}", file);
+
+    final BidiMap<GitCommitName, FossilCommitName> all;
+    try (final FileInputStream s = new FileInputStream(map)) {
+      all = FossilCommitMap.fromStream(s);
+    }
+    FossilCommitMapBinary.write(all, file);
   }
 
   private static void verify(
@@ -235,40 +371,10 @@ public final class FTGRMain
     final File map)
     throws IOException
   {
-    try (final FileInputStream s = new FileInputStream(map)) {
-
-      final BidiMap<GitCommitName, FossilCommitName> in_commits =
-        FossilCommitMap.fromStream(s);
-
-      final File in_git_tmp =
-        Files.createTempDirectory("verifier-git-tmp-").toFile();
-      FTGRMain.LOG.info("using temporary git repository: {}", in_git_tmp);
-
-      final File in_fossil_tmp =
-        Files.createTempDirectory("verifier-fossil-tmp-").toFile();
-      FTGRMain.LOG.info(
-        "using temporary fossil repository: {}", in_fossil_tmp);
-
-      final VerifierType v = Verifier.newVerifier(
-        in_commits,
-        config.getGitRepository(),
-        fossil_repos,
-        git,
-        fossil,
-        in_git_tmp,
-        in_fossil_tmp);
-
-      boolean ok = true;
-      final List<VerifierResult> results = v.verify();
-      for (int index = 0; index < results.size(); ++index) {
-        final VerifierResult r = results.get(index);
-        ok = r.isOk() && ok;
-        FTGRMain.LOG.info(
-          "commit git:{}: (ok: {}) {}",
-          r.getGitCommit(),
-          Boolean.toString(r.isOk()),
-          r.getMessage());
-      }
+    final boolean ok =
+      VerifierMain.runVerification(config, git, fossil, fossil_repos, map);
+    if (ok == false) {
+      FTGRMain.LOG.error("one or more commits failed verification");
     }
   }
 }
@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of the reconstructed content of Fossil artifacts, keyed by blob
+ * ID, so that the chain of deltas of an artifact need not be applied from
+ * its root each time that an artifact stored relative to it is read. The
+ * cache holds at most a fixed number of bytes of content, evicting the
+ * least recently used artifacts first. Artifacts larger than a quarter of
+ * the cache are not cached. Cached content must not be modified.
+ */
+
+final class FossilArtifactCache
+{
+  private final long                           limit;
+  private final LinkedHashMap<Integer, byte[]> artifacts;
+  private long                                 size;
+
+  private FossilArtifactCache(final long in_limit)
+  {
+    if (in_limit < 0L) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Cache size must be >= 0 (got %d)", Long.valueOf(in_limit)));
+    }
+
+    this.limit = in_limit;
+    this.artifacts = new LinkedHashMap<>(256, 0.75f, true);
+    this.size = 0L;
+  }
+
+  static FossilArtifactCache newCache(final long in_limit)
+  {
+    return new FossilArtifactCache(in_limit);
+  }
+
+  synchronized @Nullable byte[] get(final int rid)
+  {
+    return this.artifacts.get(Integer.valueOf(rid));
+  }
+
+  synchronized void put(
+    final int rid,
+    final byte[] content)
+  {
+    NullCheck.notNull(content);
+
+    final long content_size = (long) content.length;
+    if (content_size > this.limit / 4L) {
+      return;
+    }
+
+    final byte[] previous =
+      this.artifacts.put(Integer.valueOf(rid), content);
+    if (previous != null) {
+      this.size = this.size - (long) previous.length;
+    }
+    this.size = this.size + content_size;
+
+    final Iterator<Map.Entry<Integer, byte[]>> iter =
+      this.artifacts.entrySet().iterator();
+    while (this.size > this.limit && iter.hasNext()) {
+      final Map.Entry<Integer, byte[]> e = iter.next();
+      this.size = this.size - (long) e.getValue().length;
+      iter.remove();
+    }
+  }
+}
@@ -18,33 +18,41 @@ package com.io7m.ftgr;
 
 import com.io7m.jnull.NullCheck;
 
-import java.sql.Timestamp;
+/**
+ * A Fossil commit. The branch, user, and comment of the commit are held in
+ * a shared {@link FossilCommitMetadata} store.
+ */
 
 public final class FossilCommit
 {
-  private final FossilCommitName commit_blob;
-  private final Timestamp        commit_time;
-  private final String           commit_comment;
-  private final String           commit_user;
-  private final String           branch;
-  private final boolean          branch_is_new;
-  private final int              id;
+  private final FossilCommitMetadata metadata;
+  private final FossilCommitName     commit_blob;
+  private final long                 commit_time;
+  private final long                 commit_comment;
+  private final int                  commit_user;
+  private final int                  branch;
+  private final boolean              branch_is_new;
+  private final int                  id;
 
   public FossilCommit(
+    final FossilCommitMetadata in_metadata,
     final int in_commit_id,
     final FossilCommitName in_commit_blob,
-    final Timestamp in_commit_time,
+    final long in_commit_time,
     final String in_commit_comment,
     final String in_branch,
     final boolean in_branch_is_new,
     final String in_commit_user)
   {
+    this.metadata = NullCheck.notNull(in_metadata);
     this.id = in_commit_id;
-    this.branch = NullCheck.notNull(in_branch);
+    this.branch = in_metadata.internName(NullCheck.notNull(in_branch));
     this.commit_blob = NullCheck.notNull(in_commit_blob);
-    this.commit_time = NullCheck.notNull(in_commit_time);
-    this.commit_comment = NullCheck.notNull(in_commit_comment);
-    this.commit_user = NullCheck.notNull(in_commit_user);
+    this.commit_time = in_commit_time;
+    this.commit_comment =
+      in_metadata.putComment(NullCheck.notNull(in_commit_comment));
+    this.commit_user =
+      in_metadata.internName(NullCheck.notNull(in_commit_user));
     this.branch_is_new = in_branch_is_new;
   }
 
@@ -60,17 +68,21 @@ public final class FossilCommit
 
   public String getCommitComment()
   {
-    return this.commit_comment;
+    return this.metadata.getComment(this.commit_comment);
   }
 
-  public Timestamp getCommitTime()
+  /**
+   * @return The time of the commit, in milliseconds since the epoch
+   */
+
+  public long getCommitTime()
   {
     return this.commit_time;
   }
 
   public String getCommitUser()
   {
-    return this.commit_user;
+    return this.metadata.getName(this.commit_user);
   }
 
   public int getId()
@@ -81,16 +93,20 @@ public final class FossilCommit
   @Override public String toString()
   {
     final StringBuilder sb = new StringBuilder("FossilCommit{");
-    sb.append("branch='").append(this.branch).append('\'');
+    sb.append("branch='").append(this.getBranch()).append('\'');
     sb.append(", commit_blob='").append(this.commit_blob).append('\'');
     sb.append(", commit_time=").append(this.commit_time);
-    sb.append(", commit_comment='").append(this.commit_comment).append('\'');
+    sb.append(", commit_user='").append(this.getCommitUser()).append('\'');
     sb.append(", branch_is_new=").append(this.branch_is_new);
     sb.append(", id=").append(this.id);
     sb.append('}');
     return sb.toString();
   }
 
+  /**
+   * Commits are identified by their database ID and manifest name.
+   */
+
   @Override public boolean equals(final Object o)
   {
     if (this == o) {
@@ -102,42 +118,21 @@ public final class FossilCommit
 
     final FossilCommit that = (FossilCommit) o;
 
-    if (this.branch_is_new != that.branch_is_new) {
-      return false;
-    }
     if (this.id != that.id) {
       return false;
     }
-    if (!this.commit_blob.equals(that.commit_blob)) {
-      return false;
-    }
-    if (!this.commit_time.equals(that.commit_time)) {
-      return false;
-    }
-    if (!this.commit_comment.equals(that.commit_comment)) {
-      return false;
-    }
-    if (!this.commit_user.equals(that.commit_user)) {
-      return false;
-    }
-    return this.branch.equals(that.branch);
-
+    return this.commit_blob.equals(that.commit_blob);
   }
 
   @Override public int hashCode()
   {
     int result = this.commit_blob.hashCode();
-    result = 31 * result + this.commit_time.hashCode();
-    result = 31 * result + this.commit_comment.hashCode();
-    result = 31 * result + this.commit_user.hashCode();
-    result = 31 * result + this.branch.hashCode();
-    result = 31 * result + (this.branch_is_new ? 1 : 0);
     result = 31 * result + this.id;
     return result;
   }
 
   public String getBranch()
   {
-    return this.branch;
+    return this.metadata.getName(this.branch);
   }
 }
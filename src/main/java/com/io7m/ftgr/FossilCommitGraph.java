@@ -0,0 +1,306 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable commit graph. Commits are identified by dense ordinals in
+ * the order that they were added, and the parent and child lists of all
+ * commits are stored in flat arrays indexed by per-commit offsets. The graph
+ * is checked for cycles once, when it is built.
+ */
+
+public final class FossilCommitGraph
+{
+  private final FossilModelCommitNode[] nodes;
+  private final int[]                   ids_sorted;
+  private final int[]                   ids_ordinals;
+  private final int[]                   parent_offsets;
+  private final int[]                   parents;
+  private final int[]                   child_offsets;
+  private final int[]                   children;
+  private final int[]                   dated;
+
+  private FossilCommitGraph(
+    final FossilModelCommitNode[] in_nodes,
+    final int[] in_ids_sorted,
+    final int[] in_ids_ordinals,
+    final int[] in_parent_offsets,
+    final int[] in_parents,
+    final int[] in_child_offsets,
+    final int[] in_children,
+    final int[] in_dated)
+  {
+    this.nodes = NullCheck.notNull(in_nodes);
+    this.ids_sorted = NullCheck.notNull(in_ids_sorted);
+    this.ids_ordinals = NullCheck.notNull(in_ids_ordinals);
+    this.parent_offsets = NullCheck.notNull(in_parent_offsets);
+    this.parents = NullCheck.notNull(in_parents);
+    this.child_offsets = NullCheck.notNull(in_child_offsets);
+    this.children = NullCheck.notNull(in_children);
+    this.dated = NullCheck.notNull(in_dated);
+  }
+
+  /**
+   * Build a graph. Link {@code i} runs from the commit with ID {@code
+   * sources[i]} to the commit with ID {@code targets[i]}. Duplicate links
+   * are ignored.
+   *
+   * @param commits    The commits, in ordinal order
+   * @param sources    The source commit ID of each link
+   * @param targets    The target commit ID of each link
+   * @param link_count The number of links
+   *
+   * @return A new graph
+   *
+   * @throws FossilGraphException If a link refers to a nonexistent commit,
+   *                              or the graph contains a cycle
+   */
+
+  static FossilCommitGraph newGraph(
+    final List<FossilCommit> commits,
+    final int[] sources,
+    final int[] targets,
+    final int link_count)
+    throws FossilGraphException
+  {
+    NullCheck.notNull(commits);
+    NullCheck.notNull(sources);
+    NullCheck.notNull(targets);
+
+    final int count = commits.size();
+    final FossilModelCommitNode[] nodes = new FossilModelCommitNode[count];
+    final long[] times = new long[count];
+    final long[] keyed = new long[count];
+    for (int index = 0; index < count; ++index) {
+      final FossilCommit c = NullCheck.notNull(commits.get(index));
+      nodes[index] = new FossilModelCommitNode(c, index);
+      times[index] = c.getCommitTime();
+      keyed[index] = ((long) c.getId() << 32) | (long) index;
+    }
+
+    /**
+     * Commit IDs are resolved to ordinals by binary search over the sorted
+     * IDs.
+     */
+
+    Arrays.sort(keyed);
+    final int[] ids_sorted = new int[count];
+    final int[] ids_ordinals = new int[count];
+    for (int index = 0; index < count; ++index) {
+      ids_sorted[index] = (int) (keyed[index] >> 32);
+      ids_ordinals[index] = (int) keyed[index];
+      if (index > 0 && ids_sorted[index] == ids_sorted[index - 1]) {
+        throw new FossilGraphException(
+          String.format(
+            "Duplicate commit ID %d", Integer.valueOf(ids_sorted[index])));
+      }
+    }
+
+    /**
+     * Group the links by target, sorting and removing duplicates within
+     * each group.
+     */
+
+    final int[] link_sources = new int[link_count];
+    final int[] link_targets = new int[link_count];
+    final int[] parent_offsets = new int[count + 1];
+    for (int index = 0; index < link_count; ++index) {
+      link_sources[index] =
+        FossilCommitGraph.resolve(ids_sorted, ids_ordinals, sources[index]);
+      link_targets[index] =
+        FossilCommitGraph.resolve(ids_sorted, ids_ordinals, targets[index]);
+      parent_offsets[link_targets[index] + 1] =
+        parent_offsets[link_targets[index] + 1] + 1;
+    }
+    for (int index = 0; index < count; ++index) {
+      parent_offsets[index + 1] =
+        parent_offsets[index + 1] + parent_offsets[index];
+    }
+
+    final int[] grouped = new int[link_count];
+    final int[] fill = Arrays.copyOf(parent_offsets, count);
+    for (int index = 0; index < link_count; ++index) {
+      final int target = link_targets[index];
+      grouped[fill[target]] = link_sources[index];
+      fill[target] = fill[target] + 1;
+    }
+
+    int unique = 0;
+    int start = 0;
+    for (int node = 0; node < count; ++node) {
+      final int end = parent_offsets[node + 1];
+      Arrays.sort(grouped, start, end);
+      parent_offsets[node] = unique;
+      for (int index = start; index < end; ++index) {
+        if (index == start || grouped[index] != grouped[index - 1]) {
+          grouped[unique] = grouped[index];
+          unique = unique + 1;
+        }
+      }
+      start = end;
+    }
+    parent_offsets[count] = unique;
+    final int[] parents = Arrays.copyOf(grouped, unique);
+
+    /**
+     * Invert the parent lists to produce the child lists.
+     */
+
+    final int[] child_offsets = new int[count + 1];
+    for (int index = 0; index < unique; ++index) {
+      child_offsets[parents[index] + 1] = child_offsets[parents[index] + 1] + 1;
+    }
+    for (int index = 0; index < count; ++index) {
+      child_offsets[index + 1] =
+        child_offsets[index + 1] + child_offsets[index];
+    }
+
+    final int[] children = new int[unique];
+    System.arraycopy(child_offsets, 0, fill, 0, count);
+    for (int node = 0; node < count; ++node) {
+      for (int index = parent_offsets[node];
+           index < parent_offsets[node + 1];
+           ++index) {
+        final int parent = parents[index];
+        children[fill[parent]] = node;
+        fill[parent] = fill[parent] + 1;
+      }
+    }
+
+    /**
+     * Ordering the graph also checks that it is acyclic.
+     */
+
+    final int[] dated =
+      FossilCommitOrdering.order(times, child_offsets, children);
+
+    return new FossilCommitGraph(
+      nodes,
+      ids_sorted,
+      ids_ordinals,
+      parent_offsets,
+      parents,
+      child_offsets,
+      children,
+      dated);
+  }
+
+  private static int resolve(
+    final int[] ids_sorted,
+    final int[] ids_ordinals,
+    final int id)
+    throws FossilGraphException
+  {
+    final int index = Arrays.binarySearch(ids_sorted, id);
+    if (index < 0) {
+      throw new FossilGraphException(
+        String.format(
+          "Link refers to nonexistent commit %d", Integer.valueOf(id)));
+    }
+    return ids_ordinals[index];
+  }
+
+  /**
+   * @return The number of commits in the graph
+   */
+
+  public int getSize()
+  {
+    return this.nodes.length;
+  }
+
+  /**
+   * @param ordinal The commit ordinal
+   *
+   * @return The node with the given ordinal
+   */
+
+  public FossilModelCommitNode getNode(final int ordinal)
+  {
+    return NullCheck.notNull(this.nodes[ordinal]);
+  }
+
+  /**
+   * @param id The Fossil commit ID
+   *
+   * @return The ordinal of the commit with the given ID, or {@code -1} if
+   * there is no such commit
+   */
+
+  public int getOrdinal(final int id)
+  {
+    final int index = Arrays.binarySearch(this.ids_sorted, id);
+    if (index < 0) {
+      return -1;
+    }
+    return this.ids_ordinals[index];
+  }
+
+  public int getParentCount(final int ordinal)
+  {
+    return this.parent_offsets[ordinal + 1] - this.parent_offsets[ordinal];
+  }
+
+  public FossilModelCommitNode getParent(
+    final int ordinal,
+    final int index)
+  {
+    return this.getNode(this.parents[this.parent_offsets[ordinal] + index]);
+  }
+
+  public int getChildCount(final int ordinal)
+  {
+    return this.child_offsets[ordinal + 1] - this.child_offsets[ordinal];
+  }
+
+  public FossilModelCommitNode getChild(
+    final int ordinal,
+    final int index)
+  {
+    return this.getNode(this.children[this.child_offsets[ordinal] + index]);
+  }
+
+  /**
+   * @return All nodes, ordered by date such that every parent appears before
+   * its children
+   *
+   * @see FossilCommitOrdering
+   */
+
+  public List<FossilModelCommitNode> getNodesByDate()
+  {
+    return new AbstractList<FossilModelCommitNode>()
+    {
+      @Override public FossilModelCommitNode get(final int index)
+      {
+        return FossilCommitGraph.this.getNode(
+          FossilCommitGraph.this.dated[index]);
+      }
+
+      @Override public int size()
+      {
+        return FossilCommitGraph.this.dated.length;
+      }
+    };
+  }
+}
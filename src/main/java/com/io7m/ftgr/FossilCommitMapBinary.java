@@ -0,0 +1,672 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jnull.NullCheck;
+import org.apache.commons.collections4.BidiMap;
+import org.apache.commons.collections4.bidimap.DualHashBidiMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * <p>A commit map in a binary format that can be memory-mapped and
+ * searched in either direction without being loaded onto the heap.</p>
+ *
+ * <p>All integers are big-endian. The file consists of:</p>
+ *
+ * <ul>
+ * <li>A header: The eight bytes {@code FTGRMAP\0}, a four byte version
+ * ({@link #VERSION}), and a four byte record count {@code n}.</li>
+ * <li>A fan-out table for Git commits: 256 four byte entries, where entry
+ * {@code k} is the number of records whose Git commit starts with a byte
+ * less than or equal to {@code k}.</li>
+ * <li>A fan-out table of the same form for Fossil commits, counting entries
+ * of the Fossil index.</li>
+ * <li>{@code n} records of {@link #RECORD_SIZE} bytes, sorted by Git
+ * commit: The raw 20 byte Git commit, a one byte length of the Fossil
+ * commit, and the raw Fossil commit padded with zeroes to 32 bytes.</li>
+ * <li>The Fossil index: {@code n} four byte record numbers, sorted by
+ * Fossil commit (by the padded bytes, and then by length).</li>
+ * </ul>
+ */
+
+public final class FossilCommitMapBinary implements Closeable
+{
+  /**
+   * The current version of the format.
+   */
+
+  public static final int VERSION = 1;
+
+  static final int RECORD_SIZE = 20 + 1 + 32;
+
+  private static final Logger LOG;
+  private static final byte[] MAGIC;
+  private static final int    GIT_FANOUT    = 16;
+  private static final int    FOSSIL_FANOUT = GIT_FANOUT + 1024;
+  private static final int    RECORDS       = FOSSIL_FANOUT + 1024;
+
+  static {
+    LOG = LoggerFactory.getLogger(FossilCommitMapBinary.class);
+    MAGIC = "FTGRMAP\u0000".getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private final File        file;
+  private final FileChannel channel;
+  private final ByteBuffer  data;
+  private final int         count;
+  private final int         fossil_index;
+
+  private FossilCommitMapBinary(
+    final File in_file,
+    final FileChannel in_channel,
+    final ByteBuffer in_data)
+    throws IOException
+  {
+    this.file = NullCheck.notNull(in_file);
+    this.channel = NullCheck.notNull(in_channel);
+    this.data = NullCheck.notNull(in_data);
+
+    final int capacity = in_data.capacity();
+    if (capacity < FossilCommitMapBinary.RECORDS) {
+      throw new IOException(
+        String.format("%s: Truncated commit map", in_file));
+    }
+    for (int index = 0; index < FossilCommitMapBinary.MAGIC.length; ++index) {
+      if (in_data.get(index) != FossilCommitMapBinary.MAGIC[index]) {
+        throw new IOException(
+          String.format("%s: Not a binary commit map", in_file));
+      }
+    }
+
+    final int version = in_data.getInt(8);
+    if (version != FossilCommitMapBinary.VERSION) {
+      throw new IOException(
+        String.format(
+          "%s: Unsupported commit map version %d (expected %d)",
+          in_file,
+          Integer.valueOf(version),
+          Integer.valueOf(FossilCommitMapBinary.VERSION)));
+    }
+
+    this.count = in_data.getInt(12);
+    this.fossil_index = FossilCommitMapBinary.RECORDS
+                        + (this.count * FossilCommitMapBinary.RECORD_SIZE);
+    final long expected = (long) FossilCommitMapBinary.RECORDS
+                          + ((long) this.count
+                             * (long) (FossilCommitMapBinary.RECORD_SIZE + 4));
+    if (this.count < 0 || (long) capacity != expected) {
+      throw new IOException(
+        String.format(
+          "%s: Commit map size %d does not match its record count %d",
+          in_file,
+          Integer.valueOf(capacity),
+          Integer.valueOf(this.count)));
+    }
+  }
+
+  /**
+   * Map the given binary commit map into memory.
+   *
+   * @param file The file
+   *
+   * @return The commit map
+   *
+   * @throws IOException On I/O errors, or if the file is not a binary commit
+   *                     map of the current version
+   */
+
+  public static FossilCommitMapBinary openMap(final File file)
+    throws IOException
+  {
+    NullCheck.notNull(file);
+
+    final FileChannel channel =
+      FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      if (channel.size() > (long) Integer.MAX_VALUE) {
+        throw new IOException(
+          String.format("%s: Commit map is too large to be mapped", file));
+      }
+      final ByteBuffer data =
+        channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+      return new FossilCommitMapBinary(file, channel, data);
+    } catch (final IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Write the given commit map to {@code file} in the binary format. The
+   * map is written to a temporary file that then replaces {@code file}, so
+   * readers never see a partially written map.
+   *
+   * @param map  The commit map
+   * @param file The output file
+   *
+   * @throws IOException On I/O errors, or if any commit name is not a
+   *                     hexadecimal hash of a supported length
+   */
+
+  public static void write(
+    final BidiMap<GitCommitName, FossilCommitName> map,
+    final File file)
+    throws IOException
+  {
+    NullCheck.notNull(map);
+    NullCheck.notNull(file);
+
+    final int count = map.size();
+    if ((long) count * (long) (FossilCommitMapBinary.RECORD_SIZE + 4)
+        > (long) (Integer.MAX_VALUE - FossilCommitMapBinary.RECORDS)) {
+      throw new IOException(
+        String.format(
+          "Too many commits for a binary commit map (%d)",
+          Integer.valueOf(count)));
+    }
+
+    final byte[][] records = new byte[count][];
+    int index = 0;
+    for (final GitCommitName git_commit : map.keySet()) {
+      final FossilCommitName fossil_commit =
+        NullCheck.notNull(map.get(git_commit));
+      records[index] =
+        FossilCommitMapBinary.makeRecord(git_commit, fossil_commit);
+      index = index + 1;
+    }
+
+    Arrays.sort(
+      records, new Comparator<byte[]>()
+      {
+        @Override public int compare(
+          final byte[] r0,
+          final byte[] r1)
+        {
+          return FossilCommitMapBinary.compareRange(r0, r1, 0, 20);
+        }
+      });
+
+    final Integer[] fossil_order = new Integer[count];
+    for (int k = 0; k < count; ++k) {
+      fossil_order[k] = Integer.valueOf(k);
+    }
+    Arrays.sort(
+      fossil_order, new Comparator<Integer>()
+      {
+        @Override public int compare(
+          final Integer i0,
+          final Integer i1)
+        {
+          return FossilCommitMapBinary.compareFossil(
+            records[i0.intValue()], records[i1.intValue()]);
+        }
+      });
+
+    final int[] git_fanout = new int[256];
+    final int[] fossil_fanout = new int[256];
+    for (int k = 0; k < count; ++k) {
+      git_fanout[records[k][0] & 0xff] += 1;
+      fossil_fanout[records[k][21] & 0xff] += 1;
+    }
+    for (int k = 1; k < 256; ++k) {
+      git_fanout[k] += git_fanout[k - 1];
+      fossil_fanout[k] += fossil_fanout[k - 1];
+    }
+
+    final File tmp = new File(file.getPath() + ".tmp");
+    try (final FileOutputStream stream = new FileOutputStream(tmp);
+         final DataOutputStream out = new DataOutputStream(
+           new BufferedOutputStream(stream, 65536))) {
+      out.write(FossilCommitMapBinary.MAGIC);
+      out.writeInt(FossilCommitMapBinary.VERSION);
+      out.writeInt(count);
+      for (int k = 0; k < 256; ++k) {
+        out.writeInt(git_fanout[k]);
+      }
+      for (int k = 0; k < 256; ++k) {
+        out.writeInt(fossil_fanout[k]);
+      }
+      for (int k = 0; k < count; ++k) {
+        out.write(records[k]);
+      }
+      for (int k = 0; k < count; ++k) {
+        out.writeInt(fossil_order[k].intValue());
+      }
+      out.flush();
+
+      /**
+       * Force the contents to disk before the rename; otherwise a crash
+       * could leave the new name pointing at a truncated file.
+       */
+
+      stream.getChannel().force(true);
+    }
+
+    Files.move(
+      tmp.toPath(),
+      file.toPath(),
+      StandardCopyOption.REPLACE_EXISTING,
+      StandardCopyOption.ATOMIC_MOVE);
+
+    FossilCommitMapBinary.LOG.debug(
+      "wrote binary commit map {} ({} commits)", file, Integer.valueOf(count));
+  }
+
+  private static byte[] makeRecord(
+    final GitCommitName git_commit,
+    final FossilCommitName fossil_commit)
+    throws IOException
+  {
+    final byte[] git_id = FossilCommitMapBinary.parseHex(git_commit.toString());
+    if (git_id.length != 20) {
+      throw new IOException(
+        String.format("Unsupported Git commit name: %s", git_commit));
+    }
+    final byte[] fossil_id =
+      FossilCommitMapBinary.parseHex(fossil_commit.toString());
+    if (fossil_id.length == 0 || fossil_id.length > 32) {
+      throw new IOException(
+        String.format("Unsupported Fossil commit name: %s", fossil_commit));
+    }
+
+    final byte[] record = new byte[FossilCommitMapBinary.RECORD_SIZE];
+    System.arraycopy(git_id, 0, record, 0, 20);
+    record[20] = (byte) fossil_id.length;
+    System.arraycopy(fossil_id, 0, record, 21, fossil_id.length);
+    return record;
+  }
+
+  static byte[] parseHex(final String text)
+    throws IOException
+  {
+    if (text.length() % 2 != 0) {
+      throw new IOException(String.format("Malformed hash: %s", text));
+    }
+
+    final byte[] bytes = new byte[text.length() / 2];
+    for (int index = 0; index < bytes.length; ++index) {
+      final int hi = Character.digit(text.charAt(index * 2), 16);
+      final int lo = Character.digit(text.charAt((index * 2) + 1), 16);
+      if (hi < 0 || lo < 0) {
+        throw new IOException(String.format("Malformed hash: %s", text));
+      }
+      bytes[index] = (byte) ((hi << 4) | lo);
+    }
+    return bytes;
+  }
+
+  private static int compareRange(
+    final byte[] r0,
+    final byte[] r1,
+    final int offset,
+    final int length)
+  {
+    for (int index = offset; index < offset + length; ++index) {
+      final int a = r0[index] & 0xff;
+      final int b = r1[index] & 0xff;
+      if (a != b) {
+        return a < b ? -1 : 1;
+      }
+    }
+    return 0;
+  }
+
+  private static int compareFossil(
+    final byte[] r0,
+    final byte[] r1)
+  {
+    final int c = FossilCommitMapBinary.compareRange(r0, r1, 21, 32);
+    if (c != 0) {
+      return c;
+    }
+    return Integer.compare(r0[20] & 0xff, r1[20] & 0xff);
+  }
+
+  /**
+   * @return The number of commits in the map
+   */
+
+  public int size()
+  {
+    return this.count;
+  }
+
+  /**
+   * @param git_commit A Git commit
+   *
+   * @return The Fossil commit that was converted to {@code git_commit}, if
+   * any
+   *
+   * @throws IOException If the commit name is malformed
+   */
+
+  public OptionType<FossilCommitName> getFossilCommit(
+    final GitCommitName git_commit)
+    throws IOException
+  {
+    NullCheck.notNull(git_commit);
+
+    final byte[] id = FossilCommitMapBinary.parseHex(git_commit.toString());
+    if (id.length != 20) {
+      return Option.none();
+    }
+
+    final int first = id[0] & 0xff;
+    int low = this.fanout(FossilCommitMapBinary.GIT_FANOUT, first - 1);
+    int high = this.fanout(FossilCommitMapBinary.GIT_FANOUT, first);
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      final int c = this.compareGit(middle, id);
+      if (c == 0) {
+        return Option.some(this.fossilAt(middle));
+      }
+      if (c < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return Option.none();
+  }
+
+  /**
+   * @param fossil_commit A Fossil commit
+   *
+   * @return The Git commit that {@code fossil_commit} was converted to, if
+   * any
+   *
+   * @throws IOException If the commit name is malformed
+   */
+
+  public OptionType<GitCommitName> getGitCommit(
+    final FossilCommitName fossil_commit)
+    throws IOException
+  {
+    NullCheck.notNull(fossil_commit);
+
+    final byte[] id = FossilCommitMapBinary.parseHex(fossil_commit.toString());
+    if (id.length == 0 || id.length > 32) {
+      return Option.none();
+    }
+
+    final int first = id[0] & 0xff;
+    int low = this.fanout(FossilCommitMapBinary.FOSSIL_FANOUT, first - 1);
+    int high = this.fanout(FossilCommitMapBinary.FOSSIL_FANOUT, first);
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      final int record = this.fossilIndexAt(middle);
+      final int c = this.compareFossil(record, id);
+      if (c == 0) {
+        return Option.some(this.gitAt(record));
+      }
+      if (c < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return Option.none();
+  }
+
+  /**
+   * Find the mappings of the Git commits whose names start with the given
+   * hexadecimal prefix.
+   *
+   * @param prefix The prefix (of any length)
+   * @param limit  The maximum number of mappings to return
+   *
+   * @return The first {@code limit} matching mappings in order of Git
+   * commit, in a map that does not preserve that order
+   *
+   * @throws IOException If the prefix is not hexadecimal
+   */
+
+  public BidiMap<GitCommitName, FossilCommitName> findByGitPrefix(
+    final String prefix,
+    final int limit)
+    throws IOException
+  {
+    NullCheck.notNull(prefix);
+    return this.findByPrefix(true, prefix, limit);
+  }
+
+  /**
+   * Find the mappings of the Fossil commits whose names start with the given
+   * hexadecimal prefix.
+   *
+   * @param prefix The prefix (of any length)
+   * @param limit  The maximum number of mappings to return
+   *
+   * @return The first {@code limit} matching mappings in order of Fossil
+   * commit, in a map that does not preserve that order
+   *
+   * @throws IOException If the prefix is not hexadecimal
+   */
+
+  public BidiMap<GitCommitName, FossilCommitName> findByFossilPrefix(
+    final String prefix,
+    final int limit)
+    throws IOException
+  {
+    NullCheck.notNull(prefix);
+    return this.findByPrefix(false, prefix, limit);
+  }
+
+  /**
+   * Entries matching a prefix are contiguous in either order, so the
+   * matches are found by a binary search for the first entry that is not
+   * less than the prefix, followed by a scan.
+   */
+
+  private BidiMap<GitCommitName, FossilCommitName> findByPrefix(
+    final boolean git,
+    final String prefix,
+    final int limit)
+    throws IOException
+  {
+    final int[] nibbles = new int[prefix.length()];
+    for (int index = 0; index < nibbles.length; ++index) {
+      nibbles[index] = Character.digit(prefix.charAt(index), 16);
+      if (nibbles[index] < 0) {
+        throw new IOException(String.format("Malformed prefix: %s", prefix));
+      }
+    }
+
+    final int width = git ? 20 : 32;
+    final int table = git
+      ? FossilCommitMapBinary.GIT_FANOUT
+      : FossilCommitMapBinary.FOSSIL_FANOUT;
+
+    int low = 0;
+    int high = this.count;
+    if (nibbles.length >= 2) {
+      final int first = (nibbles[0] << 4) | nibbles[1];
+      low = this.fanout(table, first - 1);
+      high = this.fanout(table, first);
+    } else if (nibbles.length == 1) {
+      low = this.fanout(table, (nibbles[0] << 4) - 1);
+      high = this.fanout(table, (nibbles[0] << 4) + 15);
+    }
+
+    final BidiMap<GitCommitName, FossilCommitName> results =
+      new DualHashBidiMap<>();
+    if (nibbles.length > width * 2) {
+      return results;
+    }
+
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (this.comparePrefix(git, middle, nibbles) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+
+    for (int entry = low; entry < this.count; ++entry) {
+      if (results.size() >= limit
+          || this.comparePrefix(git, entry, nibbles) != 0) {
+        break;
+      }
+      final int record = git ? entry : this.fossilIndexAt(entry);
+      results.put(this.gitAt(record), this.fossilAt(record));
+    }
+    return results;
+  }
+
+  /**
+   * @return A negative value, zero, or a positive value if the name of the
+   * given entry is less than, starts with, or is greater than the prefix
+   */
+
+  private int comparePrefix(
+    final boolean git,
+    final int entry,
+    final int[] nibbles)
+  {
+    final int base;
+    if (git) {
+      base = this.recordOffset(entry);
+    } else {
+      base = this.recordOffset(this.fossilIndexAt(entry)) + 21;
+    }
+
+    for (int index = 0; index < nibbles.length; ++index) {
+      final int b = this.data.get(base + (index / 2)) & 0xff;
+      final int n = (index % 2 == 0) ? (b >>> 4) : (b & 0xf);
+      if (n != nibbles[index]) {
+        return n < nibbles[index] ? -1 : 1;
+      }
+    }
+
+    /**
+     * A Fossil name must also be long enough to contain the prefix.
+     */
+
+    if (git == false) {
+      final int length = this.data.get(base - 1) & 0xff;
+      if (length * 2 < nibbles.length) {
+        return -1;
+      }
+    }
+    return 0;
+  }
+
+  private int fanout(
+    final int table,
+    final int index)
+  {
+    if (index < 0) {
+      return 0;
+    }
+    return this.data.getInt(table + (index * 4));
+  }
+
+  private int recordOffset(final int record)
+  {
+    return FossilCommitMapBinary.RECORDS
+           + (record * FossilCommitMapBinary.RECORD_SIZE);
+  }
+
+  private int fossilIndexAt(final int index)
+  {
+    return this.data.getInt(this.fossil_index + (index * 4));
+  }
+
+  private int compareGit(
+    final int record,
+    final byte[] id)
+  {
+    final int base = this.recordOffset(record);
+    for (int index = 0; index < 20; ++index) {
+      final int a = this.data.get(base + index) & 0xff;
+      final int b = id[index] & 0xff;
+      if (a != b) {
+        return a < b ? -1 : 1;
+      }
+    }
+    return 0;
+  }
+
+  private int compareFossil(
+    final int record,
+    final byte[] id)
+  {
+    final int base = this.recordOffset(record);
+    for (int index = 0; index < 32; ++index) {
+      final int a = this.data.get(base + 21 + index) & 0xff;
+      final int b = index < id.length ? id[index] & 0xff : 0;
+      if (a != b) {
+        return a < b ? -1 : 1;
+      }
+    }
+    return Integer.compare(this.data.get(base + 20) & 0xff, id.length);
+  }
+
+  private GitCommitName gitAt(final int record)
+  {
+    final byte[] id = new byte[20];
+    final int base = this.recordOffset(record);
+    for (int index = 0; index < 20; ++index) {
+      id[index] = this.data.get(base + index);
+    }
+    return new GitCommitName(VerifierFileHashing.hex(id));
+  }
+
+  private FossilCommitName fossilAt(final int record)
+  {
+    final int base = this.recordOffset(record);
+    final byte[] id = new byte[this.data.get(base + 20) & 0xff];
+    for (int index = 0; index < id.length; ++index) {
+      id[index] = this.data.get(base + 21 + index);
+    }
+    return new FossilCommitName(VerifierFileHashing.hex(id));
+  }
+
+  @Override public void close()
+    throws IOException
+  {
+    this.channel.close();
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder sb = new StringBuilder("FossilCommitMapBinary{");
+    sb.append("file=").append(this.file);
+    sb.append(", count=").append(this.count);
+    sb.append('}');
+    return sb.toString();
+  }
+}
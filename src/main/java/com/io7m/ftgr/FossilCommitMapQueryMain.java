@@ -0,0 +1,226 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.joran.JoranConfigurator;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jproperties.JProperties;
+import com.io7m.jproperties.JPropertyException;
+import com.io7m.junreachable.UnreachableCodeException;
+import org.apache.commons.collections4.BidiMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Translate commit names read from standard input, one per line, using the
+ * binary commit map. Each line is either a bare hexadecimal prefix, or a
+ * prefix qualified with {@code git:} or {@code fossil:}. The binary map is
+ * built from the commit map if it does not exist, or if it is older than the
+ * commit map.
+ */
+
+public final class FossilCommitMapQueryMain
+{
+  private static final Logger LOG;
+  private static final int    BUFFER_SIZE;
+
+  static {
+    LOG = LoggerFactory.getLogger(FossilCommitMapQueryMain.class);
+    BUFFER_SIZE = 1 << 16;
+  }
+
+  private FossilCommitMapQueryMain()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  public static void main(String[] args)
+    throws IOException, JPropertyException
+  {
+    if (args.length < 1) {
+      System.err.println("usage: ftgr.conf [logback.xml]");
+      System.exit(1);
+    }
+
+    if (args.length > 1) {
+      final LoggerContext context =
+        (LoggerContext) LoggerFactory.getILoggerFactory();
+      try {
+        final JoranConfigurator configurator = new JoranConfigurator();
+        configurator.setContext(context);
+        configurator.doConfigure(args[1]);
+      } catch (final Exception ex) {
+        System.err.println("Could not load logback.xml: ");
+        ex.printStackTrace();
+      }
+    }
+
+    final FTGRConfiguration config =
+      FTGRConfiguration.fromProperties(JProperties.fromFile(new File(args[0])));
+
+    final File map = config.getCommitMappingFile();
+    final OptionType<File> binary_opt = config.getCommitMappingBinaryFile();
+    final File binary;
+    if (binary_opt.isSome()) {
+      binary = ((Some<File>) binary_opt).get();
+    } else {
+      binary = new File(map.getPath() + ".bin");
+    }
+
+    FossilCommitMapQueryMain.buildIndex(map, binary);
+
+    try (final FossilCommitMapBinary index =
+           FossilCommitMapBinary.openMap(binary)) {
+      final BufferedReader reader = new BufferedReader(
+        new InputStreamReader(System.in, StandardCharsets.UTF_8),
+        FossilCommitMapQueryMain.BUFFER_SIZE);
+      final Writer writer = new BufferedWriter(
+        new OutputStreamWriter(System.out, StandardCharsets.UTF_8),
+        FossilCommitMapQueryMain.BUFFER_SIZE);
+
+      while (true) {
+        final String line = reader.readLine();
+        if (line == null) {
+          break;
+        }
+        FossilCommitMapQueryMain.query(index, line.trim(), writer);
+
+        /**
+         * Output is flushed only when no more input is immediately
+         * available, so that batches are answered with few writes, but
+         * interactive callers still receive each answer.
+         */
+
+        if (reader.ready() == false) {
+          writer.flush();
+        }
+      }
+      writer.flush();
+    }
+  }
+
+  /**
+   * (Re)build the binary commit map, if necessary.
+   *
+   * @param map    The commit map
+   * @param binary The binary commit map
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static void buildIndex(
+    final File map,
+    final File binary)
+    throws IOException
+  {
+    if (binary.isFile() && binary.lastModified() >= map.lastModified()) {
+      return;
+    }
+
+    FossilCommitMapQueryMain.LOG.info("building binary commit map {}", binary);
+    final BidiMap<GitCommitName, FossilCommitName> all;
+    try (final FileInputStream s = new FileInputStream(map)) {
+      all = FossilCommitMap.fromStream(s);
+    }
+    FossilCommitMapBinary.write(all, binary);
+  }
+
+  /**
+   * Answer a single query. The answer is a line of the same form as a line
+   * of the commit map, or {@code missing:}, {@code ambiguous:}, or
+   * {@code invalid:} followed by the query.
+   */
+
+  private static void query(
+    final FossilCommitMapBinary index,
+    final String line,
+    final Writer writer)
+    throws IOException
+  {
+    if (line.isEmpty()) {
+      return;
+    }
+
+    final String name;
+    final BidiMap<GitCommitName, FossilCommitName> results;
+    try {
+      if (line.startsWith("git:")) {
+        name = line.substring(4);
+        results = index.findByGitPrefix(name, 2);
+      } else if (line.startsWith("fossil:")) {
+        name = line.substring(7);
+        results = index.findByFossilPrefix(name, 2);
+      } else {
+        name = line;
+        results = index.findByGitPrefix(name, 2);
+        results.putAll(index.findByFossilPrefix(name, 2));
+      }
+    } catch (final IOException e) {
+      writer.write("invalid:");
+      writer.write(line);
+      writer.write('\n');
+      return;
+    }
+
+    GitCommitName git = null;
+    FossilCommitName fossil = null;
+    for (final Map.Entry<GitCommitName, FossilCommitName> e :
+      results.entrySet()) {
+      final GitCommitName g = e.getKey();
+      final FossilCommitName f = e.getValue();
+
+      /**
+       * A complete name matches itself exactly, even if it is also the
+       * prefix of a longer name.
+       */
+
+      if (name.equals(g.toString()) || name.equals(f.toString())) {
+        git = g;
+        fossil = f;
+        break;
+      }
+      if (results.size() == 1) {
+        git = g;
+        fossil = f;
+      }
+    }
+
+    if (git == null) {
+      writer.write(results.isEmpty() ? "missing:" : "ambiguous:");
+      writer.write(line);
+    } else {
+      writer.write("git:");
+      writer.write(git.toString());
+      writer.write("|fossil:");
+      writer.write(fossil.toString());
+    }
+    writer.write('\n');
+  }
+}
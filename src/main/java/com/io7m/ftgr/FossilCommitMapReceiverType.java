@@ -0,0 +1,42 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import java.io.IOException;
+
+/**
+ * A receiver of commit mappings, called once for each Git commit as soon
+ * as it has been created. Parallel replays may call the receiver from
+ * multiple threads at once.
+ */
+
+public interface FossilCommitMapReceiverType
+{
+  /**
+   * Receive a single mapping.
+   *
+   * @param git_commit    The Git commit that was created
+   * @param fossil_commit The Fossil commit that it was created from
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void onMapping(
+    GitCommitName git_commit,
+    FossilCommitName fossil_commit)
+    throws IOException;
+}
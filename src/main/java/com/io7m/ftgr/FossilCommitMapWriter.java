@@ -0,0 +1,226 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>A receiver that appends each mapping to a commit map file as it
+ * arrives, so that a failed or interrupted conversion loses at most the
+ * mappings that had not yet reached the disk.</p>
+ *
+ * <p>Each mapping is written to the file immediately (and so survives the
+ * failure of the process), but the file is only forced to the disk once
+ * every {@code sync_count} mappings, or when a mapping arrives at least
+ * {@code sync_interval} milliseconds after the last time the file was
+ * forced, whichever comes first. Closing the writer forces the file.</p>
+ *
+ * @see FossilCommitMap
+ */
+
+public final class FossilCommitMapWriter
+  implements FossilCommitMapReceiverType, Closeable
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(FossilCommitMapWriter.class);
+  }
+
+  private final File        file;
+  private final FileChannel channel;
+  private final int         sync_count;
+  private final long        sync_interval;
+  private int               pending;
+  private long              last_sync;
+
+  private FossilCommitMapWriter(
+    final File in_file,
+    final FileChannel in_channel,
+    final int in_sync_count,
+    final long in_sync_interval)
+  {
+    if (in_sync_count < 1) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Sync count must be >= 1 (got %d)", Integer.valueOf(in_sync_count)));
+    }
+    if (in_sync_interval < 0L) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Sync interval must be >= 0 (got %d)",
+          Long.valueOf(in_sync_interval)));
+    }
+
+    this.file = NullCheck.notNull(in_file);
+    this.channel = NullCheck.notNull(in_channel);
+    this.sync_count = in_sync_count;
+    this.sync_interval = in_sync_interval;
+    this.pending = 0;
+    this.last_sync = System.nanoTime();
+  }
+
+  /**
+   * @param map           The commit map file
+   * @param append        {@code true} iff mappings should be appended to
+   *                      the existing map
+   * @param sync_count    The maximum number of mappings that may be
+   *                      written between forcing the file to disk
+   * @param sync_interval The maximum time in milliseconds between forcing
+   *                      the file to disk, checked as mappings arrive
+   *
+   * @return A new commit map writer
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static FossilCommitMapWriter newWriter(
+    final File map,
+    final boolean append,
+    final int sync_count,
+    final long sync_interval)
+    throws IOException
+  {
+    NullCheck.notNull(map);
+
+    FossilCommitMapWriter.LOG.debug(
+      "writing commit map {} (append: {})", map, Boolean.valueOf(append));
+
+    final FileChannel channel;
+    if (append) {
+      channel = FileChannel.open(
+        map.toPath(),
+        StandardOpenOption.CREATE,
+        StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+      try {
+        FossilCommitMapWriter.truncateIncompleteLine(map, channel);
+      } catch (final IOException e) {
+        channel.close();
+        throw e;
+      }
+    } else {
+      channel = FileChannel.open(
+        map.toPath(),
+        StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    return new FossilCommitMapWriter(map, channel, sync_count, sync_interval);
+  }
+
+  /**
+   * Remove any partial mapping left at the end of the map by a conversion
+   * that was interrupted whilst writing it.
+   *
+   * @param map The commit map file
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void recover(final File map)
+    throws IOException
+  {
+    NullCheck.notNull(map);
+
+    try (final FileChannel channel = FileChannel.open(
+      map.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      FossilCommitMapWriter.truncateIncompleteLine(map, channel);
+    }
+  }
+
+  private static void truncateIncompleteLine(
+    final File map,
+    final FileChannel channel)
+    throws IOException
+  {
+    final long size = channel.size();
+    final ByteBuffer b = ByteBuffer.allocate(1);
+    long end = size;
+    while (end > 0L) {
+      b.clear();
+      channel.read(b, end - 1L);
+      if (b.get(0) == '\n') {
+        break;
+      }
+      end = end - 1L;
+    }
+
+    if (end != size) {
+      FossilCommitMapWriter.LOG.warn(
+        "{}: removing incomplete mapping ({} bytes) at end of map",
+        map,
+        Long.valueOf(size - end));
+      channel.truncate(end);
+      channel.force(false);
+    }
+    channel.position(end);
+  }
+
+  @Override public synchronized void onMapping(
+    final GitCommitName git_commit,
+    final FossilCommitName fossil_commit)
+    throws IOException
+  {
+    NullCheck.notNull(git_commit);
+    NullCheck.notNull(fossil_commit);
+
+    final ByteBuffer line = ByteBuffer.wrap(
+      String.format("git:%s|fossil:%s\n", git_commit, fossil_commit)
+        .getBytes(StandardCharsets.UTF_8));
+    while (line.hasRemaining()) {
+      this.channel.write(line);
+    }
+
+    this.pending = this.pending + 1;
+    final long elapsed_ms = (System.nanoTime() - this.last_sync) / 1000000L;
+    if (this.pending >= this.sync_count || elapsed_ms >= this.sync_interval) {
+      this.sync();
+    }
+  }
+
+  private void sync()
+    throws IOException
+  {
+    this.channel.force(false);
+    FossilCommitMapWriter.LOG.trace(
+      "{}: synced {} mappings", this.file, Integer.valueOf(this.pending));
+    this.pending = 0;
+    this.last_sync = System.nanoTime();
+  }
+
+  @Override public synchronized void close()
+    throws IOException
+  {
+    try {
+      this.sync();
+    } finally {
+      this.channel.close();
+    }
+  }
+}
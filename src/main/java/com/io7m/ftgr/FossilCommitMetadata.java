@@ -0,0 +1,141 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage for the textual metadata of commits. Branch and user names are
+ * interned and identified by small integers, and comments are stored as
+ * UTF-8 in a single off-heap buffer, and are only decoded on request.
+ */
+
+public final class FossilCommitMetadata
+{
+  private final Map<String, Integer> name_ids;
+  private final List<String>         names;
+  private ByteBuffer                 comments;
+
+  private FossilCommitMetadata()
+  {
+    this.name_ids = new HashMap<>(64);
+    this.names = new ArrayList<>(64);
+    this.comments = ByteBuffer.allocateDirect(1 << 16);
+  }
+
+  public static FossilCommitMetadata newStore()
+  {
+    return new FossilCommitMetadata();
+  }
+
+  /**
+   * @param name A branch or user name
+   *
+   * @return The identifier of the given name
+   */
+
+  public synchronized int internName(final String name)
+  {
+    NullCheck.notNull(name);
+
+    final Integer existing = this.name_ids.get(name);
+    if (existing != null) {
+      return existing.intValue();
+    }
+
+    final int id = this.names.size();
+    this.names.add(name);
+    this.name_ids.put(name, Integer.valueOf(id));
+    return id;
+  }
+
+  /**
+   * @param id A name identifier returned by {@link #internName(String)}
+   *
+   * @return The name with the given identifier
+   */
+
+  public synchronized String getName(final int id)
+  {
+    return NullCheck.notNull(this.names.get(id));
+  }
+
+  /**
+   * Store a comment.
+   *
+   * @param comment The comment text
+   *
+   * @return A reference to the stored comment
+   */
+
+  public synchronized long putComment(final String comment)
+  {
+    NullCheck.notNull(comment);
+
+    final byte[] bytes = comment.getBytes(StandardCharsets.UTF_8);
+    final int offset = this.comments.position();
+    if (this.comments.remaining() < bytes.length) {
+      final long required = (long) offset + (long) bytes.length;
+      if (required > (long) Integer.MAX_VALUE) {
+        throw new IllegalStateException("Comment storage exhausted");
+      }
+
+      /**
+       * Grow by doubling, but no further than the largest possible buffer.
+       */
+
+      long capacity = (long) this.comments.capacity();
+      while (capacity < required) {
+        capacity = capacity * 2L;
+      }
+      capacity = Math.min(capacity, (long) Integer.MAX_VALUE);
+
+      final ByteBuffer resized = ByteBuffer.allocateDirect((int) capacity);
+      this.comments.flip();
+      resized.put(this.comments);
+      this.comments = resized;
+    }
+
+    this.comments.put(bytes);
+    return ((long) offset << 32) | ((long) bytes.length & 0xffffffffL);
+  }
+
+  /**
+   * @param reference A reference returned by {@link #putComment(String)}
+   *
+   * @return The comment text
+   */
+
+  public synchronized String getComment(final long reference)
+  {
+    final int offset = (int) (reference >>> 32);
+    final int length = (int) reference;
+
+    final byte[] bytes = new byte[length];
+    final ByteBuffer view = this.comments.duplicate();
+    view.position(offset);
+    view.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.util.Arrays;
+
+/**
+ * Functions for ordering commits by date without violating the parent →
+ * child order of the commit graph.
+ */
+
+public final class FossilCommitOrdering
+{
+  private FossilCommitOrdering()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Order the nodes of a graph given as arrays. Node {@code n} has time
+   * {@code times[n]} and children {@code children[offsets[n]]} to {@code
+   * children[offsets[n + 1] - 1]}. Nodes that are ready to be emitted are
+   * held in a binary heap keyed on time (with ties broken by ordinal), so
+   * the ordering takes {@code O(n log w)} time for a graph of width {@code
+   * w}.
+   *
+   * @param times    The time of each node
+   * @param offsets  The offset of the first child of each node
+   * @param children The children of all nodes
+   *
+   * @return The ordinals of the nodes in order
+   *
+   * @throws FossilGraphException If the graph contains a cycle
+   */
+
+  static int[] order(
+    final long[] times,
+    final int[] offsets,
+    final int[] children)
+    throws FossilGraphException
+  {
+    NullCheck.notNull(times);
+    NullCheck.notNull(offsets);
+    NullCheck.notNull(children);
+
+    final int count = times.length;
+    final int[] waiting = new int[count];
+    for (int index = 0; index < children.length; ++index) {
+      waiting[children[index]] = waiting[children[index]] + 1;
+    }
+
+    final Heap ready = new Heap(times);
+    for (int index = 0; index < count; ++index) {
+      if (waiting[index] == 0) {
+        ready.push(index);
+      }
+    }
+
+    final int[] order = new int[count];
+    int emitted = 0;
+    while (ready.isEmpty() == false) {
+      final int node = ready.pop();
+      order[emitted] = node;
+      emitted = emitted + 1;
+
+      for (int index = offsets[node]; index < offsets[node + 1]; ++index) {
+        final int child = children[index];
+        waiting[child] = waiting[child] - 1;
+        if (waiting[child] == 0) {
+          ready.push(child);
+        }
+      }
+    }
+
+    if (emitted != count) {
+      throw new FossilGraphException(
+        String.format(
+          "Graph contains a cycle (%d of %d commits could be ordered)",
+          Integer.valueOf(emitted),
+          Integer.valueOf(count)));
+    }
+    return order;
+  }
+
+  /**
+   * A binary min-heap of node ordinals, keyed by node time.
+   */
+
+  private static final class Heap
+  {
+    private final long[] times;
+    private int[]        items;
+    private int          size;
+
+    Heap(final long[] in_times)
+    {
+      this.times = in_times;
+      this.items = new int[16];
+      this.size = 0;
+    }
+
+    boolean isEmpty()
+    {
+      return this.size == 0;
+    }
+
+    private boolean less(
+      final int a,
+      final int b)
+    {
+      final long ta = this.times[a];
+      final long tb = this.times[b];
+      if (ta != tb) {
+        return ta < tb;
+      }
+      return a < b;
+    }
+
+    void push(final int node)
+    {
+      if (this.size == this.items.length) {
+        this.items = Arrays.copyOf(this.items, this.items.length * 2);
+      }
+
+      int index = this.size;
+      this.size = this.size + 1;
+      while (index > 0) {
+        final int parent = (index - 1) >>> 1;
+        final int above = this.items[parent];
+        if (this.less(node, above) == false) {
+          break;
+        }
+        this.items[index] = above;
+        index = parent;
+      }
+      this.items[index] = node;
+    }
+
+    int pop()
+    {
+      final int top = this.items[0];
+      this.size = this.size - 1;
+      final int last = this.items[this.size];
+
+      int index = 0;
+      while (true) {
+        int child = (index * 2) + 1;
+        if (child >= this.size) {
+          break;
+        }
+        if (child + 1 < this.size
+            && this.less(this.items[child + 1], this.items[child])) {
+          child = child + 1;
+        }
+        if (this.less(this.items[child], last) == false) {
+          break;
+        }
+        this.items[index] = this.items[child];
+        index = child;
+      }
+      if (this.size > 0) {
+        this.items[index] = last;
+      }
+      return top;
+    }
+  }
+}
@@ -16,40 +16,55 @@
 package com.io7m.ftgr;
 
 import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sqlite.SQLiteDataSource;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Timestamp;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Properties;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 public final class FossilDatabase implements FossilDatabaseType
 {
+  /**
+   * The default size of the artifact cache, in bytes.
+   */
+
+  static final long DEFAULT_CACHE_SIZE = 32L << 20;
+
   private static final Logger LOG;
 
   static {
     LOG = LoggerFactory.getLogger(FossilDatabase.class);
   }
 
-  private final SQLiteDataSource data;
-  private final String           query_all_commits;
-  private final String           query_parent_links;
+  private final SQLiteDataSource    data;
+  private final String              query_all_commits;
+  private final String              query_parent_links;
+  private final String              query_artifact_rid;
+  private final String              query_artifact_content;
+  private final int                 fetch_size;
+  private final FossilArtifactCache cache;
 
   private FossilDatabase(
-    final SQLiteDataSource in_ds)
+    final SQLiteDataSource in_ds,
+    final int in_fetch_size,
+    final long in_cache_size)
     throws IOException
   {
     this.data = NullCheck.notNull(in_ds);
+    this.fetch_size = in_fetch_size;
+    this.cache = FossilArtifactCache.newCache(in_cache_size);
 
     final Properties queries = new Properties();
     queries.loadFromXML(
@@ -60,11 +75,52 @@ public final class FossilDatabase implements FossilDatabaseType
       NullCheck.notNull(queries.getProperty("query_all_commits"));
     this.query_parent_links =
       NullCheck.notNull(queries.getProperty("query_parent_links"));
+    this.query_artifact_rid =
+      NullCheck.notNull(queries.getProperty("query_artifact_rid"));
+    this.query_artifact_content =
+      NullCheck.notNull(queries.getProperty("query_artifact_content"));
+  }
+
+  /**
+   * Open a database.
+   *
+   * @param file       The database file
+   * @param executable The Fossil executable
+   * @param fetch_size The number of rows fetched at a time by queries
+   *
+   * @return A database
+   *
+   * @throws FossilDatabaseException On errors
+   */
+
+  public static FossilDatabaseType openDatabase(
+    final File file,
+    final File executable,
+    final int fetch_size)
+    throws FossilDatabaseException
+  {
+    return FossilDatabase.openDatabase(
+      file, executable, fetch_size, FossilDatabase.DEFAULT_CACHE_SIZE);
   }
 
+  /**
+   * Open a database.
+   *
+   * @param file       The database file
+   * @param executable The Fossil executable
+   * @param fetch_size The number of rows fetched at a time by queries
+   * @param cache_size The size of the artifact cache, in bytes
+   *
+   * @return A database
+   *
+   * @throws FossilDatabaseException On errors
+   */
+
   public static FossilDatabaseType openDatabase(
     final File file,
-    final File executable)
+    final File executable,
+    final int fetch_size,
+    final long cache_size)
     throws FossilDatabaseException
   {
     NullCheck.notNull(file);
@@ -82,7 +138,7 @@ public final class FossilDatabase implements FossilDatabaseType
       final SQLiteDataSource ds = new SQLiteDataSource();
       ds.setReadOnly(true);
       ds.setUrl("jdbc:sqlite:" + file);
-      return new FossilDatabase(ds);
+      return new FossilDatabase(ds, fetch_size, cache_size);
     } catch (final IOException e) {
       throw new FossilDatabaseException(e);
     }
@@ -117,61 +173,210 @@ public final class FossilDatabase implements FossilDatabaseType
       }
     }
 
-    @Override public Map<Integer, FossilCommit> getAllCommits()
-      throws FossilDatabaseException
+    @Override public void readHistory(
+      final FossilCommitMetadata metadata,
+      final FossilDatabaseReceiverType receiver)
+      throws FossilException
     {
-      final Map<Integer, FossilCommit> xs = new HashMap<>(100);
-
-      try (final PreparedStatement st = this.conn.prepareStatement(
-        FossilDatabase.this.query_all_commits)) {
-
-        try (final ResultSet rs = st.executeQuery()) {
-          while (rs.next()) {
-            final int id = rs.getInt("commit_id");
-            final FossilCommitName blob =
-              new FossilCommitName(NullCheck.notNull(rs.getString
-                                                       ("commit_blob")));
-            final String comment =
-              NullCheck.notNull(rs.getString("commit_comment"));
-            final String time_raw =
-              NullCheck.notNull(rs.getString("commit_mtime"));
-            final Timestamp time = Timestamp.valueOf(time_raw);
-            final String branch = NullCheck.notNull(rs.getString("branch"));
-            final boolean branch_is_new = rs.getBoolean("branch_is_new");
-            final String user = NullCheck.notNull(rs.getString("commit_user"));
-
-            final FossilCommit fc = new FossilCommit(
-              id, blob, time, comment, branch, branch_is_new, user);
-            xs.put(Integer.valueOf(id), fc);
+      NullCheck.notNull(metadata);
+      NullCheck.notNull(receiver);
+
+      final int fetch = FossilDatabase.this.fetch_size;
+      int commit_count = 0;
+      int link_count = 0;
+
+      try {
+        try (final PreparedStatement st = this.conn.prepareStatement(
+          FossilDatabase.this.query_all_commits)) {
+          st.setFetchSize(fetch);
+
+          try (final ResultSet rs = st.executeQuery()) {
+            while (rs.next()) {
+              final int id = rs.getInt("commit_id");
+              final FossilCommitName blob =
+                new FossilCommitName(NullCheck.notNull(rs.getString
+                                                         ("commit_blob")));
+              final String comment =
+                NullCheck.notNull(rs.getString("commit_comment"));
+              final long time = FossilTime.julianDayToEpochMilliseconds(
+                rs.getDouble("commit_mtime"));
+              final String branch = NullCheck.notNull(rs.getString("branch"));
+              final boolean branch_is_new = rs.getBoolean("branch_is_new");
+              final String user =
+                NullCheck.notNull(rs.getString("commit_user"));
+
+              receiver.onCommit(
+                new FossilCommit(
+                  metadata,
+                  id,
+                  blob,
+                  time,
+                  comment,
+                  branch,
+                  branch_is_new,
+                  user));
+              commit_count = commit_count + 1;
+            }
+          }
+        }
+
+        try (final PreparedStatement st = this.conn.prepareStatement(
+          FossilDatabase.this.query_parent_links)) {
+          st.setFetchSize(fetch);
+
+          try (final ResultSet rs = st.executeQuery()) {
+            while (rs.next()) {
+              final int parent_id = rs.getInt("parent_id");
+              final int child_id = rs.getInt("child_id");
+              receiver.onParentLink(new FossilParentLink(parent_id, child_id));
+              link_count = link_count + 1;
+            }
           }
         }
       } catch (final SQLException e) {
         throw new FossilDatabaseException(e);
       }
 
-      return xs;
+      FossilDatabase.LOG.debug(
+        "read {} commits and {} links",
+        Integer.valueOf(commit_count),
+        Integer.valueOf(link_count));
     }
 
-    @Override public List<FossilParentLink> getParentLinks()
+    @Override public ByteBuffer getArtifact(final String uuid)
       throws FossilDatabaseException
     {
-      final List<FossilParentLink> xs = new ArrayList<>(100);
+      NullCheck.notNull(uuid);
+
+      try {
+        final int rid;
+        try (final PreparedStatement st = this.conn.prepareStatement(
+          FossilDatabase.this.query_artifact_rid)) {
+          st.setString(1, uuid);
+          try (final ResultSet rs = st.executeQuery()) {
+            if (rs.next() == false) {
+              throw new FossilDatabaseException(
+                String.format("No such artifact: %s", uuid));
+            }
+            rid = rs.getInt("rid");
+          }
+        }
+
+        final FossilArtifactCache cache = FossilDatabase.this.cache;
+        final byte[] cached = cache.get(rid);
+        if (cached != null) {
+          return ByteBuffer.wrap(cached);
+        }
 
-      try (final PreparedStatement st = this.conn.prepareStatement(
-        FossilDatabase.this.query_parent_links)) {
+        /**
+         * Follow the chain of deltas back to a full copy of the content, or
+         * to an artifact whose content is cached, and then apply the deltas
+         * in reverse order, caching each intermediate result.
+         */
 
-        try (final ResultSet rs = st.executeQuery()) {
-          while (rs.next()) {
-            final int parent_id = rs.getInt("parent_id");
-            final int child_id = rs.getInt("child_id");
-            xs.add(new FossilParentLink(parent_id, child_id));
+        final List<byte[]> chain = new ArrayList<>(8);
+        final List<Integer> chain_rids = new ArrayList<>(8);
+        @Nullable byte[] base = null;
+        try (final PreparedStatement st = this.conn.prepareStatement(
+          FossilDatabase.this.query_artifact_content)) {
+          int current = rid;
+          while (true) {
+            st.setInt(1, current);
+            try (final ResultSet rs = st.executeQuery()) {
+              if (rs.next() == false) {
+                throw new FossilDatabaseException(
+                  String.format(
+                    "Artifact %s refers to nonexistent blob %d",
+                    uuid,
+                    Integer.valueOf(current)));
+              }
+
+              final byte[] content = rs.getBytes("content");
+              if (rs.getInt("size") < 0 || content == null) {
+                throw new FossilDatabaseException(
+                  String.format("Artifact %s is a phantom", uuid));
+              }
+              chain.add(FossilDatabase.decompress(content));
+              chain_rids.add(Integer.valueOf(current));
+
+              final int source = rs.getInt("delta_source");
+              if (rs.wasNull() || source == 0) {
+                break;
+              }
+              base = cache.get(source);
+              if (base != null) {
+                break;
+              }
+              current = source;
+            }
           }
         }
-      } catch (final SQLException e) {
+
+        int index = chain.size() - 1;
+        byte[] data;
+        if (base != null) {
+          data = base;
+        } else {
+          data = NullCheck.notNull(chain.get(index));
+          cache.put(chain_rids.get(index).intValue(), data);
+          index = index - 1;
+        }
+        for (; index >= 0; --index) {
+          data = FossilDelta.apply(data, NullCheck.notNull(chain.get(index)));
+          cache.put(chain_rids.get(index).intValue(), data);
+        }
+        return ByteBuffer.wrap(data);
+      } catch (final SQLException | IOException e) {
         throw new FossilDatabaseException(e);
       }
+    }
+  }
+
+  /**
+   * Blob content is stored as a four byte big-endian uncompressed size,
+   * followed by a zlib stream.
+   */
 
-      return xs;
+  private static byte[] decompress(final byte[] content)
+    throws IOException
+  {
+    if (content.length < 4) {
+      throw new IOException("Truncated blob content");
+    }
+
+    final int size = ((content[0] & 0xff) << 24)
+                     | ((content[1] & 0xff) << 16)
+                     | ((content[2] & 0xff) << 8)
+                     | (content[3] & 0xff);
+    if (size < 0) {
+      throw new IOException(
+        String.format("Invalid blob size %d", Integer.valueOf(size)));
+    }
+
+    final byte[] data = new byte[size];
+    final Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(content, 4, content.length - 4);
+      int done = 0;
+      while (done < size) {
+        final int r = inflater.inflate(data, done, size - done);
+        if (r == 0 && (inflater.finished() || inflater.needsInput())) {
+          break;
+        }
+        done = done + r;
+      }
+      if (done != size) {
+        throw new IOException(
+          String.format(
+            "Blob decompressed to %d bytes, expected %d",
+            Integer.valueOf(done),
+            Integer.valueOf(size)));
+      }
+    } catch (final DataFormatException e) {
+      throw new IOException(e);
+    } finally {
+      inflater.end();
     }
+    return data;
   }
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+/**
+ * The type of receivers of rows read from a Fossil database.
+ */
+
+public interface FossilDatabaseReceiverType
+{
+  /**
+   * Receive a commit.
+   *
+   * @param c The commit
+   *
+   * @throws FossilException On errors
+   */
+
+  void onCommit(FossilCommit c)
+    throws FossilException;
+
+  /**
+   * Receive a parent link. Links are delivered after all commits.
+   *
+   * @param p The link
+   *
+   * @throws FossilException On errors
+   */
+
+  void onParentLink(FossilParentLink p)
+    throws FossilException;
+}
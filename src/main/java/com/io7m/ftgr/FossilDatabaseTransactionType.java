@@ -15,17 +15,41 @@
  */
 package com.io7m.ftgr;
 
-import java.util.List;
-import java.util.Map;
+import java.nio.ByteBuffer;
 
 public interface FossilDatabaseTransactionType extends AutoCloseable
 {
   @Override void close()
     throws FossilDatabaseException;
 
-  Map<Integer, FossilCommit> getAllCommits()
-    throws FossilDatabaseException;
+  /**
+   * Read all commits and then all parent links from the database, passing
+   * each to the given receiver as it is read.
+   *
+   * @param metadata The store that will hold commit metadata
+   * @param receiver The receiver
+   *
+   * @throws FossilException On errors, including errors raised by the
+   *                         receiver
+   */
+
+  void readHistory(
+    FossilCommitMetadata metadata,
+    FossilDatabaseReceiverType receiver)
+    throws FossilException;
+
+  /**
+   * Read the content of an artifact, undoing any compression and delta
+   * encoding.
+   *
+   * @param uuid The hash of the artifact
+   *
+   * @return The content of the artifact
+   *
+   * @throws FossilDatabaseException If the artifact does not exist, or is a
+   *                                 phantom, or cannot be decoded
+   */
 
-  List<FossilParentLink> getParentLinks()
+  ByteBuffer getArtifact(String uuid)
     throws FossilDatabaseException;
 }
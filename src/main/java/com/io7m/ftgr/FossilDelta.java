@@ -0,0 +1,219 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.io.IOException;
+
+/**
+ * An implementation of the Fossil delta format.
+ *
+ * @see <a href="http://fossil-scm.org/index.html/doc/trunk/www/delta_format.wiki">Fossil
+ * delta format</a>
+ */
+
+final class FossilDelta
+{
+  private static final int[] DIGITS;
+
+  static {
+    final String alphabet =
+      "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz~";
+    DIGITS = new int[128];
+    for (int index = 0; index < DIGITS.length; ++index) {
+      DIGITS[index] = -1;
+    }
+    for (int index = 0; index < alphabet.length(); ++index) {
+      DIGITS[alphabet.charAt(index)] = index;
+    }
+  }
+
+  private FossilDelta()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Apply a delta to the given source.
+   *
+   * @param source The source
+   * @param delta  The delta
+   *
+   * @return The target produced by the delta
+   *
+   * @throws IOException If the delta is malformed
+   */
+
+  static byte[] apply(
+    final byte[] source,
+    final byte[] delta)
+    throws IOException
+  {
+    NullCheck.notNull(source);
+    NullCheck.notNull(delta);
+
+    final Reader r = new Reader(delta);
+    final long size = r.readInteger();
+    r.expect('\n');
+    if (size > (long) Integer.MAX_VALUE) {
+      throw new IOException(
+        String.format("Delta target size %d is too large", Long.valueOf(size)));
+    }
+
+    final byte[] target = new byte[(int) size];
+    int written = 0;
+
+    while (r.position < delta.length) {
+      final long count = r.readInteger();
+      final byte command = r.next();
+      switch (command) {
+        case '@': {
+          final long offset = r.readInteger();
+          r.expect(',');
+          if (offset + count > (long) source.length
+              || (long) written + count > size) {
+            throw new IOException("Delta copy command out of range");
+          }
+          System.arraycopy(
+            source, (int) offset, target, written, (int) count);
+          written = written + (int) count;
+          break;
+        }
+        case ':': {
+          if ((long) r.position + count > (long) delta.length
+              || (long) written + count > size) {
+            throw new IOException("Delta insert command out of range");
+          }
+          System.arraycopy(delta, r.position, target, written, (int) count);
+          r.position = r.position + (int) count;
+          written = written + (int) count;
+          break;
+        }
+        case ';': {
+          if ((long) written != size) {
+            throw new IOException(
+              String.format(
+                "Delta produced %d bytes, expected %d",
+                Integer.valueOf(written),
+                Long.valueOf(size)));
+          }
+          if ((count & 0xffffffffL) != FossilDelta.checksum(target)) {
+            throw new IOException("Delta checksum mismatch");
+          }
+          return target;
+        }
+        default: {
+          throw new IOException(
+            String.format(
+              "Unrecognized delta command '%c'",
+              Character.valueOf((char) command)));
+        }
+      }
+    }
+
+    throw new IOException("Delta is not terminated");
+  }
+
+  /**
+   * The checksum used by the delta format: The sum of the content as
+   * big-endian 32-bit words, with any trailing bytes zero-padded.
+   */
+
+  private static long checksum(final byte[] data)
+  {
+    int sum = 0;
+    int index = 0;
+    final int whole = data.length & ~3;
+    while (index < whole) {
+      sum = sum + (((data[index] & 0xff) << 24)
+                   | ((data[index + 1] & 0xff) << 16)
+                   | ((data[index + 2] & 0xff) << 8)
+                   | (data[index + 3] & 0xff));
+      index = index + 4;
+    }
+
+    int shift = 24;
+    while (index < data.length) {
+      sum = sum + ((data[index] & 0xff) << shift);
+      shift = shift - 8;
+      index = index + 1;
+    }
+    return (long) sum & 0xffffffffL;
+  }
+
+  private static final class Reader
+  {
+    private final byte[] data;
+    private int          position;
+
+    Reader(final byte[] in_data)
+    {
+      this.data = in_data;
+      this.position = 0;
+    }
+
+    byte next()
+      throws IOException
+    {
+      if (this.position >= this.data.length) {
+        throw new IOException("Unexpected end of delta");
+      }
+      final byte b = this.data[this.position];
+      this.position = this.position + 1;
+      return b;
+    }
+
+    void expect(final char c)
+      throws IOException
+    {
+      if (this.next() != (byte) c) {
+        throw new IOException(
+          String.format(
+            "Malformed delta: Expected '%c' at offset %d",
+            Character.valueOf(c),
+            Integer.valueOf(this.position - 1)));
+      }
+    }
+
+    long readInteger()
+      throws IOException
+    {
+      long value = 0L;
+      int digits = 0;
+      while (this.position < this.data.length) {
+        final int b = this.data[this.position] & 0xff;
+        final int d = b < 128 ? FossilDelta.DIGITS[b] : -1;
+        if (d < 0) {
+          break;
+        }
+        value = (value << 6) | (long) d;
+        digits = digits + 1;
+        this.position = this.position + 1;
+      }
+
+      if (digits == 0) {
+        throw new IOException(
+          String.format(
+            "Malformed delta: Expected an integer at offset %d",
+            Integer.valueOf(this.position)));
+      }
+      return value;
+    }
+  }
+}
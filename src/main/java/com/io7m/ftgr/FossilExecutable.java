@@ -251,4 +251,99 @@ public final class FossilExecutable implements FossilExecutableType
         FossilExecutable.LOG, pb.start(), out_lines);
     }
   }
+
+  @Override public void checkOutInPlace(
+    final FossilRepositorySpecificationType repos,
+    final FossilCommitName commit,
+    final File directory)
+    throws IOException
+  {
+    NullCheck.notNull(repos);
+    NullCheck.notNull(commit);
+    NullCheck.notNull(directory);
+
+    /**
+     * Update the checkout database without touching any files...
+     */
+
+    {
+      final List<String> args = new ArrayList<>(5);
+      args.add(this.exec.toString());
+      args.add("checkout");
+      args.add("--force");
+      args.add("--keep");
+      args.add(commit.toString());
+      FossilExecutable.LOG.debug("execute: {} in {}", args, directory);
+
+      final ProcessBuilder pb = new ProcessBuilder();
+      final Map<String, String> env = pb.environment();
+      env.clear();
+      env.put("HOME", NullCheck.notNull(System.getenv("HOME")));
+
+      pb.command(args);
+      pb.directory(directory);
+      pb.redirectErrorStream(true);
+
+      final List<String> out_lines = new ArrayList<>(32);
+      ProcessUtilities.executeLogged(
+        FossilExecutable.LOG, pb.start(), out_lines);
+    }
+
+    /**
+     * ... and clean up anything not relevant to this commit.
+     */
+
+    {
+      final List<String> args = new ArrayList<>(4);
+      args.add(this.exec.toString());
+      args.add("clean");
+      args.add("--force");
+      args.add("--verbose");
+      FossilExecutable.LOG.debug("execute: {} in {}", args, directory);
+
+      final ProcessBuilder pb = new ProcessBuilder();
+      final Map<String, String> env = pb.environment();
+      env.clear();
+      env.put("HOME", NullCheck.notNull(System.getenv("HOME")));
+
+      pb.command(args);
+      pb.directory(directory);
+      pb.redirectErrorStream(true);
+
+      final List<String> out_lines = new ArrayList<>(32);
+      ProcessUtilities.executeLogged(
+        FossilExecutable.LOG, pb.start(), out_lines);
+    }
+  }
+
+  @Override public void update(
+    final FossilRepositorySpecificationType repos,
+    final FossilCommitName commit,
+    final File directory)
+    throws IOException
+  {
+    NullCheck.notNull(repos);
+    NullCheck.notNull(commit);
+    NullCheck.notNull(directory);
+
+    final List<String> args = new ArrayList<>(4);
+    args.add(this.exec.toString());
+    args.add("update");
+    args.add("--nosync");
+    args.add(commit.toString());
+    FossilExecutable.LOG.debug("execute: {} in {}", args, directory);
+
+    final ProcessBuilder pb = new ProcessBuilder();
+    final Map<String, String> env = pb.environment();
+    env.clear();
+    env.put("HOME", NullCheck.notNull(System.getenv("HOME")));
+
+    pb.command(args);
+    pb.directory(directory);
+    pb.redirectErrorStream(true);
+
+    final List<String> out_lines = new ArrayList<>(32);
+    ProcessUtilities.executeLogged(
+      FossilExecutable.LOG, pb.start(), out_lines);
+  }
 }
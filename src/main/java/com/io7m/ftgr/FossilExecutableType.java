@@ -49,4 +49,44 @@ public interface FossilExecutableType
     FossilCommitName commit,
     File directory)
     throws IOException;
+
+  /**
+   * Record that the files of the given commit have already been placed into
+   * an existing checkout, and then remove any files that are not part of
+   * the commit, in the same manner as {@link #checkOut(
+   * FossilRepositorySpecificationType, FossilCommitName, File)}. The files
+   * in the checkout are not written.
+   *
+   * @param repos     The repository
+   * @param commit    The commit
+   * @param directory The directory containing the checkout
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void checkOutInPlace(
+    FossilRepositorySpecificationType repos,
+    FossilCommitName commit,
+    File directory)
+    throws IOException;
+
+  /**
+   * Update an existing, unmodified checkout to the given commit. Only the
+   * files that differ between the current and given commits are written.
+   * The checkout must be clean: {@code fossil update} merges any local
+   * edits into the result rather than discarding them. The repository is
+   * not synchronized with any remote.
+   *
+   * @param repos     The repository
+   * @param commit    The commit
+   * @param directory The directory containing the checkout
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void update(
+    FossilRepositorySpecificationType repos,
+    FossilCommitName commit,
+    File directory)
+    throws IOException;
 }
@@ -0,0 +1,343 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Compute the ID of the Git tree that the conversion of a Fossil commit
+ * should produce, directly from the files listed in the Fossil manifest.</p>
+ *
+ * <p>Files are given the modes that Git assigns to regular files,
+ * executable files, and symbolic links. Fossil only creates symbolic links
+ * if its {@code allow-symlinks} setting is enabled, and otherwise writes a
+ * regular file containing the target of the link, so trees may also be
+ * computed with symbolic links stored as regular files. The root of a
+ * converted tree normally contains the {@code .gitignore} file written by
+ * the initial commit, unless the Fossil commit has a {@code .gitignore} of
+ * its own. That file is absent if an earlier commit deleted a {@code
+ * .gitignore} of its own, so trees may also be computed without it.</p>
+ *
+ * <p>The Git blob ID of each Fossil artifact, and the ID of each distinct
+ * subtree, is computed at most once (subject to a limit on the number of
+ * cached subtrees). Instances are safe to use from multiple threads.</p>
+ */
+
+final class FossilGitTrees
+{
+  private static final int    SUBTREE_CACHE_LIMIT = 1 << 16;
+  private static final String MODE_DIRECTORY      = "40000";
+  private static final String MODE_FILE           = "100644";
+  private static final String MODE_EXECUTABLE     = "100755";
+  private static final String MODE_SYMLINK        = "120000";
+  private static final String GITIGNORE           = ".gitignore";
+
+  private static final Comparator<Entry> ORDER;
+
+  static {
+    ORDER = new Comparator<Entry>()
+    {
+      @Override public int compare(
+        final Entry e0,
+        final Entry e1)
+      {
+        return FossilGitTrees.compareNames(e0, e1);
+      }
+    };
+  }
+
+  private final Map<String, byte[]> blob_ids;
+  private final Map<String, byte[]> subtree_ids;
+  private final byte[]              gitignore_id;
+
+  private FossilGitTrees()
+  {
+    this.blob_ids = new ConcurrentHashMap<>(1024);
+    this.subtree_ids = new ConcurrentHashMap<>(1024);
+
+    /**
+     * The content written by GitExecutable.createRootCommit.
+     */
+
+    this.gitignore_id = VerifierHashes.gitBlobSHA1(
+      ByteBuffer.wrap(".fslckout\n".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  static FossilGitTrees newTrees()
+  {
+    return new FossilGitTrees();
+  }
+
+  /**
+   * @param t        A database transaction
+   * @param files    The files of a Fossil commit, by name
+   * @param links    {@code true} iff symbolic links should be stored as
+   *                 symbolic links, rather than as regular files
+   * @param ignore   {@code true} iff the {@code .gitignore} file written by
+   *                 the initial commit should be added to the root of the
+   *                 tree, if the Fossil commit has no {@code .gitignore}
+   *
+   * @return The raw 20 byte ID of the Git tree that should hold the files
+   *
+   * @throws FossilDatabaseException On database errors
+   */
+
+  byte[] getTreeID(
+    final FossilDatabaseTransactionType t,
+    final Map<String, FossilManifestFile> files,
+    final boolean links,
+    final boolean ignore)
+    throws FossilDatabaseException
+  {
+    NullCheck.notNull(t);
+    NullCheck.notNull(files);
+
+    final Directory root = new Directory();
+    for (final FossilManifestFile f : files.values()) {
+      final String[] segments = f.getName().split("/");
+      Directory d = root;
+      for (int index = 0; index < segments.length - 1; ++index) {
+        final String segment = NullCheck.notNull(segments[index]);
+        Directory next = d.directories.get(segment);
+        if (next == null) {
+          next = new Directory();
+          d.directories.put(segment, next);
+        }
+        d = next;
+      }
+      d.files.put(NullCheck.notNull(segments[segments.length - 1]), f);
+    }
+
+    return this.getDirectoryID(t, root, links, ignore);
+  }
+
+  private byte[] getDirectoryID(
+    final FossilDatabaseTransactionType t,
+    final Directory d,
+    final boolean links,
+    final boolean ignore)
+    throws FossilDatabaseException
+  {
+    final List<Entry> entries =
+      new ArrayList<>(d.directories.size() + d.files.size() + 1);
+
+    for (final Map.Entry<String, Directory> e : d.directories.entrySet()) {
+      entries.add(
+        new Entry(
+          NullCheck.notNull(e.getKey()),
+          FossilGitTrees.MODE_DIRECTORY,
+          null,
+          this.getDirectoryID(
+            t, NullCheck.notNull(e.getValue()), links, false)));
+    }
+
+    for (final Map.Entry<String, FossilManifestFile> e : d.files.entrySet()) {
+      final FossilManifestFile f = NullCheck.notNull(e.getValue());
+      final String mode;
+      if (f.isSymlink() && links) {
+        mode = FossilGitTrees.MODE_SYMLINK;
+      } else if (f.isSymlink()) {
+        mode = FossilGitTrees.MODE_FILE;
+      } else if (f.isExecutable()) {
+        mode = FossilGitTrees.MODE_EXECUTABLE;
+      } else {
+        mode = FossilGitTrees.MODE_FILE;
+      }
+      entries.add(
+        new Entry(NullCheck.notNull(e.getKey()), mode, f.getHash(), null));
+    }
+
+    if (ignore && d.files.containsKey(FossilGitTrees.GITIGNORE) == false) {
+      entries.add(
+        new Entry(
+          FossilGitTrees.GITIGNORE,
+          FossilGitTrees.MODE_FILE,
+          null,
+          this.gitignore_id));
+    }
+
+    Collections.sort(entries, FossilGitTrees.ORDER);
+
+    /**
+     * A subtree is identified by its entries, with files identified by
+     * their Fossil artifacts. A cache hit therefore avoids both looking up
+     * the blob IDs of the files and hashing the tree.
+     */
+
+    final StringBuilder key = new StringBuilder(entries.size() * 64);
+    for (int index = 0; index < entries.size(); ++index) {
+      final Entry e = NullCheck.notNull(entries.get(index));
+      key.append(e.mode);
+      key.append(' ');
+      key.append(e.name);
+      key.append('\u0000');
+      if (e.artifact != null) {
+        key.append(e.artifact);
+      } else {
+        key.append(VerifierFileHashing.hex(NullCheck.notNull(e.id)));
+      }
+      key.append('\n');
+    }
+
+    final String key_text = key.toString();
+    final byte[] cached = this.subtree_ids.get(key_text);
+    if (cached != null) {
+      return cached;
+    }
+
+    final ByteArrayOutputStream body =
+      new ByteArrayOutputStream(entries.size() * 64);
+    for (int index = 0; index < entries.size(); ++index) {
+      final Entry e = NullCheck.notNull(entries.get(index));
+      final byte[] id;
+      if (e.artifact != null) {
+        id = this.getBlobID(t, e.artifact);
+      } else {
+        id = NullCheck.notNull(e.id);
+      }
+
+      final byte[] mode = e.mode.getBytes(StandardCharsets.US_ASCII);
+      body.write(mode, 0, mode.length);
+      body.write(' ');
+      body.write(e.name_bytes, 0, e.name_bytes.length);
+      body.write(0);
+      body.write(id, 0, id.length);
+    }
+
+    final byte[] tree_id = FossilGitTrees.gitTreeSHA1(body.toByteArray());
+    if (this.subtree_ids.size() < FossilGitTrees.SUBTREE_CACHE_LIMIT) {
+      this.subtree_ids.put(key_text, tree_id);
+    }
+    return tree_id;
+  }
+
+  private byte[] getBlobID(
+    final FossilDatabaseTransactionType t,
+    final String hash)
+    throws FossilDatabaseException
+  {
+    final byte[] cached = this.blob_ids.get(hash);
+    if (cached != null) {
+      return cached;
+    }
+
+    final byte[] id = VerifierHashes.gitBlobSHA1(t.getArtifact(hash));
+    this.blob_ids.put(hash, id);
+    return id;
+  }
+
+  private static byte[] gitTreeSHA1(final byte[] body)
+  {
+    try {
+      final MessageDigest md = MessageDigest.getInstance("SHA-1");
+      md.update(
+        String.format("tree %d\u0000", Integer.valueOf(body.length))
+          .getBytes(StandardCharsets.US_ASCII));
+      md.update(body);
+      return md.digest();
+    } catch (final NoSuchAlgorithmException e) {
+      throw new UnreachableCodeException(e);
+    }
+  }
+
+  /**
+   * Git orders tree entries by the bytes of their names, comparing the
+   * names of directories as if they ended with {@code /}.
+   */
+
+  private static int compareNames(
+    final Entry e0,
+    final Entry e1)
+  {
+    final byte[] n0 = e0.name_bytes;
+    final byte[] n1 = e1.name_bytes;
+    final int length = Math.min(n0.length, n1.length);
+    for (int index = 0; index < length; ++index) {
+      final int c0 = n0[index] & 0xff;
+      final int c1 = n1[index] & 0xff;
+      if (c0 != c1) {
+        return Integer.compare(c0, c1);
+      }
+    }
+
+    final int c0 = FossilGitTrees.charAfter(e0, length);
+    final int c1 = FossilGitTrees.charAfter(e1, length);
+    return Integer.compare(c0, c1);
+  }
+
+  private static int charAfter(
+    final Entry e,
+    final int index)
+  {
+    if (index < e.name_bytes.length) {
+      return e.name_bytes[index] & 0xff;
+    }
+    if (FossilGitTrees.MODE_DIRECTORY.equals(e.mode)) {
+      return '/';
+    }
+    return 0;
+  }
+
+  private static final class Directory
+  {
+    private final Map<String, Directory>          directories;
+    private final Map<String, FossilManifestFile> files;
+
+    Directory()
+    {
+      this.directories = new HashMap<>(8);
+      this.files = new HashMap<>(16);
+    }
+  }
+
+  private static final class Entry
+  {
+    private final String           name;
+    private final byte[]           name_bytes;
+    private final String           mode;
+    private final @Nullable String artifact;
+    private final @Nullable byte[] id;
+
+    Entry(
+      final String in_name,
+      final String in_mode,
+      final @Nullable String in_artifact,
+      final @Nullable byte[] in_id)
+    {
+      this.name = NullCheck.notNull(in_name);
+      this.name_bytes = in_name.getBytes(StandardCharsets.UTF_8);
+      this.mode = NullCheck.notNull(in_mode);
+      this.artifact = in_artifact;
+      this.id = in_id;
+    }
+  }
+}
@@ -33,8 +33,10 @@ import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 final class FossilManifest
 {
@@ -148,6 +150,172 @@ final class FossilManifest
     return Option.none();
   }
 
+  /**
+   * Return the baseline of the given manifest, if the manifest is a delta
+   * manifest.
+   *
+   * @param uuid The UUID of the blob that contained the manifest
+   * @param b    The blob
+   *
+   * @return The hash of the baseline manifest, if any
+   */
+
+  public static OptionType<String> getBaseline(
+    final FossilCommitName uuid,
+    final ByteBuffer b)
+  {
+    NullCheck.notNull(uuid);
+    NullCheck.notNull(b);
+
+    final List<String> cards = FossilManifest.getCards(b);
+    for (int index = 0; index < cards.size(); ++index) {
+      final String card = NullCheck.notNull(cards.get(index));
+      if (card.startsWith("B ")) {
+        return Option.some(card.substring(2).trim());
+      }
+    }
+    return Option.none();
+  }
+
+  /**
+   * Apply the F-cards of the given manifest to a map of files. Files that
+   * are listed with a hash are added to the map, replacing any existing
+   * file with the same name. Files that are listed without a hash (as only
+   * happens in delta manifests) are removed from the map. For a delta
+   * manifest, the baseline manifest must be applied first.
+   *
+   * @param uuid  The UUID of the blob that contained the manifest
+   * @param b     The blob
+   * @param files The files, by name
+   *
+   * @throws IOException If the manifest contains a malformed F-card
+   */
+
+  public static void applyFiles(
+    final FossilCommitName uuid,
+    final ByteBuffer b,
+    final Map<String, FossilManifestFile> files)
+    throws IOException
+  {
+    NullCheck.notNull(uuid);
+    NullCheck.notNull(b);
+    NullCheck.notNull(files);
+
+    final List<String> cards = FossilManifest.getCards(b);
+    for (int index = 0; index < cards.size(); ++index) {
+      final String card = NullCheck.notNull(cards.get(index));
+      if (card.startsWith("F ") == false) {
+        continue;
+      }
+
+      final String[] fields = card.split(" ");
+      if (fields.length < 2) {
+        throw new IOException(
+          String.format("Manifest %s: malformed F-card: %s", uuid, card));
+      }
+
+      final String name = FossilManifest.unescape(NullCheck.notNull(fields[1]));
+      if (fields.length == 2) {
+        files.remove(name);
+        continue;
+      }
+
+      final String hash = NullCheck.notNull(fields[2]);
+      final String perms = fields.length > 3 ? fields[3] : "";
+      files.put(
+        name,
+        new FossilManifestFile(
+          name, hash, perms.contains("x"), perms.contains("l")));
+    }
+  }
+
+  /**
+   * Return the card lines of a manifest, omitting any surrounding PGP
+   * clearsign armour.
+   */
+
+  private static List<String> getCards(final ByteBuffer b)
+  {
+    final String text = new String(
+      b.array(),
+      b.arrayOffset() + b.position(),
+      b.remaining(),
+      StandardCharsets.UTF_8);
+
+    final String[] lines = text.split("\n", -1);
+    final List<String> cards = new ArrayList<>(lines.length);
+
+    int index = 0;
+    if (lines.length > 0 && FossilManifest.lineIsSignedMessage(lines[0])) {
+      while (index < lines.length && lines[index].isEmpty() == false) {
+        index = index + 1;
+      }
+      index = index + 1;
+    }
+
+    for (; index < lines.length; ++index) {
+      final String line = NullCheck.notNull(lines[index]);
+      if (FossilManifest.lineIsSignature(line)) {
+        break;
+      }
+      if (line.startsWith("- ")) {
+        cards.add(line.substring(2));
+      } else {
+        cards.add(line);
+      }
+    }
+    return cards;
+  }
+
+  /**
+   * Undo the escaping applied to names in manifests.
+   */
+
+  private static String unescape(final String name)
+  {
+    if (name.indexOf('\\') < 0) {
+      return name;
+    }
+
+    final StringBuilder sb = new StringBuilder(name.length());
+    for (int index = 0; index < name.length(); ++index) {
+      final char c = name.charAt(index);
+      if (c == '\\' && index + 1 < name.length()) {
+        index = index + 1;
+        final char e = name.charAt(index);
+        switch (e) {
+          case 's':
+            sb.append(' ');
+            break;
+          case 'n':
+            sb.append('\n');
+            break;
+          case 't':
+            sb.append('\t');
+            break;
+          case 'r':
+            sb.append('\r');
+            break;
+          case 'v':
+            sb.append('\u000b');
+            break;
+          case 'f':
+            sb.append('\f');
+            break;
+          case '0':
+            sb.append('\u0000');
+            break;
+          default:
+            sb.append(e);
+            break;
+        }
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
   private static boolean lineIsSignature(final String line)
   {
     return "-----BEGIN PGP SIGNATURE-----".equals(line);
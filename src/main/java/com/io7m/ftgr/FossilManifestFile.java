@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+
+/**
+ * A file listed in a Fossil manifest.
+ */
+
+public final class FossilManifestFile
+{
+  private final String  name;
+  private final String  hash;
+  private final boolean executable;
+  private final boolean symlink;
+
+  public FossilManifestFile(
+    final String in_name,
+    final String in_hash,
+    final boolean in_executable,
+    final boolean in_symlink)
+  {
+    this.name = NullCheck.notNull(in_name);
+    this.hash = NullCheck.notNull(in_hash);
+    this.executable = in_executable;
+    this.symlink = in_symlink;
+  }
+
+  /**
+   * @return The path of the file, relative to the root of the checkout
+   */
+
+  public String getName()
+  {
+    return this.name;
+  }
+
+  /**
+   * @return The hash of the artifact that holds the content of the file
+   */
+
+  public String getHash()
+  {
+    return this.hash;
+  }
+
+  public boolean isExecutable()
+  {
+    return this.executable;
+  }
+
+  public boolean isSymlink()
+  {
+    return this.symlink;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder sb = new StringBuilder("FossilManifestFile{");
+    sb.append("name='").append(this.name).append('\'');
+    sb.append(", hash='").append(this.hash).append('\'');
+    sb.append(", executable=").append(this.executable);
+    sb.append(", symlink=").append(this.symlink);
+    sb.append('}');
+    return sb.toString();
+  }
+}
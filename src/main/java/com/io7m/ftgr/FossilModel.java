@@ -19,15 +19,15 @@ package com.io7m.ftgr;
 import com.io7m.jnull.NullCheck;
 import org.apache.commons.collections4.BidiMap;
 import org.apache.commons.collections4.bidimap.DualHashBidiMap;
-import org.jgrapht.EdgeFactory;
-import org.jgrapht.experimental.dag.DirectedAcyclicGraph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -39,26 +39,20 @@ public final class FossilModel implements FossilModelType
     LOG = LoggerFactory.getLogger(FossilModel.class);
   }
 
-  private final DirectedAcyclicGraph<FossilModelCommitNode,
-    FossilModelCommitLink>
-                                                         graph;
-  private final Map<Integer, FossilModelCommitNode>      nodes;
+  private final FossilCommitGraph                        graph;
   private final Set<String>                              branches;
   private final Map<Integer, BigInteger>                 signers;
   private final FossilModelCommitNode                    root;
   private final BidiMap<FossilTagName, FossilCommitName> tags;
 
   private FossilModel(
-    final DirectedAcyclicGraph<FossilModelCommitNode, FossilModelCommitLink>
-      in_graph,
-    final Map<Integer, FossilModelCommitNode> in_nodes,
+    final FossilCommitGraph in_graph,
     final Set<String> in_branches,
     final Map<Integer, BigInteger> in_signers,
     final FossilModelCommitNode in_root,
     final BidiMap<FossilTagName, FossilCommitName> in_tags)
   {
     this.graph = NullCheck.notNull(in_graph);
-    this.nodes = NullCheck.notNull(in_nodes);
     this.branches = NullCheck.notNull(in_branches);
     this.signers = NullCheck.notNull(in_signers);
     this.root = NullCheck.notNull(in_root);
@@ -80,18 +74,11 @@ public final class FossilModel implements FossilModelType
     return this.signers;
   }
 
-  @Override
-  public DirectedAcyclicGraph<FossilModelCommitNode, FossilModelCommitLink>
-  getGraph()
+  @Override public FossilCommitGraph getGraph()
   {
     return this.graph;
   }
 
-  @Override public Map<Integer, FossilModelCommitNode> getNodes()
-  {
-    return this.nodes;
-  }
-
   @Override public FossilModelCommitNode getRootNode()
   {
     return this.root;
@@ -104,43 +91,30 @@ public final class FossilModel implements FossilModelType
 
   private static final class Builder implements FossilModelBuilderType
   {
-    private final EdgeFactory<FossilModelCommitNode, FossilModelCommitLink>
-                                                           edges;
-    private final DirectedAcyclicGraph<FossilModelCommitNode,
-      FossilModelCommitLink>
-                                                           graph;
-    private final Map<Integer, FossilModelCommitNode>      nodes;
+    private final List<FossilCommit>                       commits;
     private final Set<String>                              branches;
     private final Map<Integer, BigInteger>                 signers;
     private final BidiMap<FossilTagName, FossilCommitName> tags;
+    private int[]                                          link_sources;
+    private int[]                                          link_targets;
+    private int                                            link_count;
 
     Builder()
     {
-      this.edges =
-        new EdgeFactory<FossilModelCommitNode, FossilModelCommitLink>()
-        {
-          @Override public FossilModelCommitLink createEdge(
-            final FossilModelCommitNode source,
-            final FossilModelCommitNode target)
-          {
-            return new FossilModelCommitLink(source, target);
-          }
-        };
-
-      this.nodes = new HashMap<>(128);
+      this.commits = new ArrayList<>(128);
       this.branches = new HashSet<>(32);
       this.signers = new HashMap<>(8);
       this.tags = new DualHashBidiMap<>();
-      this.graph = new DirectedAcyclicGraph<>(this.edges);
+      this.link_sources = new int[128];
+      this.link_targets = new int[128];
+      this.link_count = 0;
     }
 
     @Override public void addCommit(final FossilCommit c)
       throws FossilException
     {
       NullCheck.notNull(c);
-      final FossilModelCommitNode n = new FossilModelCommitNode(c, c.getId());
-      this.graph.addVertex(n);
-      this.nodes.put(Integer.valueOf(c.getId()), n);
+      this.commits.add(c);
       this.branches.add(c.getBranch());
     }
 
@@ -154,14 +128,13 @@ public final class FossilModel implements FossilModelType
     @Override public FossilModelType build()
       throws FossilGraphException
     {
-      final Set<FossilModelCommitNode> roots = new HashSet<>(2);
-
-      final Iterator<FossilModelCommitNode> iter = NullCheck.notNull(
-        this.graph.iterator());
-      while (iter.hasNext()) {
-        final FossilModelCommitNode node = NullCheck.notNull(iter.next());
-        if (this.graph.incomingEdgesOf(node).isEmpty()) {
-          roots.add(node);
+      final FossilCommitGraph graph = FossilCommitGraph.newGraph(
+        this.commits, this.link_sources, this.link_targets, this.link_count);
+
+      final List<FossilModelCommitNode> roots = new ArrayList<>(2);
+      for (int index = 0; index < graph.getSize(); ++index) {
+        if (graph.getParentCount(index) == 0) {
+          roots.add(graph.getNode(index));
         }
       }
 
@@ -176,11 +149,15 @@ public final class FossilModel implements FossilModelType
         throw new FossilGraphException(sb.toString());
       }
 
-      final FossilModelCommitNode root = roots.iterator().next();
+      final FossilModelCommitNode root = NullCheck.notNull(roots.get(0));
       FossilModel.LOG.debug("root node is: {}", root);
+      FossilModel.LOG.debug(
+        "graph has {} commits and {} links",
+        Integer.valueOf(graph.getSize()),
+        Integer.valueOf(this.link_count));
 
       return new FossilModel(
-        this.graph, this.nodes, this.branches, this.signers, root, this.tags);
+        graph, this.branches, this.signers, root, this.tags);
     }
 
     @Override public void addParentLink(final FossilParentLink p)
@@ -188,16 +165,19 @@ public final class FossilModel implements FossilModelType
     {
       NullCheck.notNull(p);
 
-      try {
-        final FossilModelCommitNode parent =
-          this.nodes.get(Integer.valueOf(p.getParent()));
-        final FossilModelCommitNode child =
-          this.nodes.get(Integer.valueOf(p.getChild()));
-
-        this.graph.addDagEdge(child, parent);
-      } catch (final DirectedAcyclicGraph.CycleFoundException e) {
-        throw new FossilGraphException(e);
+      if (this.link_count == this.link_sources.length) {
+        final int size = this.link_count * 2;
+        this.link_sources = Arrays.copyOf(this.link_sources, size);
+        this.link_targets = Arrays.copyOf(this.link_targets, size);
       }
+
+      /**
+       * Links are resolved and checked for cycles when the model is built.
+       */
+
+      this.link_sources[this.link_count] = p.getChild();
+      this.link_targets[this.link_count] = p.getParent();
+      this.link_count = this.link_count + 1;
     }
 
     @Override public void addTag(
@@ -19,15 +19,15 @@ import com.io7m.jnull.NullCheck;
 
 public final class FossilModelCommitNode
 {
-  private final int          id;
+  private final int          ordinal;
   private final FossilCommit commit;
 
   public FossilModelCommitNode(
     final FossilCommit in_commit,
-    final int in_id)
+    final int in_ordinal)
   {
     this.commit = NullCheck.notNull(in_commit);
-    this.id = in_id;
+    this.ordinal = in_ordinal;
   }
 
   public FossilCommit getCommit()
@@ -35,11 +35,22 @@ public final class FossilModelCommitNode
     return this.commit;
   }
 
+  /**
+   * @return The ordinal of the node within its graph
+   *
+   * @see FossilCommitGraph
+   */
+
+  public int getOrdinal()
+  {
+    return this.ordinal;
+  }
+
   @Override public String toString()
   {
     final StringBuilder sb = new StringBuilder("FossilModelCommitNode{");
     sb.append("commit=").append(this.commit);
-    sb.append(", id=").append(this.id);
+    sb.append(", ordinal=").append(this.ordinal);
     sb.append('}');
     return sb.toString();
   }
@@ -54,11 +65,11 @@ public final class FossilModelCommitNode
     }
 
     final FossilModelCommitNode that = (FossilModelCommitNode) o;
-    return this.id == that.id;
+    return this.ordinal == that.ordinal;
   }
 
   @Override public int hashCode()
   {
-    return this.id;
+    return this.ordinal;
   }
 }
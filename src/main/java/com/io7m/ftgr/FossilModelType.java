@@ -16,7 +16,6 @@
 package com.io7m.ftgr;
 
 import org.apache.commons.collections4.BidiMap;
-import org.jgrapht.experimental.dag.DirectedAcyclicGraph;
 
 import java.math.BigInteger;
 import java.util.Map;
@@ -28,9 +27,7 @@ public interface FossilModelType
 
   Map<Integer, BigInteger> getSigners();
 
-  DirectedAcyclicGraph<FossilModelCommitNode, FossilModelCommitLink> getGraph();
-
-  Map<Integer, FossilModelCommitNode> getNodes();
+  FossilCommitGraph getGraph();
 
   FossilModelCommitNode getRootNode();
 
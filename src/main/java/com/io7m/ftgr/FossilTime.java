@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.junreachable.UnreachableCodeException;
+
+/**
+ * Conversions between the Julian day numbers that Fossil stores and
+ * milliseconds since the epoch.
+ */
+
+public final class FossilTime
+{
+  /**
+   * The Julian day number of 1970-01-01T00:00:00Z, in milliseconds.
+   */
+
+  private static final long EPOCH_JULIAN_MILLISECONDS = 210866760000000L;
+
+  private static final double MILLISECONDS_PER_DAY = 86400000.0;
+
+  private FossilTime()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Convert a Julian day number to milliseconds since the epoch. The
+   * result is rounded in the same way as SQLite's own date functions.
+   *
+   * @param day The Julian day number
+   *
+   * @return Milliseconds since the epoch
+   */
+
+  public static long julianDayToEpochMilliseconds(final double day)
+  {
+    final long julian_ms =
+      (long) ((day * FossilTime.MILLISECONDS_PER_DAY) + 0.5);
+    return julian_ms - FossilTime.EPOCH_JULIAN_MILLISECONDS;
+  }
+
+  /**
+   * Convert milliseconds since the epoch to a Julian day number.
+   *
+   * @param time Milliseconds since the epoch
+   *
+   * @return The Julian day number
+   */
+
+  public static double epochMillisecondsToJulianDay(final long time)
+  {
+    final long julian_ms = time + FossilTime.EPOCH_JULIAN_MILLISECONDS;
+    return (double) julian_ms / FossilTime.MILLISECONDS_PER_DAY;
+  }
+}
@@ -71,4 +71,34 @@ public final class GPGExecutable implements GPGExecutableType
       GPGExecutable.LOG, p, out_lines);
     return true;
   }
+
+  @Override public byte[] exportPublicKeys()
+    throws IOException
+  {
+    final List<String> args = new ArrayList<>(2);
+    args.add(this.exec.toString());
+    args.add("--export");
+    GPGExecutable.LOG.debug("execute: {}", args);
+
+    final ProcessBuilder pb = new ProcessBuilder();
+    final Map<String, String> env = pb.environment();
+    env.clear();
+
+    /**
+     * The keyring is found in the same way as by an interactive gpg.
+     */
+
+    for (final String name : new String[]{"HOME", "GNUPGHOME"}) {
+      final String value = System.getenv(name);
+      if (value != null) {
+        env.put(name, value);
+      }
+    }
+
+    pb.command(args);
+    pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+    pb.redirectInput(ProcessBuilder.Redirect.from(new File("/dev/null")));
+
+    return ProcessUtilities.executeCaptured(GPGExecutable.LOG, pb.start());
+  }
 }
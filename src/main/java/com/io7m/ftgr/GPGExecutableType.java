@@ -26,4 +26,15 @@ public interface GPGExecutableType
 {
   boolean hasSecretKey(BigInteger id)
     throws IOException;
+
+  /**
+   * Export all public keys in the keyring.
+   *
+   * @return The keys, in binary OpenPGP format
+   *
+   * @throws IOException On I/O errors
+   */
+
+  byte[] exportPublicKeys()
+    throws IOException;
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.io.IOException;
+
+/**
+ * An implementation of the delta format used in Git packfiles.
+ *
+ * @see <a href="https://git-scm.com/docs/pack-format">Git pack format</a>
+ */
+
+final class GitDelta
+{
+  private GitDelta()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Apply a delta to the given source.
+   *
+   * @param source The source
+   * @param delta  The delta
+   *
+   * @return The target produced by the delta
+   *
+   * @throws IOException If the delta is malformed
+   */
+
+  static byte[] apply(
+    final byte[] source,
+    final byte[] delta)
+    throws IOException
+  {
+    NullCheck.notNull(source);
+    NullCheck.notNull(delta);
+
+    final int[] position = new int[1];
+    final long source_size = GitDelta.readSize(delta, position);
+    if (source_size != (long) source.length) {
+      throw new IOException(
+        String.format(
+          "Delta expects a source of %d bytes, but the source has %d bytes",
+          Long.valueOf(source_size),
+          Integer.valueOf(source.length)));
+    }
+
+    final long size = GitDelta.readSize(delta, position);
+    if (size > (long) Integer.MAX_VALUE) {
+      throw new IOException(
+        String.format("Delta target size %d is too large", Long.valueOf(size)));
+    }
+
+    final byte[] target = new byte[(int) size];
+    int written = 0;
+    int index = position[0];
+
+    while (index < delta.length) {
+      final int command = delta[index] & 0xff;
+      index = index + 1;
+
+      if ((command & 0x80) != 0) {
+
+        /**
+         * Copy: The low four bits select the bytes of the offset that
+         * follow, and the next three bits select the bytes of the size.
+         */
+
+        long offset = 0L;
+        long count = 0L;
+        for (int bit = 0; bit < 7; ++bit) {
+          if ((command & (1 << bit)) == 0) {
+            continue;
+          }
+          if (index >= delta.length) {
+            throw new IOException("Unexpected end of delta");
+          }
+          final long b = (long) (delta[index] & 0xff);
+          index = index + 1;
+          if (bit < 4) {
+            offset = offset | (b << (bit * 8));
+          } else {
+            count = count | (b << ((bit - 4) * 8));
+          }
+        }
+        if (count == 0L) {
+          count = 0x10000L;
+        }
+
+        if (offset + count > (long) source.length
+            || (long) written + count > size) {
+          throw new IOException("Delta copy command out of range");
+        }
+        System.arraycopy(source, (int) offset, target, written, (int) count);
+        written = written + (int) count;
+      } else if (command != 0) {
+
+        /**
+         * Insert: The command is the number of literal bytes that follow.
+         */
+
+        if (index + command > delta.length
+            || (long) written + (long) command > size) {
+          throw new IOException("Delta insert command out of range");
+        }
+        System.arraycopy(delta, index, target, written, command);
+        index = index + command;
+        written = written + command;
+      } else {
+        throw new IOException("Reserved delta command 0");
+      }
+    }
+
+    if ((long) written != size) {
+      throw new IOException(
+        String.format(
+          "Delta produced %d bytes, expected %d",
+          Integer.valueOf(written),
+          Long.valueOf(size)));
+    }
+    return target;
+  }
+
+  /**
+   * Read a little-endian base-128 size, advancing {@code position[0]}.
+   */
+
+  private static long readSize(
+    final byte[] delta,
+    final int[] position)
+    throws IOException
+  {
+    long value = 0L;
+    int shift = 0;
+    while (true) {
+      if (position[0] >= delta.length || shift > 56) {
+        throw new IOException("Malformed delta size");
+      }
+      final int b = delta[position[0]] & 0xff;
+      position[0] = position[0] + 1;
+      value = value | ((long) (b & 0x7f) << shift);
+      shift = shift + 7;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+  }
+}
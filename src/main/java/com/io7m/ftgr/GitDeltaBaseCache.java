@@ -0,0 +1,122 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of the objects that deltas in packfiles are applied to, keyed by
+ * pack and offset. The cache holds at most a fixed number of bytes of
+ * object content, evicting the least recently used objects first. Objects
+ * larger than a quarter of the cache are not cached.
+ */
+
+final class GitDeltaBaseCache
+{
+  private final long                          limit;
+  private final LinkedHashMap<Key, GitObject> objects;
+  private long                                size;
+
+  private GitDeltaBaseCache(final long in_limit)
+  {
+    if (in_limit < 0L) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Cache size must be >= 0 (got %d)", Long.valueOf(in_limit)));
+    }
+
+    this.limit = in_limit;
+    this.objects = new LinkedHashMap<>(256, 0.75f, true);
+    this.size = 0L;
+  }
+
+  static GitDeltaBaseCache newCache(final long in_limit)
+  {
+    return new GitDeltaBaseCache(in_limit);
+  }
+
+  synchronized @Nullable GitObject get(
+    final GitPack pack,
+    final long offset)
+  {
+    return this.objects.get(new Key(pack, offset));
+  }
+
+  synchronized void put(
+    final GitPack pack,
+    final long offset,
+    final GitObject object)
+  {
+    NullCheck.notNull(object);
+
+    final long object_size = (long) object.getData().length;
+    if (object_size > this.limit / 4L) {
+      return;
+    }
+
+    final GitObject previous = this.objects.put(new Key(pack, offset), object);
+    if (previous != null) {
+      this.size = this.size - (long) previous.getData().length;
+    }
+    this.size = this.size + object_size;
+
+    final Iterator<Map.Entry<Key, GitObject>> iter =
+      this.objects.entrySet().iterator();
+    while (this.size > this.limit && iter.hasNext()) {
+      final Map.Entry<Key, GitObject> e = iter.next();
+      this.size = this.size - (long) e.getValue().getData().length;
+      iter.remove();
+    }
+  }
+
+  private static final class Key
+  {
+    private final GitPack pack;
+    private final long    offset;
+
+    Key(
+      final GitPack in_pack,
+      final long in_offset)
+    {
+      this.pack = NullCheck.notNull(in_pack);
+      this.offset = in_offset;
+    }
+
+    @Override public boolean equals(final @Nullable Object o)
+    {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || this.getClass() != o.getClass()) {
+        return false;
+      }
+      final Key other = (Key) o;
+      return this.pack == other.pack && this.offset == other.offset;
+    }
+
+    @Override public int hashCode()
+    {
+      return 31 * System.identityHashCode(this.pack)
+             + (int) (this.offset ^ (this.offset >>> 32));
+    }
+  }
+}
@@ -23,6 +23,9 @@ import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -31,17 +34,32 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
-import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 public final class GitExecutable implements GitExecutableType
 {
-  private static final Logger LOG;
+  private static final Logger            LOG;
+  private static final DateTimeFormatter TIME_FORMAT;
 
   static {
     LOG = LoggerFactory.getLogger(GitExecutable.class);
+
+    /**
+     * The format matches that of the dates previously passed to Git and
+     * faketime, so that replaying the same commits produces the same
+     * hashes.
+     */
+
+    TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss'.0'")
+      .withZone(ZoneOffset.UTC);
   }
 
   private final File exec;
@@ -147,6 +165,411 @@ public final class GitExecutable implements GitExecutableType
       GitExecutable.LOG, pb.start(), out_lines);
   }
 
+  @Override public void createBranchAt(
+    final GitRepositorySpecificationType repos,
+    final String branch,
+    final GitCommitName start)
+    throws IOException
+  {
+    NullCheck.notNull(repos);
+    NullCheck.notNull(branch);
+    NullCheck.notNull(start);
+
+    final File workdir = repos.getDirectory().getCanonicalFile();
+    final List<String> args = new ArrayList<>(5);
+    args.add(this.exec.toString());
+    args.add("checkout");
+    args.add("-b");
+    args.add(branch);
+    args.add(start.toString());
+    GitExecutable.LOG.debug("execute {} in {}", args, workdir);
+
+    final ProcessBuilder pb = new ProcessBuilder();
+    final Map<String, String> env = pb.environment();
+    env.clear();
+    pb.command(args);
+    pb.directory(workdir);
+    pb.redirectErrorStream(true);
+
+    final List<String> out_lines = new ArrayList<>(32);
+    ProcessUtilities.executeLogged(
+      GitExecutable.LOG, pb.start(), out_lines);
+  }
+
+  @Override public List<String> getBranches(
+    final GitRepositorySpecificationType repos)
+    throws IOException
+  {
+    NullCheck.notNull(repos);
+
+    final File workdir = repos.getDirectory().getCanonicalFile();
+    final List<String> args = new ArrayList<>(4);
+    args.add(this.exec.toString());
+    args.add("for-each-ref");
+    args.add("--format=%(refname:short)");
+    args.add("refs/heads/");
+    GitExecutable.LOG.debug("execute {} in {}", args, workdir);
+
+    final ProcessBuilder pb = new ProcessBuilder();
+    final Map<String, String> env = pb.environment();
+    env.clear();
+    pb.command(args);
+    pb.directory(workdir);
+    pb.redirectErrorStream(true);
+
+    final List<String> out_lines = new ArrayList<>(32);
+    ProcessUtilities.executeLogged(
+      GitExecutable.LOG, pb.start(), out_lines);
+
+    final List<String> branches = new ArrayList<>(out_lines.size());
+    for (final String line : out_lines) {
+      final String name = line.trim();
+      if (name.isEmpty() == false) {
+        branches.add(name);
+      }
+    }
+    return branches;
+  }
+
+  @Override public void createWorktree(
+    final GitRepositorySpecificationType repos,
+    final File directory,
+    final String branch,
+    final String start)
+    throws IOException
+  {
+    NullCheck.notNull(repos);
+    NullCheck.notNull(directory);
+    NullCheck.notNull(branch);
+    NullCheck.notNull(start);
+
+    final File workdir = repos.getDirectory().getCanonicalFile();
+    final List<String> args = new ArrayList<>(7);
+    args.add(this.exec.toString());
+    args.add("worktree");
+    args.add("add");
+    args.add("-b");
+    args.add(branch);
+    args.add(directory.getCanonicalFile().toString());
+    args.add(start);
+    GitExecutable.LOG.debug("execute {} in {}", args, workdir);
+
+    final ProcessBuilder pb = new ProcessBuilder();
+    final Map<String, String> env = pb.environment();
+    env.clear();
+    pb.command(args);
+    pb.directory(workdir);
+    pb.redirectErrorStream(true);
+
+    final List<String> out_lines = new ArrayList<>(32);
+    ProcessUtilities.executeLogged(
+      GitExecutable.LOG, pb.start(), out_lines);
+  }
+
+  @Override public void createDetachedWorktree(
+    final File repos,
+    final File directory)
+    throws IOException
+  {
+    NullCheck.notNull(repos);
+    NullCheck.notNull(directory);
+
+    final File workdir = repos.getCanonicalFile();
+    final List<String> args = new ArrayList<>(6);
+    args.add(this.exec.toString());
+    args.add("worktree");
+    args.add("add");
+    args.add("--detach");
+    args.add(directory.getCanonicalFile().toString());
+    args.add("HEAD");
+    GitExecutable.LOG.debug("execute {} in {}", args, workdir);
+
+    final ProcessBuilder pb = new ProcessBuilder();
+    final Map<String, String> env = pb.environment();
+    env.clear();
+    pb.command(args);
+    pb.directory(workdir);
+    pb.redirectErrorStream(true);
+
+    final List<String> out_lines = new ArrayList<>(32);
+    ProcessUtilities.executeLogged(
+      GitExecutable.LOG, pb.start(), out_lines);
+  }
+
+  @Override public Map<GitCommitName, String> listCommitTrees(
+    final File repos)
+    throws IOException
+  {
+    NullCheck.notNull(repos);
+
+    /**
+     * rev-list prints a "commit <name>" header before each formatted line.
+     */
+
+    final List<String> lines =
+      this.captureLines(repos, "rev-list", "--all", "--format=%H %T");
+    final Map<GitCommitName, String> trees = new HashMap<>(lines.size());
+    for (final String line : lines) {
+      if (line.startsWith("commit ")) {
+        continue;
+      }
+      final String[] parts = line.split(" ");
+      if (parts.length != 2) {
+        throw new IOException(
+          String.format("Unparseable rev-list output: %s", line));
+      }
+      trees.put(
+        new GitCommitName(NullCheck.notNull(parts[0])),
+        NullCheck.notNull(parts[1]));
+    }
+    return trees;
+  }
+
+  @Override public List<GitCommitName> listCommitsTopological(
+    final File repos)
+    throws IOException
+  {
+    NullCheck.notNull(repos);
+    return this.revList(repos, "--topo-order", "--reverse", "--all");
+  }
+
+  @Override public List<GitCommitName> listMergeCommits(final File repos)
+    throws IOException
+  {
+    NullCheck.notNull(repos);
+    return this.revList(repos, "--merges", "--all");
+  }
+
+  @Override public List<GitCommitName> listRefCommits(final File repos)
+    throws IOException
+  {
+    NullCheck.notNull(repos);
+
+    /**
+     * Annotated tags are peeled to the commits that they tag.
+     */
+
+    final List<GitCommitName> commits = new ArrayList<>(64);
+    final List<String> lines = this.captureLines(
+      repos,
+      "for-each-ref",
+      "--format=%(objecttype) %(objectname) %(*objectname)",
+      "refs/heads",
+      "refs/tags");
+
+    for (final String line : lines) {
+      final String[] parts = line.split(" ");
+      if ("commit".equals(parts[0]) && parts.length >= 2) {
+        commits.add(new GitCommitName(NullCheck.notNull(parts[1])));
+      } else if ("tag".equals(parts[0]) && parts.length >= 3) {
+        commits.add(new GitCommitName(NullCheck.notNull(parts[2])));
+      }
+    }
+    return commits;
+  }
+
+  @Override public List<String> listTagObjects(final File repos)
+    throws IOException
+  {
+    NullCheck.notNull(repos);
+
+    final List<String> tags = new ArrayList<>(64);
+    final List<String> lines = this.captureLines(
+      repos,
+      "for-each-ref",
+      "--format=%(objecttype) %(objectname)",
+      "refs/tags");
+    for (final String line : lines) {
+      final String[] parts = line.split(" ");
+      if ("tag".equals(parts[0]) && parts.length >= 2) {
+        tags.add(NullCheck.notNull(parts[1]));
+      }
+    }
+    return tags;
+  }
+
+  @Override public void readObjects(
+    final File repos,
+    final List<String> objects,
+    final GitObjectReceiverType receiver)
+    throws IOException
+  {
+    NullCheck.notNull(repos);
+    NullCheck.notNull(objects);
+    NullCheck.notNull(receiver);
+
+    final File workdir = repos.getCanonicalFile();
+    final List<String> args = new ArrayList<>(3);
+    args.add(this.exec.toString());
+    args.add("cat-file");
+    args.add("--batch");
+    GitExecutable.LOG.debug("execute {} in {}", args, workdir);
+
+    final ProcessBuilder pb = new ProcessBuilder();
+    final Map<String, String> env = pb.environment();
+    env.clear();
+    pb.command(args);
+    pb.directory(workdir);
+    pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+    final Process p = pb.start();
+
+    /**
+     * Object names are written to the process from a separate thread so
+     * that neither side can block the other.
+     */
+
+    final AtomicReference<IOException> write_error = new AtomicReference<>();
+    final Thread writer = new Thread(
+      new Runnable()
+      {
+        @Override public void run()
+        {
+          try (final OutputStream out =
+                 new BufferedOutputStream(p.getOutputStream(), 65536)) {
+            for (int index = 0; index < objects.size(); ++index) {
+              out.write(
+                objects.get(index).getBytes(StandardCharsets.US_ASCII));
+              out.write('\n');
+            }
+          } catch (final IOException e) {
+            write_error.set(e);
+          }
+        }
+      });
+    writer.setName("git-cat-file-writer");
+    writer.setDaemon(true);
+    writer.start();
+
+    try (final InputStream in =
+           new BufferedInputStream(p.getInputStream(), 65536)) {
+      for (int index = 0; index < objects.size(); ++index) {
+        final String header = GitExecutable.readHeaderLine(in);
+        final String[] parts = header.split(" ");
+        if (parts.length != 3) {
+          throw new IOException(
+            String.format("Could not read object: %s", header));
+        }
+
+        final int size;
+        try {
+          size = Integer.parseInt(parts[2]);
+        } catch (final NumberFormatException e) {
+          throw new IOException(
+            String.format("Unparseable object header: %s", header));
+        }
+
+        final byte[] data = new byte[size];
+        int offset = 0;
+        while (offset < size) {
+          final int r = in.read(data, offset, size - offset);
+          if (r == -1) {
+            throw new EOFException(
+              String.format("Truncated object %s", parts[0]));
+          }
+          offset = offset + r;
+        }
+        if (in.read() != '\n') {
+          throw new IOException(
+            String.format("Missing terminator after object %s", parts[0]));
+        }
+
+        receiver.onObject(
+          NullCheck.notNull(parts[0]), NullCheck.notNull(parts[1]), data);
+      }
+    } finally {
+      try {
+        writer.join();
+        p.waitFor();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        p.destroy();
+        throw new IOException(e);
+      }
+    }
+
+    final IOException e = write_error.get();
+    if (e != null) {
+      throw e;
+    }
+    if (p.exitValue() > 0) {
+      throw new IOException(
+        String.format(
+          "Process exited with status %d", Integer.valueOf(p.exitValue())));
+    }
+  }
+
+  private static String readHeaderLine(final InputStream in)
+    throws IOException
+  {
+    final StringBuilder sb = new StringBuilder(64);
+    while (true) {
+      final int c = in.read();
+      if (c == -1) {
+        throw new EOFException("Unexpected end of git cat-file output");
+      }
+      if (c == '\n') {
+        return sb.toString();
+      }
+      sb.append((char) c);
+    }
+  }
+
+  private List<GitCommitName> revList(
+    final File repos,
+    final String... options)
+    throws IOException
+  {
+    final String[] args = new String[options.length + 1];
+    args[0] = "rev-list";
+    System.arraycopy(options, 0, args, 1, options.length);
+
+    final List<String> lines = this.captureLines(repos, args);
+    final List<GitCommitName> commits = new ArrayList<>(lines.size());
+    for (final String line : lines) {
+      commits.add(new GitCommitName(line));
+    }
+    return commits;
+  }
+
+  /**
+   * Execute git with the given arguments in {@code repos}.
+   *
+   * @return The non-empty lines of the standard output, trimmed
+   */
+
+  private List<String> captureLines(
+    final File repos,
+    final String... arguments)
+    throws IOException
+  {
+    final File workdir = repos.getCanonicalFile();
+    final List<String> args = new ArrayList<>(arguments.length + 1);
+    args.add(this.exec.toString());
+    args.addAll(Arrays.asList(arguments));
+    GitExecutable.LOG.debug("execute {} in {}", args, workdir);
+
+    final ProcessBuilder pb = new ProcessBuilder();
+    final Map<String, String> env = pb.environment();
+    env.clear();
+    pb.command(args);
+    pb.directory(workdir);
+    pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+    final byte[] data =
+      ProcessUtilities.executeCaptured(GitExecutable.LOG, pb.start());
+
+    final String[] lines =
+      new String(data, StandardCharsets.UTF_8).split("\\n");
+    final List<String> results = new ArrayList<>(lines.length);
+    for (final String line : lines) {
+      final String trimmed = line.trim();
+      if (trimmed.isEmpty() == false) {
+        results.add(trimmed);
+      }
+    }
+    return results;
+  }
+
   @Override public void checkoutCommit(
     final File repos,
     final GitCommitName commit)
@@ -209,7 +632,7 @@ public final class GitExecutable implements GitExecutableType
 
   @Override public GitCommitName createCommit(
     final GitRepositorySpecificationType repos,
-    final Timestamp time,
+    final long time,
     final GitIdent user,
     final String comment,
     final String branch,
@@ -217,7 +640,6 @@ public final class GitExecutable implements GitExecutableType
     throws IOException
   {
     NullCheck.notNull(repos);
-    NullCheck.notNull(time);
     NullCheck.notNull(user);
     NullCheck.notNull(comment);
     NullCheck.notNull(branch);
@@ -228,22 +650,23 @@ public final class GitExecutable implements GitExecutableType
 
   @Override public void createTag(
     final GitRepositorySpecificationType repos,
-    final Timestamp time,
+    final long time,
     final GitIdent user,
     final BigInteger key_id,
     final String tag_name)
     throws IOException
   {
     NullCheck.notNull(repos);
-    NullCheck.notNull(time);
     NullCheck.notNull(user);
     NullCheck.notNull(tag_name);
 
+    final String time_text = GitExecutable.formatTime(time);
+
     final File workdir = repos.getDirectory().getCanonicalFile();
 
     final List<String> args = new ArrayList<>(10);
     args.add(this.faketime_exec.toString());
-    args.add(time.toString());
+    args.add(time_text);
     args.add(this.exec.toString());
     args.add("tag");
     args.add("-s");
@@ -257,10 +680,10 @@ public final class GitExecutable implements GitExecutableType
 
     final ProcessBuilder pb = new ProcessBuilder();
     final Map<String, String> env = pb.environment();
-    env.put("GIT_AUTHOR_DATE", time.toString());
+    env.put("GIT_AUTHOR_DATE", time_text);
     env.put("GIT_AUTHOR_NAME", user.getName());
     env.put("GIT_AUTHOR_EMAIL", user.getEmail());
-    env.put("GIT_COMMITTER_DATE", time.toString());
+    env.put("GIT_COMMITTER_DATE", time_text);
     env.put("GIT_COMMITTER_NAME", user.getName());
     env.put("GIT_COMMITTER_EMAIL", user.getEmail());
 
@@ -275,14 +698,13 @@ public final class GitExecutable implements GitExecutableType
 
   @Override public GitCommitName createRootCommit(
     final GitRepositorySpecificationType repos,
-    final Timestamp time,
+    final long time,
     final GitIdent user,
     final String comment,
     final String branch)
     throws IOException
   {
     NullCheck.notNull(repos);
-    NullCheck.notNull(time);
     NullCheck.notNull(user);
     NullCheck.notNull(comment);
     NullCheck.notNull(branch);
@@ -388,9 +810,9 @@ public final class GitExecutable implements GitExecutableType
       GitExecutable.LOG, pb.start(), out_lines);
   }
 
-  @Override public void merge(
+  @Override public GitCommitName merge(
     final GitRepositorySpecificationType repos,
-    final Timestamp time,
+    final long time,
     final GitIdent user,
     final String comment,
     final String merge_to,
@@ -402,6 +824,8 @@ public final class GitExecutable implements GitExecutableType
     NullCheck.notNull(merge_from);
     NullCheck.notNull(merge_to);
 
+    final String time_text = GitExecutable.formatTime(time);
+
     final File workdir = repos.getDirectory().getCanonicalFile();
 
     /**
@@ -435,7 +859,7 @@ public final class GitExecutable implements GitExecutableType
     {
       final List<String> args = new ArrayList<>(8);
       args.add(this.faketime_exec.toString());
-      args.add(time.toString());
+      args.add(time_text);
       args.add(this.exec.toString());
       args.add("merge");
       args.add("--no-ff");
@@ -446,10 +870,10 @@ public final class GitExecutable implements GitExecutableType
 
       final ProcessBuilder pb = new ProcessBuilder();
       final Map<String, String> env = pb.environment();
-      env.put("GIT_AUTHOR_DATE", time.toString());
+      env.put("GIT_AUTHOR_DATE", time_text);
       env.put("GIT_AUTHOR_NAME", user.getName());
       env.put("GIT_AUTHOR_EMAIL", user.getEmail());
-      env.put("GIT_COMMITTER_DATE", time.toString());
+      env.put("GIT_COMMITTER_DATE", time_text);
       env.put("GIT_COMMITTER_NAME", user.getName());
       env.put("GIT_COMMITTER_EMAIL", user.getEmail());
 
@@ -461,11 +885,78 @@ public final class GitExecutable implements GitExecutableType
       ProcessUtilities.executeLogged(
         GitExecutable.LOG, pb.start(), out_lines);
     }
+
+    return GitExecutable.readBranchHead(workdir, merge_to);
+  }
+
+  private static GitCommitName readBranchHead(
+    final File workdir,
+    final String branch)
+    throws IOException
+  {
+    final File git = GitExecutable.commonDirectory(workdir);
+    final File git_refs = new File(git, "refs");
+    final File git_heads = new File(git_refs, "heads");
+    final File head = new File(git_heads, branch);
+
+    GitExecutable.LOG.debug("reading {}", head);
+    return new GitCommitName(GitExecutable.readFirstLine(head));
+  }
+
+  /**
+   * Find the directory that holds the refs for the given working directory.
+   * For linked worktrees, {@code .git} is a file naming a private directory
+   * that in turn names the directory shared by all worktrees.
+   */
+
+  private static File commonDirectory(final File workdir)
+    throws IOException
+  {
+    final File git = new File(workdir, ".git");
+    if (git.isFile() == false) {
+      return git;
+    }
+
+    final String git_line = GitExecutable.readFirstLine(git);
+    if (git_line.startsWith("gitdir:") == false) {
+      throw new IOException(
+        String.format("Unrecognized .git file: %s", git));
+    }
+
+    File private_dir = new File(git_line.substring(7).trim());
+    if (private_dir.isAbsolute() == false) {
+      private_dir = new File(workdir, private_dir.toString());
+    }
+
+    final File common = new File(private_dir, "commondir");
+    if (common.isFile() == false) {
+      return private_dir;
+    }
+
+    final File common_dir = new File(GitExecutable.readFirstLine(common));
+    if (common_dir.isAbsolute()) {
+      return common_dir;
+    }
+    return new File(private_dir, common_dir.toString()).getCanonicalFile();
+  }
+
+  private static String readFirstLine(final File file)
+    throws IOException
+  {
+    try (final InputStream is = new FileInputStream(file)) {
+      final List<String> lines = IOUtils.readLines(is, StandardCharsets.UTF_8);
+      if (lines.isEmpty()) {
+        throw new IOException(
+          String.format(
+            "File %s turned out to be empty!", file));
+      }
+      return NullCheck.notNull(lines.get(0).trim());
+    }
   }
 
   private GitCommitName commit(
     final GitRepositorySpecificationType repos,
-    final Timestamp time,
+    final long time,
     final GitIdent user,
     final String comment,
     final String branch,
@@ -474,9 +965,11 @@ public final class GitExecutable implements GitExecutableType
   {
     final File workdir = repos.getDirectory().getCanonicalFile();
 
+    final String time_text = GitExecutable.formatTime(time);
+
     final List<String> args = new ArrayList<>(10);
     args.add(this.faketime_exec.toString());
-    args.add(time.toString());
+    args.add(time_text);
     args.add(this.exec.toString());
     args.add("commit");
     args.add("--allow-empty");
@@ -498,10 +991,10 @@ public final class GitExecutable implements GitExecutableType
 
     final ProcessBuilder pb = new ProcessBuilder();
     final Map<String, String> env = pb.environment();
-    env.put("GIT_AUTHOR_DATE", time.toString());
+    env.put("GIT_AUTHOR_DATE", time_text);
     env.put("GIT_AUTHOR_NAME", user.getName());
     env.put("GIT_AUTHOR_EMAIL", user.getEmail());
-    env.put("GIT_COMMITTER_DATE", time.toString());
+    env.put("GIT_COMMITTER_DATE", time_text);
     env.put("GIT_COMMITTER_NAME", user.getName());
     env.put("GIT_COMMITTER_EMAIL", user.getEmail());
 
@@ -520,21 +1013,17 @@ public final class GitExecutable implements GitExecutableType
     ProcessUtilities.executeLogged(
       GitExecutable.LOG, p, out_lines);
 
-    final File git = new File(workdir, ".git");
-    final File git_refs = new File(git, "refs");
-    final File git_heads = new File(git_refs, "heads");
-    final File head = new File(git_heads, branch);
+    return GitExecutable.readBranchHead(workdir, branch);
+  }
 
-    GitExecutable.LOG.debug("reading {}", head);
+  /**
+   * Format a time in milliseconds since the epoch as a UTC date with a
+   * precision of one second.
+   */
 
-    try (final InputStream is = new FileInputStream(head)) {
-      final List<String> lines = IOUtils.readLines(is, StandardCharsets.UTF_8);
-      if (lines.isEmpty()) {
-        throw new IOException(
-          String.format(
-            "File %s turned out to be empty!", head));
-      }
-      return new GitCommitName(NullCheck.notNull(lines.get(0).trim()));
-    }
+  private static String formatTime(final long time)
+  {
+    final long seconds = Math.floorDiv(time, 1000L);
+    return GitExecutable.TIME_FORMAT.format(Instant.ofEpochSecond(seconds));
   }
 }
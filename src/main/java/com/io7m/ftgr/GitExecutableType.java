@@ -18,7 +18,8 @@ package com.io7m.ftgr;
 import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
-import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
 
 public interface GitExecutableType
 {
@@ -35,6 +36,135 @@ public interface GitExecutableType
     String branch)
     throws IOException;
 
+  void createBranchAt(
+    GitRepositorySpecificationType repos,
+    String branch,
+    GitCommitName start)
+    throws IOException;
+
+  /**
+   * Create a new branch {@code branch} starting at {@code start}, and check
+   * it out into a new linked worktree at {@code directory}. The worktree
+   * shares the object store of {@code repos}.
+   *
+   * @param repos     The repository
+   * @param directory The new worktree directory
+   * @param branch    The new branch
+   * @param start     The start point of the branch
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void createWorktree(
+    GitRepositorySpecificationType repos,
+    File directory,
+    String branch,
+    String start)
+    throws IOException;
+
+  /**
+   * Create a new linked worktree at {@code directory} with a detached
+   * {@code HEAD}. The worktree shares the object store of {@code repos}.
+   *
+   * @param repos     The repository
+   * @param directory The new worktree directory
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void createDetachedWorktree(
+    File repos,
+    File directory)
+    throws IOException;
+
+  /**
+   * List the tree of every commit reachable from any ref.
+   *
+   * @param repos The repository
+   *
+   * @return The hex ID of the tree of each commit
+   *
+   * @throws IOException On I/O errors
+   */
+
+  Map<GitCommitName, String> listCommitTrees(File repos)
+    throws IOException;
+
+  /**
+   * List all commits reachable from any ref, parents before children, with
+   * the commits of each line of history listed contiguously where possible
+   * ({@code git rev-list --topo-order --reverse --all}).
+   *
+   * @param repos The repository
+   *
+   * @return The commits
+   *
+   * @throws IOException On I/O errors
+   */
+
+  List<GitCommitName> listCommitsTopological(File repos)
+    throws IOException;
+
+  /**
+   * List all commits reachable from any ref that have more than one parent.
+   *
+   * @param repos The repository
+   *
+   * @return The commits
+   *
+   * @throws IOException On I/O errors
+   */
+
+  List<GitCommitName> listMergeCommits(File repos)
+    throws IOException;
+
+  /**
+   * List the commits at the heads of all branches, and the commits
+   * referenced by all tags.
+   *
+   * @param repos The repository
+   *
+   * @return The commits
+   *
+   * @throws IOException On I/O errors
+   */
+
+  List<GitCommitName> listRefCommits(File repos)
+    throws IOException;
+
+  /**
+   * List the names of all annotated tag objects.
+   *
+   * @param repos The repository
+   *
+   * @return The names of the tag objects
+   *
+   * @throws IOException On I/O errors
+   */
+
+  List<String> listTagObjects(File repos)
+    throws IOException;
+
+  /**
+   * Read the given objects, in order, using a single {@code git cat-file
+   * --batch} process.
+   *
+   * @param repos    The repository
+   * @param objects  The names of the objects
+   * @param receiver The receiver of objects
+   *
+   * @throws IOException On I/O errors, or if any object does not exist
+   */
+
+  void readObjects(
+    File repos,
+    List<String> objects,
+    GitObjectReceiverType receiver)
+    throws IOException;
+
+  List<String> getBranches(GitRepositorySpecificationType repos)
+    throws IOException;
+
   void checkoutBranch(
     GitRepositorySpecificationType repos,
     String branch)
@@ -47,7 +177,7 @@ public interface GitExecutableType
 
   GitCommitName createCommit(
     GitRepositorySpecificationType repos,
-    Timestamp time,
+    long time,
     GitIdent user,
     String comment,
     String branch,
@@ -56,7 +186,7 @@ public interface GitExecutableType
 
   void createTag(
     GitRepositorySpecificationType repos,
-    Timestamp time,
+    long time,
     GitIdent user,
     BigInteger key_id,
     String tag_name)
@@ -64,7 +194,7 @@ public interface GitExecutableType
 
   GitCommitName createRootCommit(
     GitRepositorySpecificationType repos,
-    Timestamp time,
+    long time,
     GitIdent user,
     String comment,
     String branch)
@@ -73,9 +203,9 @@ public interface GitExecutableType
   void addAll(GitRepositorySpecificationType repos)
     throws IOException;
 
-  void merge(
+  GitCommitName merge(
     GitRepositorySpecificationType repos,
-    Timestamp time,
+    long time,
     GitIdent user,
     String comment,
     String merge_to,
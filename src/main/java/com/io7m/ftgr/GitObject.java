@@ -0,0 +1,66 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+
+/**
+ * An object read from a Git object database.
+ */
+
+public final class GitObject
+{
+  private final String type;
+  private final byte[] data;
+
+  public GitObject(
+    final String in_type,
+    final byte[] in_data)
+  {
+    this.type = NullCheck.notNull(in_type);
+    this.data = NullCheck.notNull(in_data);
+  }
+
+  /**
+   * @return The type of the object: {@code commit}, {@code tree}, {@code
+   * blob}, or {@code tag}
+   */
+
+  public String getType()
+  {
+    return this.type;
+  }
+
+  /**
+   * @return The content of the object. The array must not be modified, as
+   * it may be shared with other readers of the same object.
+   */
+
+  public byte[] getData()
+  {
+    return this.data;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder sb = new StringBuilder("GitObject{");
+    sb.append("type='").append(this.type).append('\'');
+    sb.append(", size=").append(this.data.length);
+    sb.append('}');
+    return sb.toString();
+  }
+}
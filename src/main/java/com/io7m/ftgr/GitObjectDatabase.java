@@ -0,0 +1,485 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * <p>A read-only Git object database that reads loose objects and
+ * packfiles directly, without running Git.</p>
+ *
+ * <p>The database may be opened on a working tree (including a linked
+ * worktree), or on a bare repository. Alternate object directories listed
+ * in {@code objects/info/alternates} are searched too. If an object cannot
+ * be found, the pack directories are scanned again before giving up, so
+ * that packs created after the database was opened are found.</p>
+ */
+
+public final class GitObjectDatabase implements GitObjectDatabaseType
+{
+  private static final Logger LOG;
+
+  /**
+   * The default size of the delta base cache, in bytes.
+   */
+
+  static final long DEFAULT_CACHE_SIZE = 32L << 20;
+
+  private static final int MAXIMUM_ALTERNATES_DEPTH = 5;
+
+  static {
+    LOG = LoggerFactory.getLogger(GitObjectDatabase.class);
+  }
+
+  private final List<File>        directories;
+  private final GitDeltaBaseCache cache;
+  private final Set<String>       pack_names;
+  private volatile List<GitPack>  packs;
+
+  private GitObjectDatabase(
+    final List<File> in_directories,
+    final long in_cache_size)
+  {
+    this.directories = NullCheck.notNull(in_directories);
+    this.cache = GitDeltaBaseCache.newCache(in_cache_size);
+    this.pack_names = new HashSet<>(16);
+    this.packs = new ArrayList<>(0);
+  }
+
+  /**
+   * Open the object database of the given repository.
+   *
+   * @param repos The repository
+   *
+   * @return A database
+   *
+   * @throws IOException On I/O errors, or if {@code repos} is not a Git
+   *                     repository
+   */
+
+  public static GitObjectDatabaseType openDatabase(final File repos)
+    throws IOException
+  {
+    return GitObjectDatabase.openDatabase(
+      repos, GitObjectDatabase.DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * Open the object database of the given repository.
+   *
+   * @param repos      The repository
+   * @param cache_size The size of the delta base cache, in bytes
+   *
+   * @return A database
+   *
+   * @throws IOException On I/O errors, or if {@code repos} is not a Git
+   *                     repository
+   */
+
+  public static GitObjectDatabaseType openDatabase(
+    final File repos,
+    final long cache_size)
+    throws IOException
+  {
+    NullCheck.notNull(repos);
+
+    final File objects =
+      new File(GitObjectDatabase.findCommonDirectory(repos), "objects");
+    if (objects.isDirectory() == false) {
+      throw new IOException(
+        String.format("%s: Not a Git repository", repos));
+    }
+
+    final List<File> directories = new ArrayList<>(2);
+    GitObjectDatabase.addDirectory(directories, objects.getCanonicalFile(), 0);
+    GitObjectDatabase.LOG.debug("object directories: {}", directories);
+
+    final GitObjectDatabase db =
+      new GitObjectDatabase(directories, cache_size);
+    db.scanPacks();
+    return db;
+  }
+
+  /**
+   * Find the directory that holds the object store: {@code .git} in a
+   * working tree, the directory named by the {@code commondir} file of a
+   * linked worktree, or the repository itself if it is bare.
+   */
+
+  private static File findCommonDirectory(final File repos)
+    throws IOException
+  {
+    final File dot_git = new File(repos, ".git");
+    final File git_dir;
+    if (dot_git.isDirectory()) {
+      git_dir = dot_git;
+    } else if (dot_git.isFile()) {
+      final String text =
+        FileUtils.readFileToString(dot_git, StandardCharsets.UTF_8).trim();
+      if (text.startsWith("gitdir:") == false) {
+        throw new IOException(
+          String.format("%s: Unrecognized .git file", repos));
+      }
+      git_dir = GitObjectDatabase.resolve(
+        repos, text.substring("gitdir:".length()).trim());
+    } else {
+      git_dir = repos;
+    }
+
+    final File common = new File(git_dir, "commondir");
+    if (common.isFile()) {
+      return GitObjectDatabase.resolve(
+        git_dir,
+        FileUtils.readFileToString(common, StandardCharsets.UTF_8).trim());
+    }
+    return git_dir;
+  }
+
+  private static File resolve(
+    final File base,
+    final String path)
+  {
+    final File f = new File(path);
+    if (f.isAbsolute()) {
+      return f;
+    }
+    return new File(base, path);
+  }
+
+  private static void addDirectory(
+    final List<File> directories,
+    final File objects,
+    final int depth)
+    throws IOException
+  {
+    if (directories.contains(objects)) {
+      return;
+    }
+    directories.add(objects);
+
+    final File alternates = new File(new File(objects, "info"), "alternates");
+    if (alternates.isFile() == false) {
+      return;
+    }
+    if (depth >= GitObjectDatabase.MAXIMUM_ALTERNATES_DEPTH) {
+      GitObjectDatabase.LOG.warn(
+        "{}: ignoring alternates nested too deeply", alternates);
+      return;
+    }
+
+    for (final String line : FileUtils.readLines(
+      alternates, StandardCharsets.UTF_8)) {
+      final String trimmed = line.trim();
+      if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+        continue;
+      }
+      final File alternate =
+        GitObjectDatabase.resolve(objects, trimmed).getCanonicalFile();
+      if (alternate.isDirectory()) {
+        GitObjectDatabase.addDirectory(directories, alternate, depth + 1);
+      }
+    }
+  }
+
+  /**
+   * Open any packs that have not already been opened.
+   *
+   * @return {@code true} iff any new packs were opened
+   */
+
+  private synchronized boolean scanPacks()
+    throws IOException
+  {
+    final List<GitPack> opened = new ArrayList<>(this.packs);
+    boolean changed = false;
+
+    for (final File objects : this.directories) {
+      final File[] files = new File(objects, "pack").listFiles();
+      if (files == null) {
+        continue;
+      }
+      Arrays.sort(files);
+
+      for (final File file : files) {
+        final String name = file.getName();
+        if (name.endsWith(".idx") == false) {
+          continue;
+        }
+        final String path = file.getCanonicalPath();
+        if (this.pack_names.contains(path)) {
+          continue;
+        }
+        opened.add(GitPack.open(file));
+        this.pack_names.add(path);
+        changed = true;
+      }
+    }
+
+    this.packs = opened;
+    return changed;
+  }
+
+  @Override public GitObject readObject(final String name)
+    throws IOException
+  {
+    NullCheck.notNull(name);
+    return this.readObject(GitObjectDatabase.parseName(name));
+  }
+
+  /**
+   * Read the object with the given raw 20 byte ID.
+   */
+
+  GitObject readObject(final byte[] id)
+    throws IOException
+  {
+    final GitObject packed = this.readPacked(id);
+    if (packed != null) {
+      return packed;
+    }
+
+    final String name = VerifierFileHashing.hex(id);
+    final File loose = this.findLoose(name);
+    if (loose != null) {
+      return GitObjectDatabase.readLoose(loose);
+    }
+
+    if (this.scanPacks()) {
+      final GitObject rescanned = this.readPacked(id);
+      if (rescanned != null) {
+        return rescanned;
+      }
+    }
+
+    throw new IOException(String.format("No such object: %s", name));
+  }
+
+  private @Nullable GitObject readPacked(final byte[] id)
+    throws IOException
+  {
+    final List<GitPack> current = this.packs;
+    for (int index = 0; index < current.size(); ++index) {
+      final GitPack pack = NullCheck.notNull(current.get(index));
+      final long offset = pack.find(id);
+      if (offset >= 0L) {
+        return pack.read(this, this.cache, offset);
+      }
+    }
+    return null;
+  }
+
+  private @Nullable File findLoose(final String name)
+  {
+    for (int index = 0; index < this.directories.size(); ++index) {
+      final File objects = NullCheck.notNull(this.directories.get(index));
+      final File file = new File(
+        new File(objects, name.substring(0, 2)), name.substring(2));
+      if (file.isFile()) {
+        return file;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * A loose object is a zlib stream of {@code "<type> <size>\0"} followed
+   * by the content.
+   */
+
+  private static GitObject readLoose(final File file)
+    throws IOException
+  {
+    try (final InputStream in =
+           new InflaterInputStream(new FileInputStream(file))) {
+      final ByteArrayOutputStream header = new ByteArrayOutputStream(32);
+      while (true) {
+        final int c = in.read();
+        if (c == -1) {
+          throw new EOFException(
+            String.format("%s: Truncated object header", file));
+        }
+        if (c == 0) {
+          break;
+        }
+        if (header.size() > 32) {
+          throw new IOException(
+            String.format("%s: Malformed object header", file));
+        }
+        header.write(c);
+      }
+
+      final String[] parts =
+        new String(header.toByteArray(), StandardCharsets.US_ASCII).split(" ");
+      final int size;
+      try {
+        size = parts.length == 2 ? Integer.parseInt(parts[1]) : -1;
+      } catch (final NumberFormatException e) {
+        throw new IOException(
+          String.format("%s: Malformed object header", file));
+      }
+      if (size < 0) {
+        throw new IOException(
+          String.format("%s: Malformed object header", file));
+      }
+
+      final byte[] data = new byte[size];
+      IOUtils.readFully(in, data);
+      return new GitObject(NullCheck.notNull(parts[0]), data);
+    }
+  }
+
+  @Override public List<GitTreeEntry> listTree(final GitCommitName commit)
+    throws IOException
+  {
+    NullCheck.notNull(commit);
+
+    final GitObject c = this.readObject(commit.toString());
+    if ("commit".equals(c.getType()) == false) {
+      throw new IOException(
+        String.format(
+          "Object %s is a %s, not a commit", commit, c.getType()));
+    }
+
+    final byte[] data = c.getData();
+    if (data.length < 46 || new String(
+      data, 0, 5, StandardCharsets.US_ASCII).equals("tree ") == false) {
+      throw new IOException(
+        String.format("Commit %s does not name a tree", commit));
+    }
+
+    final String tree = new String(data, 5, 40, StandardCharsets.US_ASCII);
+    final List<GitTreeEntry> entries = new ArrayList<>(256);
+    this.listTreeInto(GitObjectDatabase.parseName(tree), "", entries);
+    return entries;
+  }
+
+  /**
+   * A tree is a sequence of {@code "<mode> <name>\0"} followed by a raw 20
+   * byte ID.
+   */
+
+  private void listTreeInto(
+    final byte[] tree,
+    final String prefix,
+    final List<GitTreeEntry> entries)
+    throws IOException
+  {
+    final GitObject t = this.readObject(tree);
+    if ("tree".equals(t.getType()) == false) {
+      throw new IOException(
+        String.format(
+          "Object %s is a %s, not a tree",
+          VerifierFileHashing.hex(tree),
+          t.getType()));
+    }
+
+    final byte[] data = t.getData();
+    int index = 0;
+    while (index < data.length) {
+      int space = index;
+      while (space < data.length && data[space] != ' ') {
+        ++space;
+      }
+      int nul = space;
+      while (nul < data.length && data[nul] != 0) {
+        ++nul;
+      }
+      if (nul + 21 > data.length) {
+        throw new IOException(
+          String.format(
+            "Tree %s is malformed", VerifierFileHashing.hex(tree)));
+      }
+
+      final String mode =
+        new String(data, index, space - index, StandardCharsets.US_ASCII);
+      final String name = prefix + new String(
+        data, space + 1, nul - (space + 1), StandardCharsets.UTF_8);
+      final byte[] id = Arrays.copyOfRange(data, nul + 1, nul + 21);
+      index = nul + 21;
+
+      if ("40000".equals(mode)) {
+        this.listTreeInto(id, name + "/", entries);
+      } else {
+        final String type = "160000".equals(mode) ? "commit" : "blob";
+        entries.add(
+          new GitTreeEntry(mode, type, VerifierFileHashing.hex(id), name));
+      }
+    }
+  }
+
+  private static byte[] parseName(final String name)
+    throws IOException
+  {
+    if (name.length() != 40) {
+      throw new IOException(
+        String.format("Malformed object name: %s", name));
+    }
+
+    final byte[] id = new byte[20];
+    for (int index = 0; index < 20; ++index) {
+      final int hi = Character.digit(name.charAt(index * 2), 16);
+      final int lo = Character.digit(name.charAt((index * 2) + 1), 16);
+      if (hi < 0 || lo < 0) {
+        throw new IOException(
+          String.format("Malformed object name: %s", name));
+      }
+      id[index] = (byte) ((hi << 4) | lo);
+    }
+    return id;
+  }
+
+  @Override public synchronized void close()
+    throws IOException
+  {
+    @Nullable IOException failure = null;
+    for (final GitPack pack : this.packs) {
+      try {
+        pack.close();
+      } catch (final IOException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    this.packs = new ArrayList<>(0);
+    this.pack_names.clear();
+    if (failure != null) {
+      throw failure;
+    }
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A read-only view of the objects of a Git repository. Implementations are
+ * safe to use from multiple threads.
+ */
+
+public interface GitObjectDatabaseType extends Closeable
+{
+  /**
+   * Read an object, undoing any compression and delta encoding.
+   *
+   * @param name The hex ID of the object
+   *
+   * @return The object
+   *
+   * @throws IOException On I/O errors, or if the object does not exist
+   */
+
+  GitObject readObject(String name)
+    throws IOException;
+
+  /**
+   * List all blobs (and submodule commits) in the tree of the given commit,
+   * recursively, in the manner of {@code git ls-tree -r --full-tree}.
+   *
+   * @param commit The commit
+   *
+   * @return The tree entries
+   *
+   * @throws IOException On I/O errors
+   */
+
+  List<GitTreeEntry> listTree(GitCommitName commit)
+    throws IOException;
+}
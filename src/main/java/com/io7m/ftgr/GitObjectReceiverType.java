@@ -0,0 +1,43 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import java.io.IOException;
+
+/**
+ * A receiver of raw Git objects.
+ */
+
+public interface GitObjectReceiverType
+{
+  /**
+   * Receive an object.
+   *
+   * @param name The name (hash) of the object
+   * @param type The type of the object ({@code commit}, {@code tag}, {@code
+   *             tree}, or {@code blob})
+   * @param data The uncompressed content of the object, without the header
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void onObject(
+    String name,
+    String type,
+    byte[] data)
+    throws IOException;
+}
@@ -0,0 +1,576 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * <p>A Git packfile and its index, both memory-mapped.</p>
+ *
+ * <p>Objects are found by binary search of the index (version 1 or 2).
+ * Deltas are resolved by following the chain of bases back to a whole
+ * object (consulting the delta base cache at each step) and then applying
+ * the deltas in reverse order. Bases that are named by ID rather than by
+ * offset are read through the owning object database, and so may be in
+ * another pack.</p>
+ *
+ * <p>The mapped buffers are only read with absolute operations or through
+ * duplicates, so a pack is safe to read from multiple threads.</p>
+ */
+
+final class GitPack implements Closeable
+{
+  private static final Logger LOG;
+
+  private static final int IDX_MAGIC = 0xff744f63;
+  private static final int PACK_MAGIC = 0x5041434b;
+  private static final int TYPE_COMMIT = 1;
+  private static final int TYPE_TREE = 2;
+  private static final int TYPE_BLOB = 3;
+  private static final int TYPE_TAG = 4;
+  private static final int TYPE_OFS_DELTA = 6;
+  private static final int TYPE_REF_DELTA = 7;
+  private static final int INPUT_SIZE = 1 << 16;
+
+  private static final ThreadLocal<Inflation> INFLATIONS;
+
+  static {
+    LOG = LoggerFactory.getLogger(GitPack.class);
+    INFLATIONS = new ThreadLocal<Inflation>()
+    {
+      @Override protected Inflation initialValue()
+      {
+        return new Inflation();
+      }
+    };
+  }
+
+  private final File        file;
+  private final FileChannel idx_channel;
+  private final FileChannel pack_channel;
+  private final ByteBuffer  idx;
+  private final ByteBuffer  pack;
+  private final int         version;
+  private final int         count;
+  private final int         names;
+  private final int         offsets;
+  private final int         large_offsets;
+
+  private GitPack(
+    final File in_file,
+    final FileChannel in_idx_channel,
+    final FileChannel in_pack_channel,
+    final ByteBuffer in_idx,
+    final ByteBuffer in_pack)
+    throws IOException
+  {
+    this.file = NullCheck.notNull(in_file);
+    this.idx_channel = NullCheck.notNull(in_idx_channel);
+    this.pack_channel = NullCheck.notNull(in_pack_channel);
+    this.idx = NullCheck.notNull(in_idx);
+    this.pack = NullCheck.notNull(in_pack);
+
+    /**
+     * Version 2 indices start with a magic number and a version. Version 1
+     * indices start directly with the fan-out table, and the magic number
+     * is not a plausible first fan-out entry.
+     */
+
+    final int fanout;
+    if (in_idx.capacity() >= 8 && in_idx.getInt(0) == GitPack.IDX_MAGIC) {
+      this.version = in_idx.getInt(4);
+      if (this.version != 2) {
+        throw new IOException(
+          String.format(
+            "%s: Unsupported index version %d",
+            in_file,
+            Integer.valueOf(this.version)));
+      }
+      fanout = 8;
+    } else {
+      this.version = 1;
+      fanout = 0;
+    }
+
+    if (in_idx.capacity() < fanout + 1024) {
+      throw new IOException(String.format("%s: Truncated index", in_file));
+    }
+    this.count = in_idx.getInt(fanout + 1020);
+    if (this.count < 0) {
+      throw new IOException(String.format("%s: Corrupt index", in_file));
+    }
+
+    final long expected;
+    if (this.version == 2) {
+      this.names = fanout + 1024;
+      this.offsets = this.names + (this.count * 24);
+      this.large_offsets = this.offsets + (this.count * 4);
+      expected = (long) this.large_offsets + 40L;
+    } else {
+      this.names = fanout + 1024 + 4;
+      this.offsets = fanout + 1024;
+      this.large_offsets = 0;
+      expected = (long) fanout + 1024L + ((long) this.count * 24L) + 40L;
+    }
+    if ((long) in_idx.capacity() < expected) {
+      throw new IOException(String.format("%s: Truncated index", in_file));
+    }
+
+    if (in_pack.capacity() < 12
+        || in_pack.getInt(0) != GitPack.PACK_MAGIC
+        || in_pack.getInt(8) != this.count) {
+      throw new IOException(
+        String.format("%s: Pack does not match its index", in_file));
+    }
+  }
+
+  /**
+   * Open the pack with the given index file. The pack file is expected to
+   * have the same name, with a {@code .pack} suffix.
+   *
+   * @param idx_file The index file
+   *
+   * @return A pack
+   *
+   * @throws IOException On I/O errors, or if the pack is malformed
+   */
+
+  static GitPack open(final File idx_file)
+    throws IOException
+  {
+    NullCheck.notNull(idx_file);
+
+    final String name = idx_file.getName();
+    final File pack_file = new File(
+      idx_file.getParentFile(),
+      name.substring(0, name.length() - ".idx".length()) + ".pack");
+
+    final FileChannel idx_channel =
+      FileChannel.open(idx_file.toPath(), StandardOpenOption.READ);
+    try {
+      final FileChannel pack_channel =
+        FileChannel.open(pack_file.toPath(), StandardOpenOption.READ);
+      try {
+
+        /**
+         * A single mapping cannot exceed 2GiB.
+         */
+
+        if (pack_channel.size() > (long) Integer.MAX_VALUE
+            || idx_channel.size() > (long) Integer.MAX_VALUE) {
+          throw new IOException(
+            String.format("%s: Pack is too large to be mapped", pack_file));
+        }
+
+        final ByteBuffer idx = idx_channel.map(
+          FileChannel.MapMode.READ_ONLY, 0L, idx_channel.size());
+        final ByteBuffer pack = pack_channel.map(
+          FileChannel.MapMode.READ_ONLY, 0L, pack_channel.size());
+
+        GitPack.LOG.debug("opened pack {}", pack_file);
+        return new GitPack(pack_file, idx_channel, pack_channel, idx, pack);
+      } catch (final IOException e) {
+        pack_channel.close();
+        throw e;
+      }
+    } catch (final IOException e) {
+      idx_channel.close();
+      throw e;
+    }
+  }
+
+  File getFile()
+  {
+    return this.file;
+  }
+
+  /**
+   * @param id The raw 20 byte object ID
+   *
+   * @return The offset of the object in the pack, or {@code -1} if the pack
+   * does not contain the object
+   */
+
+  long find(final byte[] id)
+  {
+    final int first = id[0] & 0xff;
+    final int fanout = this.version == 2 ? 8 : 0;
+    int low = first == 0 ? 0 : this.idx.getInt(fanout + ((first - 1) * 4));
+    int high = this.idx.getInt(fanout + (first * 4));
+
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      final int c = this.compareName(middle, id);
+      if (c == 0) {
+        return this.offsetAt(middle);
+      }
+      if (c < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return -1L;
+  }
+
+  private int compareName(
+    final int index,
+    final byte[] id)
+  {
+    final int stride = this.version == 2 ? 20 : 24;
+    final int base = this.names + (index * stride);
+    for (int k = 0; k < 20; ++k) {
+      final int a = this.idx.get(base + k) & 0xff;
+      final int b = id[k] & 0xff;
+      if (a != b) {
+        return a < b ? -1 : 1;
+      }
+    }
+    return 0;
+  }
+
+  private long offsetAt(final int index)
+  {
+    if (this.version == 1) {
+      return (long) this.idx.getInt(this.offsets + (index * 24)) & 0xffffffffL;
+    }
+
+    final int offset = this.idx.getInt(this.offsets + (index * 4));
+    if ((offset & 0x80000000) == 0) {
+      return (long) offset;
+    }
+    return this.idx.getLong(this.large_offsets + ((offset & 0x7fffffff) * 8));
+  }
+
+  /**
+   * Read the object at the given offset.
+   *
+   * @param db     The database that owns the pack
+   * @param cache  The delta base cache
+   * @param offset The offset of the object
+   *
+   * @return The object
+   *
+   * @throws IOException On I/O errors, or if the object is malformed
+   */
+
+  GitObject read(
+    final GitObjectDatabase db,
+    final GitDeltaBaseCache cache,
+    final long offset)
+    throws IOException
+  {
+    final List<byte[]> deltas = new ArrayList<>(8);
+    final List<Long> positions = new ArrayList<>(8);
+
+    GitObject base;
+    long position = offset;
+    while (true) {
+      final GitObject cached = cache.get(this, position);
+      if (cached != null) {
+        base = cached;
+        break;
+      }
+
+      final Header h = this.readHeader(position);
+      switch (h.type) {
+        case GitPack.TYPE_COMMIT:
+        case GitPack.TYPE_TREE:
+        case GitPack.TYPE_BLOB:
+        case GitPack.TYPE_TAG: {
+          base = new GitObject(
+            GitPack.typeName(h.type), this.inflate(h.data, h.size));
+          if (deltas.isEmpty() == false) {
+            cache.put(this, position, base);
+          }
+          break;
+        }
+        case GitPack.TYPE_OFS_DELTA: {
+          final long[] cursor = {h.data};
+          final long distance = this.readOffsetDistance(cursor);
+          if (distance <= 0L || distance > position) {
+            throw new IOException(
+              String.format(
+                "%s: Invalid delta base offset at %d",
+                this.file,
+                Long.valueOf(position)));
+          }
+          deltas.add(this.inflate(cursor[0], h.size));
+          positions.add(Long.valueOf(position));
+          position = position - distance;
+          continue;
+        }
+        case GitPack.TYPE_REF_DELTA: {
+          final byte[] id = new byte[20];
+          this.get(h.data, id);
+          deltas.add(this.inflate(h.data + 20L, h.size));
+          positions.add(Long.valueOf(position));
+          base = db.readObject(id);
+          break;
+        }
+        default: {
+          throw new IOException(
+            String.format(
+              "%s: Unknown object type %d at %d",
+              this.file,
+              Integer.valueOf(h.type),
+              Long.valueOf(position)));
+        }
+      }
+      break;
+    }
+
+    /**
+     * Every intermediate result is a base of the next delta in the chain,
+     * and may be the base of other objects too.
+     */
+
+    GitObject result = base;
+    for (int index = deltas.size() - 1; index >= 0; --index) {
+      result = new GitObject(
+        result.getType(),
+        GitDelta.apply(
+          result.getData(), NullCheck.notNull(deltas.get(index))));
+      if (index > 0) {
+        cache.put(this, positions.get(index).longValue(), result);
+      }
+    }
+    return result;
+  }
+
+  private Header readHeader(final long position)
+    throws IOException
+  {
+    long p = position;
+    int b = this.byteAt(p);
+    p = p + 1L;
+
+    final int type = (b >>> 4) & 0x7;
+    long size = (long) (b & 0xf);
+    int shift = 4;
+    while ((b & 0x80) != 0) {
+      if (shift > 53) {
+        throw new IOException(
+          String.format(
+            "%s: Malformed object header at %d",
+            this.file,
+            Long.valueOf(position)));
+      }
+      b = this.byteAt(p);
+      p = p + 1L;
+      size = size | ((long) (b & 0x7f) << shift);
+      shift = shift + 7;
+    }
+
+    if (size > (long) Integer.MAX_VALUE) {
+      throw new IOException(
+        String.format(
+          "%s: Object at %d is too large (%d bytes)",
+          this.file,
+          Long.valueOf(position),
+          Long.valueOf(size)));
+    }
+    return new Header(type, (int) size, p);
+  }
+
+  /**
+   * The distance to the base of an offset delta is a big-endian base-128
+   * number in which each continuation adds one to the value so far.
+   */
+
+  private long readOffsetDistance(final long[] cursor)
+    throws IOException
+  {
+    int b = this.byteAt(cursor[0]);
+    cursor[0] = cursor[0] + 1L;
+    long value = (long) (b & 0x7f);
+    while ((b & 0x80) != 0) {
+      if (value > (Long.MAX_VALUE >>> 7)) {
+        throw new IOException(
+          String.format("%s: Malformed delta base offset", this.file));
+      }
+      b = this.byteAt(cursor[0]);
+      cursor[0] = cursor[0] + 1L;
+      value = ((value + 1L) << 7) | (long) (b & 0x7f);
+    }
+    return value;
+  }
+
+  private int byteAt(final long position)
+    throws IOException
+  {
+    if (position < 0L || position >= (long) this.pack.capacity()) {
+      throw new IOException(
+        String.format(
+          "%s: Read past end of pack at %d",
+          this.file,
+          Long.valueOf(position)));
+    }
+    return this.pack.get((int) position) & 0xff;
+  }
+
+  private void get(
+    final long position,
+    final byte[] data)
+    throws IOException
+  {
+    if (position + (long) data.length > (long) this.pack.capacity()) {
+      throw new IOException(
+        String.format("%s: Read past end of pack", this.file));
+    }
+    final ByteBuffer b = this.pack.duplicate();
+    b.position((int) position);
+    b.get(data);
+  }
+
+  private byte[] inflate(
+    final long position,
+    final int size)
+    throws IOException
+  {
+    final byte[] data = new byte[size];
+    if (size == 0) {
+      return data;
+    }
+
+    final Inflation f = GitPack.INFLATIONS.get();
+    final Inflater inflater = f.inflater;
+    inflater.reset();
+
+    final ByteBuffer source = this.pack.duplicate();
+    source.position((int) Math.min(position, (long) source.capacity()));
+
+    try {
+      int done = 0;
+      while (done < size) {
+        if (inflater.needsInput()) {
+          final int n = Math.min(f.input.length, source.remaining());
+          if (n == 0) {
+            break;
+          }
+          source.get(f.input, 0, n);
+          inflater.setInput(f.input, 0, n);
+        }
+
+        final int r = inflater.inflate(data, done, size - done);
+        if (r == 0 && (inflater.finished() || inflater.needsDictionary())) {
+          break;
+        }
+        done = done + r;
+      }
+
+      if (done != size) {
+        throw new IOException(
+          String.format(
+            "%s: Object at %d inflated to %d bytes, expected %d",
+            this.file,
+            Long.valueOf(position),
+            Integer.valueOf(done),
+            Integer.valueOf(size)));
+      }
+    } catch (final DataFormatException e) {
+      throw new IOException(
+        String.format(
+          "%s: Corrupt object data at %d", this.file, Long.valueOf(position)),
+        e);
+    }
+    return data;
+  }
+
+  private static String typeName(final int type)
+  {
+    switch (type) {
+      case GitPack.TYPE_COMMIT: {
+        return "commit";
+      }
+      case GitPack.TYPE_TREE: {
+        return "tree";
+      }
+      case GitPack.TYPE_BLOB: {
+        return "blob";
+      }
+      default: {
+        return "tag";
+      }
+    }
+  }
+
+  @Override public void close()
+    throws IOException
+  {
+    try {
+      this.idx_channel.close();
+    } finally {
+      this.pack_channel.close();
+    }
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder sb = new StringBuilder("GitPack{");
+    sb.append("file=").append(this.file);
+    sb.append(", count=").append(this.count);
+    sb.append('}');
+    return sb.toString();
+  }
+
+  private static final class Header
+  {
+    private final int  type;
+    private final int  size;
+    private final long data;
+
+    Header(
+      final int in_type,
+      final int in_size,
+      final long in_data)
+    {
+      this.type = in_type;
+      this.size = in_size;
+      this.data = in_data;
+    }
+  }
+
+  /**
+   * Per-thread inflation state.
+   */
+
+  private static final class Inflation
+  {
+    private final Inflater inflater;
+    private final byte[]   input;
+
+    Inflation()
+    {
+      this.inflater = new Inflater();
+      this.input = new byte[GitPack.INPUT_SIZE];
+    }
+  }
+}
@@ -70,6 +70,12 @@ public final class GitRepositorySpecification
     throw new NoSuchElementException(u);
   }
 
+  @Override public GitRepositorySpecificationType withDirectory(
+    final File in_directory)
+  {
+    return new GitRepositorySpecification(in_directory, this.name_map);
+  }
+
   private static final class Builder
     implements GitRepositorySpecificationBuilderType
   {
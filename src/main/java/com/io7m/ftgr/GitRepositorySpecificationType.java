@@ -28,4 +28,13 @@ public interface GitRepositorySpecificationType
 
   GitIdent getUserNameMapping(String u)
     throws NoSuchElementException;
+
+  /**
+   * @param in_directory The new working directory
+   *
+   * @return A specification identical to this one, but with working
+   * directory {@code in_directory}
+   */
+
+  GitRepositorySpecificationType withDirectory(File in_directory);
 }
@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+
+/**
+ * An entry in a Git tree, as listed by {@code git ls-tree}.
+ */
+
+public final class GitTreeEntry
+{
+  private final String mode;
+  private final String type;
+  private final String object;
+  private final String path;
+
+  public GitTreeEntry(
+    final String in_mode,
+    final String in_type,
+    final String in_object,
+    final String in_path)
+  {
+    this.mode = NullCheck.notNull(in_mode);
+    this.type = NullCheck.notNull(in_type);
+    this.object = NullCheck.notNull(in_object);
+    this.path = NullCheck.notNull(in_path);
+  }
+
+  /**
+   * @return The octal mode of the entry, such as {@code 100644}
+   */
+
+  public String getMode()
+  {
+    return this.mode;
+  }
+
+  /**
+   * @return The type of the object, such as {@code blob}
+   */
+
+  public String getType()
+  {
+    return this.type;
+  }
+
+  /**
+   * @return The hex object ID
+   */
+
+  public String getObject()
+  {
+    return this.object;
+  }
+
+  /**
+   * @return The path of the entry, relative to the root of the tree
+   */
+
+  public String getPath()
+  {
+    return this.path;
+  }
+
+  @Override public String toString()
+  {
+    final StringBuilder sb = new StringBuilder("GitTreeEntry{");
+    sb.append("mode='").append(this.mode).append('\'');
+    sb.append(", type='").append(this.type).append('\'');
+    sb.append(", object='").append(this.object).append('\'');
+    sb.append(", path='").append(this.path).append('\'');
+    sb.append('}');
+    return sb.toString();
+  }
+}
@@ -71,5 +71,36 @@ final class ProcessUtilities
       }
     }
   }
+
+  /**
+   * Execute a process and return everything it writes to its standard
+   * output. The standard error stream of the process should be redirected
+   * by the caller.
+   */
+
+  static byte[] executeCaptured(
+    final Logger log,
+    final Process p)
+    throws IOException
+  {
+    final byte[] data;
+    try (final InputStream p_stdout = p.getInputStream()) {
+      data = IOUtils.toByteArray(p_stdout);
+    }
+
+    try {
+      p.waitFor();
+    } catch (final InterruptedException e) {
+      log.error(
+        "interrupted whilst waiting for process: ", e);
+    }
+
+    if (p.exitValue() > 0) {
+      throw new IOException(
+        String.format(
+          "Process exited with status %d", Integer.valueOf(p.exitValue())));
+    }
+    return data;
+  }
 }
 
@@ -0,0 +1,200 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.junreachable.UnreachableCodeException;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Functions to make a working directory match a prepared Fossil checkout.
+ *
+ * The result is intended to be the same as the file changes made by
+ * {@code fossil checkout --force} in the working directory: Files that
+ * are part of the checkout are created or replaced, and files of the
+ * previous checkout that are not part of the new one are removed. Any
+ * other files are left alone; removing those is left to {@code fossil
+ * clean}.
+ */
+
+final class ReplayDirectorySync
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(ReplayDirectorySync.class);
+  }
+
+  private ReplayDirectorySync()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Make {@code target} match {@code source}.
+   *
+   * @param source  The prepared checkout
+   * @param target  The working directory
+   * @param managed The files that were placed into {@code target} by the
+   *                previous checkout
+   *
+   * @return The files that are now part of {@code target}
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static Set<Path> synchronize(
+    final Path source,
+    final Path target,
+    final Set<Path> managed)
+    throws IOException
+  {
+    final Set<Path> source_files = ReplayDirectorySync.listFiles(source);
+
+    int removed = 0;
+    for (final Path relative : managed) {
+      if (source_files.contains(relative)) {
+        continue;
+      }
+      if (Files.deleteIfExists(target.resolve(relative))) {
+        removed = removed + 1;
+      }
+    }
+
+    int copied = 0;
+    for (final Path relative : source_files) {
+      final Path from = source.resolve(relative);
+      final Path to = target.resolve(relative);
+      if (ReplayDirectorySync.sameFile(from, to) == false) {
+        final Path parent = to.getParent();
+        if (parent != null) {
+          Files.createDirectories(parent);
+        }
+        if (Files.isDirectory(to, LinkOption.NOFOLLOW_LINKS)) {
+          FileUtils.deleteDirectory(to.toFile());
+        }
+        Files.copy(
+          from,
+          to,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.COPY_ATTRIBUTES,
+          LinkOption.NOFOLLOW_LINKS);
+        copied = copied + 1;
+      }
+    }
+
+    ReplayDirectorySync.LOG.debug(
+      "synchronized {} → {}: {} copied, {} removed",
+      source,
+      target,
+      Integer.valueOf(copied),
+      Integer.valueOf(removed));
+    return source_files;
+  }
+
+  private static boolean sameFile(
+    final Path from,
+    final Path to)
+    throws IOException
+  {
+    if (Files.exists(to, LinkOption.NOFOLLOW_LINKS) == false) {
+      return false;
+    }
+
+    final boolean from_link = Files.isSymbolicLink(from);
+    if (from_link != Files.isSymbolicLink(to)) {
+      return false;
+    }
+    if (from_link) {
+      return Files.readSymbolicLink(from).equals(Files.readSymbolicLink(to));
+    }
+
+    if (Files.isRegularFile(to, LinkOption.NOFOLLOW_LINKS) == false) {
+      return false;
+    }
+    if (Files.size(from) != Files.size(to)) {
+      return false;
+    }
+    if (Files.isExecutable(from) != Files.isExecutable(to)) {
+      return false;
+    }
+    return FileUtils.contentEquals(from.toFile(), to.toFile());
+  }
+
+  /**
+   * List all files in {@code base}, excluding the metadata of Git and
+   * Fossil.
+   *
+   * @param base The directory
+   *
+   * @return The files, relative to {@code base}
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static Set<Path> listFiles(final Path base)
+    throws IOException
+  {
+    final Set<Path> files = new HashSet<>(256);
+    Files.walkFileTree(
+      base, new SimpleFileVisitor<Path>()
+      {
+        @Override public FileVisitResult preVisitDirectory(
+          final Path dir,
+          final BasicFileAttributes attrs)
+          throws IOException
+        {
+          final Path relative = base.relativize(dir);
+          if (".git".equals(relative.toString())) {
+            return FileVisitResult.SKIP_SUBTREE;
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override public FileVisitResult visitFile(
+          final Path file,
+          final BasicFileAttributes attrs)
+          throws IOException
+        {
+          final Path relative = base.relativize(file);
+          final String name = relative.toString();
+          if (".fslckout".equals(name) || "_FOSSIL_".equals(name)) {
+            return FileVisitResult.CONTINUE;
+          }
+          if (".git".equals(name)) {
+            return FileVisitResult.CONTINUE;
+          }
+          files.add(relative);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+
+    return files;
+  }
+}
@@ -19,7 +19,7 @@ import com.io7m.jnull.NullCheck;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
+import java.util.Iterator;
 
 public final class ReplayExecutor implements ReplayExecutorType
 {
@@ -40,20 +40,22 @@ public final class ReplayExecutor implements ReplayExecutorType
   }
 
   @Override public void executePlan(
-    final List<ReplayOperationType> plan,
+    final Iterator<ReplayOperationType> plan,
     final DryRun dry_run)
     throws ReplayException
   {
     NullCheck.notNull(plan);
 
-    ReplayExecutor.LOG.debug(
-      "executing plan of {} operations ({})",
-      Integer.valueOf(plan.size()),
-      dry_run);
+    ReplayExecutor.LOG.debug("executing plan ({})", dry_run);
 
-    for (int index = 0; index < plan.size(); ++index) {
-      final ReplayOperationType op = NullCheck.notNull(plan.get(index));
+    int count = 0;
+    while (plan.hasNext()) {
+      final ReplayOperationType op = NullCheck.notNull(plan.next());
       op.execute(dry_run);
+      count = count + 1;
     }
+
+    ReplayExecutor.LOG.debug(
+      "executed plan of {} operations", Integer.valueOf(count));
   }
 }
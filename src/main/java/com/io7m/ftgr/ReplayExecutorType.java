@@ -15,12 +15,12 @@
  */
 package com.io7m.ftgr;
 
-import java.util.List;
+import java.util.Iterator;
 
 public interface ReplayExecutorType
 {
   void executePlan(
-    List<ReplayOperationType> plan,
+    Iterator<ReplayOperationType> plan,
     DryRun dry_run)
     throws ReplayException;
 }
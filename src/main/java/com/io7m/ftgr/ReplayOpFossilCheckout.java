@@ -17,12 +17,15 @@
 package com.io7m.ftgr;
 
 import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 
-public final class ReplayOpFossilCheckout implements ReplayOperationType
+public final class ReplayOpFossilCheckout
+  implements ReplayPreparableOperationType
 {
   private static final Logger LOG;
 
@@ -30,10 +33,12 @@ public final class ReplayOpFossilCheckout implements ReplayOperationType
     LOG = LoggerFactory.getLogger(ReplayOpFossilCheckout.class);
   }
 
-  private final FossilCommit                      commit;
-  private final FossilExecutableType              fossil_exec;
-  private final FossilRepositorySpecificationType fossil_repos;
-  private final GitRepositorySpecificationType    git_repos;
+  private final FossilCommit                       commit;
+  private final FossilExecutableType               fossil_exec;
+  private final FossilRepositorySpecificationType  fossil_repos;
+  private final GitRepositorySpecificationType     git_repos;
+  private volatile @Nullable File                  staged;
+  private volatile @Nullable ReplayStagingPoolType staged_pool;
 
   public ReplayOpFossilCheckout(
     final FossilExecutableType in_fossil_exec,
@@ -47,6 +52,38 @@ public final class ReplayOpFossilCheckout implements ReplayOperationType
     this.commit = NullCheck.notNull(in_commit);
   }
 
+  @Override public void prepare(
+    final DryRun dry_run,
+    final ReplayStagingPoolType pool)
+    throws ReplayException
+  {
+    NullCheck.notNull(pool);
+
+    try {
+      ReplayOpFossilCheckout.LOG.debug(
+        "preparing revision {} from fossil", this.commit.getCommitBlob());
+
+      if (dry_run == DryRun.EXECUTE) {
+        final File directory = pool.acquire();
+        try {
+          this.fossil_exec.checkOut(
+            this.fossil_repos, this.commit.getCommitBlob(), directory);
+        } catch (final IOException e) {
+          pool.release(directory);
+          throw e;
+        }
+
+        this.staged_pool = pool;
+        this.staged = directory;
+      }
+    } catch (final IOException e) {
+      throw new ReplayException(e);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ReplayException(e);
+    }
+  }
+
   @Override public void execute(
     final DryRun dry_run)
     throws ReplayException
@@ -56,10 +93,25 @@ public final class ReplayOpFossilCheckout implements ReplayOperationType
         "checking out revision {} from fossil", this.commit.getCommitBlob());
 
       if (dry_run == DryRun.EXECUTE) {
-        this.fossil_exec.checkOut(
-          this.fossil_repos,
-          this.commit.getCommitBlob(),
-          this.git_repos.getDirectory());
+        final File directory = this.staged;
+        final ReplayStagingPoolType pool = this.staged_pool;
+        if (directory != null && pool != null) {
+          try {
+            pool.copyTo(
+              directory,
+              this.git_repos.getDirectory(),
+              this.commit.getCommitBlob());
+          } finally {
+            this.staged = null;
+            this.staged_pool = null;
+            pool.release(directory);
+          }
+        } else {
+          this.fossil_exec.checkOut(
+            this.fossil_repos,
+            this.commit.getCommitBlob(),
+            this.git_repos.getDirectory());
+        }
       }
     } catch (final IOException e) {
       throw new ReplayException(e);
@@ -16,13 +16,11 @@
 package com.io7m.ftgr;
 
 import com.io7m.jnull.NullCheck;
-import org.apache.commons.collections4.BidiMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.math.BigInteger;
-import java.util.Map;
 
 public final class ReplayOpGitCommit implements ReplayOperationType
 {
@@ -32,18 +30,18 @@ public final class ReplayOpGitCommit implements ReplayOperationType
     LOG = LoggerFactory.getLogger(ReplayOpGitCommit.class);
   }
 
-  private final GitExecutableType                git;
-  private final GitRepositorySpecificationType   repos;
-  private final FossilCommit                     commit;
-  private final BigInteger                       key;
-  private final Map<GitCommitName, FossilCommit> commits;
+  private final GitExecutableType              git;
+  private final GitRepositorySpecificationType repos;
+  private final FossilCommit                   commit;
+  private final BigInteger                     key;
+  private final FossilCommitMapReceiverType    commits;
 
   public ReplayOpGitCommit(
     final GitExecutableType in_git,
     final GitRepositorySpecificationType in_repos,
     final FossilCommit in_commit,
     final BigInteger key_id,
-    final BidiMap<GitCommitName, FossilCommit> in_commits)
+    final FossilCommitMapReceiverType in_commits)
   {
     this.git = NullCheck.notNull(in_git);
     this.repos = NullCheck.notNull(in_repos);
@@ -72,7 +70,7 @@ public final class ReplayOpGitCommit implements ReplayOperationType
         this.commit.getBranch(),
         this.key);
 
-      this.commits.put(r, this.commit);
+      this.commits.onMapping(r, this.commit.getCommitBlob());
     } catch (final IOException e) {
       throw new ReplayException(e);
     }
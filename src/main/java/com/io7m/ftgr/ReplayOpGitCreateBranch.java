@@ -16,6 +16,8 @@
 
 package com.io7m.ftgr;
 
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
 import com.io7m.jnull.NullCheck;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,15 +35,18 @@ public final class ReplayOpGitCreateBranch implements ReplayOperationType
   private final String                         branch;
   private final GitExecutableType              exec;
   private final GitRepositorySpecificationType repos;
+  private final OptionType<GitCommitName>      start;
 
   public ReplayOpGitCreateBranch(
     final GitExecutableType in_exec,
     final GitRepositorySpecificationType in_repos,
-    final String in_branch)
+    final String in_branch,
+    final OptionType<GitCommitName> in_start)
   {
     this.exec = NullCheck.notNull(in_exec);
     this.repos = NullCheck.notNull(in_repos);
     this.branch = NullCheck.notNull(in_branch);
+    this.start = NullCheck.notNull(in_start);
   }
 
   @Override public void execute(
@@ -52,7 +57,12 @@ public final class ReplayOpGitCreateBranch implements ReplayOperationType
       ReplayOpGitCreateBranch.LOG.info("creating branch {}", this.branch);
 
       if (dry_run == DryRun.EXECUTE) {
-        this.exec.createBranch(this.repos, this.branch);
+        if (this.start.isSome()) {
+          final Some<GitCommitName> some = (Some<GitCommitName>) this.start;
+          this.exec.createBranchAt(this.repos, this.branch, some.get());
+        } else {
+          this.exec.createBranch(this.repos, this.branch);
+        }
       }
     } catch (final IOException e) {
       throw new ReplayException(e);
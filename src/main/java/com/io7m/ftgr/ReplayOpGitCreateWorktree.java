@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+public final class ReplayOpGitCreateWorktree implements ReplayOperationType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(ReplayOpGitCreateWorktree.class);
+  }
+
+  private final GitExecutableType              exec;
+  private final GitRepositorySpecificationType repos;
+  private final File                           directory;
+  private final String                         branch;
+  private final String                         start;
+
+  public ReplayOpGitCreateWorktree(
+    final GitExecutableType in_exec,
+    final GitRepositorySpecificationType in_repos,
+    final File in_directory,
+    final String in_branch,
+    final String in_start)
+  {
+    this.exec = NullCheck.notNull(in_exec);
+    this.repos = NullCheck.notNull(in_repos);
+    this.directory = NullCheck.notNull(in_directory);
+    this.branch = NullCheck.notNull(in_branch);
+    this.start = NullCheck.notNull(in_start);
+  }
+
+  @Override public void execute(
+    final DryRun dry_run)
+    throws ReplayException
+  {
+    try {
+      ReplayOpGitCreateWorktree.LOG.info(
+        "creating branch {} from {} in worktree {}",
+        this.branch,
+        this.start,
+        this.directory);
+
+      if (dry_run == DryRun.EXECUTE) {
+        final File parent = this.directory.getParentFile();
+        if (parent != null && parent.mkdirs() == false) {
+          if (parent.isDirectory() == false) {
+            throw new IOException(
+              String.format("Not a directory: %s", parent));
+          }
+        }
+
+        this.exec.createWorktree(
+          this.repos, this.directory, this.branch, this.start);
+      }
+    } catch (final IOException e) {
+      throw new ReplayException(e);
+    }
+  }
+}
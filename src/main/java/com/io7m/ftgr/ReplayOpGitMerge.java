@@ -37,6 +37,7 @@ public final class ReplayOpGitMerge implements ReplayOperationType
   private final String                         merge_from;
   private final BigInteger                     key;
   private final FossilCommit                   commit;
+  private final FossilCommitMapReceiverType    commits;
 
   public ReplayOpGitMerge(
     final GitExecutableType in_exec,
@@ -44,7 +45,8 @@ public final class ReplayOpGitMerge implements ReplayOperationType
     final FossilCommit in_commit,
     final String in_merge_to,
     final String in_merge_from,
-    final BigInteger key_id)
+    final BigInteger key_id,
+    final FossilCommitMapReceiverType in_commits)
   {
     this.exec = NullCheck.notNull(in_exec);
     this.repos = NullCheck.notNull(in_repos);
@@ -52,6 +54,7 @@ public final class ReplayOpGitMerge implements ReplayOperationType
     this.merge_to = NullCheck.notNull(in_merge_to);
     this.merge_from = NullCheck.notNull(in_merge_from);
     this.key = NullCheck.notNull(key_id);
+    this.commits = NullCheck.notNull(in_commits);
   }
 
   @Override public void execute(
@@ -66,7 +69,7 @@ public final class ReplayOpGitMerge implements ReplayOperationType
         final GitIdent ident = this.repos.getUserNameMapping(
           this.commit.getCommitUser());
 
-        this.exec.merge(
+        final GitCommitName r = this.exec.merge(
           this.repos,
           this.commit.getCommitTime(),
           ident,
@@ -74,6 +77,8 @@ public final class ReplayOpGitMerge implements ReplayOperationType
           this.merge_to,
           this.merge_from,
           this.key);
+
+        this.commits.onMapping(r, this.commit.getCommitBlob());
       }
     } catch (final IOException e) {
       throw new ReplayException(e);
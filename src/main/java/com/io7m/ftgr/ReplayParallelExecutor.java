@@ -0,0 +1,160 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public final class ReplayParallelExecutor implements ReplayParallelExecutorType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(ReplayParallelExecutor.class);
+  }
+
+  private final int threads;
+
+  private ReplayParallelExecutor(final int in_threads)
+  {
+    if (in_threads < 1) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Thread count must be >= 1 (got %d)", Integer.valueOf(in_threads)));
+    }
+    this.threads = in_threads;
+  }
+
+  public static ReplayParallelExecutorType newExecutor(final int in_threads)
+  {
+    return new ReplayParallelExecutor(in_threads);
+  }
+
+  private static void executeLane(
+    final List<ReplayOperationType> lane,
+    final DryRun dry_run)
+    throws ReplayException
+  {
+    for (int index = 0; index < lane.size(); ++index) {
+      final ReplayOperationType op = NullCheck.notNull(lane.get(index));
+      op.execute(dry_run);
+    }
+  }
+
+  @Override public void executeStages(
+    final List<ReplayStage> stages,
+    final DryRun dry_run)
+    throws ReplayException
+  {
+    NullCheck.notNull(stages);
+    NullCheck.notNull(dry_run);
+
+    ReplayParallelExecutor.LOG.debug(
+      "executing plan of {} stages with {} threads ({})",
+      Integer.valueOf(stages.size()),
+      Integer.valueOf(this.threads),
+      dry_run);
+
+    final ExecutorService exec = Executors.newFixedThreadPool(this.threads);
+    try {
+      for (int index = 0; index < stages.size(); ++index) {
+        final ReplayStage stage = NullCheck.notNull(stages.get(index));
+        final List<List<ReplayOperationType>> lanes = stage.getLanes();
+
+        ReplayParallelExecutor.LOG.debug(
+          "stage {}: {} lanes, {} operations",
+          Integer.valueOf(index),
+          Integer.valueOf(lanes.size()),
+          Integer.valueOf(stage.getOperationCount()));
+
+        if (lanes.size() == 1) {
+          ReplayParallelExecutor.executeLane(
+            NullCheck.notNull(lanes.get(0)), dry_run);
+        } else {
+          ReplayParallelExecutor.executeConcurrently(exec, lanes, dry_run);
+        }
+      }
+    } finally {
+      exec.shutdown();
+    }
+  }
+
+  private static void executeConcurrently(
+    final ExecutorService exec,
+    final List<List<ReplayOperationType>> lanes,
+    final DryRun dry_run)
+    throws ReplayException
+  {
+    final List<Future<Void>> futures = new ArrayList<>(lanes.size());
+    for (int index = 0; index < lanes.size(); ++index) {
+      final List<ReplayOperationType> lane =
+        NullCheck.notNull(lanes.get(index));
+      futures.add(
+        exec.submit(
+          new Callable<Void>()
+          {
+            @Override public Void call()
+              throws ReplayException
+            {
+              ReplayParallelExecutor.executeLane(lane, dry_run);
+              return null;
+            }
+          }));
+    }
+
+    /**
+     * Wait for every lane to finish, even if one of them fails, so that
+     * no operations are left running when the error is reported.
+     */
+
+    ReplayException error = null;
+    for (int index = 0; index < futures.size(); ++index) {
+      try {
+        futures.get(index).get();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        if (error == null) {
+          error = new ReplayException(e);
+        }
+      } catch (final ExecutionException e) {
+        final Throwable cause = e.getCause();
+        if (error == null) {
+          if (cause instanceof ReplayException) {
+            error = (ReplayException) cause;
+          } else {
+            error = new ReplayException(cause);
+          }
+        } else {
+          error.addSuppressed(cause);
+        }
+      }
+    }
+
+    if (error != null) {
+      throw error;
+    }
+  }
+}
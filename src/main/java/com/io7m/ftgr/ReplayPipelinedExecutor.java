@@ -0,0 +1,187 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An executor that prepares up to {@code depth} operations ahead of the
+ * operation that is currently executing. Operations are still executed
+ * strictly in order; only the preparation step of each {@link
+ * ReplayPreparableOperationType} runs in the background.
+ */
+
+public final class ReplayPipelinedExecutor implements ReplayExecutorType
+{
+  private static final Logger LOG;
+
+  /**
+   * The maximum number of operations held ahead of execution, per
+   * operation being prepared.
+   */
+
+  private static final int WINDOW_FACTOR = 16;
+
+  static {
+    LOG = LoggerFactory.getLogger(ReplayPipelinedExecutor.class);
+  }
+
+  private final int                   depth;
+  private final int                   limit;
+  private final ReplayStagingPoolType pool;
+
+  private ReplayPipelinedExecutor(
+    final int in_depth,
+    final ReplayStagingPoolType in_pool)
+  {
+    if (in_depth < 1) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Prefetch depth must be >= 1 (got %d)", Integer.valueOf(in_depth)));
+    }
+    this.depth = in_depth;
+    this.limit = in_depth * ReplayPipelinedExecutor.WINDOW_FACTOR;
+    this.pool = NullCheck.notNull(in_pool);
+  }
+
+  /**
+   * Create a new executor. The pool must be able to supply at least {@code
+   * in_depth + 1} directories: One for each operation being prepared, and
+   * one for the operation being executed.
+   *
+   * @param in_depth The number of operations to prepare ahead of time
+   * @param in_pool  A pool of staging directories
+   *
+   * @return A new executor
+   */
+
+  public static ReplayExecutorType newExecutor(
+    final int in_depth,
+    final ReplayStagingPoolType in_pool)
+  {
+    return new ReplayPipelinedExecutor(in_depth, in_pool);
+  }
+
+  @Override public void executePlan(
+    final Iterator<ReplayOperationType> plan,
+    final DryRun dry_run)
+    throws ReplayException
+  {
+    NullCheck.notNull(plan);
+    NullCheck.notNull(dry_run);
+
+    ReplayPipelinedExecutor.LOG.debug(
+      "executing plan with prefetch depth {} ({})",
+      Integer.valueOf(this.depth),
+      dry_run);
+
+    final ExecutorService exec = Executors.newFixedThreadPool(this.depth);
+    final Deque<Future<Void>> pending = new ArrayDeque<>(this.depth);
+    final Deque<ReplayOperationType> window = new ArrayDeque<>(this.limit);
+
+    int count = 0;
+    try {
+      while (true) {
+
+        /**
+         * Keep up to depth preparable operations in flight ahead of (and
+         * including) the current operation. Preparable operations are
+         * executed in order, so the head of the queue always belongs to
+         * the next preparable operation to be executed. The number of
+         * operations taken from the plan but not yet executed is bounded.
+         */
+
+        while (plan.hasNext()
+               && pending.size() < this.depth
+               && window.size() < this.limit) {
+          final ReplayOperationType ahead = NullCheck.notNull(plan.next());
+          if (ahead instanceof ReplayPreparableOperationType) {
+            pending.addLast(
+              this.submitPrepare(
+                exec, (ReplayPreparableOperationType) ahead, dry_run));
+          }
+          window.addLast(ahead);
+        }
+
+        final ReplayOperationType op = window.pollFirst();
+        if (op == null) {
+          break;
+        }
+
+        if (op instanceof ReplayPreparableOperationType) {
+          ReplayPipelinedExecutor.await(NullCheck.notNull(pending.poll()));
+        }
+        op.execute(dry_run);
+        count = count + 1;
+      }
+    } finally {
+      for (final Future<Void> f : pending) {
+        f.cancel(true);
+      }
+      exec.shutdownNow();
+    }
+
+    ReplayPipelinedExecutor.LOG.debug(
+      "executed plan of {} operations", Integer.valueOf(count));
+  }
+
+  private Future<Void> submitPrepare(
+    final ExecutorService exec,
+    final ReplayPreparableOperationType op,
+    final DryRun dry_run)
+  {
+    final ReplayStagingPoolType p = this.pool;
+    return exec.submit(
+      new Callable<Void>()
+      {
+        @Override public Void call()
+          throws ReplayException
+        {
+          op.prepare(dry_run, p);
+          return null;
+        }
+      });
+  }
+
+  private static void await(final Future<Void> f)
+    throws ReplayException
+  {
+    try {
+      f.get();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ReplayException(e);
+    } catch (final ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof ReplayException) {
+        throw (ReplayException) cause;
+      }
+      throw new ReplayException(cause);
+    }
+  }
+}
@@ -15,20 +15,25 @@
  */
 package com.io7m.ftgr;
 
+import com.io7m.jfunctional.Option;
+import com.io7m.jfunctional.OptionType;
 import com.io7m.jnull.NullCheck;
 import org.apache.commons.collections4.BidiMap;
-import org.jgrapht.experimental.dag.DirectedAcyclicGraph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 public final class ReplayPlanner implements ReplayPlannerType
@@ -70,54 +75,25 @@ public final class ReplayPlanner implements ReplayPlannerType
       in_gpg, in_fossil_exec, in_git, in_git_repos, in_fossil_repos);
   }
 
-  @Override public List<ReplayOperationType> plan(
+  @Override public Iterator<ReplayOperationType> plan(
     final FossilModelType m,
-    final BidiMap<GitCommitName, FossilCommit> commit_log)
+    final FossilCommitMapReceiverType commit_log)
     throws ReplayException
   {
     ReplayPlanner.LOG.debug("planning replay for model");
-
-    /**
-     * Check that the HOME environment variable is set.
-     */
-
-    ReplayPlanner.LOG.debug("checking that $HOME is set...");
-    if (System.getenv("HOME") == null) {
-      throw new ReplayExceptionEnviromentNotSet("HOME");
-    }
+    ReplayPlanner.checkEnvironment();
 
     final List<ReplayOperationType> p = new ArrayList<>(128);
+    final FossilCommitGraph g = m.getGraph();
+    final List<FossilModelCommitNode> dated = g.getNodesByDate();
 
     /**
      * Check that the user performing the replay has all the required private
-     * keys.
+     * keys, and that all Fossil commit names have been assigned Git names.
      */
 
     final Map<Integer, BigInteger> signers = m.getSigners();
-    for (final BigInteger k : new HashSet<>(signers.values())) {
-      p.add(new ReplayOpCheckKey(this.gpg, k));
-    }
-
-    /**
-     * Check that all Fossil commit names have been assigned Git names.
-     */
-
-    {
-      final DirectedAcyclicGraph<FossilModelCommitNode, FossilModelCommitLink>
-        g = m.getGraph();
-      final Iterator<FossilModelCommitNode> iter = g.iterator();
-
-      final Set<String> checked = new HashSet<>(128);
-      while (iter.hasNext()) {
-        final FossilModelCommitNode node = iter.next();
-        final FossilCommit commit = node.getCommit();
-        final String fossil_name = commit.getCommitUser();
-        if (checked.contains(fossil_name) == false) {
-          p.add(new ReplayOpCheckName(this.git_repos, fossil_name));
-          checked.add(fossil_name);
-        }
-      }
-    }
+    this.planChecks(p, signers, dated);
 
     /**
      * Create the repository and the root commit.
@@ -136,54 +112,389 @@ public final class ReplayPlanner implements ReplayPlannerType
         this.fossil, this.fossil_repos, this.git_repos));
 
     /**
-     * Create commits, branching and merging as necessary.
+     * Create commits, branching and merging as necessary. The operations
+     * for each commit are produced only when the plan is consumed.
+     */
+
+    return new PlanIterator(
+      p, dated, m, new HashMap<Integer, GitCommitName>(0), commit_log);
+  }
+
+  @Override public Iterator<ReplayOperationType> planIncremental(
+    final FossilModelType m,
+    final BidiMap<GitCommitName, FossilCommitName> existing,
+    final FossilCommitMapReceiverType commit_log)
+    throws ReplayException
+  {
+    NullCheck.notNull(existing);
+
+    ReplayPlanner.LOG.debug(
+      "planning incremental replay for model ({} existing mappings)",
+      Integer.valueOf(existing.size()));
+    ReplayPlanner.checkEnvironment();
+
+    final FossilCommitGraph g = m.getGraph();
+    final FossilModelCommitNode root_node = m.getRootNode();
+
+    /**
+     * Determine which commits have already been converted. A commit has
+     * been converted if it appears in the existing commit map, if it is
+     * an ancestor of a commit that appears in the map (older maps do not
+     * record merges), or if it created a branch that already exists in
+     * the Git repository.
+     */
+
+    final Set<String> git_branches;
+    try {
+      git_branches = new HashSet<>(this.git.getBranches(this.git_repos));
+    } catch (final IOException e) {
+      throw new ReplayException(e);
+    }
+
+    final Set<FossilCommitName> mapped = new HashSet<>(existing.values());
+    final BitSet converted = new BitSet(g.getSize());
+    converted.set(root_node.getOrdinal());
+
+    for (int index = 0; index < g.getSize(); ++index) {
+      final FossilModelCommitNode node = g.getNode(index);
+      final FossilCommit commit = node.getCommit();
+      final boolean done;
+      if (commit.isBranchNew()) {
+        done = git_branches.contains(commit.getBranch());
+      } else {
+        done = mapped.contains(commit.getCommitBlob());
+      }
+      if (done) {
+        ReplayPlanner.markConverted(g, converted, node);
+      }
+    }
+
+    final List<FossilModelCommitNode> pending = new ArrayList<>(128);
+    final List<FossilModelCommitNode> dated = g.getNodesByDate();
+    for (int index = 0; index < dated.size(); ++index) {
+      final FossilModelCommitNode node = NullCheck.notNull(dated.get(index));
+      if (converted.get(node.getOrdinal()) == false) {
+        pending.add(node);
+      }
+    }
+
+    ReplayPlanner.LOG.info(
+      "{} commits already converted, {} new commits",
+      Integer.valueOf(converted.cardinality()),
+      Integer.valueOf(pending.size()));
+
+    /**
+     * Only the new commits need to be checked for keys and names. The
+     * repository and the Fossil checkout already exist.
      */
 
+    /**
+     * Resolve the Git commits on which new branches that start from
+     * converted commits must be created. This is done before anything is
+     * executed, so that a commit that cannot be resolved stops the replay
+     * before it starts.
+     */
+
+    final Map<Integer, GitCommitName> anchors = new HashMap<>(8);
+    final Map<FossilCommitName, GitCommitName> resolved = new HashMap<>(8);
+    for (final FossilModelCommitNode node : pending) {
+      if (node.getCommit().isBranchNew()) {
+        final int ordinal = node.getOrdinal();
+        for (int index = 0; index < g.getParentCount(ordinal); ++index) {
+          final FossilModelCommitNode parent = g.getParent(ordinal, index);
+          if (converted.get(parent.getOrdinal())) {
+            anchors.put(
+              Integer.valueOf(ordinal),
+              this.resolveConverted(
+                g, root_node, existing, resolved, parent));
+          }
+        }
+      }
+    }
+
+    final List<ReplayOperationType> p = new ArrayList<>(128);
+    this.planChecks(p, m.getSigners(), pending);
+    return new PlanIterator(p, pending, m, anchors, commit_log);
+  }
+
+  @Override public List<ReplayStage> planParallel(
+    final FossilModelType m,
+    final FossilCommitMapReceiverType commit_log,
+    final File worktrees)
+    throws ReplayException
+  {
+    NullCheck.notNull(worktrees);
+
+    ReplayPlanner.LOG.debug("planning parallel replay for model");
+    ReplayPlanner.checkEnvironment();
+
+    final FossilCommitGraph g = m.getGraph();
+    final List<FossilModelCommitNode> dated = g.getNodesByDate();
+    final List<ReplayStage> stages = new ArrayList<>(128);
+
+    /**
+     * The checks, the repository, the root commit, and the Fossil checkout
+     * of the main working directory are created in an initial stage.
+     */
+
+    final Map<Integer, BigInteger> signers = m.getSigners();
+    final FossilModelCommitNode root_node = m.getRootNode();
     {
-      final DirectedAcyclicGraph<FossilModelCommitNode, FossilModelCommitLink>
-        g = m.getGraph();
-      final Iterator<FossilModelCommitNode> iter = g.iterator();
+      final List<ReplayOperationType> p = new ArrayList<>(128);
+      this.planChecks(p, signers, dated);
+      p.add(new ReplayOpGitCreateRepository(this.git, this.git_repos));
+      p.add(
+        new ReplayOpGitCreateRootCommit(this.git, this.git_repos, root_node));
+      p.add(
+        new ReplayOpFossilOpen(
+          this.fossil, this.fossil_repos, this.git_repos));
+      stages.add(ReplayPlanner.singleLane(p));
+    }
+
+    /**
+     * The branch of the root commit uses the main working directory. Every
+     * other branch receives its own worktree and Fossil checkout.
+     */
+
+    final Map<String, GitRepositorySpecificationType> specs = new HashMap<>(32);
+    specs.put(root_node.getCommit().getBranch(), this.git_repos);
+
+    final BidiMap<FossilTagName, FossilCommitName> tags = m.getTags();
+    Map<String, List<ReplayOperationType>> lanes = new LinkedHashMap<>(32);
+
+    for (int index = 0; index < dated.size(); ++index) {
+      final FossilModelCommitNode node = NullCheck.notNull(dated.get(index));
+      if (node.equals(root_node)) {
+        continue;
+      }
+
+      final FossilCommit commit = node.getCommit();
+      final int ordinal = node.getOrdinal();
+      final String current_branch = commit.getBranch();
 
       /**
-       * The commits are sorted topologically, order them by date.
+       * Branch creation and merges read the heads of other branches, and
+       * are therefore synchronization points: All preceding commits must
+       * have completed before they execute.
        */
 
-      final List<FossilModelCommitNode> dated = new ArrayList<>(128);
-      while (iter.hasNext()) {
-        dated.add(iter.next());
+      if (commit.isBranchNew()) {
+        ReplayPlanner.flushLanes(stages, lanes);
+        lanes = new LinkedHashMap<>(32);
+
+        String start = root_node.getCommit().getBranch();
+        for (int p_index = 0; p_index < g.getParentCount(ordinal); ++p_index) {
+          start = g.getParent(ordinal, p_index).getCommit().getBranch();
+        }
+
+        final String directory_name = String.format(
+          "%04d-%s",
+          Integer.valueOf(specs.size()),
+          current_branch.replaceAll("[^A-Za-z0-9._-]", "_"));
+        final File directory = new File(worktrees, directory_name);
+        final GitRepositorySpecificationType spec =
+          this.git_repos.withDirectory(directory);
+        specs.put(current_branch, spec);
+
+        final List<ReplayOperationType> p = new ArrayList<>(2);
+        p.add(
+          new ReplayOpGitCreateWorktree(
+            this.git, this.git_repos, directory, current_branch, start));
+        p.add(new ReplayOpFossilOpen(this.fossil, this.fossil_repos, spec));
+        stages.add(ReplayPlanner.singleLane(p));
+        continue;
       }
 
-      Collections.sort(
-        dated, new Comparator<FossilModelCommitNode>()
-        {
-          @Override public int compare(
-            final FossilModelCommitNode o1,
-            final FossilModelCommitNode o2)
-          {
-            final FossilCommit c1 = o1.getCommit();
-            final FossilCommit c2 = o2.getCommit();
-            return c1.getCommitTime().compareTo(c2.getCommitTime());
-          }
-        });
+      final GitRepositorySpecificationType spec = specs.get(current_branch);
+      if (spec == null) {
+        throw new ReplayException(
+          String.format(
+            "Commit %s is on branch %s, which has not been created",
+            commit.getCommitBlob(),
+            current_branch));
+      }
+
+      final BigInteger k = NullCheck.notNull(
+        signers.get(Integer.valueOf(commit.getId())));
+
+      if (g.getParentCount(ordinal) == 2) {
+        ReplayPlanner.flushLanes(stages, lanes);
+        lanes = new LinkedHashMap<>(32);
+
+        final List<ReplayOperationType> p = new ArrayList<>(1);
+        p.add(
+          new ReplayOpGitMerge(
+            this.git,
+            spec,
+            commit,
+            current_branch,
+            ReplayPlanner.mergeSourceBranch(g, ordinal, current_branch),
+            k,
+            commit_log));
+        stages.add(ReplayPlanner.singleLane(p));
+        continue;
+      }
+
+      List<ReplayOperationType> lane = lanes.get(current_branch);
+      if (lane == null) {
+        lane = new ArrayList<>(32);
+        lanes.put(current_branch, lane);
+      }
+      this.planCommit(lane, spec, commit, k, tags, commit_log);
+    }
+
+    ReplayPlanner.flushLanes(stages, lanes);
+    return stages;
+  }
 
-      for (int index = 0; index < dated.size(); ++index) {
-        final FossilModelCommitNode node = NullCheck.notNull(dated.get(index));
-        this.processCommit(
-          p, signers, root_node, g, node, m.getTags(), commit_log);
+  private static ReplayStage singleLane(final List<ReplayOperationType> p)
+  {
+    final List<List<ReplayOperationType>> lanes = new ArrayList<>(1);
+    lanes.add(p);
+    return new ReplayStage(lanes);
+  }
+
+  private static void flushLanes(
+    final List<ReplayStage> stages,
+    final Map<String, List<ReplayOperationType>> lanes)
+  {
+    if (lanes.isEmpty() == false) {
+      stages.add(new ReplayStage(new ArrayList<>(lanes.values())));
+    }
+  }
+
+  private static void checkEnvironment()
+    throws ReplayExceptionEnviromentNotSet
+  {
+    /**
+     * Check that the HOME environment variable is set.
+     */
+
+    ReplayPlanner.LOG.debug("checking that $HOME is set...");
+    if (System.getenv("HOME") == null) {
+      throw new ReplayExceptionEnviromentNotSet("HOME");
+    }
+  }
+
+  /**
+   * Determine the Git commit that corresponds to a converted Fossil commit.
+   * Commits in the commit map are resolved directly. The root commit is not
+   * recorded in the commit map, and is the first commit of the Git
+   * repository. A commit that created a branch has no Git commit of its own,
+   * and corresponds to the Git commit of its parent. Any other commit that
+   * is not in the commit map (such as a merge, which older commit maps do
+   * not record) cannot be resolved.
+   */
+
+  private GitCommitName resolveConverted(
+    final FossilCommitGraph g,
+    final FossilModelCommitNode root_node,
+    final BidiMap<GitCommitName, FossilCommitName> existing,
+    final Map<FossilCommitName, GitCommitName> resolved,
+    final FossilModelCommitNode node)
+    throws ReplayException
+  {
+    FossilModelCommitNode current = node;
+    while (true) {
+      final FossilCommit commit = current.getCommit();
+      final FossilCommitName name = commit.getCommitBlob();
+      final GitCommitName mapped = existing.getKey(name);
+      if (mapped != null) {
+        return mapped;
       }
+
+      final GitCommitName cached = resolved.get(name);
+      if (cached != null) {
+        return cached;
+      }
+
+      final int ordinal = current.getOrdinal();
+      if (current.equals(root_node)) {
+        final List<GitCommitName> commits;
+        try {
+          commits =
+            this.git.listCommitsTopological(this.git_repos.getDirectory());
+        } catch (final IOException e) {
+          throw new ReplayException(e);
+        }
+        if (commits.isEmpty()) {
+          throw new ReplayException(
+            "The existing Git repository contains no commits");
+        }
+        final GitCommitName root = NullCheck.notNull(commits.get(0));
+        resolved.put(name, root);
+        return root;
+      }
+
+      if (commit.isBranchNew() && g.getParentCount(ordinal) == 1) {
+        current = g.getParent(ordinal, 0);
+        continue;
+      }
+
+      throw new ReplayException(
+        String.format(
+          "Fossil commit %s was converted, but the commit map does not " +
+          "record its Git commit, so a branch cannot be created from it. " +
+          "Convert the repository again without incremental mode.",
+          name));
     }
+  }
 
-    return p;
+  private static void markConverted(
+    final FossilCommitGraph g,
+    final BitSet converted,
+    final FossilModelCommitNode node)
+  {
+    final List<FossilModelCommitNode> stack = new ArrayList<>(16);
+    stack.add(node);
+
+    while (stack.isEmpty() == false) {
+      final FossilModelCommitNode current =
+        NullCheck.notNull(stack.remove(stack.size() - 1));
+      final int ordinal = current.getOrdinal();
+      if (converted.get(ordinal) == false) {
+        converted.set(ordinal);
+        for (int index = 0; index < g.getParentCount(ordinal); ++index) {
+          stack.add(g.getParent(ordinal, index));
+        }
+      }
+    }
+  }
+
+  private void planChecks(
+    final List<ReplayOperationType> p,
+    final Map<Integer, BigInteger> signers,
+    final List<FossilModelCommitNode> nodes)
+  {
+    final Set<BigInteger> keys = new HashSet<>(8);
+    final Set<String> checked = new HashSet<>(128);
+
+    for (int index = 0; index < nodes.size(); ++index) {
+      final FossilModelCommitNode node = NullCheck.notNull(nodes.get(index));
+      final FossilCommit commit = node.getCommit();
+      final BigInteger k = signers.get(Integer.valueOf(commit.getId()));
+      if (k != null && keys.contains(k) == false) {
+        p.add(new ReplayOpCheckKey(this.gpg, k));
+        keys.add(k);
+      }
+
+      final String fossil_name = commit.getCommitUser();
+      if (checked.contains(fossil_name) == false) {
+        p.add(new ReplayOpCheckName(this.git_repos, fossil_name));
+        checked.add(fossil_name);
+      }
+    }
   }
 
   private void processCommit(
     final List<ReplayOperationType> plan,
     final Map<Integer, BigInteger> signers,
     final FossilModelCommitNode root_node,
-    final DirectedAcyclicGraph<FossilModelCommitNode, FossilModelCommitLink> g,
+    final FossilCommitGraph g,
     final FossilModelCommitNode node,
     final BidiMap<FossilTagName, FossilCommitName> tags,
-    final BidiMap<GitCommitName, FossilCommit> commit_log)
+    final Map<Integer, GitCommitName> anchors,
+    final FossilCommitMapReceiverType commit_log)
   {
     /**
      * If this node is the root node, ignore it.
@@ -194,7 +505,7 @@ public final class ReplayPlanner implements ReplayPlannerType
     }
 
     final FossilCommit commit = node.getCommit();
-    final Set<FossilModelCommitLink> parents = g.incomingEdgesOf(node);
+    final int ordinal = node.getOrdinal();
 
     /**
      * Fossil creates otherwise empty commits that are responsible
@@ -204,9 +515,23 @@ public final class ReplayPlanner implements ReplayPlannerType
 
     final String current_branch = commit.getBranch();
     if (commit.isBranchNew()) {
+
+      /**
+       * If the parent of the branch was converted by a previous run,
+       * anchor the new branch on the existing Git commit.
+       */
+
+      final GitCommitName anchor = anchors.get(Integer.valueOf(ordinal));
+      final OptionType<GitCommitName> start;
+      if (anchor != null) {
+        start = Option.some(anchor);
+      } else {
+        start = Option.none();
+      }
+
       plan.add(
         new ReplayOpGitCreateBranch(
-          this.git, this.git_repos, current_branch));
+          this.git, this.git_repos, current_branch, start));
       return;
     }
 
@@ -222,27 +547,16 @@ public final class ReplayPlanner implements ReplayPlannerType
      * operation.
      */
 
-    if (parents.size() == 2) {
-      String parent_branch = null;
-      final Iterator<FossilModelCommitLink> parent_iter = parents.iterator();
-
-      while (parent_iter.hasNext()) {
-        final FossilModelCommitLink parent_link = parent_iter.next();
-        final FossilModelCommitNode parent = g.getEdgeSource(parent_link);
-        final FossilCommit parent_commit = parent.getCommit();
-        if (current_branch.equals(parent_commit.getBranch()) == false) {
-          parent_branch = parent_commit.getBranch();
-        }
-      }
-
+    if (g.getParentCount(ordinal) == 2) {
       plan.add(
         new ReplayOpGitMerge(
           this.git,
           this.git_repos,
           commit,
           current_branch,
-          NullCheck.notNull(parent_branch),
-          k));
+          ReplayPlanner.mergeSourceBranch(g, ordinal, current_branch),
+          k,
+          commit_log));
       return;
     }
 
@@ -253,13 +567,22 @@ public final class ReplayPlanner implements ReplayPlannerType
     plan.add(
       new ReplayOpGitCheckoutBranch(
         this.git, this.git_repos, commit.getBranch()));
+    this.planCommit(plan, this.git_repos, commit, k, tags, commit_log);
+  }
+
+  private void planCommit(
+    final List<ReplayOperationType> plan,
+    final GitRepositorySpecificationType repos,
+    final FossilCommit commit,
+    final BigInteger k,
+    final BidiMap<FossilTagName, FossilCommitName> tags,
+    final FossilCommitMapReceiverType commit_log)
+  {
     plan.add(
       new ReplayOpFossilCheckout(
-        this.fossil, this.fossil_repos, this.git_repos, commit));
-    plan.add(new ReplayOpGitAddAll(this.git, this.git_repos));
-    plan.add(
-      new ReplayOpGitCommit(
-        this.git, this.git_repos, commit, k, commit_log));
+        this.fossil, this.fossil_repos, repos, commit));
+    plan.add(new ReplayOpGitAddAll(this.git, repos));
+    plan.add(new ReplayOpGitCommit(this.git, repos, commit, k, commit_log));
 
     /**
      * Tag the commit, if necessary.
@@ -268,7 +591,107 @@ public final class ReplayPlanner implements ReplayPlannerType
     final FossilCommitName commit_name = commit.getCommitBlob();
     if (tags.containsValue(commit_name)) {
       final FossilTagName name = tags.getKey(commit_name);
-      plan.add(new ReplayOpGitTag(this.git, this.git_repos, commit, k, name));
+      plan.add(new ReplayOpGitTag(this.git, repos, commit, k, name));
+    }
+  }
+
+  private static String mergeSourceBranch(
+    final FossilCommitGraph g,
+    final int ordinal,
+    final String current_branch)
+  {
+    String parent_branch = null;
+
+    for (int index = 0; index < g.getParentCount(ordinal); ++index) {
+      final FossilModelCommitNode parent = g.getParent(ordinal, index);
+      final FossilCommit parent_commit = parent.getCommit();
+      if (current_branch.equals(parent_commit.getBranch()) == false) {
+        parent_branch = parent_commit.getBranch();
+      }
+    }
+
+    return NullCheck.notNull(parent_branch);
+  }
+
+  /**
+   * An iterator that produces the operations for each commit on demand,
+   * after first producing a fixed list of initial operations.
+   */
+
+  private final class PlanIterator implements Iterator<ReplayOperationType>
+  {
+    private final List<ReplayOperationType>                buffer;
+    private final List<FossilModelCommitNode>              nodes;
+    private final Map<Integer, BigInteger>                 signers;
+    private final FossilModelCommitNode                    root_node;
+    private final FossilCommitGraph                        graph;
+    private final BidiMap<FossilTagName, FossilCommitName> tags;
+    private final Map<Integer, GitCommitName>              anchors;
+    private final FossilCommitMapReceiverType              commit_log;
+    private int                                            buffer_index;
+    private int                                            node_index;
+
+    PlanIterator(
+      final List<ReplayOperationType> in_initial,
+      final List<FossilModelCommitNode> in_nodes,
+      final FossilModelType m,
+      final Map<Integer, GitCommitName> in_anchors,
+      final FossilCommitMapReceiverType in_commit_log)
+    {
+      this.buffer = NullCheck.notNull(in_initial);
+      this.nodes = NullCheck.notNull(in_nodes);
+      this.signers = m.getSigners();
+      this.root_node = m.getRootNode();
+      this.graph = m.getGraph();
+      this.tags = m.getTags();
+      this.anchors = NullCheck.notNull(in_anchors);
+      this.commit_log = NullCheck.notNull(in_commit_log);
+      this.buffer_index = 0;
+      this.node_index = 0;
+    }
+
+    @Override public boolean hasNext()
+    {
+      while (this.buffer_index >= this.buffer.size()) {
+        if (this.node_index >= this.nodes.size()) {
+          return false;
+        }
+
+        this.buffer.clear();
+        this.buffer_index = 0;
+
+        final FossilModelCommitNode node =
+          NullCheck.notNull(this.nodes.get(this.node_index));
+        this.node_index = this.node_index + 1;
+
+        ReplayPlanner.this.processCommit(
+          this.buffer,
+          this.signers,
+          this.root_node,
+          this.graph,
+          node,
+          this.tags,
+          this.anchors,
+          this.commit_log);
+      }
+      return true;
+    }
+
+    @Override public ReplayOperationType next()
+    {
+      if (this.hasNext() == false) {
+        throw new NoSuchElementException();
+      }
+
+      final ReplayOperationType op =
+        NullCheck.notNull(this.buffer.get(this.buffer_index));
+      this.buffer_index = this.buffer_index + 1;
+      return op;
+    }
+
+    @Override public void remove()
+    {
+      throw new UnsupportedOperationException();
     }
   }
 }
@@ -18,12 +18,67 @@ package com.io7m.ftgr;
 
 import org.apache.commons.collections4.BidiMap;
 
+import java.io.File;
+import java.util.Iterator;
 import java.util.List;
 
 public interface ReplayPlannerType
 {
-  List<ReplayOperationType> plan(
+  /**
+   * Plan a replay of all commits in {@code m} into a new Git repository.
+   * The operations for each commit are produced lazily as the returned
+   * iterator is consumed, so the plan never exists in memory in full.
+   *
+   * @param m          The model
+   * @param commit_log The receiver of new commit mappings
+   *
+   * @return A plan
+   *
+   * @throws ReplayException On errors
+   */
+
+  Iterator<ReplayOperationType> plan(
+    FossilModelType m,
+    FossilCommitMapReceiverType commit_log)
+    throws ReplayException;
+
+  /**
+   * Plan a replay of only those commits in {@code m} that have not already
+   * been converted into the existing Git repository.
+   *
+   * @param m          The model
+   * @param existing   The existing commit map
+   * @param commit_log The receiver of new commit mappings
+   *
+   * @return A lazily produced plan
+   *
+   * @throws ReplayException On errors
+   */
+
+  Iterator<ReplayOperationType> planIncremental(
+    FossilModelType m,
+    BidiMap<GitCommitName, FossilCommitName> existing,
+    FossilCommitMapReceiverType commit_log)
+    throws ReplayException;
+
+  /**
+   * Plan a replay in which each branch is replayed in its own Git worktree,
+   * created inside {@code worktrees}. Commits on different branches between
+   * two branch creations or merges are placed into separate lanes of the
+   * same stage, and may be executed concurrently.
+   *
+   * @param m          The model
+   * @param commit_log The receiver of new commit mappings
+   * @param worktrees  The directory that will contain worktrees
+   *
+   * @return A staged plan
+   *
+   * @throws ReplayException On errors
+   */
+
+  List<ReplayStage> planParallel(
     FossilModelType m,
-    BidiMap<GitCommitName, FossilCommit> commit_log)
+    FossilCommitMapReceiverType commit_log,
+    File worktrees)
     throws ReplayException;
 }
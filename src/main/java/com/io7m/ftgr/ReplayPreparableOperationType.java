@@ -0,0 +1,43 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+/**
+ * The type of operations that can do part of their work ahead of time,
+ * concurrently with the execution of earlier operations.
+ */
+
+interface ReplayPreparableOperationType extends ReplayOperationType
+{
+  /**
+   * Prepare the operation. This method is called at most once, from a
+   * background thread, before {@link #execute(DryRun)}. It must not
+   * touch the Git working directory. If an operation is executed without
+   * having been prepared, it must perform all of its work in {@link
+   * #execute(DryRun)}.
+   *
+   * @param dry_run Whether or not this is a dry run
+   * @param pool    A pool of staging directories
+   *
+   * @throws ReplayException On errors
+   */
+
+  void prepare(
+    DryRun dry_run,
+    ReplayStagingPoolType pool)
+    throws ReplayException;
+}
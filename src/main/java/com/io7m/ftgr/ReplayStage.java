@@ -0,0 +1,52 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+
+import java.util.List;
+
+/**
+ * A stage in a parallel replay. The lanes of a stage are independent of
+ * each other and may be executed concurrently; the operations within a
+ * lane must be executed in order. A stage begins only when all lanes of
+ * the previous stage have completed.
+ */
+
+public final class ReplayStage
+{
+  private final List<List<ReplayOperationType>> lanes;
+
+  public ReplayStage(final List<List<ReplayOperationType>> in_lanes)
+  {
+    this.lanes = NullCheck.notNull(in_lanes);
+  }
+
+  public List<List<ReplayOperationType>> getLanes()
+  {
+    return this.lanes;
+  }
+
+  public int getOperationCount()
+  {
+    int count = 0;
+    for (int index = 0; index < this.lanes.size(); ++index) {
+      count += this.lanes.get(index).size();
+    }
+    return count;
+  }
+}
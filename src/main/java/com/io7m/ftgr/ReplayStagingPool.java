@@ -0,0 +1,177 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * The default implementation of the {@link ReplayStagingPoolType} interface.
+ * Directories are created lazily, up to the size of the pool, and are kept
+ * open across runs.
+ */
+
+public final class ReplayStagingPool implements ReplayStagingPoolType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(ReplayStagingPool.class);
+  }
+
+  private final FossilExecutableType              fossil;
+  private final FossilRepositorySpecificationType fossil_repos;
+  private final File                              base;
+  private final int                               size;
+  private final BlockingQueue<File>               available;
+  private final Map<File, Set<Path>>              managed;
+  private int                                     created;
+
+  private ReplayStagingPool(
+    final FossilExecutableType in_fossil,
+    final FossilRepositorySpecificationType in_fossil_repos,
+    final File in_base,
+    final int in_size)
+  {
+    this.fossil = NullCheck.notNull(in_fossil);
+    this.fossil_repos = NullCheck.notNull(in_fossil_repos);
+    this.base = NullCheck.notNull(in_base);
+    this.size = in_size;
+    this.available = new LinkedBlockingQueue<>(in_size);
+    this.managed = new HashMap<>(8);
+    this.created = 0;
+  }
+
+  public static ReplayStagingPoolType newPool(
+    final FossilExecutableType in_fossil,
+    final FossilRepositorySpecificationType in_fossil_repos,
+    final File in_base,
+    final int in_size)
+  {
+    if (in_size < 1) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Pool size must be >= 1 (got %d)", Integer.valueOf(in_size)));
+    }
+    return new ReplayStagingPool(in_fossil, in_fossil_repos, in_base, in_size);
+  }
+
+  @Override public File acquire()
+    throws IOException, InterruptedException
+  {
+    final File ready = this.available.poll();
+    if (ready != null) {
+      return ready;
+    }
+
+    final File fresh = this.createDirectory();
+    if (fresh != null) {
+      return fresh;
+    }
+
+    return this.available.take();
+  }
+
+  /**
+   * Create and open a new staging directory, if the pool has not yet
+   * reached its size limit. Directories left over from previous runs are
+   * reused.
+   */
+
+  private @Nullable File createDirectory()
+    throws IOException
+  {
+    final int index;
+    synchronized (this) {
+      if (this.created >= this.size) {
+        return null;
+      }
+      index = this.created;
+      this.created = this.created + 1;
+    }
+
+    final File directory =
+      new File(this.base, String.format("slot-%d", Integer.valueOf(index)));
+    if (directory.mkdirs() == false) {
+      if (directory.isDirectory() == false) {
+        throw new IOException(
+          String.format("Not a directory: %s", directory));
+      }
+    }
+
+    if (new File(directory, ".fslckout").isFile() == false) {
+      ReplayStagingPool.LOG.debug("opening staging directory {}", directory);
+      this.fossil.open(this.fossil_repos, directory);
+    }
+    return directory;
+  }
+
+  @Override public void release(final File directory)
+  {
+    NullCheck.notNull(directory);
+    this.available.add(directory);
+  }
+
+  /**
+   * The set of files placed into each working directory is remembered so
+   * that the files of the previous checkout that are not part of the new
+   * one can be removed. That set is not known for the first checkout into
+   * a working directory, so the first checkout is performed directly. Each
+   * later copy is followed by {@link FossilExecutableType#checkOutInPlace(
+   * FossilRepositorySpecificationType, FossilCommitName, File)}, so that
+   * the working directory is recorded as containing the commit, and is
+   * cleaned exactly as a direct checkout would clean it.
+   */
+
+  @Override public void copyTo(
+    final File directory,
+    final File target,
+    final FossilCommitName commit)
+    throws IOException
+  {
+    NullCheck.notNull(directory);
+    NullCheck.notNull(target);
+    NullCheck.notNull(commit);
+
+    final File target_actual = target.getCanonicalFile();
+    synchronized (this.managed) {
+      final Set<Path> previous = this.managed.get(target_actual);
+      if (previous == null) {
+        this.fossil.checkOut(this.fossil_repos, commit, target_actual);
+        this.managed.put(
+          target_actual, ReplayDirectorySync.listFiles(directory.toPath()));
+      } else {
+        this.managed.put(
+          target_actual,
+          ReplayDirectorySync.synchronize(
+            directory.toPath(), target_actual.toPath(), previous));
+        this.fossil.checkOutInPlace(this.fossil_repos, commit, target_actual);
+      }
+    }
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The type of pools of Fossil checkout directories, used to prepare the
+ * content of commits ahead of time.
+ */
+
+public interface ReplayStagingPoolType
+{
+  /**
+   * Take a directory from the pool, waiting until one is available.
+   *
+   * @return A directory containing an open Fossil checkout
+   *
+   * @throws IOException          On I/O errors
+   * @throws InterruptedException If interrupted whilst waiting
+   */
+
+  File acquire()
+    throws IOException, InterruptedException;
+
+  /**
+   * Return a directory to the pool.
+   *
+   * @param directory A directory previously returned by {@link #acquire()}
+   */
+
+  void release(File directory);
+
+  /**
+   * Make {@code target} match the checkout of {@code commit} prepared in
+   * {@code directory}, as if the checkout had been performed in {@code
+   * target} directly.
+   *
+   * @param directory A directory previously returned by {@link #acquire()}
+   * @param target    The working directory, containing an open checkout
+   * @param commit    The commit checked out in {@code directory}
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void copyTo(
+    File directory,
+    File target,
+    FossilCommitName commit)
+    throws IOException;
+}
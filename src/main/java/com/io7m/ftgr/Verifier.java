@@ -18,33 +18,39 @@ package com.io7m.ftgr;
 
 import com.io7m.jnull.NonNull;
 import com.io7m.jnull.NullCheck;
-import com.io7m.junreachable.UnreachableCodeException;
 import org.apache.commons.collections4.BidiMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public final class Verifier implements VerifierType
 {
   private static final Logger LOG;
+  private static final int    CHUNK;
 
   static {
     LOG = LoggerFactory.getLogger(Verifier.class);
+    CHUNK = 64;
   }
 
   private final File                                     git_repos;
@@ -54,6 +60,7 @@ public final class Verifier implements VerifierType
   private final BidiMap<GitCommitName, FossilCommitName> commits;
   private final File                                     git_tmp;
   private final File                                     fossil_tmp;
+  private final int                                      threads;
 
   private Verifier(
     final BidiMap<GitCommitName, FossilCommitName> in_commits,
@@ -62,8 +69,15 @@ public final class Verifier implements VerifierType
     final GitExecutableType in_git,
     final FossilExecutableType in_fossil,
     final File in_git_tmp,
-    final File in_fossil_tmp)
+    final File in_fossil_tmp,
+    final int in_threads)
   {
+    if (in_threads < 1) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Thread count must be >= 1 (got %d)", Integer.valueOf(in_threads)));
+    }
+
     this.commits = NullCheck.notNull(in_commits);
     this.git_repos = NullCheck.notNull(in_git_repos);
     this.fossil_repos = NullCheck.notNull(in_fossil_repos);
@@ -71,8 +85,26 @@ public final class Verifier implements VerifierType
     this.fossil = NullCheck.notNull(in_fossil);
     this.git_tmp = NullCheck.notNull(in_git_tmp);
     this.fossil_tmp = NullCheck.notNull(in_fossil_tmp);
+    this.threads = in_threads;
   }
 
+  /**
+   * Create a new verifier. Each of the {@code in_threads} workers checks
+   * commits out into its own Git worktree inside {@code in_git_tmp} and its
+   * own Fossil checkout inside {@code in_fossil_tmp}.
+   *
+   * @param in_commits      The commits to verify
+   * @param in_git_repos    The Git repository
+   * @param in_fossil_repos The Fossil repository
+   * @param in_git          The Git executable
+   * @param in_fossil       The Fossil executable
+   * @param in_git_tmp      The directory that will hold Git worktrees
+   * @param in_fossil_tmp   The directory that will hold Fossil checkouts
+   * @param in_threads      The number of workers
+   *
+   * @return A new verifier
+   */
+
   public static VerifierType newVerifier(
     final BidiMap<GitCommitName, FossilCommitName> in_commits,
     final File in_git_repos,
@@ -80,7 +112,8 @@ public final class Verifier implements VerifierType
     final GitExecutableType in_git,
     final FossilExecutableType in_fossil,
     final File in_git_tmp,
-    final File in_fossil_tmp)
+    final File in_fossil_tmp,
+    final int in_threads)
   {
     return new Verifier(
       in_commits,
@@ -89,57 +122,212 @@ public final class Verifier implements VerifierType
       in_git,
       in_fossil,
       in_git_tmp,
-      in_fossil_tmp);
+      in_fossil_tmp,
+      in_threads);
   }
 
-  @Override public List<VerifierResult> verify()
+  private static void createDirectory(final File directory)
     throws IOException
   {
-    final List<VerifierResult> results = new ArrayList<>();
-
-    if (this.git_tmp.mkdirs() == false) {
-      if (this.git_tmp.isDirectory() == false) {
+    if (directory.mkdirs() == false) {
+      if (directory.isDirectory() == false) {
         throw new IOException(
           String.format(
-            "Not a directory: %s", this.git_tmp));
+            "Not a directory: %s", directory));
       }
     }
-    if (this.fossil_tmp.mkdirs() == false) {
-      if (this.fossil_tmp.isDirectory() == false) {
-        throw new IOException(
-          String.format(
-            "Not a directory: %s", this.fossil_tmp));
+  }
+
+  @Override public void verify(final VerifierReceiverType receiver)
+    throws IOException
+  {
+    NullCheck.notNull(receiver);
+
+    Verifier.createDirectory(this.git_tmp);
+    Verifier.createDirectory(this.fossil_tmp);
+
+    /**
+     * The first worker uses a clone of the repository, and the remaining
+     * workers use worktrees linked to that clone.
+     */
+
+    final List<Worker> workers = new ArrayList<>(this.threads);
+    for (int index = 0; index < this.threads; ++index) {
+      final String name = Integer.toString(index);
+      final Worker w = new Worker(
+        new File(this.git_tmp, name), new File(this.fossil_tmp, name));
+
+      if (index == 0) {
+        Verifier.LOG.debug("cloning git repository");
+        Verifier.createDirectory(w.git_directory);
+        this.git.cloneRepository(this.git_repos, w.git_directory);
+      } else {
+        Verifier.LOG.debug("creating git worktree {}", w.git_directory);
+        this.git.createDetachedWorktree(
+          workers.get(0).git_directory, w.git_directory);
       }
+
+      Verifier.LOG.debug("opening fossil repository in {}", w.fossil_directory);
+      Verifier.createDirectory(w.fossil_directory);
+      this.fossil.open(this.fossil_repos, w.fossil_directory);
+      workers.add(w);
     }
 
-    Verifier.LOG.debug("cloning git repository");
-    this.git.cloneRepository(this.git_repos, this.git_tmp);
-    Verifier.LOG.debug("opening fossil repository");
-    this.fossil.open(this.fossil_repos, this.fossil_tmp);
+    /**
+     * Each worker takes the next run of unverified commits until none remain.
+     * Commits are verified in topological order so that consecutive
+     * commits taken by a worker are usually parent and child, and each
+     * checkout only has to write the files changed by a single commit.
+     */
+
+    final List<GitCommitName> pending = this.orderCommits();
+    final AtomicInteger next = new AtomicInteger(0);
+
+    Verifier.LOG.debug(
+      "verifying {} commits with {} workers",
+      Integer.valueOf(pending.size()),
+      Integer.valueOf(this.threads));
+
+    final ExecutorService exec = Executors.newFixedThreadPool(this.threads);
+    try {
+      final List<Future<Void>> futures = new ArrayList<>(this.threads);
+      for (int index = 0; index < workers.size(); ++index) {
+        final Worker w = NullCheck.notNull(workers.get(index));
+        futures.add(
+          exec.submit(
+            new Callable<Void>()
+            {
+              @Override public Void call()
+                throws IOException
+              {
+                while (true) {
+                  final int start = next.getAndAdd(Verifier.CHUNK);
+                  if (start >= pending.size()) {
+                    return null;
+                  }
+
+                  final int end =
+                    Math.min(pending.size(), start + Verifier.CHUNK);
+                  for (int current = start; current < end; ++current) {
+                    final GitCommitName git_commit =
+                      NullCheck.notNull(pending.get(current));
+                    Verifier.LOG.debug("verifying git commit {}", git_commit);
+                    receiver.onResult(
+                      Verifier.this.verifyGitCommit(w, git_commit));
+                  }
+                }
+              }
+            }));
+      }
+
+      Verifier.waitForWorkers(futures, next, pending.size());
+    } finally {
+      exec.shutdown();
+    }
+  }
+
+  /**
+   * @return The commits to verify, in the order that Git lists them
+   * topologically, followed by any commits that are not reachable from a
+   * ref
+   */
+
+  private List<GitCommitName> orderCommits()
+    throws IOException
+  {
+    final List<GitCommitName> all =
+      this.git.listCommitsTopological(this.git_repos);
+    final List<GitCommitName> ordered = new ArrayList<>(this.commits.size());
+    final Set<GitCommitName> remaining = new HashSet<>(this.commits.keySet());
+
+    for (int index = 0; index < all.size(); ++index) {
+      final GitCommitName c = NullCheck.notNull(all.get(index));
+      if (remaining.remove(c)) {
+        ordered.add(c);
+      }
+    }
+
+    if (remaining.isEmpty() == false) {
+      Verifier.LOG.debug(
+        "{} commits are not reachable from any ref",
+        Integer.valueOf(remaining.size()));
+      ordered.addAll(remaining);
+    }
+    return ordered;
+  }
+
+  /**
+   * Wait for every worker to finish. If one fails, the others are told to
+   * stop taking new commits.
+   */
 
-    for (final GitCommitName git_commit : this.commits.keySet()) {
-      Verifier.LOG.debug("verifying git commit {}", git_commit);
-      results.add(this.verifyGitCommit(git_commit));
+  static void waitForWorkers(
+    final List<Future<Void>> futures,
+    final AtomicInteger next,
+    final int count)
+    throws IOException
+  {
+    IOException error = null;
+    for (int index = 0; index < futures.size(); ++index) {
+      try {
+        futures.get(index).get();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        next.set(count);
+        if (error == null) {
+          error = new IOException(e);
+        }
+      } catch (final ExecutionException e) {
+        next.set(count);
+        final Throwable cause = e.getCause();
+        if (error == null) {
+          if (cause instanceof IOException) {
+            error = (IOException) cause;
+          } else {
+            error = new IOException(cause);
+          }
+        } else {
+          error.addSuppressed(cause);
+        }
+      }
     }
 
-    return results;
+    if (error != null) {
+      throw error;
+    }
   }
 
-  private VerifierResult verifyGitCommit(final GitCommitName git_commit)
+  private VerifierResult verifyGitCommit(
+    final Worker w,
+    final GitCommitName git_commit)
     throws IOException
   {
+    final long time_start = System.nanoTime();
     final FossilCommitName fossil_commit =
       NullCheck.notNull(this.commits.get(git_commit));
 
-    this.git.checkoutCommit(this.git_tmp, git_commit);
+    this.git.checkoutCommit(w.git_directory, git_commit);
 
     final Map<Path, String> git_commit_content = new HashMap<>();
-    this.verifyGetTreeSHA256Sums(git_commit_content, this.git_tmp.toPath());
+    this.verifyGetTreeSHA256Sums(
+      git_commit_content, w.git_directory.toPath(), w.git_hashes);
+
+    /**
+     * The first commit is checked out forcibly to remove anything left over
+     * in the directory. The checkout is then moved from commit to commit.
+     */
+
+    if (w.fossil_updatable) {
+      this.fossil.update(this.fossil_repos, fossil_commit, w.fossil_directory);
+    } else {
+      this.fossil.checkOut(
+        this.fossil_repos, fossil_commit, w.fossil_directory);
+      w.fossil_updatable = true;
+    }
 
-    this.fossil.checkOut(this.fossil_repos, fossil_commit, this.fossil_tmp);
     final Map<Path, String> fossil_commit_content = new HashMap<>();
     this.verifyGetTreeSHA256Sums(
-      fossil_commit_content, this.fossil_tmp.toPath());
+      fossil_commit_content, w.fossil_directory.toPath(), w.fossil_hashes);
 
     final int fossil_size = fossil_commit_content.size();
     final int git_size = git_commit_content.size();
@@ -147,29 +335,38 @@ public final class Verifier implements VerifierType
     Verifier.LOG.debug("git commit files: {} files", git_size);
 
     if (fossil_size != git_size) {
-      return this.missingOrExtraFiles(
-        git_commit, fossil_commit, git_commit_content, fossil_commit_content);
+      return Verifier.missingOrExtraFiles(
+        git_commit,
+        fossil_commit,
+        git_commit_content,
+        fossil_commit_content,
+        time_start);
     }
 
-    return this.checkAllSums(
-      git_commit, fossil_commit, git_commit_content, fossil_commit_content);
+    return Verifier.checkAllSums(
+      git_commit,
+      fossil_commit,
+      git_commit_content,
+      fossil_commit_content,
+      time_start);
   }
 
-  private VerifierResult checkAllSums(
+  static VerifierResult checkAllSums(
     final GitCommitName git_commit,
     final FossilCommitName fossil_commit,
     final Map<Path, String> git_commit_content,
-    final Map<Path, String> fossil_commit_content)
+    final Map<Path, String> fossil_commit_content,
+    final long time_start)
   {
-    boolean ok = true;
-    StringBuilder sb = new StringBuilder();
+    final List<Path> changed = new ArrayList<>(0);
+    final StringBuilder sb = new StringBuilder();
 
     for (final Path p : git_commit_content.keySet()) {
       final String git_sum = git_commit_content.get(p);
       final String fsl_sum = fossil_commit_content.get(p);
 
       if (git_sum.equals(fsl_sum) == false) {
-        ok = false;
+        changed.add(p);
         sb.append("Bad checksum: ");
         sb.append(p);
         sb.append(": ");
@@ -180,54 +377,81 @@ public final class Verifier implements VerifierType
       }
     }
 
+    final boolean ok = changed.isEmpty();
     if (ok) {
-      sb.setLength(0);
       sb.append("OK");
     }
 
-    return new VerifierResult(fossil_commit, git_commit, sb.toString(), ok);
+    final List<Path> none = Collections.emptyList();
+    return new VerifierResult(
+      fossil_commit,
+      git_commit,
+      VerifierCheck.CHECK_CONTENT,
+      sb.toString(),
+      ok,
+      fossil_commit_content.size(),
+      none,
+      none,
+      changed,
+      System.nanoTime() - time_start);
   }
 
-  @NonNull private VerifierResult missingOrExtraFiles(
+  @NonNull static VerifierResult missingOrExtraFiles(
     final GitCommitName git_commit,
     final FossilCommitName fossil_commit,
     final Map<Path, String> git_commit_content,
-    final Map<Path, String> fossil_commit_content)
+    final Map<Path, String> fossil_commit_content,
+    final long time_start)
   {
-    StringBuilder sb = new StringBuilder();
+    final StringBuilder sb = new StringBuilder();
     sb.append("Missing or extraneous files.\n");
 
-    {
-      final Map<Path, String> extras = new HashMap<>(git_commit_content);
-      extras.keySet().removeAll(fossil_commit_content.keySet());
-
-      for (final Path e : extras.keySet()) {
+    final List<Path> extra = new ArrayList<>(0);
+    for (final Path e : git_commit_content.keySet()) {
+      if (fossil_commit_content.containsKey(e) == false) {
+        extra.add(e);
         sb.append("Git commit has extra file: ");
         sb.append(e);
         sb.append("\n");
       }
     }
 
-    {
-      final Map<Path, String> extras = new HashMap<>(fossil_commit_content);
-      extras.keySet().removeAll(git_commit_content.keySet());
-
-      for (final Path e : extras.keySet()) {
+    final List<Path> missing = new ArrayList<>(0);
+    for (final Path e : fossil_commit_content.keySet()) {
+      if (git_commit_content.containsKey(e) == false) {
+        missing.add(e);
         sb.append("Git commit is missing file: ");
         sb.append(e);
         sb.append("\n");
       }
     }
 
+    final List<Path> none = Collections.emptyList();
     return new VerifierResult(
-      fossil_commit, git_commit, sb.toString(), false);
+      fossil_commit,
+      git_commit,
+      VerifierCheck.CHECK_CONTENT,
+      sb.toString(),
+      false,
+      fossil_commit_content.size(),
+      missing,
+      extra,
+      none,
+      System.nanoTime() - time_start);
   }
 
+  /**
+   * Hash the files in {@code base}. Files that have not changed since the
+   * previous call with the same cache are not hashed again.
+   */
+
   private void verifyGetTreeSHA256Sums(
     final Map<Path, String> content,
-    final Path base)
+    final Path base,
+    final VerifierHashCache cache)
     throws IOException
   {
+    cache.begin();
     Files.walkFileTree(
       base, new FileVisitor<Path>()
       {
@@ -261,7 +485,16 @@ public final class Verifier implements VerifierType
             return FileVisitResult.CONTINUE;
           }
 
-          content.put(relative, Verifier.this.sha256(file));
+          final String cached = cache.lookup(relative, attrs);
+          if (cached != null) {
+            content.put(relative, cached);
+            return FileVisitResult.CONTINUE;
+          }
+
+          final long hashed_at = System.currentTimeMillis();
+          final String digest = VerifierFileHashing.sha256(file);
+          cache.store(relative, attrs, hashed_at, digest);
+          content.put(relative, digest);
           return FileVisitResult.CONTINUE;
         }
 
@@ -281,38 +514,37 @@ public final class Verifier implements VerifierType
           return FileVisitResult.CONTINUE;
         }
       });
-  }
+    cache.finish();
 
-  private String sha256(final Path file)
-    throws IOException
-  {
-    NullCheck.notNull(file);
+    Verifier.LOG.debug(
+      "{}: hashed {} files, reused {} digests",
+      base,
+      Integer.valueOf(cache.getMisses()),
+      Integer.valueOf(cache.getHits()));
+  }
 
-    try {
-      final MessageDigest md = MessageDigest.getInstance("SHA-256");
-      final byte[] buffer = new byte[8192];
-      try (final InputStream fs = Files.newInputStream(
-        file, StandardOpenOption.READ)) {
-
-        while (true) {
-          int r = fs.read(buffer);
-          if (r == -1) {
-            break;
-          }
-          md.update(buffer, 0, r);
-        }
+  /**
+   * The Git worktree and Fossil checkout used by a single worker, and the
+   * digests of the files most recently checked out into each.
+   */
 
-        final StringBuilder sb = new StringBuilder();
-        final byte[] dg = md.digest();
-        for (byte b : dg) {
-          sb.append(String.format("%02x", b));
-        }
-        final String s = sb.toString();
-        Verifier.LOG.debug("sha256: {} {}", file, s);
-        return s;
-      }
-    } catch (NoSuchAlgorithmException e) {
-      throw new UnreachableCodeException(e);
+  private static final class Worker
+  {
+    private final File              git_directory;
+    private final File              fossil_directory;
+    private final VerifierHashCache git_hashes;
+    private final VerifierHashCache fossil_hashes;
+    private boolean                 fossil_updatable;
+
+    Worker(
+      final File in_git_directory,
+      final File in_fossil_directory)
+    {
+      this.git_directory = NullCheck.notNull(in_git_directory);
+      this.fossil_directory = NullCheck.notNull(in_fossil_directory);
+      this.git_hashes = VerifierHashCache.newCache();
+      this.fossil_hashes = VerifierHashCache.newCache();
+      this.fossil_updatable = false;
     }
   }
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+
+/**
+ * The kinds of checks made by the verifiers.
+ */
+
+public enum VerifierCheck
+{
+  /**
+   * The files of a Git commit were compared against the Fossil commit.
+   */
+
+  CHECK_CONTENT("content"),
+
+  /**
+   * The signature of a Git commit or tag was checked.
+   */
+
+  CHECK_SIGNATURE("signature");
+
+  private final String name;
+
+  VerifierCheck(final String in_name)
+  {
+    this.name = NullCheck.notNull(in_name);
+  }
+
+  /**
+   * @return The name of the check, as it appears in ledgers and reports
+   */
+
+  public String getName()
+  {
+    return this.name;
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Functions to compute the SHA-256 digests of files.
+ *
+ * Each thread keeps its own digest and direct read buffer. Files of at
+ * least {@link #MAP_THRESHOLD} bytes are memory-mapped instead of being
+ * read through the buffer.
+ */
+
+final class VerifierFileHashing
+{
+  /**
+   * The size at and above which files are memory-mapped.
+   */
+
+  static final long MAP_THRESHOLD = 1L << 20;
+
+  private static final int                 BUFFER_SIZE;
+  private static final long                MAP_CHUNK;
+  private static final char[]              HEX;
+  private static final ThreadLocal<Hasher> HASHERS;
+
+  static {
+    BUFFER_SIZE = 1 << 16;
+    MAP_CHUNK = 1L << 28;
+    HEX = "0123456789abcdef".toCharArray();
+    HASHERS = new ThreadLocal<Hasher>()
+    {
+      @Override protected Hasher initialValue()
+      {
+        return new Hasher();
+      }
+    };
+  }
+
+  private VerifierFileHashing()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * @param file The file
+   *
+   * @return The SHA-256 digest of the file, as lowercase hexadecimal
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static String sha256(final Path file)
+    throws IOException
+  {
+    return VerifierFileHashing.hex(VerifierFileHashing.sha256Bytes(file));
+  }
+
+  /**
+   * @param file The file
+   *
+   * @return The SHA-256 digest of the file
+   *
+   * @throws IOException On I/O errors
+   */
+
+  static byte[] sha256Bytes(final Path file)
+    throws IOException
+  {
+    NullCheck.notNull(file);
+
+    final Hasher h = VerifierFileHashing.HASHERS.get();
+    final MessageDigest md = h.digest;
+    md.reset();
+
+    try (final FileChannel fc = FileChannel.open(
+      file, StandardOpenOption.READ)) {
+      final long size = fc.size();
+
+      if (size >= VerifierFileHashing.MAP_THRESHOLD) {
+        long position = 0L;
+        while (position < size) {
+          final long length =
+            Math.min(VerifierFileHashing.MAP_CHUNK, size - position);
+          final MappedByteBuffer map =
+            fc.map(FileChannel.MapMode.READ_ONLY, position, length);
+          md.update(map);
+          position = position + length;
+        }
+      } else {
+        final ByteBuffer buffer = h.buffer;
+        while (true) {
+          buffer.clear();
+          if (fc.read(buffer) == -1) {
+            break;
+          }
+          buffer.flip();
+          md.update(buffer);
+        }
+      }
+    }
+
+    return md.digest();
+  }
+
+  /**
+   * @param data The bytes
+   *
+   * @return {@code data} as lowercase hexadecimal
+   */
+
+  static String hex(final byte[] data)
+  {
+    final char[] out = new char[data.length * 2];
+    for (int index = 0; index < data.length; ++index) {
+      final int b = data[index] & 0xff;
+      out[index * 2] = VerifierFileHashing.HEX[b >>> 4];
+      out[index * 2 + 1] = VerifierFileHashing.HEX[b & 0xf];
+    }
+    return new String(out);
+  }
+
+  private static final class Hasher
+  {
+    private final MessageDigest digest;
+    private final ByteBuffer    buffer;
+
+    Hasher()
+    {
+      try {
+        this.digest = MessageDigest.getInstance("SHA-256");
+      } catch (final NoSuchAlgorithmException e) {
+        throw new UnreachableCodeException(e);
+      }
+      this.buffer = ByteBuffer.allocateDirect(VerifierFileHashing.BUFFER_SIZE);
+    }
+  }
+}
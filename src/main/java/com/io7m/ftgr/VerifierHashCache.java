@@ -0,0 +1,183 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A cache of the digests of the files in a single working directory.
+ *
+ * A digest computed for one scan of the directory is reused by the next scan
+ * if the path, size, modification time, and file key (typically the inode)
+ * of the file are unchanged. Entries for files that are not seen by a scan
+ * are discarded at the end of that scan.
+ *
+ * As with Git's index, a file that was modified within {@link
+ * #RACY_WINDOW_MS} of being hashed could be modified again without its
+ * modification time changing, so the digests of such files are never
+ * reused.
+ *
+ * Instances are not thread-safe.
+ */
+
+final class VerifierHashCache
+{
+  /**
+   * The coarsest file system timestamp granularity that is expected.
+   */
+
+  static final long RACY_WINDOW_MS = 1000L;
+
+  private Map<Path, Entry> current;
+  private Map<Path, Entry> next;
+  private int              hits;
+  private int              misses;
+
+  private VerifierHashCache()
+  {
+    this.current = new HashMap<>(256);
+    this.next = new HashMap<>(256);
+  }
+
+  static VerifierHashCache newCache()
+  {
+    return new VerifierHashCache();
+  }
+
+  /**
+   * Start a new scan of the directory.
+   */
+
+  void begin()
+  {
+    this.next = new HashMap<>(Math.max(16, this.current.size()));
+    this.hits = 0;
+    this.misses = 0;
+  }
+
+  /**
+   * Finish the current scan, discarding the entries of files that were not
+   * seen.
+   */
+
+  void finish()
+  {
+    this.current = this.next;
+  }
+
+  int getHits()
+  {
+    return this.hits;
+  }
+
+  int getMisses()
+  {
+    return this.misses;
+  }
+
+  /**
+   * @param file  The path of the file relative to the directory
+   * @param attrs The current attributes of the file
+   *
+   * @return The digest recorded by the previous scan, if the file has
+   * provably not changed since
+   */
+
+  @Nullable String lookup(
+    final Path file,
+    final BasicFileAttributes attrs)
+  {
+    NullCheck.notNull(file);
+    NullCheck.notNull(attrs);
+
+    final Entry e = this.current.get(file);
+    if (e != null && e.matches(attrs)) {
+      this.hits = this.hits + 1;
+      this.next.put(file, e);
+      return e.digest;
+    }
+
+    this.misses = this.misses + 1;
+    return null;
+  }
+
+  /**
+   * Record the digest of a file.
+   *
+   * @param file      The path of the file relative to the directory
+   * @param attrs     The attributes of the file, read before the file was
+   *                  hashed
+   * @param hashed_at The time, in milliseconds since the epoch, at which
+   *                  hashing began
+   * @param digest    The digest
+   */
+
+  void store(
+    final Path file,
+    final BasicFileAttributes attrs,
+    final long hashed_at,
+    final String digest)
+  {
+    NullCheck.notNull(file);
+    NullCheck.notNull(attrs);
+    NullCheck.notNull(digest);
+
+    final FileTime mtime = attrs.lastModifiedTime();
+    if (mtime.toMillis() + VerifierHashCache.RACY_WINDOW_MS > hashed_at) {
+      this.next.remove(file);
+      return;
+    }
+
+    this.next.put(
+      file, new Entry(attrs.size(), mtime, attrs.fileKey(), digest));
+  }
+
+  private static final class Entry
+  {
+    private final long             size;
+    private final FileTime         mtime;
+    private final @Nullable Object key;
+    private final String           digest;
+
+    Entry(
+      final long in_size,
+      final FileTime in_mtime,
+      final @Nullable Object in_key,
+      final String in_digest)
+    {
+      this.size = in_size;
+      this.mtime = NullCheck.notNull(in_mtime);
+      this.key = in_key;
+      this.digest = NullCheck.notNull(in_digest);
+    }
+
+    boolean matches(final BasicFileAttributes attrs)
+    {
+      return this.size == attrs.size()
+             && this.mtime.equals(attrs.lastModifiedTime())
+             && Objects.equals(this.key, attrs.fileKey());
+    }
+  }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+import org.apache.commons.collections4.BidiMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A verifier that does not check out either repository. The blob IDs listed
+ * in the tree of each Git commit are compared against the Git blob IDs of
+ * the files listed in the manifest of the corresponding Fossil commit. The
+ * Git blob ID of each Fossil artifact is computed at most once. Git trees
+ * are read directly from the object database.
+ */
+
+public final class VerifierHashes implements VerifierType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(VerifierHashes.class);
+  }
+
+  private final BidiMap<GitCommitName, FossilCommitName> commits;
+  private final GitObjectDatabaseType                    git_objects;
+  private final FossilDatabaseType                       database;
+  private final int                                      threads;
+  private final Map<String, String>                      blob_ids;
+
+  VerifierHashes(
+    final BidiMap<GitCommitName, FossilCommitName> in_commits,
+    final GitObjectDatabaseType in_git_objects,
+    final FossilDatabaseType in_database,
+    final int in_threads)
+  {
+    if (in_threads < 1) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Thread count must be >= 1 (got %d)", Integer.valueOf(in_threads)));
+    }
+
+    this.commits = NullCheck.notNull(in_commits);
+    this.git_objects = NullCheck.notNull(in_git_objects);
+    this.database = NullCheck.notNull(in_database);
+    this.threads = in_threads;
+    this.blob_ids = new ConcurrentHashMap<>(1024);
+  }
+
+  public static VerifierType newVerifier(
+    final BidiMap<GitCommitName, FossilCommitName> in_commits,
+    final GitObjectDatabaseType in_git_objects,
+    final FossilDatabaseType in_database,
+    final int in_threads)
+  {
+    return new VerifierHashes(
+      in_commits, in_git_objects, in_database, in_threads);
+  }
+
+  @Override public void verify(final VerifierReceiverType receiver)
+    throws IOException
+  {
+    NullCheck.notNull(receiver);
+
+    final List<GitCommitName> pending = new ArrayList<>(this.commits.keySet());
+    final AtomicInteger next = new AtomicInteger(0);
+
+    VerifierHashes.LOG.debug(
+      "verifying {} commits with {} workers",
+      Integer.valueOf(pending.size()),
+      Integer.valueOf(this.threads));
+
+    final ExecutorService exec = Executors.newFixedThreadPool(this.threads);
+    try {
+      final List<Future<Void>> futures = new ArrayList<>(this.threads);
+      for (int index = 0; index < this.threads; ++index) {
+        futures.add(
+          exec.submit(
+            new Callable<Void>()
+            {
+              @Override public Void call()
+                throws IOException
+              {
+                try (final FossilDatabaseTransactionType t =
+                       VerifierHashes.this.database.newTransaction()) {
+                  while (true) {
+                    final int current = next.getAndIncrement();
+                    if (current >= pending.size()) {
+                      return null;
+                    }
+
+                    final GitCommitName git_commit =
+                      NullCheck.notNull(pending.get(current));
+                    VerifierHashes.LOG.debug(
+                      "verifying git commit {}", git_commit);
+                    receiver.onResult(
+                      VerifierHashes.this.verifyGitCommit(t, git_commit));
+                  }
+                } catch (final FossilDatabaseException e) {
+                  throw new IOException(e);
+                }
+              }
+            }));
+      }
+
+      Verifier.waitForWorkers(futures, next, pending.size());
+    } finally {
+      exec.shutdown();
+    }
+  }
+
+  VerifierResult verifyGitCommit(
+    final FossilDatabaseTransactionType t,
+    final GitCommitName git_commit)
+    throws IOException, FossilDatabaseException
+  {
+    final long time_start = System.nanoTime();
+    final FossilCommitName fossil_commit =
+      NullCheck.notNull(this.commits.get(git_commit));
+
+    final Map<Path, String> git_commit_content = new HashMap<>(256);
+    final List<GitTreeEntry> entries = this.git_objects.listTree(git_commit);
+    for (int index = 0; index < entries.size(); ++index) {
+      final GitTreeEntry e = NullCheck.notNull(entries.get(index));
+      if ("blob".equals(e.getType()) == false) {
+        continue;
+      }
+      final Path path = NullCheck.notNull(Paths.get(e.getPath()));
+      if (VerifierHashes.isIgnored(path)) {
+        continue;
+      }
+      git_commit_content.put(path, e.getObject());
+    }
+
+    final Map<String, FossilManifestFile> files =
+      VerifierHashes.getManifestFiles(t, fossil_commit);
+    final Map<Path, String> fossil_commit_content = new HashMap<>(256);
+    for (final FossilManifestFile f : files.values()) {
+      final Path path = NullCheck.notNull(Paths.get(f.getName()));
+      if (VerifierHashes.isIgnored(path)) {
+        continue;
+      }
+      fossil_commit_content.put(path, this.getBlobID(t, f.getHash()));
+    }
+
+    final int fossil_size = fossil_commit_content.size();
+    final int git_size = git_commit_content.size();
+    VerifierHashes.LOG.debug("fossil commit files: {} files", fossil_size);
+    VerifierHashes.LOG.debug("git commit files: {} files", git_size);
+
+    if (fossil_size != git_size) {
+      return Verifier.missingOrExtraFiles(
+        git_commit,
+        fossil_commit,
+        git_commit_content,
+        fossil_commit_content,
+        time_start);
+    }
+
+    return Verifier.checkAllSums(
+      git_commit,
+      fossil_commit,
+      git_commit_content,
+      fossil_commit_content,
+      time_start);
+  }
+
+  /**
+   * The checkout-based verifier does not compare these files, so neither
+   * does this one.
+   */
+
+  private static boolean isIgnored(final Path path)
+  {
+    final String name = path.getFileName().toString();
+    return ".gitignore".equals(name) || ".fslckout".equals(name);
+  }
+
+  static Map<String, FossilManifestFile> getManifestFiles(
+    final FossilDatabaseTransactionType t,
+    final FossilCommitName fossil_commit)
+    throws IOException, FossilDatabaseException
+  {
+    final ByteBuffer manifest = t.getArtifact(fossil_commit.toString());
+    final Map<String, FossilManifestFile> files = new TreeMap<>();
+
+    final OptionType<String> baseline_opt =
+      FossilManifest.getBaseline(fossil_commit, manifest);
+    if (baseline_opt.isSome()) {
+      final String baseline = ((Some<String>) baseline_opt).get();
+      FossilManifest.applyFiles(
+        fossil_commit, t.getArtifact(baseline), files);
+    }
+
+    FossilManifest.applyFiles(fossil_commit, manifest, files);
+    return files;
+  }
+
+  /**
+   * @return The ID that Git assigns to a blob with the same content as the
+   * given Fossil artifact
+   */
+
+  private String getBlobID(
+    final FossilDatabaseTransactionType t,
+    final String hash)
+    throws FossilDatabaseException
+  {
+    final String cached = this.blob_ids.get(hash);
+    if (cached != null) {
+      return cached;
+    }
+
+    final ByteBuffer data = t.getArtifact(hash);
+    final String id = VerifierFileHashing.hex(VerifierHashes.gitBlobSHA1(data));
+    this.blob_ids.put(hash, id);
+    return id;
+  }
+
+  static byte[] gitBlobSHA1(final ByteBuffer data)
+  {
+    try {
+      final MessageDigest md = MessageDigest.getInstance("SHA-1");
+      md.update(
+        String.format("blob %d\u0000", Integer.valueOf(data.remaining()))
+          .getBytes(StandardCharsets.US_ASCII));
+      md.update(data.duplicate());
+      return md.digest();
+    } catch (final NoSuchAlgorithmException e) {
+      throw new UnreachableCodeException(e);
+    }
+  }
+}
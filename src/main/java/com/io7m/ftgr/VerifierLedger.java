@@ -0,0 +1,211 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.junreachable.UnreachableCodeException;
+import org.apache.commons.collections4.BidiMap;
+import org.apache.commons.collections4.bidimap.DualHashBidiMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A ledger of commit pairs that have been verified successfully.
+ *
+ * The ledger consists of one entry {@code e} per line, where {@code e} has
+ * the form {@code version:v|checks:c|git:gc|fossil:fc}, {@code v} is the
+ * version of the verifiers that verified the pair, and {@code c} is a
+ * comma-separated list of the checks that were made ({@code content}, and
+ * {@code signature} if signatures were verified). Entries written by other
+ * versions are ignored, so that all pairs are verified again whenever the
+ * verifiers change. Entries that do not include signature checks are
+ * ignored when signatures are to be verified.
+ */
+
+public final class VerifierLedger
+{
+  /**
+   * The current version of the verifiers.
+   */
+
+  public static final int VERSION = 2;
+
+  /**
+   * The check recorded for pairs whose contents were verified.
+   */
+
+  public static final String CHECK_CONTENT =
+    VerifierCheck.CHECK_CONTENT.getName();
+
+  /**
+   * The check recorded for pairs whose signatures were verified.
+   */
+
+  public static final String CHECK_SIGNATURE =
+    VerifierCheck.CHECK_SIGNATURE.getName();
+
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(VerifierLedger.class);
+  }
+
+  private VerifierLedger()
+  {
+    throw new UnreachableCodeException();
+  }
+
+  /**
+   * Read the pairs recorded by the current version of the verifiers.
+   *
+   * @param s          The input stream
+   * @param signatures {@code true} iff only pairs whose signatures were
+   *                   verified should be read
+   *
+   * @return The verified pairs
+   *
+   * @throws IOException On I/O or parse errors
+   */
+
+  public static BidiMap<GitCommitName, FossilCommitName> fromStream(
+    final InputStream s,
+    final boolean signatures)
+    throws IOException
+  {
+    NullCheck.notNull(s);
+
+    final DualHashBidiMap<GitCommitName, FossilCommitName> rm =
+      new DualHashBidiMap<>();
+
+    int line_number = 1;
+    int ignored = 0;
+    try (final BufferedReader r = new BufferedReader(
+      new InputStreamReader(s))) {
+
+      while (true) {
+        final String line = r.readLine();
+        if (line == null) {
+          break;
+        }
+
+        if (VerifierLedger.parseLine(
+          rm, line_number, line, signatures) == false) {
+          ignored = ignored + 1;
+        }
+        line_number = line_number + 1;
+      }
+    }
+
+    if (ignored > 0) {
+      VerifierLedger.LOG.info(
+        "ignored {} ledger entries from other verifier versions or " +
+        "without signature checks",
+        Integer.valueOf(ignored));
+    }
+    return rm;
+  }
+
+  private static boolean parseLine(
+    final DualHashBidiMap<GitCommitName, FossilCommitName> rm,
+    final int line_number,
+    final String line,
+    final boolean signatures)
+    throws IOException
+  {
+    final String[] parts = NullCheck.notNull(line.split("\\|"));
+    if (parts.length < 1 || parts[0].startsWith("version:") == false) {
+      throw new IOException(
+        String.format(
+          "Parse error: %d: Entry must begin with 'version:v'",
+          Integer.valueOf(line_number)));
+    }
+
+    final int version;
+    try {
+      version = Integer.parseInt(parts[0].substring(8));
+    } catch (final NumberFormatException e) {
+      throw new IOException(
+        String.format(
+          "Parse error: %d: Version must be an integer",
+          Integer.valueOf(line_number)));
+    }
+
+    if (version != VerifierLedger.VERSION) {
+      return false;
+    }
+
+    if (parts.length != 4
+        || parts[1].startsWith("checks:") == false
+        || parts[2].startsWith("git:") == false
+        || parts[3].startsWith("fossil:") == false) {
+      throw new IOException(
+        String.format(
+          "Parse error: %d: Entry must be of the form " +
+          "'version:v|checks:c|git:gc|fossil:fc'",
+          Integer.valueOf(line_number)));
+    }
+
+    final List<String> checks =
+      Arrays.asList(parts[1].substring(7).split(","));
+    if (checks.contains(VerifierLedger.CHECK_CONTENT) == false) {
+      return false;
+    }
+    if (signatures
+        && checks.contains(VerifierLedger.CHECK_SIGNATURE) == false) {
+      return false;
+    }
+
+    rm.put(
+      new GitCommitName(NullCheck.notNull(parts[2].substring(4))),
+      new FossilCommitName(NullCheck.notNull(parts[3].substring(7))));
+    return true;
+  }
+
+  /**
+   * @param commits  The commit map
+   * @param verified The verified pairs
+   *
+   * @return The pairs in {@code commits} that do not appear in {@code
+   * verified}
+   */
+
+  public static BidiMap<GitCommitName, FossilCommitName> getUnverified(
+    final BidiMap<GitCommitName, FossilCommitName> commits,
+    final BidiMap<GitCommitName, FossilCommitName> verified)
+  {
+    NullCheck.notNull(commits);
+    NullCheck.notNull(verified);
+
+    final DualHashBidiMap<GitCommitName, FossilCommitName> rm =
+      new DualHashBidiMap<>();
+    for (final GitCommitName git_commit : commits.keySet()) {
+      final FossilCommitName fossil_commit =
+        NullCheck.notNull(commits.get(git_commit));
+      if (fossil_commit.equals(verified.get(git_commit)) == false) {
+        rm.put(git_commit, fossil_commit);
+      }
+    }
+    return rm;
+  }
+}
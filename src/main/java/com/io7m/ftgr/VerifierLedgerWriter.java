@@ -0,0 +1,159 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A receiver that records successful results in a verification ledger as
+ * they arrive. Failed results are not recorded, and will therefore be
+ * verified again by the next run.
+ *
+ * @see VerifierLedger
+ */
+
+public final class VerifierLedgerWriter
+  implements VerifierReceiverType, Closeable
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(VerifierLedgerWriter.class);
+  }
+
+  private final PrintWriter writer;
+  private final String      checks;
+
+  private VerifierLedgerWriter(
+    final PrintWriter in_writer,
+    final String in_checks)
+  {
+    this.writer = NullCheck.notNull(in_writer);
+    this.checks = NullCheck.notNull(in_checks);
+  }
+
+  /**
+   * @param ledger     The ledger file
+   * @param append     {@code true} iff results should be appended to the
+   *                   existing ledger
+   * @param signatures {@code true} iff the signatures of the commits whose
+   *                   results are received have been verified
+   *
+   * @return A new ledger writer
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static VerifierLedgerWriter newWriter(
+    final File ledger,
+    final boolean append,
+    final boolean signatures)
+    throws IOException
+  {
+    NullCheck.notNull(ledger);
+
+    final String checks;
+    if (signatures) {
+      checks = VerifierLedger.CHECK_CONTENT + "," +
+               VerifierLedger.CHECK_SIGNATURE;
+    } else {
+      checks = VerifierLedger.CHECK_CONTENT;
+    }
+
+    VerifierLedgerWriter.LOG.debug(
+      "writing ledger {} (append: {})", ledger, Boolean.valueOf(append));
+    return new VerifierLedgerWriter(
+      new PrintWriter(
+        new OutputStreamWriter(new FileOutputStream(ledger, append))),
+      checks);
+  }
+
+  /**
+   * Remove any partial entry left at the end of the ledger by a
+   * verification that was interrupted whilst writing it.
+   *
+   * @param ledger The ledger file
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static void recover(final File ledger)
+    throws IOException
+  {
+    NullCheck.notNull(ledger);
+
+    try (final FileChannel channel = FileChannel.open(
+      ledger.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      final long size = channel.size();
+      final ByteBuffer b = ByteBuffer.allocate(1);
+      long end = size;
+      while (end > 0L) {
+        b.clear();
+        channel.read(b, end - 1L);
+        if (b.get(0) == '\n') {
+          break;
+        }
+        end = end - 1L;
+      }
+
+      if (end != size) {
+        VerifierLedgerWriter.LOG.warn(
+          "{}: removing incomplete entry ({} bytes) at end of ledger",
+          ledger,
+          Long.valueOf(size - end));
+        channel.truncate(end);
+        channel.force(false);
+      }
+    }
+  }
+
+  @Override public synchronized void onResult(final VerifierResult r)
+    throws IOException
+  {
+    NullCheck.notNull(r);
+
+    if (r.isOk()) {
+      this.writer.printf(
+        "version:%d|checks:%s|git:%s|fossil:%s\n",
+        Integer.valueOf(VerifierLedger.VERSION),
+        this.checks,
+        r.getGitCommit(),
+        r.getFossilCommit());
+      this.writer.flush();
+      if (this.writer.checkError()) {
+        throw new IOException("Error writing to verification ledger");
+      }
+    }
+  }
+
+  @Override public synchronized void close()
+  {
+    this.writer.close();
+  }
+}
@@ -18,6 +18,10 @@ package com.io7m.ftgr;
 
 import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.joran.JoranConfigurator;
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
 import com.io7m.jproperties.JProperties;
 import com.io7m.jproperties.JPropertyException;
 import org.apache.commons.collections4.BidiMap;
@@ -28,7 +32,12 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public final class VerifierMain
 {
@@ -62,59 +71,296 @@ public final class VerifierMain
     final FTGRConfiguration config =
       FTGRConfiguration.fromProperties(JProperties.fromFile(new File(args[0])));
 
-    boolean ok = true;
+    final FossilRepositorySpecificationBuilderType frb =
+      FossilRepositorySpecification.newBuilder(config.getFossilRepository());
+    final FossilRepositorySpecificationType fossil_repos = frb.build();
 
-    try (final FileInputStream s = new FileInputStream(
-      config.getCommitMappingFile())) {
+    final GitExecutableType git = GitExecutable.newExecutable(
+      config.getGitExecutable(), config.getFaketimeExecutable());
 
-      final BidiMap<GitCommitName, FossilCommitName> in_commits =
-        FossilCommitMap.fromStream(s);
+    final FossilExecutableType fossil =
+      FossilExecutable.newExecutable(config.getFossilExecutable());
 
-      final File in_git_repos = config.getGitRepository();
-      final FossilRepositorySpecificationBuilderType frb =
-        FossilRepositorySpecification.newBuilder(
-          config.getFossilRepository());
-      final FossilRepositorySpecificationType in_fossil_repos = frb.build();
+    final boolean ok = VerifierMain.runVerification(
+      config, git, fossil, fossil_repos, config.getCommitMappingFile());
 
-      final GitExecutableType in_git = GitExecutable.newExecutable(
-        config.getGitExecutable(), config.getFaketimeExecutable());
+    if (ok == false) {
+      throw new IOException("One or more commits failed verification!");
+    }
+  }
+
+  /**
+   * Verify the commits listed in the given commit map, logging the result
+   * of each commit. Unless a full verification is requested, commits that
+   * the verification ledger records as verified are skipped. Successfully
+   * verified commits are added to the ledger.
+   *
+   * @param config       The configuration
+   * @param git          The Git executable
+   * @param fossil       The Fossil executable
+   * @param fossil_repos The Fossil repository
+   * @param map          The commit map
+   *
+   * @return {@code true} iff all commits were verified successfully
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static boolean runVerification(
+    final FTGRConfiguration config,
+    final GitExecutableType git,
+    final FossilExecutableType fossil,
+    final FossilRepositorySpecificationType fossil_repos,
+    final File map)
+    throws IOException
+  {
+    NullCheck.notNull(config);
+    NullCheck.notNull(git);
+    NullCheck.notNull(fossil);
+    NullCheck.notNull(fossil_repos);
+    NullCheck.notNull(map);
+
+    final BidiMap<GitCommitName, FossilCommitName> all_commits;
+    try (final FileInputStream s = new FileInputStream(map)) {
+      all_commits = FossilCommitMap.fromStream(s);
+    }
 
-      final FossilExecutableType in_fossil =
-        FossilExecutable.newExecutable(config.getFossilExecutable());
+    /**
+     * Unless a full verification was requested, pairs recorded in the
+     * ledger by earlier runs are not verified again. If signatures are to
+     * be verified, only pairs whose signatures were verified by earlier
+     * runs are skipped.
+     */
 
-      final File in_git_tmp =
-        Files.createTempDirectory("verifier-git-tmp-").toFile();
-      VerifierMain.LOG.info("using temporary git repository: {}", in_git_tmp);
+    final File ledger = config.getVerificationLedgerFile();
+    final boolean incremental =
+      config.wantFullVerification() == false && ledger.isFile();
 
-      final File in_fossil_tmp =
-        Files.createTempDirectory("verifier-fossil-tmp-").toFile();
+    final BidiMap<GitCommitName, FossilCommitName> in_commits;
+    if (incremental) {
+      VerifierLedgerWriter.recover(ledger);
+
+      final BidiMap<GitCommitName, FossilCommitName> verified;
+      try (final FileInputStream s = new FileInputStream(ledger)) {
+        verified = VerifierLedger.fromStream(
+          s, config.wantSignatureVerification());
+      }
+      in_commits = VerifierLedger.getUnverified(all_commits, verified);
       VerifierMain.LOG.info(
-        "using temporary fossil repository: {}",
-        in_fossil_tmp);
+        "ledger {}: {} of {} commits need verification",
+        ledger,
+        Integer.valueOf(in_commits.size()),
+        Integer.valueOf(all_commits.size()));
+    } else {
+      in_commits = all_commits;
+    }
 
-      final VerifierType v = Verifier.newVerifier(
+    /**
+     * In sampling mode, only heads, tags, merges, and a random sample of the
+     * remaining commits are verified.
+     */
+
+    final VerifierSample sample;
+    final BidiMap<GitCommitName, FossilCommitName> selected;
+    if (config.wantSampledVerification()) {
+      final File git_repos = config.getGitRepository();
+      final List<GitCommitName> required =
+        new ArrayList<>(git.listRefCommits(git_repos));
+      required.addAll(git.listMergeCommits(git_repos));
+
+      sample = VerifierSample.newSample(
         in_commits,
-        in_git_repos,
-        in_fossil_repos,
-        in_git,
-        in_fossil,
-        in_git_tmp,
-        in_fossil_tmp);
-
-      final List<VerifierResult> results = v.verify();
-      for (int index = 0; index < results.size(); ++index) {
-        final VerifierResult r = results.get(index);
-        ok = r.isOk() && ok;
+        required,
+        config.getVerifySampleRatio(),
+        config.getVerifySampleConfidence(),
+        config.getVerifySampleTolerance(),
+        (long) config.getVerifySampleSeed());
+      selected = sample.getCommits();
+      VerifierMain.LOG.info(
+        "sampling: verifying {} of {} commits",
+        Integer.valueOf(selected.size()),
+        Integer.valueOf(in_commits.size()));
+    } else {
+      sample = null;
+      selected = in_commits;
+    }
+
+    if (selected.isEmpty()) {
+      return true;
+    }
+
+    /**
+     * The Git object database is opened only for the verifiers that read
+     * Git objects directly, and is shared by all of their threads.
+     */
+
+    final AtomicBoolean ok = new AtomicBoolean(true);
+    GitObjectDatabaseType git_objects = null;
+    try {
+      final VerifierType v;
+      if (config.wantTreeVerification()) {
+        VerifierMain.LOG.info("verifying by comparing tree IDs");
+        git_objects = GitObjectDatabase.openDatabase(config.getGitRepository());
+        v = VerifierTrees.newVerifier(
+          selected,
+          config.getGitRepository(),
+          git,
+          git_objects,
+          VerifierMain.openDatabase(config),
+          config.getVerifyThreads());
+      } else if (config.wantCheckoutFreeVerification()) {
+        VerifierMain.LOG.info("verifying without checking out commits");
+        git_objects = GitObjectDatabase.openDatabase(config.getGitRepository());
+        v = VerifierHashes.newVerifier(
+          selected,
+          git_objects,
+          VerifierMain.openDatabase(config),
+          config.getVerifyThreads());
+      } else {
+        final File in_git_tmp =
+          Files.createTempDirectory("verifier-git-tmp-").toFile();
         VerifierMain.LOG.info(
-          "commit git:{}: (ok: {}) {}",
-          r.getGitCommit(),
-          Boolean.toString(r.isOk()),
-          r.getMessage());
+          "using temporary git repository: {}", in_git_tmp);
+
+        final File in_fossil_tmp =
+          Files.createTempDirectory("verifier-fossil-tmp-").toFile();
+        VerifierMain.LOG.info(
+          "using temporary fossil repository: {}", in_fossil_tmp);
+
+        v = Verifier.newVerifier(
+          selected,
+          config.getGitRepository(),
+          fossil_repos,
+          git,
+          fossil,
+          in_git_tmp,
+          in_fossil_tmp,
+          config.getVerifyThreads());
+      }
+
+      final VerifierType vs;
+      if (sample != null) {
+        final double confidence;
+        if (config.getVerifySampleConfidence() > 0.0) {
+          confidence = config.getVerifySampleConfidence();
+        } else {
+          confidence = 0.95;
+        }
+        vs = VerifierSampling.newVerifier(v, sample, confidence);
+      } else {
+        vs = v;
+      }
+
+      /**
+       * Results are logged, recorded in the ledger, and written to the
+       * report (if any) as they arrive.
+       */
+
+      try (final VerifierLedgerWriter ledger_writer =
+             VerifierLedgerWriter.newWriter(
+               ledger, incremental, config.wantSignatureVerification())) {
+        try (final VerifierReport report = VerifierMain.openReport(config)) {
+
+          /**
+           * Signatures are checked first, so that commits with bad
+           * signatures can be kept out of the ledger even if their contents
+           * are correct.
+           */
+
+          final Set<GitCommitName> bad_signatures =
+            Collections.newSetFromMap(
+              new ConcurrentHashMap<GitCommitName, Boolean>(16));
+
+          if (config.wantSignatureVerification()) {
+            final GPGExecutableType gpg =
+              GPGExecutable.newExecutable(config.getGPGExecutable());
+            final VerifierType sv = VerifierSignatures.newVerifier(
+              selected,
+              config.getGitRepository(),
+              git,
+              VerifierMain.openDatabase(config),
+              VerifierSignatures.parseKeyring(gpg.exportPublicKeys()),
+              config.getKeyMap(),
+              Runtime.getRuntime().availableProcessors());
+
+            sv.verify(
+              new VerifierReceiverType()
+              {
+                @Override public void onResult(final VerifierResult r)
+                  throws IOException
+                {
+                  if (r.isOk() == false) {
+                    ok.set(false);
+                    bad_signatures.add(r.getGitCommit());
+                  }
+                  VerifierMain.logResult(r);
+                  if (report != null) {
+                    report.onResult(r);
+                  }
+                }
+              });
+          }
+
+          vs.verify(
+            new VerifierReceiverType()
+            {
+              @Override public void onResult(final VerifierResult r)
+                throws IOException
+              {
+                if (r.isOk() == false) {
+                  ok.set(false);
+                }
+                VerifierMain.logResult(r);
+                if (bad_signatures.contains(r.getGitCommit()) == false) {
+                  ledger_writer.onResult(r);
+                }
+                if (report != null) {
+                  report.onResult(r);
+                }
+              }
+            });
+        }
+      }
+    } finally {
+      if (git_objects != null) {
+        git_objects.close();
       }
     }
 
-    if (ok == false) {
-      throw new IOException("One or more commits failed verification!");
+    return ok.get();
+  }
+
+  private static @Nullable VerifierReport openReport(
+    final FTGRConfiguration config)
+    throws IOException
+  {
+    final OptionType<File> report_opt = config.getVerificationReportFile();
+    if (report_opt.isSome()) {
+      return VerifierReport.newReport(((Some<File>) report_opt).get());
+    }
+    return null;
+  }
+
+  private static void logResult(final VerifierResult r)
+  {
+    VerifierMain.LOG.info(
+      "commit git:{}: (ok: {}) {}",
+      r.getGitCommit(),
+      Boolean.toString(r.isOk()),
+      r.getMessage());
+  }
+
+  private static FossilDatabaseType openDatabase(
+    final FTGRConfiguration config)
+    throws IOException
+  {
+    try {
+      return FossilDatabase.openDatabase(
+        config.getFossilRepository(),
+        config.getFossilExecutable(),
+        config.getFetchSize());
+    } catch (final FossilDatabaseException e) {
+      throw new IOException(e);
     }
   }
 }
@@ -0,0 +1,173 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A receiver that writes each result to a report as a single line of JSON,
+ * flushing the report after each line so that it can be followed while
+ * verification is running.
+ */
+
+public final class VerifierReport implements VerifierReceiverType, Closeable
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(VerifierReport.class);
+  }
+
+  private final Writer        writer;
+  private final StringBuilder line;
+
+  private VerifierReport(final Writer in_writer)
+  {
+    this.writer = NullCheck.notNull(in_writer);
+    this.line = new StringBuilder(256);
+  }
+
+  /**
+   * @param file The report file, which will be replaced if it exists
+   *
+   * @return A new report
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static VerifierReport newReport(final File file)
+    throws IOException
+  {
+    NullCheck.notNull(file);
+
+    VerifierReport.LOG.info("writing verification report {}", file);
+    return new VerifierReport(
+      new BufferedWriter(
+        new OutputStreamWriter(
+          new FileOutputStream(file), StandardCharsets.UTF_8)));
+  }
+
+  @Override public synchronized void onResult(final VerifierResult r)
+    throws IOException
+  {
+    NullCheck.notNull(r);
+
+    final StringBuilder sb = this.line;
+    sb.setLength(0);
+    sb.append("{\"git\":");
+    VerifierReport.appendString(sb, r.getGitCommit().toString());
+    sb.append(",\"fossil\":");
+    VerifierReport.appendString(sb, r.getFossilCommit().toString());
+    sb.append(",\"check\":");
+    VerifierReport.appendString(sb, r.getCheck().getName());
+    sb.append(",\"ok\":");
+    sb.append(r.isOk());
+    sb.append(",\"message\":");
+    VerifierReport.appendString(sb, r.getMessage());
+    sb.append(",\"time_ms\":");
+    sb.append(
+      String.format(
+        Locale.ROOT, "%.3f", Double.valueOf((double) r.getDuration() / 1.0e6)));
+    sb.append(",\"files\":");
+    sb.append(r.getFileCount());
+    sb.append(",\"missing\":");
+    VerifierReport.appendPaths(sb, r.getMissingFiles());
+    sb.append(",\"extra\":");
+    VerifierReport.appendPaths(sb, r.getExtraFiles());
+    sb.append(",\"changed\":");
+    VerifierReport.appendPaths(sb, r.getChangedFiles());
+    sb.append("}\n");
+
+    this.writer.write(sb.toString());
+    this.writer.flush();
+  }
+
+  private static void appendPaths(
+    final StringBuilder sb,
+    final List<Path> paths)
+  {
+    sb.append('[');
+    for (int index = 0; index < paths.size(); ++index) {
+      if (index > 0) {
+        sb.append(',');
+      }
+      VerifierReport.appendString(sb, paths.get(index).toString());
+    }
+    sb.append(']');
+  }
+
+  private static void appendString(
+    final StringBuilder sb,
+    final String s)
+  {
+    sb.append('"');
+    for (int index = 0; index < s.length(); ++index) {
+      final char c = s.charAt(index);
+      switch (c) {
+        case '"': {
+          sb.append("\\\"");
+          break;
+        }
+        case '\\': {
+          sb.append("\\\\");
+          break;
+        }
+        case '\n': {
+          sb.append("\\n");
+          break;
+        }
+        case '\r': {
+          sb.append("\\r");
+          break;
+        }
+        case '\t': {
+          sb.append("\\t");
+          break;
+        }
+        default: {
+          if (c < 0x20) {
+            sb.append(
+              String.format(Locale.ROOT, "\\u%04x", Integer.valueOf(c)));
+          } else {
+            sb.append(c);
+          }
+        }
+      }
+    }
+    sb.append('"');
+  }
+
+  @Override public synchronized void close()
+    throws IOException
+  {
+    this.writer.close();
+  }
+}
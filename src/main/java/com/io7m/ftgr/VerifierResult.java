@@ -18,23 +18,44 @@ package com.io7m.ftgr;
 
 import com.io7m.jnull.NullCheck;
 
+import java.nio.file.Path;
+import java.util.List;
+
 public final class VerifierResult
 {
   private final FossilCommitName fossil_commit;
   private final GitCommitName    git_commit;
+  private final VerifierCheck    check;
   private final String           message;
   private final boolean          ok;
+  private final int              files;
+  private final List<Path>       missing;
+  private final List<Path>       extra;
+  private final List<Path>       changed;
+  private final long             duration;
 
   public VerifierResult(
     final FossilCommitName in_fossil_commit,
     final GitCommitName in_git_commit,
+    final VerifierCheck in_check,
     final String in_message,
-    final boolean in_ok)
+    final boolean in_ok,
+    final int in_files,
+    final List<Path> in_missing,
+    final List<Path> in_extra,
+    final List<Path> in_changed,
+    final long in_duration)
   {
     this.fossil_commit = NullCheck.notNull(in_fossil_commit);
     this.git_commit = NullCheck.notNull(in_git_commit);
+    this.check = NullCheck.notNull(in_check);
     this.message = NullCheck.notNull(in_message);
     this.ok = in_ok;
+    this.files = in_files;
+    this.missing = NullCheck.notNull(in_missing);
+    this.extra = NullCheck.notNull(in_extra);
+    this.changed = NullCheck.notNull(in_changed);
+    this.duration = in_duration;
   }
 
   public FossilCommitName getFossilCommit()
@@ -47,6 +68,15 @@ public final class VerifierResult
     return this.git_commit;
   }
 
+  /**
+   * @return The kind of check that produced the result
+   */
+
+  public VerifierCheck getCheck()
+  {
+    return this.check;
+  }
+
   public String getMessage()
   {
     return this.message;
@@ -56,4 +86,49 @@ public final class VerifierResult
   {
     return this.ok;
   }
+
+  /**
+   * @return The number of files in the Fossil commit
+   */
+
+  public int getFileCount()
+  {
+    return this.files;
+  }
+
+  /**
+   * @return The files present in the Fossil commit but not the Git commit
+   */
+
+  public List<Path> getMissingFiles()
+  {
+    return this.missing;
+  }
+
+  /**
+   * @return The files present in the Git commit but not the Fossil commit
+   */
+
+  public List<Path> getExtraFiles()
+  {
+    return this.extra;
+  }
+
+  /**
+   * @return The files whose contents differ between the commits
+   */
+
+  public List<Path> getChangedFiles()
+  {
+    return this.changed;
+  }
+
+  /**
+   * @return The time taken to verify the commit, in nanoseconds
+   */
+
+  public long getDuration()
+  {
+    return this.duration;
+  }
 }
@@ -0,0 +1,256 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+import org.apache.commons.collections4.BidiMap;
+import org.apache.commons.collections4.bidimap.DualHashBidiMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * A selection of commits to verify: every required commit (branch heads,
+ * tagged commits and merges), plus a seeded uniform random sample of the
+ * remaining commits. Only the random part of the selection is used to
+ * estimate the mismatch rate of the whole repository.
+ */
+
+public final class VerifierSample
+{
+  private final BidiMap<GitCommitName, FossilCommitName> commits;
+  private final Set<GitCommitName>                       random;
+  private final int                                      population;
+
+  private VerifierSample(
+    final BidiMap<GitCommitName, FossilCommitName> in_commits,
+    final Set<GitCommitName> in_random,
+    final int in_population)
+  {
+    this.commits = NullCheck.notNull(in_commits);
+    this.random = NullCheck.notNull(in_random);
+    this.population = in_population;
+  }
+
+  /**
+   * Select commits.
+   *
+   * @param commits    All commits
+   * @param required   The commits that must be selected (commits that do
+   *                   not appear in {@code commits} are ignored)
+   * @param ratio      The fraction of other commits to select at random
+   * @param confidence If greater than {@code 0}, select enough other
+   *                   commits to bound the mismatch rate by {@code
+   *                   tolerance} at this confidence level instead of using
+   *                   {@code ratio}
+   * @param tolerance  The mismatch rate used with {@code confidence}
+   * @param seed       The random seed
+   *
+   * @return A new sample
+   */
+
+  public static VerifierSample newSample(
+    final BidiMap<GitCommitName, FossilCommitName> commits,
+    final Collection<GitCommitName> required,
+    final double ratio,
+    final double confidence,
+    final double tolerance,
+    final long seed)
+  {
+    NullCheck.notNull(commits);
+    NullCheck.notNull(required);
+
+    final DualHashBidiMap<GitCommitName, FossilCommitName> selected =
+      new DualHashBidiMap<>();
+    for (final GitCommitName c : required) {
+      final FossilCommitName f = commits.get(c);
+      if (f != null) {
+        selected.put(c, f);
+      }
+    }
+
+    /**
+     * The remaining commits are sorted before shuffling so that the same
+     * seed always selects the same commits.
+     */
+
+    final List<GitCommitName> others = new ArrayList<>(commits.size());
+    for (final GitCommitName c : commits.keySet()) {
+      if (selected.containsKey(c) == false) {
+        others.add(c);
+      }
+    }
+    Collections.sort(
+      others, new Comparator<GitCommitName>()
+      {
+        @Override public int compare(
+          final GitCommitName o1,
+          final GitCommitName o2)
+        {
+          return o1.toString().compareTo(o2.toString());
+        }
+      });
+    Collections.shuffle(others, new Random(seed));
+
+    final int size;
+    if (confidence > 0.0) {
+      size = VerifierSample.sizeForConfidence(
+        others.size(), confidence, tolerance);
+    } else {
+      size = VerifierSample.sizeForRatio(others.size(), ratio);
+    }
+
+    final int count = Math.max(0, Math.min(size, others.size()));
+    final Set<GitCommitName> random = new HashSet<>(count);
+    for (int index = 0; index < count; ++index) {
+      final GitCommitName c = NullCheck.notNull(others.get(index));
+      random.add(c);
+      selected.put(c, NullCheck.notNull(commits.get(c)));
+    }
+
+    return new VerifierSample(selected, random, others.size());
+  }
+
+  /**
+   * @param population The number of commits that may be selected at random
+   * @param ratio      The fraction of commits to select
+   *
+   * @return The number of commits to select at random
+   */
+
+  public static int sizeForRatio(
+    final int population,
+    final double ratio)
+  {
+    return (int) Math.min(
+      (long) population, (long) Math.ceil((double) population * ratio));
+  }
+
+  /**
+   * Calculate the number of commits that must be verified successfully in
+   * order to be able to claim, with the given confidence, that the true
+   * mismatch rate is below {@code tolerance}. This is the smallest {@code n}
+   * such that {@code (1 - tolerance)^n <= 1 - confidence}.
+   *
+   * @param population The number of commits that may be selected at random
+   * @param confidence The confidence level, in {@code (0, 1)}
+   * @param tolerance  The mismatch rate, in {@code (0, 1)}
+   *
+   * @return The number of commits to select at random
+   */
+
+  public static int sizeForConfidence(
+    final int population,
+    final double confidence,
+    final double tolerance)
+  {
+    final double n = Math.log(1.0 - confidence) / Math.log(1.0 - tolerance);
+    return (int) Math.min((long) population, (long) Math.ceil(n));
+  }
+
+  /**
+   * Calculate the upper bound of the one-sided Wilson score interval for a
+   * proportion.
+   *
+   * @param failures   The number of failures observed
+   * @param trials     The number of trials
+   * @param confidence The confidence level, in {@code (0, 1)}
+   *
+   * @return The upper bound on the true failure rate
+   */
+
+  public static double wilsonUpperBound(
+    final int failures,
+    final int trials,
+    final double confidence)
+  {
+    if (trials == 0) {
+      return 1.0;
+    }
+
+    final double z = VerifierSample.normalQuantile(confidence);
+    final double n = (double) trials;
+    final double p = (double) failures / n;
+    final double z2 = z * z;
+    final double centre = p + z2 / (2.0 * n);
+    final double spread =
+      z * Math.sqrt(p * (1.0 - p) / n + z2 / (4.0 * n * n));
+    return Math.min(1.0, (centre + spread) / (1.0 + z2 / n));
+  }
+
+  /**
+   * Approximate the quantile function of the standard normal distribution
+   * (Abramowitz and Stegun 26.2.23, absolute error below 4.5e-4).
+   */
+
+  private static double normalQuantile(final double q)
+  {
+    if (q < 0.5) {
+      return -VerifierSample.normalQuantile(1.0 - q);
+    }
+
+    final double t = Math.sqrt(-2.0 * Math.log(1.0 - q));
+    final double num = 2.515517 + 0.802853 * t + 0.010328 * t * t;
+    final double den =
+      1.0 + 1.432788 * t + 0.189269 * t * t + 0.001308 * t * t * t;
+    return t - num / den;
+  }
+
+  /**
+   * @return All selected commits
+   */
+
+  public BidiMap<GitCommitName, FossilCommitName> getCommits()
+  {
+    return this.commits;
+  }
+
+  /**
+   * @param c A commit
+   *
+   * @return {@code true} iff {@code c} was selected at random
+   */
+
+  public boolean isRandom(final GitCommitName c)
+  {
+    return this.random.contains(NullCheck.notNull(c));
+  }
+
+  /**
+   * @return The number of commits selected at random
+   */
+
+  public int getRandomSize()
+  {
+    return this.random.size();
+  }
+
+  /**
+   * @return The number of commits that could have been selected at random
+   */
+
+  public int getPopulation()
+  {
+    return this.population;
+  }
+}
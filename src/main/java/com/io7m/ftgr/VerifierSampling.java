@@ -0,0 +1,142 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A verifier that verifies a sample of commits using another verifier, and
+ * reports the mismatch rate observed in the random part of the sample along
+ * with an upper bound on the mismatch rate of the whole repository.
+ */
+
+public final class VerifierSampling implements VerifierType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(VerifierSampling.class);
+  }
+
+  private final VerifierType   delegate;
+  private final VerifierSample sample;
+  private final double         confidence;
+
+  private VerifierSampling(
+    final VerifierType in_delegate,
+    final VerifierSample in_sample,
+    final double in_confidence)
+  {
+    this.delegate = NullCheck.notNull(in_delegate);
+    this.sample = NullCheck.notNull(in_sample);
+    this.confidence = in_confidence;
+  }
+
+  /**
+   * @param in_delegate   A verifier for the commits in {@code in_sample}
+   * @param in_sample     The sample
+   * @param in_confidence The confidence level of the reported bound
+   *
+   * @return A new verifier
+   */
+
+  public static VerifierType newVerifier(
+    final VerifierType in_delegate,
+    final VerifierSample in_sample,
+    final double in_confidence)
+  {
+    return new VerifierSampling(in_delegate, in_sample, in_confidence);
+  }
+
+  @Override public void verify(final VerifierReceiverType receiver)
+    throws IOException
+  {
+    NullCheck.notNull(receiver);
+
+    final AtomicInteger random_count = new AtomicInteger(0);
+    final AtomicInteger random_failed = new AtomicInteger(0);
+    final AtomicInteger required_count = new AtomicInteger(0);
+    final AtomicInteger required_failed = new AtomicInteger(0);
+
+    this.delegate.verify(
+      new VerifierReceiverType()
+      {
+        @Override public void onResult(final VerifierResult r)
+          throws IOException
+        {
+          if (VerifierSampling.this.sample.isRandom(r.getGitCommit())) {
+            random_count.incrementAndGet();
+            if (r.isOk() == false) {
+              random_failed.incrementAndGet();
+            }
+          } else {
+            required_count.incrementAndGet();
+            if (r.isOk() == false) {
+              required_failed.incrementAndGet();
+            }
+          }
+          receiver.onResult(r);
+        }
+      });
+
+    this.report(
+      random_count.get(),
+      random_failed.get(),
+      required_count.get(),
+      required_failed.get());
+  }
+
+  private void report(
+    final int random_count,
+    final int random_failed,
+    final int required_count,
+    final int required_failed)
+  {
+    VerifierSampling.LOG.info(
+      "verified {} heads, tags, and merges: {} mismatches",
+      Integer.valueOf(required_count),
+      Integer.valueOf(required_failed));
+
+    final double rate;
+    if (random_count > 0) {
+      rate = (double) random_failed / (double) random_count;
+    } else {
+      rate = 0.0;
+    }
+
+    final double bound = VerifierSample.wilsonUpperBound(
+      random_failed, random_count, this.confidence);
+
+    VerifierSampling.LOG.info(
+      "verified {} of {} other commits at random: {} mismatches",
+      Integer.valueOf(random_count),
+      Integer.valueOf(this.sample.getPopulation()),
+      Integer.valueOf(random_failed));
+    VerifierSampling.LOG.info(
+      "{}",
+      String.format(
+        "mismatch rate %.4f%%, upper bound %.4f%% at %.1f%% confidence",
+        Double.valueOf(rate * 100.0),
+        Double.valueOf(bound * 100.0),
+        Double.valueOf(this.confidence * 100.0)));
+  }
+}
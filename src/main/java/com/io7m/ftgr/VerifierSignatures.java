@@ -0,0 +1,603 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jfunctional.OptionType;
+import com.io7m.jfunctional.Some;
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import org.apache.commons.collections4.BidiMap;
+import org.bouncycastle.bcpg.ArmoredInputStream;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPPublicKeyRing;
+import org.bouncycastle.openpgp.PGPPublicKeyRingCollection;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.openpgp.PGPSignatureList;
+import org.bouncycastle.openpgp.PGPUtil;
+import org.bouncycastle.openpgp.jcajce.JcaPGPObjectFactory;
+import org.bouncycastle.openpgp.operator.bc.BcPGPContentVerifierBuilderProvider;
+import org.bouncycastle.openpgp.operator.jcajce.JcaKeyFingerprintCalculator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A verifier that checks the signatures of Git commits and tags.
+ *
+ * Every commit whose Fossil manifest is signed must carry a valid {@code
+ * gpgsig} signature made by the (mapped) key that signed the manifest, at
+ * the time recorded as the committer time of the Git commit, and every
+ * other commit must be unsigned. The signature time is compared against the
+ * time recorded in the Git object rather than the time of the Fossil
+ * commit, because both are derived from the same zone-less date given to
+ * Git and faketime, which interpret it in the local time zone.
+ * Annotated tags are held to the same requirements as the commits that they
+ * tag. Objects are read from a single {@code git cat-file} process, and
+ * signatures are checked in-process on a pool of threads.
+ */
+
+public final class VerifierSignatures implements VerifierType
+{
+  /**
+   * The number of seconds by which a signature may postdate the object: The
+   * clock provided by faketime continues to run whilst Git and GPG execute.
+   */
+
+  static final long TIME_SLACK = 1L;
+
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(VerifierSignatures.class);
+  }
+
+  private final BidiMap<GitCommitName, FossilCommitName> commits;
+  private final File                                     git_repos;
+  private final GitExecutableType                        git;
+  private final FossilDatabaseType                       database;
+  private final PGPPublicKeyRingCollection               keys;
+  private final Map<BigInteger, BigInteger>              key_map;
+  private final int                                      threads;
+
+  private VerifierSignatures(
+    final BidiMap<GitCommitName, FossilCommitName> in_commits,
+    final File in_git_repos,
+    final GitExecutableType in_git,
+    final FossilDatabaseType in_database,
+    final PGPPublicKeyRingCollection in_keys,
+    final Map<BigInteger, BigInteger> in_key_map,
+    final int in_threads)
+  {
+    if (in_threads < 1) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Thread count must be >= 1 (got %d)", Integer.valueOf(in_threads)));
+    }
+
+    this.commits = NullCheck.notNull(in_commits);
+    this.git_repos = NullCheck.notNull(in_git_repos);
+    this.git = NullCheck.notNull(in_git);
+    this.database = NullCheck.notNull(in_database);
+    this.keys = NullCheck.notNull(in_keys);
+    this.key_map = NullCheck.notNull(in_key_map);
+    this.threads = in_threads;
+  }
+
+  /**
+   * Create a new verifier.
+   *
+   * @param in_commits   The commits to verify
+   * @param in_git_repos The Git repository
+   * @param in_git       The Git executable
+   * @param in_database  The Fossil database
+   * @param in_keys      The public keys
+   * @param in_key_map   The mapping from Fossil signing keys to Git signing
+   *                     keys
+   * @param in_threads   The number of threads used to check signatures
+   *
+   * @return A new verifier
+   */
+
+  public static VerifierType newVerifier(
+    final BidiMap<GitCommitName, FossilCommitName> in_commits,
+    final File in_git_repos,
+    final GitExecutableType in_git,
+    final FossilDatabaseType in_database,
+    final PGPPublicKeyRingCollection in_keys,
+    final Map<BigInteger, BigInteger> in_key_map,
+    final int in_threads)
+  {
+    return new VerifierSignatures(
+      in_commits,
+      in_git_repos,
+      in_git,
+      in_database,
+      in_keys,
+      in_key_map,
+      in_threads);
+  }
+
+  /**
+   * Parse a keyring as produced by {@code gpg --export}.
+   *
+   * @param data The keyring, in binary or ASCII-armoured format
+   *
+   * @return The public keys
+   *
+   * @throws IOException On parse errors
+   */
+
+  public static PGPPublicKeyRingCollection parseKeyring(final byte[] data)
+    throws IOException
+  {
+    NullCheck.notNull(data);
+
+    try (final InputStream in = PGPUtil.getDecoderStream(
+      new ByteArrayInputStream(data))) {
+      return new PGPPublicKeyRingCollection(
+        in, new JcaKeyFingerprintCalculator());
+    } catch (final PGPException e) {
+      throw new IOException(e);
+    }
+  }
+
+  @Override public void verify(final VerifierReceiverType receiver)
+    throws IOException
+  {
+    NullCheck.notNull(receiver);
+
+    final List<String> objects = new ArrayList<>(this.commits.size() + 64);
+    for (final GitCommitName c : this.commits.keySet()) {
+      objects.add(c.toString());
+    }
+    objects.addAll(this.git.listTagObjects(this.git_repos));
+
+    VerifierSignatures.LOG.debug(
+      "checking signatures of {} objects with {} threads",
+      Integer.valueOf(objects.size()),
+      Integer.valueOf(this.threads));
+
+    /**
+     * Objects and Fossil manifests are read on this thread, and handed to
+     * the pool. The number of objects waiting to be checked is bounded.
+     */
+
+    final ExecutorService exec = Executors.newFixedThreadPool(this.threads);
+    final Semaphore in_flight = new Semaphore(this.threads * 16);
+    final List<Future<Void>> futures =
+      Collections.synchronizedList(new ArrayList<Future<Void>>(1024));
+
+    try (final FossilDatabaseTransactionType t =
+           this.database.newTransaction()) {
+      this.git.readObjects(
+        this.git_repos, objects, new GitObjectReceiverType()
+        {
+          @Override public void onObject(
+            final String name,
+            final String type,
+            final byte[] data)
+            throws IOException
+          {
+            final GitCommitName git_commit;
+            if ("commit".equals(type)) {
+              git_commit = new GitCommitName(name);
+            } else if ("tag".equals(type)) {
+              git_commit = VerifierSignatures.getTaggedObject(name, data);
+            } else {
+              throw new IOException(
+                String.format("Unexpected %s object %s", type, name));
+            }
+
+            final FossilCommitName fossil_commit =
+              VerifierSignatures.this.commits.get(git_commit);
+            if (fossil_commit == null) {
+              VerifierSignatures.LOG.debug(
+                "{} {}: not in the commit map, skipping", type, name);
+              return;
+            }
+
+            final ByteBuffer manifest;
+            try {
+              manifest = t.getArtifact(fossil_commit.toString());
+            } catch (final FossilDatabaseException e) {
+              throw new IOException(e);
+            }
+
+            try {
+              in_flight.acquire();
+            } catch (final InterruptedException e) {
+              Thread.currentThread().interrupt();
+              throw new IOException(e);
+            }
+
+            futures.add(
+              exec.submit(
+                new Callable<Void>()
+                {
+                  @Override public Void call()
+                    throws IOException
+                  {
+                    try {
+                      receiver.onResult(
+                        VerifierSignatures.this.check(
+                          git_commit,
+                          fossil_commit,
+                          type,
+                          data,
+                          manifest));
+                      return null;
+                    } finally {
+                      in_flight.release();
+                    }
+                  }
+                }));
+          }
+        });
+
+      VerifierSignatures.waitFor(futures);
+    } catch (final FossilDatabaseException e) {
+      throw new IOException(e);
+    } finally {
+      exec.shutdownNow();
+    }
+  }
+
+  private static void waitFor(final List<Future<Void>> futures)
+    throws IOException
+  {
+    for (int index = 0; index < futures.size(); ++index) {
+      try {
+        futures.get(index).get();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      } catch (final ExecutionException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        }
+        throw new IOException(cause);
+      }
+    }
+  }
+
+  private static GitCommitName getTaggedObject(
+    final String name,
+    final byte[] data)
+    throws IOException
+  {
+    final String text = new String(data, StandardCharsets.UTF_8);
+    if (text.startsWith("object ") && text.length() >= 47) {
+      return new GitCommitName(NullCheck.notNull(text.substring(7, 47)));
+    }
+    throw new IOException(
+      String.format("Tag %s does not name an object", name));
+  }
+
+  private VerifierResult check(
+    final GitCommitName git_commit,
+    final FossilCommitName fossil_commit,
+    final String type,
+    final byte[] data,
+    final ByteBuffer manifest)
+    throws IOException
+  {
+    final long time_start = System.nanoTime();
+
+    final OptionType<BigInteger> key_opt =
+      FossilManifest.getSignatureKey(fossil_commit, manifest);
+
+    final SignedObject signed;
+    final Long time;
+    if ("commit".equals(type)) {
+      signed = VerifierSignatures.splitCommit(data);
+      time = VerifierSignatures.getObjectTime(data, "committer ");
+    } else {
+      signed = VerifierSignatures.splitTag(data);
+      time = VerifierSignatures.getObjectTime(data, "tagger ");
+    }
+
+    final String message;
+    if (key_opt.isSome()) {
+      final BigInteger fossil_key = ((Some<BigInteger>) key_opt).get();
+      BigInteger expected = this.key_map.get(fossil_key);
+      if (expected == null) {
+        expected = fossil_key;
+      }
+      message = this.checkSignature(signed, expected, time);
+    } else if (signed != null) {
+      message = "Fossil commit is unsigned, but the Git object is signed";
+    } else {
+      message = null;
+    }
+
+    final boolean ok = message == null;
+    final List<Path> none = Collections.emptyList();
+    return new VerifierResult(
+      fossil_commit,
+      git_commit,
+      VerifierCheck.CHECK_SIGNATURE,
+      String.format("%s signature: %s", type, ok ? "OK" : message),
+      ok,
+      0,
+      none,
+      none,
+      none,
+      System.nanoTime() - time_start);
+  }
+
+  /**
+   * @return A description of the problem with the signature, or {@code
+   * null} if the signature is acceptable
+   */
+
+  private @Nullable String checkSignature(
+    final @Nullable SignedObject signed,
+    final BigInteger expected,
+    final @Nullable Long time)
+  {
+    if (signed == null) {
+      return String.format(
+        "Expected a signature by %016x, but the Git object is unsigned",
+        expected);
+    }
+
+    try {
+      final PGPSignature sig =
+        VerifierSignatures.parseSignature(signed.signature);
+      if (sig == null) {
+        return "Unparseable signature";
+      }
+
+      final long key_id = sig.getKeyID();
+      final PGPPublicKeyRing ring = this.keys.getPublicKeyRing(key_id);
+      if (ring == null) {
+        return String.format(
+          "Signed by unknown key %016x", Long.valueOf(key_id));
+      }
+      if (ring.getPublicKey(expected.longValue()) == null) {
+        return String.format(
+          "Signed by key %016x, expected %016x",
+          Long.valueOf(key_id),
+          expected);
+      }
+
+      final PGPPublicKey pk = NullCheck.notNull(ring.getPublicKey(key_id));
+      sig.init(new BcPGPContentVerifierBuilderProvider(), pk);
+      sig.update(signed.payload);
+      if (sig.verify() == false) {
+        return "Signature does not match the signed content";
+      }
+
+      if (time == null) {
+        return "The Git object does not record a time";
+      }
+
+      final long sig_seconds = sig.getCreationTime().getTime() / 1000L;
+      final long expected_seconds = time.longValue();
+      final long delta = sig_seconds - expected_seconds;
+      if (delta < 0L || delta > VerifierSignatures.TIME_SLACK) {
+        return String.format(
+          "Signature was made at %d, expected %d",
+          Long.valueOf(sig_seconds),
+          Long.valueOf(expected_seconds));
+      }
+      return null;
+    } catch (final PGPException | IOException e) {
+      return String.format("Could not check signature: %s", e.getMessage());
+    }
+  }
+
+  private static @Nullable PGPSignature parseSignature(final byte[] armoured)
+    throws IOException
+  {
+    try (final ArmoredInputStream ais = new ArmoredInputStream(
+      new ByteArrayInputStream(armoured))) {
+      final JcaPGPObjectFactory fact = new JcaPGPObjectFactory(ais);
+      final Iterator<Object> iter = fact.iterator();
+      if (iter.hasNext()) {
+        final Object o = iter.next();
+        if (o instanceof PGPSignatureList) {
+          final PGPSignatureList list = (PGPSignatureList) o;
+          if (list.size() > 0) {
+            return list.get(0);
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Split a commit object into the signed payload (the object without its
+   * {@code gpgsig} header) and the signature.
+   *
+   * @return The split object, or {@code null} if the commit is unsigned
+   */
+
+  static @Nullable SignedObject splitCommit(final byte[] data)
+  {
+    final ByteArrayOutputStream payload =
+      new ByteArrayOutputStream(data.length);
+    final ByteArrayOutputStream signature = new ByteArrayOutputStream(1024);
+    boolean found = false;
+    boolean in_signature = false;
+
+    /**
+     * Only the header lines (those before the first empty line) are
+     * inspected; the message is copied as it is.
+     */
+
+    int start = 0;
+    while (start < data.length) {
+      int end = start;
+      while (end < data.length && data[end] != '\n') {
+        end = end + 1;
+      }
+      final int next = Math.min(end + 1, data.length);
+
+      if (end == start) {
+        payload.write(data, start, data.length - start);
+        break;
+      }
+
+      if (VerifierSignatures.startsWith(data, start, "gpgsig ")) {
+        found = true;
+        in_signature = true;
+        signature.write(data, start + 7, next - (start + 7));
+      } else if (in_signature && data[start] == ' ') {
+        signature.write(data, start + 1, next - (start + 1));
+      } else {
+        in_signature = false;
+        payload.write(data, start, next - start);
+      }
+      start = next;
+    }
+
+    if (found) {
+      return new SignedObject(payload.toByteArray(), signature.toByteArray());
+    }
+    return null;
+  }
+
+  /**
+   * Find the time in seconds since the epoch recorded on the header line
+   * with the given prefix (such as {@code committer} or {@code tagger}),
+   * which ends with the time and the time zone offset.
+   *
+   * @return The time, or {@code null} if there is no such header line
+   */
+
+  static @Nullable Long getObjectTime(
+    final byte[] data,
+    final String prefix)
+  {
+    int start = 0;
+    while (start < data.length) {
+      int end = start;
+      while (end < data.length && data[end] != '\n') {
+        end = end + 1;
+      }
+      if (end == start) {
+        return null;
+      }
+
+      if (VerifierSignatures.startsWith(data, start, prefix)) {
+        final String line = new String(
+          data, start, end - start, StandardCharsets.UTF_8);
+        final String[] parts = line.split(" ");
+        if (parts.length < 3) {
+          return null;
+        }
+        try {
+          return Long.valueOf(parts[parts.length - 2]);
+        } catch (final NumberFormatException e) {
+          return null;
+        }
+      }
+      start = end + 1;
+    }
+    return null;
+  }
+
+  private static boolean startsWith(
+    final byte[] data,
+    final int offset,
+    final String prefix)
+  {
+    if (offset + prefix.length() > data.length) {
+      return false;
+    }
+    for (int index = 0; index < prefix.length(); ++index) {
+      if (data[offset + index] != prefix.charAt(index)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Split a tag object into the signed payload and the signature appended
+   * to the message.
+   *
+   * @return The split object, or {@code null} if the tag is unsigned
+   */
+
+  static @Nullable SignedObject splitTag(final byte[] data)
+  {
+    for (int index = 0; index < data.length; ++index) {
+      if (index > 0 && data[index - 1] != '\n') {
+        continue;
+      }
+
+      if (VerifierSignatures.startsWith(
+        data, index, "-----BEGIN PGP SIGNATURE-----")) {
+        final byte[] payload = new byte[index];
+        System.arraycopy(data, 0, payload, 0, index);
+        final byte[] signature = new byte[data.length - index];
+        System.arraycopy(data, index, signature, 0, signature.length);
+        return new SignedObject(payload, signature);
+      }
+    }
+    return null;
+  }
+
+  static final class SignedObject
+  {
+    private final byte[] payload;
+    private final byte[] signature;
+
+    SignedObject(
+      final byte[] in_payload,
+      final byte[] in_signature)
+    {
+      this.payload = NullCheck.notNull(in_payload);
+      this.signature = NullCheck.notNull(in_signature);
+    }
+
+    byte[] getPayload()
+    {
+      return this.payload;
+    }
+
+    byte[] getSignature()
+    {
+      return this.signature;
+    }
+  }
+}
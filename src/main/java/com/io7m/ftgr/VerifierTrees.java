@@ -0,0 +1,309 @@
+/*
+ * Copyright © 2015 <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ftgr;
+
+import com.io7m.jnull.NullCheck;
+import com.io7m.jnull.Nullable;
+import org.apache.commons.collections4.BidiMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A verifier that compares the tree ID of each Git commit against the tree
+ * ID computed from the manifest of the corresponding Fossil commit. The
+ * tree IDs of all Git commits are listed by a single Git process, so a
+ * commit that was converted correctly costs one comparison. Commits whose
+ * trees differ are compared file by file in the manner of
+ * {@link VerifierHashes}, to report which files differ.
+ *
+ * <p>Fossil writes symbolic links as regular files unless its {@code
+ * allow-symlinks} setting is enabled, and the {@code .gitignore} file
+ * written by the initial commit is absent once a Fossil commit has deleted
+ * a {@code .gitignore} of its own. A tree that only differs from the
+ * expected tree in these ways is accepted, and the difference is reported
+ * in the message of the result.</p>
+ */
+
+public final class VerifierTrees implements VerifierType
+{
+  private static final Logger LOG;
+
+  static {
+    LOG = LoggerFactory.getLogger(VerifierTrees.class);
+  }
+
+  private final BidiMap<GitCommitName, FossilCommitName> commits;
+  private final File                                     git_repos;
+  private final GitExecutableType                        git;
+  private final FossilDatabaseType                       database;
+  private final int                                      threads;
+  private final FossilGitTrees                           trees;
+  private final VerifierHashes                           hashes;
+
+  private VerifierTrees(
+    final BidiMap<GitCommitName, FossilCommitName> in_commits,
+    final File in_git_repos,
+    final GitExecutableType in_git,
+    final GitObjectDatabaseType in_git_objects,
+    final FossilDatabaseType in_database,
+    final int in_threads)
+  {
+    if (in_threads < 1) {
+      throw new IllegalArgumentException(
+        String.format(
+          "Thread count must be >= 1 (got %d)", Integer.valueOf(in_threads)));
+    }
+
+    this.commits = NullCheck.notNull(in_commits);
+    this.git_repos = NullCheck.notNull(in_git_repos);
+    this.git = NullCheck.notNull(in_git);
+    this.database = NullCheck.notNull(in_database);
+    this.threads = in_threads;
+    this.trees = FossilGitTrees.newTrees();
+    this.hashes = new VerifierHashes(
+      in_commits, in_git_objects, in_database, in_threads);
+  }
+
+  public static VerifierType newVerifier(
+    final BidiMap<GitCommitName, FossilCommitName> in_commits,
+    final File in_git_repos,
+    final GitExecutableType in_git,
+    final GitObjectDatabaseType in_git_objects,
+    final FossilDatabaseType in_database,
+    final int in_threads)
+  {
+    return new VerifierTrees(
+      in_commits,
+      in_git_repos,
+      in_git,
+      in_git_objects,
+      in_database,
+      in_threads);
+  }
+
+  @Override public void verify(final VerifierReceiverType receiver)
+    throws IOException
+  {
+    NullCheck.notNull(receiver);
+
+    final Map<GitCommitName, String> git_trees =
+      this.git.listCommitTrees(this.git_repos);
+    final List<GitCommitName> pending = new ArrayList<>(this.commits.keySet());
+    final AtomicInteger next = new AtomicInteger(0);
+
+    VerifierTrees.LOG.debug(
+      "verifying {} commits with {} workers",
+      Integer.valueOf(pending.size()),
+      Integer.valueOf(this.threads));
+
+    final ExecutorService exec = Executors.newFixedThreadPool(this.threads);
+    try {
+      final List<Future<Void>> futures = new ArrayList<>(this.threads);
+      for (int index = 0; index < this.threads; ++index) {
+        futures.add(
+          exec.submit(
+            new Callable<Void>()
+            {
+              @Override public Void call()
+                throws IOException
+              {
+                try (final FossilDatabaseTransactionType t =
+                       VerifierTrees.this.database.newTransaction()) {
+                  while (true) {
+                    final int current = next.getAndIncrement();
+                    if (current >= pending.size()) {
+                      return null;
+                    }
+
+                    final GitCommitName git_commit =
+                      NullCheck.notNull(pending.get(current));
+                    VerifierTrees.LOG.debug(
+                      "verifying git commit {}", git_commit);
+                    receiver.onResult(
+                      VerifierTrees.this.verifyGitCommit(
+                        t, git_commit, git_trees.get(git_commit)));
+                  }
+                } catch (final FossilDatabaseException e) {
+                  throw new IOException(e);
+                }
+              }
+            }));
+      }
+
+      Verifier.waitForWorkers(futures, next, pending.size());
+    } finally {
+      exec.shutdown();
+    }
+  }
+
+  private VerifierResult verifyGitCommit(
+    final FossilDatabaseTransactionType t,
+    final GitCommitName git_commit,
+    final @Nullable String git_tree)
+    throws IOException, FossilDatabaseException
+  {
+    final long time_start = System.nanoTime();
+    final FossilCommitName fossil_commit =
+      NullCheck.notNull(this.commits.get(git_commit));
+
+    final Map<String, FossilManifestFile> files =
+      VerifierHashes.getManifestFiles(t, fossil_commit);
+    final String expected =
+      VerifierFileHashing.hex(this.trees.getTreeID(t, files, true, true));
+
+    final List<Path> none = Collections.emptyList();
+    if (git_tree == null) {
+      return new VerifierResult(
+        fossil_commit,
+        git_commit,
+        VerifierCheck.CHECK_CONTENT,
+        "Commit does not exist in the Git repository",
+        false,
+        files.size(),
+        none,
+        none,
+        none,
+        System.nanoTime() - time_start);
+    }
+
+    if (expected.equals(git_tree)) {
+      return new VerifierResult(
+        fossil_commit,
+        git_commit,
+        VerifierCheck.CHECK_CONTENT,
+        "OK",
+        true,
+        files.size(),
+        none,
+        none,
+        none,
+        System.nanoTime() - time_start);
+    }
+
+    final String variant = this.getTreeVariant(t, files, git_tree);
+    if (variant != null) {
+      VerifierTrees.LOG.debug(
+        "git commit {}: tree matches with {}", git_commit, variant);
+      return new VerifierResult(
+        fossil_commit,
+        git_commit,
+        VerifierCheck.CHECK_CONTENT,
+        "OK (" + variant + ")",
+        true,
+        files.size(),
+        none,
+        none,
+        none,
+        System.nanoTime() - time_start);
+    }
+
+    /**
+     * The trees differ. Compare the files individually to find out why. If
+     * the files match, then the difference is in file modes or in the
+     * {@code .gitignore} file (neither of which are compared file by file).
+     */
+
+    VerifierTrees.LOG.debug(
+      "git commit {}: tree {} expected {}", git_commit, git_tree, expected);
+
+    final VerifierResult r = this.hashes.verifyGitCommit(t, git_commit);
+    final StringBuilder sb = new StringBuilder();
+    sb.append("Bad tree: ");
+    sb.append(git_tree);
+    sb.append(" expected ");
+    sb.append(expected);
+    sb.append("\n");
+    if (r.isOk()) {
+      sb.append("File contents match; file modes or .gitignore differ");
+    } else {
+      sb.append(r.getMessage());
+    }
+
+    return new VerifierResult(
+      fossil_commit,
+      git_commit,
+      VerifierCheck.CHECK_CONTENT,
+      sb.toString(),
+      false,
+      files.size(),
+      r.getMissingFiles(),
+      r.getExtraFiles(),
+      r.getChangedFiles(),
+      System.nanoTime() - time_start);
+  }
+
+  /**
+   * Compute the trees that replay can legitimately produce other than the
+   * expected tree, and return a description of the one that matches the
+   * given tree, if any.
+   */
+
+  private @Nullable String getTreeVariant(
+    final FossilDatabaseTransactionType t,
+    final Map<String, FossilManifestFile> files,
+    final String git_tree)
+    throws FossilDatabaseException
+  {
+    boolean has_links = false;
+    for (final FossilManifestFile f : files.values()) {
+      if (f.isSymlink()) {
+        has_links = true;
+        break;
+      }
+    }
+    final boolean has_ignore = files.containsKey(".gitignore");
+
+    if (has_links) {
+      final String tree =
+        VerifierFileHashing.hex(this.trees.getTreeID(t, files, false, true));
+      if (tree.equals(git_tree)) {
+        return "symbolic links stored as regular files";
+      }
+    }
+
+    if (has_ignore == false) {
+      final String tree =
+        VerifierFileHashing.hex(this.trees.getTreeID(t, files, true, false));
+      if (tree.equals(git_tree)) {
+        return "no .gitignore";
+      }
+    }
+
+    if (has_links && has_ignore == false) {
+      final String tree =
+        VerifierFileHashing.hex(this.trees.getTreeID(t, files, false, false));
+      if (tree.equals(git_tree)) {
+        return "symbolic links stored as regular files; no .gitignore";
+      }
+    }
+
+    return null;
+  }
+}
@@ -17,7 +17,6 @@
 package com.io7m.ftgr;
 
 import java.io.IOException;
-import java.util.List;
 
 /**
  * The type of repository verifiers.
@@ -25,6 +24,15 @@ import java.util.List;
 
 public interface VerifierType
 {
-  List<VerifierResult> verify()
+  /**
+   * Verify commits, passing each result to {@code receiver} as soon as it
+   * is available.
+   *
+   * @param receiver The receiver of results
+   *
+   * @throws IOException On I/O errors, or if the receiver raises an error
+   */
+
+  void verify(VerifierReceiverType receiver)
     throws IOException;
 }